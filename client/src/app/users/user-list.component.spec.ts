@@ -16,7 +16,7 @@ import { BrowserAnimationsModule } from '@angular/platform-browser/animations';
 import { RouterTestingModule } from '@angular/router/testing';
 import { Observable } from 'rxjs';
 import { MockUserService } from '../../testing/user.service.mock';
-import { User } from './user';
+import { User, UserPage } from './user';
 import { UserCardComponent } from './user-card.component';
 import { UserListComponent } from './user-list.component';
 import { UserService } from './user.service';
@@ -101,6 +101,44 @@ describe('UserListComponent', () => {
   it('has two users that are 37 years old', () => {
     expect(userList.serverFilteredUsers.filter((user: User) => user.age === 37).length).toBe(2);
   });
+
+  it('asks the server for one sorted page of users', () => {
+    const userService = TestBed.inject(UserService);
+    spyOn(userService, 'getUserPage').and.callThrough();
+    userList.userRole = 'editor';
+    userList.userOrder = 'age';
+    userList.getUsersFromServer();
+    expect(userService.getUserPage).toHaveBeenCalledWith({
+      role: 'editor',
+      age: undefined,
+      orderBy: 'age',
+      limit: userList.pageSize,
+      cursor: undefined,
+    });
+    // All three test users fit on one page, so there isn't another one.
+    expect(userList.nextCursor).toBeUndefined();
+  });
+
+  it('loads more users with the next cursor', () => {
+    userList.pageSize = 2;
+    userList.getUsersFromServer();
+    expect(userList.serverFilteredUsers.map(user => user.name)).toEqual(['Chris', 'Pat']);
+    expect(userList.nextCursor).toBe('2');
+
+    userList.loadMoreUsers();
+    expect(userList.serverFilteredUsers.map(user => user.name)).toEqual(['Chris', 'Pat', 'Jamie']);
+    expect(userList.filteredUsers.length).toBe(3);
+    expect(userList.nextCursor).toBeUndefined();
+  });
+
+  it('starts again from the first page when the filters change', () => {
+    userList.pageSize = 2;
+    userList.getUsersFromServer();
+    userList.loadMoreUsers();
+    userList.getUsersFromServer();
+    expect(userList.serverFilteredUsers.length).toBe(2);
+    expect(userList.nextCursor).toBe('2');
+  });
 });
 
 /*
@@ -119,7 +157,7 @@ describe('Misbehaving User List', () => {
 
   let userServiceStub: {
     getUsers: () => Observable<User[]>;
-    getUsersFiltered: () => Observable<User[]>;
+    getUserPage: () => Observable<UserPage>;
   };
 
   beforeEach(() => {
@@ -129,9 +167,9 @@ describe('Misbehaving User List', () => {
         new Observable(observer => {
           observer.error('getUsers() Observer generates an error');
         }),
-      getUsersFiltered: () =>
+      getUserPage: () =>
         new Observable(observer => {
-          observer.error('getUsersFiltered() Observer generates an error');
+          observer.error('getUserPage() Observer generates an error');
         }),
     };
 
@@ -154,7 +192,7 @@ describe('Misbehaving User List', () => {
   }));
 
   it('fails to load users if we do not set up a UserListService', () => {
-    // Since calling both getUsers() and getUsersFiltered() return
+    // Since calling both getUsers() and getUserPage() return
     // Observables that then throw exceptions, we don't expect the component
     // to be able to get a list of users, and serverFilteredUsers should
     // be undefined.
@@ -1,6 +1,6 @@
 import { Component, OnDestroy, OnInit } from '@angular/core';
 import { MatSnackBar } from '@angular/material/snack-bar';
-import { User, UserRole } from './user';
+import { User, UserOrder, UserRole } from './user';
 import { UserService } from './user.service';
 import { Subject, takeUntil } from 'rxjs';
 import { RouterLink } from '@angular/router';
@@ -21,6 +21,7 @@ import { FormsModule } from '@angular/forms';
 import { MatInput } from '@angular/material/input';
 import { MatFormField, MatLabel, MatHint, MatError } from '@angular/material/form-field';
 import { MatCard, MatCardTitle, MatCardContent } from '@angular/material/card';
+import { MatButton } from '@angular/material/button';
 
 /**
  * A component that displays a list of users, either as a grid
@@ -31,6 +32,11 @@ import { MatCard, MatCardTitle, MatCardContent } from '@angular/material/card';
  * role and/or age. These choices are fairly arbitrary here,
  * but in "real" projects you want to think about where it
  * makes the most sense to do the filtering.
+ *
+ * The server also sorts the users and sends them a page at a
+ * time, so we don't download every user up front; the "Load more"
+ * button gets the next page. (Note that this means the local
+ * filtering only looks at the pages loaded so far.)
  */
 @Component({
   selector: 'app-user-list-component',
@@ -60,6 +66,7 @@ import { MatCard, MatCardTitle, MatCardContent } from '@angular/material/card';
     MatListItemTitle,
     MatListItemLine,
     MatError,
+    MatButton,
   ],
 })
 export class UserListComponent implements OnInit, OnDestroy {
@@ -73,6 +80,13 @@ export class UserListComponent implements OnInit, OnDestroy {
   public userCompany: string;
   public viewType: 'card' | 'list' = 'card';
 
+  // How the server sorts the users, and how many it sends at once.
+  public userOrder: UserOrder = 'name';
+  public pageSize = 20;
+  // The cursor for the next page of users, or `undefined` if there
+  // aren't any more.
+  public nextCursor?: string;
+
   errMsg = '';
   private ngUnsubscribe = new Subject<void>();
 
@@ -91,26 +105,56 @@ export class UserListComponent implements OnInit, OnDestroy {
   }
 
   /**
-   * Get the users from the server, filtered by the role and age specified
-   * in the GUI.
+   * Get the first page of users from the server, filtered by the role and
+   * age specified in the GUI, and sorted by the chosen order.
    */
   getUsersFromServer() {
-    // A user-list-component is paying attention to userService.getUsers()
-    // (which is an Observable<User[]>).
+    this.getPageFromServer(undefined);
+  }
+
+  /**
+   * Get the next page of users from the server, and add them to the ones
+   * we already have.
+   */
+  loadMoreUsers() {
+    if (this.nextCursor) {
+      this.getPageFromServer(this.nextCursor);
+    }
+  }
+
+  /**
+   * Get a page of users from the server.
+   *
+   * @param cursor the cursor from the previous page, or `undefined` to
+   *  start again from the first page
+   */
+  private getPageFromServer(cursor: string | undefined) {
+    // A user-list-component is paying attention to userService.getUserPage()
+    // (which is an Observable<UserPage>).
     // (For more on Observable, see: https://reactivex.io/documentation/observable.html)
     this.userService
-      .getUsers({
+      .getUserPage({
         // Filter the users by the role and age specified in the GUI
         role: this.userRole,
         age: this.userAge,
+        orderBy: this.userOrder,
+        limit: this.pageSize,
+        cursor,
       })
       .pipe(takeUntil(this.ngUnsubscribe))
       .subscribe({
-        // Next time we see a change in the Observable<User[]>,
-        // refer to that User[] as returnedUsers here and do the steps in the {}
-        next: returnedUsers => {
-          // First, update the array of serverFilteredUsers to be the User[] in the observable
-          this.serverFilteredUsers = returnedUsers;
+        // Next time we see a change in the Observable<UserPage>,
+        // refer to that page as returnedPage here and do the steps in the {}
+        next: returnedPage => {
+          // If the filters changed while we were waiting for a later page,
+          // this page is from the old list, so we ignore it.
+          if (cursor && cursor !== this.nextCursor) {
+            return;
+          }
+          // First, update the array of serverFilteredUsers: the first page
+          // replaces it, and later pages add to it
+          this.serverFilteredUsers = cursor ? this.serverFilteredUsers.concat(returnedPage.users) : returnedPage.users;
+          this.nextCursor = returnedPage.nextCursor;
           // Then update the filters for our client-side filtering as described in this method
           this.updateFilter();
         },
@@ -161,6 +161,34 @@ describe('UserService', () => {
     });
   });
 
+  describe('getUserPage()', () => {
+    it('sends the paging parameters and returns the users and next cursor', () => {
+      userService
+        .getUserPage({ orderBy: 'name', limit: 2, cursor: 'abc' })
+        .subscribe(page => {
+          expect(page.users).toBe(testUsers);
+          expect(page.nextCursor).toEqual('def');
+        });
+
+      const req = httpTestingController.expectOne(request => request.url.startsWith(userService.userUrl));
+      expect(req.request.method).toEqual('GET');
+      expect(req.request.params.get('orderBy')).toEqual('name');
+      expect(req.request.params.get('limit')).toEqual('2');
+      expect(req.request.params.get('cursor')).toEqual('abc');
+
+      req.flush(testUsers, { headers: { [userService.nextCursorHeader]: 'def' } });
+    });
+
+    it('has no next cursor on the last page', () => {
+      userService
+        .getUserPage({ orderBy: 'age', limit: 5 })
+        .subscribe(page => expect(page.nextCursor).toBeUndefined());
+
+      const req = httpTestingController.expectOne(request => request.url.startsWith(userService.userUrl));
+      req.flush(testUsers);
+    });
+  });
+
   describe('getUserByID()', () => {
     it('calls api/users/id with the correct ID', () => {
       // We're just picking a User "at random" from our little
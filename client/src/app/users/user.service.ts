@@ -1,8 +1,22 @@
 import { HttpClient, HttpParams } from '@angular/common/http';
 import { Injectable } from '@angular/core';
 import { Observable } from 'rxjs';
+import { map } from 'rxjs/operators';
 import { environment } from '../../environments/environment';
-import { User, UserRole } from './user';
+import { User, UserOrder, UserPage, UserRole } from './user';
+
+/**
+ * The filters (and sorting/paging options) the server understands
+ * for the list of users.
+ */
+export interface UserFilters {
+  role?: UserRole;
+  age?: number;
+  company?: string;
+  orderBy?: UserOrder;
+  limit?: number;
+  cursor?: string;
+}
 
 /**
  * Service that provides the interface for getting information
@@ -12,6 +26,8 @@ import { User, UserRole } from './user';
 export class UserService {
   // The URL for the users part of the server API.
   readonly userUrl: string = environment.apiUrl + 'users';
+  // The response header where the server puts the cursor for the next page.
+  readonly nextCursorHeader: string = 'X-Next-Cursor';
 
   // The private `HttpClient` is *injected* into the service
   // by the Angular framework. This allows the system to create
@@ -32,14 +48,49 @@ export class UserService {
    * to provide some additional examples.
    *
    * @param filters a map that allows us to specify a target role, age,
-   *  or company to filter by, or any combination of those
+   *  or company to filter by, or any combination of those, and optionally
+   *  how the server should sort and limit the results
    * @returns an `Observable` of an array of `Users`. Wrapping the array
    *  in an `Observable` means that other bits of of code can `subscribe` to
    *  the result (the `Observable`) and get the results that come back
    *  from the server after a possibly substantial delay (because we're
    *  contacting a remote server over the Internet).
    */
-  getUsers(filters?: { role?: UserRole; age?: number; company?: string }): Observable<User[]> {
+  getUsers(filters?: UserFilters): Observable<User[]> {
+    // Send the HTTP GET request with the given URL and parameters.
+    // That will return the desired `Observable<User[]>`.
+    return this.httpClient.get<User[]>(this.userUrl, {
+      params: this.buildParams(filters),
+    });
+  }
+
+  /**
+   * Get one page of users from the server, sorted by `filters.orderBy`.
+   *
+   * The server sorts and pages the users, so this only downloads
+   * `filters.limit` users at a time. Pass the returned `nextCursor`
+   * back in as `filters.cursor` to get the following page; there are
+   * no more pages when `nextCursor` is missing.
+   *
+   * @param filters the same filters as `getUsers()`, plus the order
+   *  and size of the page, and the cursor from the previous page (if any)
+   * @returns an `Observable` of the page of users
+   */
+  getUserPage(filters: UserFilters & { orderBy: UserOrder; limit: number }): Observable<UserPage> {
+    return this.httpClient
+      .get<User[]>(this.userUrl, {
+        params: this.buildParams(filters),
+        observe: 'response',
+      })
+      .pipe(
+        map(response => ({
+          users: response.body ?? [],
+          nextCursor: response.headers.get(this.nextCursorHeader) ?? undefined,
+        }))
+      );
+  }
+
+  private buildParams(filters?: UserFilters): HttpParams {
     // `HttpParams` is essentially just a map used to hold key-value
     // pairs that are then encoded as "?key1=value1&key2=value2&…" in
     // the URL when we make the call to `.get()` below.
@@ -54,12 +105,17 @@ export class UserService {
       if (filters.company) {
         httpParams = httpParams.set('company', filters.company);
       }
+      if (filters.orderBy) {
+        httpParams = httpParams.set('orderBy', filters.orderBy);
+      }
+      if (filters.limit) {
+        httpParams = httpParams.set('limit', filters.limit.toString());
+      }
+      if (filters.cursor) {
+        httpParams = httpParams.set('cursor', filters.cursor);
+      }
     }
-    // Send the HTTP GET request with the given URL and parameters.
-    // That will return the desired `Observable<User[]>`.
-    return this.httpClient.get<User[]>(this.userUrl, {
-      params: httpParams,
-    });
+    return httpParams;
   }
 
   /**
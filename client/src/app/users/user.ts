@@ -9,3 +9,14 @@ export interface User {
 }
 
 export type UserRole = 'admin' | 'editor' | 'viewer';
+
+export type UserOrder = 'name' | 'age' | 'company' | 'role';
+
+/**
+ * One page of users from the server, along with the cursor to use
+ * to get the next page (if there might be one).
+ */
+export interface UserPage {
+  users: User[];
+  nextCursor?: string;
+}
@@ -1,7 +1,7 @@
 import { Injectable } from '@angular/core';
 import { Observable, of } from 'rxjs';
-import { User, UserRole } from '../app/users/user';
-import { UserService } from '../app/users/user.service';
+import { User, UserPage, UserRole } from '../app/users/user';
+import { UserFilters, UserService } from '../app/users/user.service';
 
 /**
  * A "mock" version of the `UserService` that can be used to test components
@@ -57,6 +57,18 @@ export class MockUserService extends UserService {
     return of(MockUserService.testUsers);
   }
 
+  getUserPage(filters: UserFilters & { limit: number }): Observable<UserPage> {
+    // As with `getUsers()`, we ignore the filters (and the order), but we
+    // do split the test users into pages. The cursor is just the position
+    // of the first user on the next page.
+    const start = filters.cursor ? Number(filters.cursor) : 0;
+    const end = start + filters.limit;
+    return of({
+      users: MockUserService.testUsers.slice(start, end),
+      nextCursor: end < MockUserService.testUsers.length ? end.toString() : undefined,
+    });
+  }
+
   getUserById(id: string): Observable<User> {
     // If the specified ID is for one of the test users,
     // return that user, otherwise return `null` so
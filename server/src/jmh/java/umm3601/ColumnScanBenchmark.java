@@ -0,0 +1,106 @@
+package umm3601;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoRepositoryBenchmark;
+import umm3601.user.User;
+import umm3601.user.UserDatabaseBenchmark;
+
+/**
+ * Compares the `ColumnScan`s with the `Arrays.stream().filter()` loops the
+ * lab's `filterUsersByAge()` and `filterTodosByStatus()` use, on one thread.
+ * Each benchmark reports rows per second (each invocation counts as
+ * `ROWS` operations), so the results are directly "rows/sec per core".
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=ColumnScanBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColumnScanBenchmark {
+
+  private static final int ROWS = 100_000;
+
+  @Param({ "scalar", "vector" })
+  public String scan;
+
+  private ColumnScan columnScan;
+  private User[] users;
+  private Todo[] todos;
+  private int[] ages;
+  private byte[] statuses;
+  private int[] categoryCodes;
+
+  /**
+   * Build the same synthetic users and todos as the database benchmarks,
+   * and their columns.
+   */
+  @Setup
+  public void setUp() {
+    columnScan = "vector".equals(scan) ? new VectorColumnScan() : new ScalarColumnScan();
+    users = UserDatabaseBenchmark.generateUsers(ROWS, new Random(3601));
+    todos = TodoRepositoryBenchmark.generateTodos(ROWS, new Random(3601));
+    ages = new int[ROWS];
+    statuses = new byte[ROWS];
+    categoryCodes = new int[ROWS];
+    Map<String, Integer> codeByCategory = new HashMap<>();
+    for (int row = 0; row < ROWS; row++) {
+      ages[row] = users[row].age;
+      statuses[row] = (byte) (todos[row].status ? 1 : 0);
+      categoryCodes[row] = codeByCategory.computeIfAbsent(todos[row].category, k -> codeByCategory.size());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public User[] streamFilterByAge() {
+    return Arrays.stream(users).filter(user -> user.age == 25).toArray(User[]::new);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public BitSet scanAgeEqual() {
+    return columnScan.between(ages, 25, 25);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public BitSet scanAgeRange() {
+    return columnScan.between(ages, 20, 40);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public Todo[] streamFilterByStatus() {
+    return Arrays.stream(todos).filter(todo -> todo.status).toArray(Todo[]::new);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public BitSet scanStatus() {
+    return columnScan.equal(statuses, (byte) 1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public BitSet scanDictionaryCodes() {
+    return columnScan.anyOf(categoryCodes, new int[] { 1, 2 });
+  }
+}
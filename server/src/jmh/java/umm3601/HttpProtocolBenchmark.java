@@ -0,0 +1,133 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import io.javalin.Javalin;
+import umm3601.todo.TodoController;
+import umm3601.user.User;
+import umm3601.user.UserController;
+import umm3601.user.UserDatabase;
+
+/**
+ * A load test of the dashboard's access pattern: each of 4 clients fires off
+ * a "burst" of requests at once (lookups of single users, and pages of
+ * todos) and waits for them all, like a page load does.
+ * <p>
+ * With `http1`, each client's concurrent requests go over separate
+ * HTTP/1.1 connections (the JDK client opens one per request in flight, and
+ * keeps them alive for the next burst). With `h2c`, they're multiplexed as
+ * streams over one HTTP/2 connection per client. The average time per
+ * burst is the latency a page load sees; run with `-bm sample` for its
+ * percentiles, or `-bm thrpt` for bursts per second.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=HttpProtocolBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class HttpProtocolBenchmark {
+
+  @Param({ "1", "32" })
+  public int burst;
+
+  private Javalin server;
+  private String url;
+  private String[] userIds;
+
+  /**
+   * One dashboard, with its own client (and so its own connections).
+   */
+  @State(Scope.Thread)
+  public static class Dashboard {
+    @Param({ "http1", "h2c" })
+    public String protocol;
+
+    private HttpClient client;
+
+    /**
+     * Connect, and make one request so the connection (and, for h2c, the
+     * upgrade to HTTP/2) is set up before we start timing.
+     *
+     * @param benchmark the server to connect to
+     */
+    @Setup
+    public void setUp(HttpProtocolBenchmark benchmark) {
+      client = HttpClient.newBuilder()
+          .version("h2c".equals(protocol) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+          .build();
+      benchmark.get(client, "/api/todos?limit=1").join();
+    }
+  }
+
+  /**
+   * Start a server with the bundled users and todos, HTTP/2 turned on, and
+   * no rate limits (or the bursts would soon be turned away).
+   *
+   * @throws IOException if the data can't be loaded
+   */
+  @Setup
+  public void setUp() throws IOException {
+    System.setProperty(HttpSettings.HTTP2_PROPERTY, "true");
+    Controller[] controllers = {
+        UserController.buildUserController(Main.USER_DATA_FILE),
+        TodoController.buildTodoController(Main.TODO_DATA_FILE)
+    };
+    server = new Server(controllers, new RateLimiter(Map.of())).startServer(0);
+    url = "http://localhost:" + server.port();
+    User[] users = new UserDatabase(Main.USER_DATA_FILE).listUserPage(Map.of()).users();
+    userIds = new String[users.length];
+    for (int i = 0; i < users.length; i++) {
+      userIds[i] = users[i]._id;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  public int dashboardBurst(Dashboard dashboard) {
+    CompletableFuture<?>[] responses = new CompletableFuture<?>[burst];
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < burst; i++) {
+      responses[i] = i % 4 == 3
+          ? get(dashboard.client, "/api/todos?limit=20&status=" + (random.nextBoolean() ? "complete" : "incomplete"))
+          : get(dashboard.client, "/api/users/" + userIds[random.nextInt(userIds.length)]);
+    }
+    CompletableFuture.allOf(responses).join();
+    return responses.length;
+  }
+
+  private CompletableFuture<String> get(HttpClient client, String pathAndQuery) {
+    return client.sendAsync(HttpRequest.newBuilder(URI.create(url + pathAndQuery)).build(),
+        HttpResponse.BodyHandlers.ofString())
+        .thenApply(response -> {
+          if (response.statusCode() != 200) {
+            throw new IllegalStateException(pathAndQuery + " failed with " + response.statusCode());
+          }
+          return response.body();
+        });
+  }
+}
@@ -0,0 +1,100 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.json.JavalinJackson;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoRepositoryBenchmark;
+import umm3601.user.User;
+import umm3601.user.UserDatabaseBenchmark;
+
+/**
+ * Compares serializing a response of todos or users with:
+ * <ul>
+ * <li>Javalin's own Jackson mapper, the way `ctx.json()` used to (including
+ * its pipe to another thread);</li>
+ * <li>a plain Jackson `ObjectMapper`, i.e., reflection without the pipe;</li>
+ * <li>the server's `FastJsonMapper`.</li>
+ * </ul>
+ * Run with `./gradlew jmh -PjmhIncludes=JsonMapperBenchmark`, and add
+ * `-prof gc` (e.g., `jmh { profilers = ['gc'] }` in `build.gradle`) to see
+ * the bytes allocated per response (`gc.alloc.rate.norm`).
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonMapperBenchmark {
+
+  @Param({ "20", "1000" })
+  public int count;
+
+  private Todo[] todos;
+  private User[] users;
+  private JavalinJackson javalinJackson;
+  private ObjectMapper objectMapper;
+  private FastJsonMapper fastMapper;
+
+  /**
+   * Build the synthetic todos and users, and the mappers.
+   */
+  @Setup
+  public void setUp() {
+    todos = TodoRepositoryBenchmark.generateTodos(count, new Random(3601));
+    users = UserDatabaseBenchmark.generateUsers(count, new Random(3601));
+    javalinJackson = new JavalinJackson();
+    objectMapper = new ObjectMapper();
+    fastMapper = Server.jsonMapper();
+    if (!Arrays.equals(fastMapper.toJsonBytes(users), jacksonUsers())) {
+      throw new IllegalStateException("FastJsonMapper and Jackson disagree");
+    }
+  }
+
+  @Benchmark
+  public byte[] javalinTodos() throws IOException {
+    return javalinJackson.toJsonStream(todos, Todo[].class).readAllBytes();
+  }
+
+  @Benchmark
+  public byte[] jacksonTodos() throws IOException {
+    return objectMapper.writeValueAsBytes(todos);
+  }
+
+  @Benchmark
+  public byte[] fastTodos() throws IOException {
+    return fastMapper.toJsonStream(todos, Todo[].class).readAllBytes();
+  }
+
+  @Benchmark
+  public byte[] javalinUsers() throws IOException {
+    return javalinJackson.toJsonStream(users, User[].class).readAllBytes();
+  }
+
+  @Benchmark
+  public byte[] jacksonUsers() {
+    try {
+      return objectMapper.writeValueAsBytes(users);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Benchmark
+  public byte[] fastUsers() throws IOException {
+    return fastMapper.toJsonStream(users, User[].class).readAllBytes();
+  }
+}
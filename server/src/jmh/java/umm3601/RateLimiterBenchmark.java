@@ -0,0 +1,76 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures how long `RateLimiter` adds to each request, with 8 threads
+ * either all hammering one client's bucket (the worst case for contention,
+ * since every compare-and-set is on the same `long`) or each using its own.
+ * The limits are set high enough that no request is ever turned away, so
+ * we're measuring just the bookkeeping.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=RateLimiterBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(8)
+public class RateLimiterBenchmark {
+
+  private static final RateLimiter.Limit UNLIMITED = new RateLimiter.Limit(1e12, Integer.MAX_VALUE);
+
+  private RateLimiter limiter;
+
+  /**
+   * Each benchmark thread's own client.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    private String key;
+
+    /**
+     * Give this thread a client of its own.
+     */
+    @Setup
+    public void setUp() {
+      key = "/api/todos 10.0.0." + NEXT.incrementAndGet();
+    }
+  }
+
+  /**
+   * Build a rate limiter, and a few thousand idle buckets so the map isn't
+   * unrealistically small.
+   */
+  @Setup
+  public void setUp() {
+    limiter = new RateLimiter(Map.of("/api/todos", UNLIMITED));
+    long now = System.nanoTime();
+    for (int i = 0; i < 5000; i++) {
+      limiter.tryAcquire("/api/todos 192.168." + (i / 256) + "." + (i % 256), UNLIMITED, now);
+    }
+  }
+
+  @Benchmark
+  public long sharedClient() {
+    return limiter.tryAcquire("/api/todos 10.0.0.0", UNLIMITED, System.nanoTime());
+  }
+
+  @Benchmark
+  public long separateClients(Client client) {
+    return limiter.tryAcquire(client.key, UNLIMITED, System.nanoTime());
+  }
+}
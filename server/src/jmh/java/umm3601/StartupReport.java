@@ -0,0 +1,140 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how long the server takes from launch to answering its first
+ * request, and how much memory (resident set size) it's using then, with:
+ * <ul>
+ * <li>no class data sharing at all (`-Xshare:off`);</li>
+ * <li>just the JDK's own CDS archive, which covers some of the JDK's
+ * classes, and is what you get by default;</li>
+ * <li>the server's AppCDS archive, from `./gradlew cdsArchive` (see
+ * `TrainingRun`).</li>
+ * </ul>
+ * This isn't a JMH benchmark (JMH can't time a JVM starting), but it lives
+ * with them. Run it with `./gradlew startupReport`, which builds the
+ * archive first and passes in the `java` command, classpath and archive.
+ * Each launch is a new JVM, so the OS's file cache is warm after the first
+ * one; we report the median of several launches. RSS comes from
+ * `/proc/{pid}/status`, so is only reported on Linux.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class StartupReport {
+
+  private static final int LAUNCHES = 5;
+  private static final Duration GIVE_UP_AFTER = Duration.ofSeconds(60);
+
+  private StartupReport() {
+  }
+
+  /**
+   * @param args the `java` command, the server's classpath (as JARs), and
+   *             the AppCDS archive
+   * @throws Exception if the server can't be launched, or doesn't answer
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      throw new IllegalArgumentException("Usage: StartupReport <java> <classpath> <archive>");
+    }
+    String java = args[0];
+    String classpath = args[1];
+    String archive = args[2];
+
+    System.out.printf("%-14s %28s %16s%n", "", "time to first request (ms)", "RSS (MiB)");
+    report("no CDS", java, classpath, "-Xshare:off");
+    report("JDK CDS", java, classpath, "-Xshare:auto");
+    report("AppCDS", java, classpath, "-XX:SharedArchiveFile=" + archive);
+  }
+
+  private static void report(String name, String java, String classpath, String shareOption) throws Exception {
+    long[] millis = new long[LAUNCHES];
+    long[] rssKib = new long[LAUNCHES];
+    for (int i = 0; i < LAUNCHES; i++) {
+      Launch launch = launch(java, classpath, shareOption);
+      millis[i] = launch.millis();
+      rssKib[i] = launch.rssKib();
+    }
+    Arrays.sort(millis);
+    Arrays.sort(rssKib);
+    long medianRss = rssKib[LAUNCHES / 2];
+    System.out.printf("%-14s %28d %16s%n", name, millis[LAUNCHES / 2],
+        medianRss < 0 ? "n/a" : String.format("%.1f", medianRss / 1024.0));
+  }
+
+  private record Launch(long millis, long rssKib) {
+  }
+
+  private static Launch launch(String java, String classpath, String shareOption) throws Exception {
+    int port = freePort();
+    List<String> command = List.of(java, shareOption,
+        "--add-modules", "jdk.incubator.vector",
+        "-D" + Server.PORT_PROPERTY + "=" + port,
+        "-cp", classpath, Main.class.getName());
+    HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/todos?limit=1"))
+        .build();
+
+    long start = System.nanoTime();
+    Process server = new ProcessBuilder(command)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    try {
+      while (true) {
+        if (!server.isAlive()) {
+          throw new IllegalStateException("The server exited with " + server.exitValue() + ": " + command);
+        }
+        if (System.nanoTime() - start > GIVE_UP_AFTER.toNanos()) {
+          throw new IllegalStateException("The server didn't answer within " + GIVE_UP_AFTER);
+        }
+        try {
+          if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+            break;
+          }
+        } catch (ConnectException e) {
+          // Not listening yet.
+        }
+        Thread.sleep(5);
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      return new Launch(millis, residentKib(server.pid()));
+    } finally {
+      server.destroy();
+      server.waitFor();
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  // The `VmRSS:` line of `/proc/{pid}/status`, e.g., `VmRSS:  123456 kB`,
+  // or -1 if there's no such file (i.e., we're not on Linux).
+  private static long residentKib(long pid) throws IOException {
+    Path status = Path.of("/proc", Long.toString(pid), "status");
+    if (!Files.exists(status)) {
+      return -1;
+    }
+    for (String line : Files.readAllLines(status)) {
+      if (line.startsWith("VmRSS:")) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,77 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+
+/**
+ * Compares the `WireFormat`s on the bundled todos, copied `scale` times:
+ * how long it takes to encode (and decode) them, and, printed when each
+ * trial starts, how big the encoded payload is. JSON is encoded the way
+ * the server does it (with `FastJsonMapper`), and the binary formats with
+ * their Jackson mappers.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=WireFormatBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark {
+
+  @Param({ "json", "cbor", "smile" })
+  public String format;
+
+  @Param({ "1", "100" })
+  public int scale;
+
+  private WireFormat wireFormat;
+  private FastJsonMapper jsonMapper;
+  private Todo[] todos;
+  private byte[] encoded;
+
+  /**
+   * Load the bundled todos, scale them up, and encode them once to report
+   * the payload size and to have something to decode.
+   *
+   * @throws IOException if the todos can't be loaded
+   */
+  @Setup
+  public void setUp() throws IOException {
+    wireFormat = WireFormat.valueOf(format.toUpperCase(Locale.ROOT));
+    jsonMapper = Server.jsonMapper();
+    Todo[] bundled = new TodoDatabase(Main.TODO_DATA_FILE).listTodos(Map.of());
+    todos = new Todo[bundled.length * scale];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = bundled[i % bundled.length];
+    }
+    encoded = encodeTodos();
+    System.out.printf("%n%s, %d todos: %d bytes (%.1f bytes per todo)%n", format, todos.length, encoded.length,
+        (double) encoded.length / todos.length);
+  }
+
+  @Benchmark
+  public byte[] encodeTodos() throws IOException {
+    return wireFormat == WireFormat.JSON
+        ? jsonMapper.toJsonBytes(todos)
+        : wireFormat.mapper().writeValueAsBytes(todos);
+  }
+
+  @Benchmark
+  public Todo[] decodeTodos() throws IOException {
+    return wireFormat.mapper().readValue(encoded, Todo[].class);
+  }
+}
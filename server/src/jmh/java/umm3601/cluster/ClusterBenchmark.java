@@ -0,0 +1,139 @@
+package umm3601.cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoRepositoryBenchmark;
+import umm3601.user.User;
+import umm3601.user.UserDatabaseBenchmark;
+
+/**
+ * Measures the throughput of a `LocalCluster` with 1 to 8 nodes, with 16
+ * clients sending requests through the coordinator: lookups of one todo
+ * (which go to one node), and searches and sorted pages (which go to every
+ * node and are merged).
+ * <p>
+ * All the nodes run in this JVM, so they share its cores. More nodes means
+ * each one scans less data, so searches should get faster until the cores
+ * run out; beyond that, the extra HTTP hops only add cost. To see the
+ * scaling a real cluster gets, run each node in its own JVM on its own
+ * machine (see `LocalCluster`).
+ * <p>
+ * When the servers fall behind, their `AdmissionController`s turn requests
+ * away with `503 Service Unavailable` rather than letting them queue up,
+ * and the coordinator answers `502 Bad Gateway` if a node doesn't answer
+ * it in time. That's the servers doing their job, not the benchmark
+ * failing, so those responses are counted as `shed` and `failed` (and the
+ * answered ones as `served`) in the results, next to the overall
+ * throughput.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=ClusterBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class ClusterBenchmark {
+
+  @Param({ "1", "2", "4", "8" })
+  public int nodes;
+
+  @Param({ "200000" })
+  public int todoCount;
+
+  private LocalCluster cluster;
+  private HttpClient client;
+  private String[] todoIds;
+
+  @Setup
+  public void setUp() {
+    Todo[] todos = TodoRepositoryBenchmark.generateTodos(todoCount, new Random(3601));
+    User[] users = UserDatabaseBenchmark.generateUsers(todoCount / 10, new Random(3601));
+    todoIds = new String[1024];
+    for (int i = 0; i < todoIds.length; i++) {
+      todoIds[i] = todos[i * (todos.length / todoIds.length)]._id;
+    }
+    cluster = new LocalCluster(nodes, todos, users);
+    client = HttpClient.newHttpClient();
+  }
+
+  @TearDown
+  public void tearDown() {
+    cluster.close();
+  }
+
+  /**
+   * How many of each client's requests were answered, turned away by
+   * admission control, or failed because a node didn't answer, per second.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Responses {
+    public long served;
+    public long shed;
+    public long failed;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      served = 0;
+      shed = 0;
+      failed = 0;
+    }
+  }
+
+  @Benchmark
+  public String getTodoById(Responses responses) throws Exception {
+    return get("/api/todos/" + todoIds[ThreadLocalRandom.current().nextInt(todoIds.length)], responses);
+  }
+
+  @Benchmark
+  public String searchTodoBodies(Responses responses) throws Exception {
+    return get("/api/todos?contains=tempor%20magna&limit=50", responses);
+  }
+
+  @Benchmark
+  public String sortedTodoPage(Responses responses) throws Exception {
+    return get("/api/todos?status=complete&orderBy=body&limit=20", responses);
+  }
+
+  @Benchmark
+  public String sortedUserPage(Responses responses) throws Exception {
+    return get("/api/users?orderBy=age&offset=100&limit=20", responses);
+  }
+
+  private String get(String pathAndQuery, Responses responses) throws Exception {
+    HttpResponse<String> response = client.send(
+        HttpRequest.newBuilder(URI.create(cluster.url() + pathAndQuery)).build(),
+        HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() == 503) {
+      responses.shed++;
+    } else if (response.statusCode() == 502) {
+      responses.failed++;
+    } else if (response.statusCode() == 200) {
+      responses.served++;
+    } else {
+      throw new IllegalStateException(pathAndQuery + " failed with " + response.statusCode());
+    }
+    return response.body();
+  }
+}
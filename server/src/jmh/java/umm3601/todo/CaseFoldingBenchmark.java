@@ -0,0 +1,150 @@
+package umm3601.todo;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.CaseFolding;
+
+/**
+ * Compares the ways of matching owners, categories and bodies ignoring
+ * case, per todo looked at:
+ * <ul>
+ * <li>`lowerCase...`: the lab's original `toLowerCase()` on both sides,
+ * for every todo;</li>
+ * <li>`folded...`: `CaseFolding`, with the target folded once and each
+ * todo's value folded a character at a time as it's compared;</li>
+ * <li>`prefoldedBodyContains`: a plain `contains()` on bodies folded when
+ * they were loaded, as `TodoIndex` does.</li>
+ * </ul>
+ * Each benchmark looks at every one of `ROWS` todos, so the times (and,
+ * with the GC profiler, the bytes allocated) are per todo. Run with
+ * `./gradlew jmh -PjmhIncludes=CaseFoldingBenchmark -PjmhProfilers=gc`;
+ * `gc.alloc.rate.norm` should be (nearly) 0 for all but the `lowerCase`
+ * ones.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaseFoldingBenchmark {
+
+  private static final int ROWS = 10_000;
+
+  private static final String OWNER = "OWNER42";
+  private static final String CATEGORY = "Homework";
+  private static final String CONTAINS = "Tempor";
+
+  private Todo[] todos;
+  private String[] foldedBodies;
+  private String foldedOwner;
+  private String foldedCategory;
+  private String foldedContains;
+
+  /**
+   * Build the same synthetic todos as `TodoRepositoryBenchmark`.
+   */
+  @Setup
+  public void setUp() {
+    todos = TodoRepositoryBenchmark.generateTodos(ROWS, new Random(3601));
+    foldedBodies = new String[ROWS];
+    for (int row = 0; row < ROWS; row++) {
+      foldedBodies[row] = CaseFolding.fold(todos[row].body);
+    }
+    foldedOwner = CaseFolding.fold(OWNER);
+    foldedCategory = CaseFolding.fold(CATEGORY);
+    foldedContains = CaseFolding.fold(CONTAINS);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int lowerCaseOwnerEquals() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (todo.owner.toLowerCase().equals(OWNER.toLowerCase())) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int foldedOwnerEquals() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (CaseFolding.equalsFolded(todo.owner, foldedOwner)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int lowerCaseCategoryEquals() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (todo.category.toLowerCase().equals(CATEGORY.toLowerCase())) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int foldedCategoryEquals() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (CaseFolding.equalsFolded(todo.category, foldedCategory)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int lowerCaseBodyContains() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (todo.body.toLowerCase().contains(CONTAINS.toLowerCase())) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int foldedBodyContains() {
+    int matches = 0;
+    for (Todo todo : todos) {
+      if (CaseFolding.containsFolded(todo.body, foldedContains)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int prefoldedBodyContains() {
+    int matches = 0;
+    for (String body : foldedBodies) {
+      if (body.contains(foldedContains)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+}
@@ -0,0 +1,145 @@
+package umm3601.todo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import umm3601.FastJsonMapper;
+import umm3601.Server;
+import umm3601.SingleFlight;
+import umm3601.StorageBackend;
+
+/**
+ * A "thundering herd": `HERD` threads send the same list request
+ * (`status=incomplete&orderBy=owner`, as a dashboard refresh would) at
+ * exactly the same moment, and each waits for its serialized response, as
+ * `TodoController.getTodos()` would work it out, with coalescing (see
+ * `SingleFlight`) off or on (sharing only flights in progress, i.e.,
+ * `umm3601.coalesceMillis=0`).
+ * <p>
+ * The score is the time for the whole herd to be answered. The CPU time
+ * the herd's threads used, per herd, is printed at the end of each trial;
+ * it's the number to watch, since it's what the herd takes away from
+ * everyone else's requests.
+ * <p>
+ * Run with `./gradlew jmh -PjmhIncludes=CoalescingBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CoalescingBenchmark {
+
+  private static final int HERD = 64;
+  private static final int TODO_COUNT = 100_000;
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  @Param({ "false", "true" })
+  public boolean coalesce;
+
+  private TodoDatabase db;
+  private FastJsonMapper jsonMapper;
+  private Map<String, List<String>> params;
+  private SingleFlight<Object, byte[]> flights;
+
+  private ExecutorService pool;
+  private final List<Thread> threads = new ArrayList<>();
+  private final ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+  private long herds;
+  private long cpuNanos;
+
+  /**
+   * Build the synthetic todos from `TodoRepositoryBenchmark`, and the
+   * threads for the herd.
+   */
+  @Setup
+  public void setUp() {
+    db = new TodoDatabase(TodoDatabase.createRepository(StorageBackend.INDEXED,
+        TodoRepositoryBenchmark.generateTodos(TODO_COUNT, new Random(3601))));
+    jsonMapper = Server.jsonMapper();
+    params = new HashMap<>();
+    params.put("status", List.of("incomplete"));
+    params.put("orderBy", List.of("owner"));
+    flights = new SingleFlight<>(coalesce ? Duration.ZERO : null);
+    pool = Executors.newFixedThreadPool(HERD, task -> {
+      Thread thread = new Thread(task);
+      thread.setDaemon(true);
+      synchronized (threads) {
+        threads.add(thread);
+      }
+      return thread;
+    });
+    // Start every thread now, so starting them isn't part of the first herd.
+    herd();
+    herds = 0;
+    cpuNanos = 0;
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+    System.out.printf("%nCPU per herd (coalesce=%s): %.1f ms%n", coalesce,
+        herds == 0 ? 0 : cpuNanos / NANOS_PER_MILLI / herds);
+  }
+
+  @Benchmark
+  public int herd() {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<byte[]>> responses = new ArrayList<>(HERD);
+    for (int i = 0; i < HERD; i++) {
+      responses.add(pool.submit(() -> {
+        start.await();
+        // One key for the whole herd: the request, and the version of the
+        // todos, as `TodoController` would build it.
+        return flights.get(List.of(db.version(), params), () -> jsonMapper.toJsonBytes(db.listTodos(params)));
+      }));
+    }
+    long cpuBefore = threadCpuNanos();
+    start.countDown();
+    int bytes = 0;
+    try {
+      for (Future<byte[]> response : responses) {
+        bytes += response.get().length;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    cpuNanos += threadCpuNanos() - cpuBefore;
+    herds++;
+    return bytes;
+  }
+
+  private long threadCpuNanos() {
+    long total = 0;
+    synchronized (threads) {
+      for (Thread thread : threads) {
+        total += Math.max(0, cpu.getThreadCpuTime(thread.threadId()));
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,73 @@
+package umm3601.todo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how query latency changes with the number of shards (each
+ * searched by its own thread), for the scans that sharding is meant to
+ * speed up. One shard is the unsharded baseline. The speedup can't be more
+ * than the number of cores, so compare runs on machines with different core
+ * counts (or use `taskset` to limit the cores).
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=ShardedTodoRepositoryBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShardedTodoRepositoryBenchmark {
+
+  @Param({ "1", "2", "4", "8", "16" })
+  public int shards;
+
+  @Param({ "1000000" })
+  public int todoCount;
+
+  private ShardedTodoRepository repository;
+
+  private TodoQuery bodyContains;
+  private TodoQuery sortedTopTwenty;
+
+  @Setup
+  public void setUp() {
+    Todo[] todos = TodoRepositoryBenchmark.generateTodos(todoCount, new Random(3601));
+    repository = new ShardedTodoRepository(todos, shards, 0, shards,
+        (shardTodos, shard) -> new IndexedTodoRepository(shardTodos));
+    bodyContains = TodoQuery.fromParams(Map.of("contains", List.of("tempor magna")));
+    sortedTopTwenty = TodoQuery.fromParams(Map.of(
+        "status", List.of("complete"), "orderBy", List.of("body"), "limit", List.of("20")));
+  }
+
+  @TearDown
+  public void tearDown() {
+    repository.close();
+  }
+
+  @Benchmark
+  public Todo[] findByBodyContents() {
+    return repository.find(bodyContains);
+  }
+
+  @Benchmark
+  public Todo[] findSortedTopTwenty() {
+    return repository.find(sortedTopTwenty);
+  }
+
+  @Benchmark
+  public int countByBodyContents() {
+    return repository.count(bodyContains);
+  }
+}
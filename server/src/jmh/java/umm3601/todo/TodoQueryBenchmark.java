@@ -0,0 +1,95 @@
+package umm3601.todo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.StorageBackend;
+
+/**
+ * Compares answering a todo query straight from the raw query parameters
+ * (the way the lab's `filterTodosBy...()` methods do: look each parameter
+ * up in the map, lower-case it, and filter the whole array again) with
+ * parsing the parameters once into a `TodoQuery` and handing that to a
+ * repository, which runs it with a plan chosen for the query's shape.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=TodoQueryBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoQueryBenchmark {
+
+  @Param({ "10000", "100000" })
+  public int todoCount;
+
+  private Todo[] todos;
+  private TodoDatabase database;
+  private TodoRepository arrayRepository;
+  private TodoRepository indexedRepository;
+
+  // Every filter at once, which is the worst case for re-reading the map.
+  private Map<String, List<String>> params;
+
+  /**
+   * Build the same synthetic dataset as `TodoRepositoryBenchmark`, in the
+   * array and indexed backends.
+   */
+  @Setup
+  public void setUp() {
+    todos = TodoRepositoryBenchmark.generateTodos(todoCount, new Random(3601));
+    database = new TodoDatabase(TodoDatabase.createRepository(StorageBackend.ARRAY, todos));
+    arrayRepository = TodoDatabase.createRepository(StorageBackend.ARRAY, todos);
+    indexedRepository = TodoDatabase.createRepository(StorageBackend.INDEXED, todos);
+    params = new HashMap<>();
+    params.put("owner", List.of("OWNER42"));
+    params.put("category", List.of("Homework"));
+    params.put("status", List.of("complete"));
+    params.put("contains", List.of("Tempor"));
+  }
+
+  @Benchmark
+  public Todo[] rawParameters() {
+    Todo[] result = todos;
+    if (params.containsKey("status")) {
+      result = database.filterTodosByStatus(result, params.get("status").get(0));
+    }
+    if (params.containsKey("contains")) {
+      result = database.filterTodosByBody(result, params.get("contains").get(0));
+    }
+    if (params.containsKey("owner")) {
+      result = database.filterTodosByOwner(result, params.get("owner").get(0));
+    }
+    if (params.containsKey("category")) {
+      result = database.filterTodosByCategory(result, params.get("category").get(0));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public TodoQuery parseOnly() {
+    return TodoQuery.fromParams(params);
+  }
+
+  @Benchmark
+  public Todo[] typedQueryOnArray() {
+    return arrayRepository.find(TodoQuery.fromParams(params));
+  }
+
+  @Benchmark
+  public Todo[] typedQueryOnIndex() {
+    return indexedRepository.find(TodoQuery.fromParams(params));
+  }
+}
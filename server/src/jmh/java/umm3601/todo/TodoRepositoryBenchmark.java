@@ -0,0 +1,111 @@
+package umm3601.todo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.StorageBackend;
+
+/**
+ * Runs the same todo queries against each `StorageBackend`, so we can pick a
+ * backend for a deployment based on measured latency (and, with
+ * `-prof gc`, allocation) instead of guesswork.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=RepositoryBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoRepositoryBenchmark {
+
+  private static final String[] CATEGORIES = { "groceries", "homework", "software design", "video games" };
+  private static final String[] WORDS = { "ipsum", "dolor", "tempor", "magna", "ullamco", "laborum" };
+
+  @Param({ "array", "indexed", "jdbc", "mapped" })
+  public String backend;
+
+  @Param({ "10000", "100000" })
+  public int todoCount;
+
+  private TodoRepository repository;
+
+  private TodoQuery ownerAndStatus;
+  private TodoQuery bodyContains;
+  private TodoQuery sortedAndLimited;
+
+  /**
+   * Build a synthetic dataset with 100 owners, the four categories, and
+   * bodies made of a few random words, in the chosen backend.
+   */
+  @Setup
+  public void setUp() {
+    repository = TodoDatabase.createRepository(StorageBackend.fromName(backend),
+        generateTodos(todoCount, new Random(3601)));
+    ownerAndStatus = query("owner", "owner42", "status", "complete");
+    bodyContains = query("contains", "tempor magna");
+    sortedAndLimited = query("category", "homework", "orderBy", "owner", "limit", "20");
+  }
+
+  public static Todo[] generateTodos(int count, Random random) {
+    Todo[] result = new Todo[count];
+    for (int i = 0; i < count; i++) {
+      Todo todo = new Todo();
+      todo._id = String.format("%024x", i);
+      todo.owner = "Owner" + random.nextInt(100);
+      todo.status = random.nextBoolean();
+      todo.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+      StringBuilder body = new StringBuilder();
+      for (int word = 0; word < 8; word++) {
+        body.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      }
+      todo.body = body.toString().trim();
+      result[i] = todo;
+    }
+    return result;
+  }
+
+  private static TodoQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return TodoQuery.fromParams(params);
+  }
+
+  @Benchmark
+  public Todo[] findByOwnerAndStatus() {
+    return repository.find(ownerAndStatus);
+  }
+
+  @Benchmark
+  public Todo[] findByBodyContents() {
+    return repository.find(bodyContains);
+  }
+
+  @Benchmark
+  public Todo[] findSortedAndLimited() {
+    return repository.find(sortedAndLimited);
+  }
+
+  @Benchmark
+  public Map<String, Integer> countByCategory() {
+    return repository.countBy("category", ownerAndStatus);
+  }
+
+  @Benchmark
+  public Todo getById() {
+    return repository.get(String.format("%024x", todoCount / 2));
+  }
+}
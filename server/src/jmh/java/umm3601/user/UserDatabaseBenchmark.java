@@ -0,0 +1,99 @@
+package umm3601.user;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares answering user queries from `UserIndex` (via `listUsers`) with
+ * the linear scans the `filterUsersBy...` methods do, on synthetic datasets
+ * of up to millions of users.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=UserDatabaseBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserDatabaseBenchmark {
+
+  private static final String[] ROLES = { "admin", "editor", "viewer" };
+
+  @Param({ "10000", "1000000", "4000000" })
+  public int userCount;
+
+  private User[] users;
+  private UserDatabase db;
+
+  private Map<String, List<String>> rangeAndRoles;
+  private Map<String, List<String>> companyAndAge;
+
+  /**
+   * Build a synthetic dataset with ages 18-80, 1000 companies, and the three
+   * roles, along with the query parameter maps used by the benchmarks.
+   */
+  @Setup
+  public void setUp() {
+    users = generateUsers(userCount, new Random(3601));
+    db = new UserDatabase(users);
+
+    rangeAndRoles = new HashMap<>();
+    rangeAndRoles.put("ageMin", Arrays.asList("30"));
+    rangeAndRoles.put("ageMax", Arrays.asList("34"));
+    rangeAndRoles.put("role", Arrays.asList("admin,editor"));
+
+    companyAndAge = new HashMap<>();
+    companyAndAge.put("company", Arrays.asList("COMPANY42"));
+    companyAndAge.put("age", Arrays.asList("25"));
+  }
+
+  public static User[] generateUsers(int count, Random random) {
+    User[] result = new User[count];
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user._id = String.format("%024x", i);
+      user.name = "User " + i;
+      user.age = 18 + random.nextInt(63);
+      user.company = "COMPANY" + random.nextInt(1000);
+      user.email = "user" + i + "@example.com";
+      user.role = ROLES[random.nextInt(ROLES.length)];
+      result[i] = user;
+    }
+    return result;
+  }
+
+  @Benchmark
+  public User[] indexedAgeRangeAndRoles() {
+    return db.listUsers(rangeAndRoles);
+  }
+
+  @Benchmark
+  public User[] scanAgeRangeAndRoles() {
+    return Arrays.stream(users)
+        .filter(user -> user.age >= 30 && user.age <= 34)
+        .filter(user -> user.role.equals("admin") || user.role.equals("editor"))
+        .toArray(User[]::new);
+  }
+
+  @Benchmark
+  public User[] indexedCompanyAndAge() {
+    return db.listUsers(companyAndAge);
+  }
+
+  @Benchmark
+  public User[] scanCompanyAndAge() {
+    return db.filterUsersByCompany(db.filterUsersByAge(users, 25), "COMPANY42");
+  }
+}
@@ -0,0 +1,92 @@
+package umm3601.user;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.StorageBackend;
+
+/**
+ * Runs the same user queries against each `StorageBackend`, so we can pick a
+ * backend for a deployment based on measured latency (and, with
+ * `-prof gc`, allocation) instead of guesswork.
+ *
+ * Run with `./gradlew jmh -PjmhIncludes=RepositoryBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserRepositoryBenchmark {
+
+  @Param({ "array", "indexed", "jdbc" })
+  public String backend;
+
+  @Param({ "10000", "100000" })
+  public int userCount;
+
+  private UserRepository repository;
+
+  private UserQuery rangeAndRoles;
+  private UserQuery deepPageByOffset;
+  private UserQuery deepPageByCursor;
+
+  /**
+   * Build the same synthetic dataset as `UserDatabaseBenchmark`, in the
+   * chosen backend, and a cursor to the page half way through the users.
+   */
+  @Setup
+  public void setUp() {
+    User[] users = UserDatabaseBenchmark.generateUsers(userCount, new Random(3601));
+    repository = UserDatabase.createRepository(StorageBackend.fromName(backend), users);
+    rangeAndRoles = query("ageMin", "30", "ageMax", "34", "role", "admin,editor");
+    String half = Integer.toString(userCount / 2);
+    deepPageByOffset = query("orderBy", "age", "offset", half, "limit", "20");
+    UserQuery firstHalf = query("orderBy", "age", "limit", half);
+    deepPageByCursor = query("cursor", firstHalf.nextCursor(repository.find(firstHalf)), "limit", "20");
+  }
+
+  private static UserQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return UserQuery.fromParams(params);
+  }
+
+  @Benchmark
+  public User[] findInAgeRangeWithRoles() {
+    return repository.find(rangeAndRoles);
+  }
+
+  @Benchmark
+  public User[] deepPageByOffset() {
+    return repository.find(deepPageByOffset);
+  }
+
+  @Benchmark
+  public User[] deepPageByCursor() {
+    return repository.find(deepPageByCursor);
+  }
+
+  @Benchmark
+  public Map<String, Integer> countByAgeBucket() {
+    return repository.countByAgeBucket(10, rangeAndRoles);
+  }
+
+  @Benchmark
+  public User getById() {
+    return repository.get(String.format("%024x", userCount / 2));
+  }
+}
@@ -0,0 +1,317 @@
+package umm3601;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Limits how many API requests the server works on at once, so a burst of
+ * expensive requests can't slow everything else down.
+ * <p>
+ * Each request is given a `Cost` based on what it asks for. A todo list
+ * request that searches the bodies (`contains`) or sorts (`orderBy`) is
+ * `HEAVY`, and so is any list request that isn't narrowed down by an
+ * indexed filter or a `limit`. Lookups by ID, batches, stats, and other narrow queries are
+ * `LIGHT`. Every combination of collection (`todos` or `users`) and cost has
+ * its own `Limiter`, so a pile of heavy todo searches can use up their own
+ * share of the server without keeping any ID lookups waiting.
+ * <p>
+ * When a limiter is full, a request waits (up to a deadline) for a slot to
+ * free up. If it can't get one in time, or too many requests are already
+ * waiting, it gets an immediate `503 Service Unavailable` with a
+ * `Retry-After` header, which is much better for everyone than a response
+ * that arrives after the client has given up.
+ * <p>
+ * The limits adjust themselves with AIMD ("additive increase, multiplicative
+ * decrease", as in TCP congestion control). Each request that finishes
+ * within the target latency for its cost nudges the limit up a little;
+ * each one that takes longer cuts the limit by 10%. So the limit settles
+ * around the most concurrent requests the server can handle while staying
+ * fast.
+ */
+public final class AdmissionController {
+
+  /**
+   * How expensive a request is expected to be.
+   */
+  public enum Cost {
+    /** ID lookups, batches, stats, and list queries that use an index. */
+    LIGHT,
+    /** List queries that have to scan or sort a whole collection. */
+    HEAVY
+  }
+
+  // The name of the `Context` attribute holding a request's permit, so the
+  // after-handler knows which limiter to give it back to.
+  private static final String PERMIT_KEY = "admissionPermit";
+
+  // How many seconds we suggest rejected clients wait before trying again.
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  private static final double DECREASE_FACTOR = 0.9;
+
+  // Query parameters that use an index to narrow down a list request, and
+  // so make it `LIGHT`.
+  private static final List<String> TODO_NARROWING = List.of("owner", "category", "status", "limit");
+  private static final List<String> USER_NARROWING = List.of("age", "ageMin", "ageMax", "company", "role", "limit");
+
+  // Requests waiting for a slot, as a multiple of the limit, beyond which
+  // new requests are turned away without waiting at all.
+  private static final int MAX_QUEUE_FACTOR = 2;
+
+  private final Map<Cost, Settings> settings;
+  private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+  /**
+   * The limits for one cost of request.
+   *
+   * @param initialLimit  how many requests may run at once at first
+   * @param minLimit      the smallest the limit can shrink to
+   * @param maxLimit      the largest the limit can grow to
+   * @param targetMillis  how long a request should take; slower ones shrink
+   *                      the limit
+   * @param maxWaitMillis how long a request may wait for a slot before it
+   *                      is turned away
+   */
+  public record Settings(int initialLimit, int minLimit, int maxLimit, long targetMillis, long maxWaitMillis) {
+  }
+
+  /**
+   * Construct an admission controller with limits suited to this server:
+   * plenty of room for cheap requests, and a few slots for expensive ones.
+   */
+  @SuppressWarnings({ "MagicNumber" })
+  public AdmissionController() {
+    this(Map.of(
+        Cost.LIGHT, new Settings(64, 8, 512, 50, 20),
+        Cost.HEAVY, new Settings(8, 1, 64, 500, 200)));
+  }
+
+  /**
+   * Construct an admission controller with the given limits.
+   *
+   * @param settings the limits for each cost of request
+   */
+  public AdmissionController(Map<Cost, Settings> settings) {
+    this.settings = Map.copyOf(settings);
+  }
+
+  /**
+   * Add the before- and after-handlers that admit and release requests.
+   *
+   * @param server the Javalin server to protect
+   */
+  public void register(Javalin server) {
+    server.before(this::admit);
+    server.after(this::release);
+  }
+
+  /**
+   * Decide whether to let a request in, waiting for a slot if necessary.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ServiceUnavailableResponse if the request can't be let in
+   */
+  public void admit(Context ctx) {
+    String collection = collectionOf(ctx.path());
+    if (collection == null) {
+      return;
+    }
+    Cost cost = estimateCost(collection, ctx);
+    Limiter limiter = limiters.computeIfAbsent(collection + ":" + cost, key -> new Limiter(settings.get(cost)));
+    if (!limiter.acquire()) {
+      ctx.header("Retry-After", RETRY_AFTER_SECONDS);
+      throw new ServiceUnavailableResponse("The server is too busy to handle this request right now");
+    }
+    ctx.attribute(PERMIT_KEY, new Permit(limiter, System.nanoTime()));
+  }
+
+  /**
+   * Give back the slot held by a request (if it has one) now that it's done.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void release(Context ctx) {
+    Permit permit = ctx.attribute(PERMIT_KEY);
+    if (permit != null) {
+      ctx.attribute(PERMIT_KEY, null);
+      permit.limiter().release(System.nanoTime() - permit.startNanos());
+    }
+  }
+
+  /**
+   * Estimate how expensive a request will be from the shape of its query.
+   *
+   * @param collection the collection being asked about, `todos` or `users`
+   * @param ctx        a Javalin HTTP context
+   * @return the expected cost of the request
+   */
+  static Cost estimateCost(String collection, Context ctx) {
+    String path = ctx.path();
+    boolean isList = path.endsWith("/" + collection) || path.endsWith("/" + collection + "/");
+    if (!isList) {
+      return Cost.LIGHT;
+    }
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+    if (Estimate.requested(queryParams)) {
+      // Estimates take about as long whatever the query (see `Estimate`).
+      return Cost.LIGHT;
+    }
+    if (collection.equals("todos")) {
+      // Searching the bodies looks at every todo, and ordering sorts all
+      // of the matches, so those are always expensive. Otherwise it's
+      // expensive if nothing narrows down how many todos are returned.
+      if (queryParams.containsKey("contains") || queryParams.containsKey("orderBy")) {
+        return Cost.HEAVY;
+      }
+      return hasAny(queryParams, TODO_NARROWING) ? Cost.LIGHT : Cost.HEAVY;
+    }
+    // Users are ordered using presorted indexes, so they are only expensive
+    // when nothing narrows down how many have to be returned.
+    return hasAny(queryParams, USER_NARROWING) ? Cost.LIGHT : Cost.HEAVY;
+  }
+
+  private static boolean hasAny(Map<String, List<String>> queryParams, List<String> keys) {
+    for (String key : keys) {
+      if (queryParams.containsKey(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the current limit of each limiter that has been used, e.g.,
+   *         `todos:HEAVY`
+   */
+  public Map<String, Integer> currentLimits() {
+    Map<String, Integer> result = new TreeMap<>();
+    limiters.forEach((key, limiter) -> result.put(key, limiter.limit()));
+    return result;
+  }
+
+  // The collection an API request is about, or `null` if it isn't one we
+  // limit. The change feeds are left alone since their requests stay open
+  // for as long as the client is listening.
+  private static String collectionOf(String path) {
+    for (String collection : new String[] { "todos", "users" }) {
+      String prefix = "/api/" + collection;
+      if (path.startsWith(prefix) && !path.startsWith(prefix + "/changes")) {
+        return collection;
+      }
+    }
+    return null;
+  }
+
+  private record Permit(Limiter limiter, long startNanos) {
+  }
+
+  /**
+   * A concurrency limit that adapts to how quickly requests finish, plus a
+   * bounded queue of requests waiting to start.
+   */
+  static final class Limiter {
+    private final Settings settings;
+    private final long targetNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    // These are only read or written while holding `lock`.
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    Limiter(Settings settings) {
+      this.settings = settings;
+      this.targetNanos = TimeUnit.MILLISECONDS.toNanos(settings.targetMillis());
+      this.limit = settings.initialLimit();
+    }
+
+    /**
+     * Wait (up to the deadline) for a slot.
+     *
+     * @return `true` if we got a slot, `false` if the request should be
+     *         turned away
+     */
+    boolean acquire() {
+      lock.lock();
+      try {
+        if (inFlight < (int) limit) {
+          inFlight++;
+          return true;
+        }
+        if (waiting >= MAX_QUEUE_FACTOR * (int) limit) {
+          return false;
+        }
+        waiting++;
+        try {
+          long remaining = TimeUnit.MILLISECONDS.toNanos(settings.maxWaitMillis());
+          while (inFlight >= (int) limit) {
+            if (remaining <= 0) {
+              return false;
+            }
+            remaining = released.awaitNanos(remaining);
+          }
+          inFlight++;
+          return true;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        } finally {
+          waiting--;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Give back a slot, and adjust the limit based on how long the request
+     * took.
+     *
+     * @param elapsedNanos how long the request held the slot
+     */
+    void release(long elapsedNanos) {
+      lock.lock();
+      try {
+        inFlight--;
+        if (elapsedNanos > targetNanos) {
+          limit = Math.max(settings.minLimit(), limit * DECREASE_FACTOR);
+        } else {
+          // Growing by 1/limit per request adds about one slot each time a
+          // full limit's worth of requests finishes in time.
+          limit = Math.min(settings.maxLimit(), limit + 1.0 / limit);
+        }
+        released.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int limit() {
+      lock.lock();
+      try {
+        return (int) limit;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int inFlight() {
+      lock.lock();
+      try {
+        return inFlight;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
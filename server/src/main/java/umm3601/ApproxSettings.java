@@ -0,0 +1,77 @@
+package umm3601;
+
+/**
+ * How accurate the estimates for `approx=true` list requests are (see
+ * `Estimate`), and so how much memory they take.
+ * <p>
+ * Counts come from count-min sketches (see `CountMinSketch`) kept up to date
+ * as todos and users are added and removed. Each one is off by at most
+ * `epsilon` times the number of records, except with probability `delta`;
+ * halving `epsilon` doubles the sketches' size, and each tenfold cut in
+ * `delta` adds a little over two rows to them. Filters the sketches can't
+ * answer (e.g., `contains`) are estimated from a random sample of
+ * `sampleSize` records instead, whose error shrinks with the square root of
+ * its size.
+ *
+ * @param epsilon    the largest error of a sketched count, as a fraction of
+ *                   the number of records
+ * @param delta      the probability that an estimate is further off than
+ *                   its reported bounds
+ * @param sampleSize how many records to keep in the random sample
+ */
+public record ApproxSettings(double epsilon, double delta, int sampleSize) {
+
+  /**
+   * The system property holding `epsilon`.
+   */
+  public static final String EPSILON_PROPERTY = "umm3601.approxEpsilon";
+
+  /**
+   * The system property holding `delta`.
+   */
+  public static final String DELTA_PROPERTY = "umm3601.approxDelta";
+
+  /**
+   * The system property holding `sampleSize`.
+   */
+  public static final String SAMPLE_PROPERTY = "umm3601.approxSample";
+
+  /**
+   * The default for `umm3601.approxEpsilon`: counts within 0.1% of the
+   * number of records, for sketches of a few tens of kilobytes each.
+   */
+  public static final double DEFAULT_EPSILON = 0.001;
+
+  /**
+   * The default for `umm3601.approxDelta`: the bounds hold 99% of the time.
+   */
+  public static final double DEFAULT_DELTA = 0.01;
+
+  /**
+   * The default for `umm3601.approxSample`, which puts sampled estimates
+   * within about 5% of the number of records (with the default `delta`).
+   */
+  public static final int DEFAULT_SAMPLE_SIZE = 1000;
+
+  /**
+   * @throws IllegalArgumentException if a setting is out of range
+   */
+  public ApproxSettings {
+    if (!(epsilon > 0 && epsilon < 1 && delta > 0 && delta < 1) || sampleSize < 1) {
+      throw new IllegalArgumentException(
+          "The error and its probability must be between 0 and 1, and the sample size positive");
+    }
+  }
+
+  /**
+   * @return the settings chosen by the `umm3601.approxEpsilon`,
+   *         `umm3601.approxDelta` and `umm3601.approxSample` system
+   *         properties
+   */
+  public static ApproxSettings configured() {
+    return new ApproxSettings(
+        Double.parseDouble(System.getProperty(EPSILON_PROPERTY, Double.toString(DEFAULT_EPSILON))),
+        Double.parseDouble(System.getProperty(DELTA_PROPERTY, Double.toString(DEFAULT_DELTA))),
+        Integer.getInteger(SAMPLE_PROPERTY, DEFAULT_SAMPLE_SIZE));
+  }
+}
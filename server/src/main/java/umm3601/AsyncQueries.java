@@ -0,0 +1,231 @@
+package umm3601;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+
+/**
+ * Runs CPU-heavy queries (the todo and user list requests) on a small pool
+ * of "compute" threads, instead of on the Jetty thread that received the
+ * request.
+ * <p>
+ * Jetty has a couple of hundred request threads, which is right for
+ * requests that spend most of their time waiting (e.g., for the network),
+ * but far too many to all be filtering, sorting, and serializing thousands
+ * of todos at once on a machine with a handful of cores. With this on, a
+ * list request is handed to Javalin as a future (see `Context.future()`):
+ * its Jetty thread goes straight back to answering cheap requests (ID
+ * lookups, stats, the change feeds) while one of the compute threads (one
+ * per core, by default) works it out. Requests that can't even get a place
+ * in the compute queue get `503 Service Unavailable`, as they would from
+ * the `AdmissionController`.
+ * <p>
+ * Each query has a deadline, and is cancelled (see `Cancellation`) if it
+ * hasn't finished by then, with a `503` response, or if its client goes
+ * away first. Jetty only notices that an HTTP/1.1 client has gone when it
+ * next reads from or writes to the connection, so in practice it's HTTP/2
+ * clients that close their streams, and timeouts, that stop scans early.
+ * <p>
+ * This is off unless the `umm3601.async` system property is `true`. The
+ * `umm3601.asyncThreads` and `umm3601.asyncTimeoutMillis` properties set
+ * the number of compute threads and the deadline.
+ */
+public final class AsyncQueries {
+
+  /**
+   * The system property that, when `true`, turns on asynchronous list
+   * requests.
+   */
+  public static final String ENABLED_PROPERTY = "umm3601.async";
+
+  /**
+   * The system property holding the number of compute threads (by
+   * default, the number of cores).
+   */
+  public static final String THREADS_PROPERTY = "umm3601.asyncThreads";
+
+  /**
+   * The system property holding how long a query may run, in milliseconds.
+   */
+  public static final String TIMEOUT_PROPERTY = "umm3601.asyncTimeoutMillis";
+
+  /**
+   * The default for `umm3601.asyncTimeoutMillis`: far longer than any
+   * query should take, but shorter than most clients wait.
+   */
+  public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+  // How many queries can wait for a compute thread, per thread.
+  private static final int QUEUE_PER_THREAD = 16;
+
+  // How many seconds we suggest rejected clients wait before trying again.
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  // The todo and user controllers share one pool, so between them they
+  // can't run more queries at once than there are compute threads.
+  private static final AsyncQueries CONFIGURED = fromProperties();
+
+  // `null` when this is off.
+  private final ExecutorService executor;
+  private final Duration timeout;
+
+  /**
+   * Construct an `AsyncQueries` with its own compute threads.
+   *
+   * @param threads     the number of compute threads
+   * @param queueLength how many queries can wait for a thread before more
+   *                    are turned away
+   * @param timeout     how long a query may run
+   */
+  public AsyncQueries(int threads, int queueLength, Duration timeout) {
+    AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueLength), task -> {
+          Thread thread = new Thread(task, "query-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.timeout = timeout;
+  }
+
+  private AsyncQueries() {
+    this.executor = null;
+    this.timeout = null;
+  }
+
+  /**
+   * @return an `AsyncQueries` that's off, so controllers answer on the
+   *         request thread
+   */
+  public static AsyncQueries off() {
+    return new AsyncQueries();
+  }
+
+  /**
+   * @return the `AsyncQueries` the system properties ask for (the same one
+   *         every time)
+   */
+  public static AsyncQueries configured() {
+    return CONFIGURED;
+  }
+
+  private static AsyncQueries fromProperties() {
+    if (!Boolean.getBoolean(ENABLED_PROPERTY)) {
+      return off();
+    }
+    int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    return new AsyncQueries(threads, threads * QUEUE_PER_THREAD,
+        Duration.ofMillis(Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS)));
+  }
+
+  /**
+   * @return whether queries run on the compute threads (if not, `submit()`
+   *         must not be used)
+   */
+  public boolean enabled() {
+    return executor != null;
+  }
+
+  /**
+   * Answer a request on a compute thread: work out the response with
+   * `compute`, under a `Cancellation`, and then send it with `respond`.
+   *
+   * @param <T>     the type of the response
+   * @param ctx     a Javalin HTTP context
+   * @param compute works out the response, e.g., the serialized todos
+   * @param respond sends the response
+   */
+  public <T> void submit(Context ctx, Supplier<T> compute, BiConsumer<Context, T> respond) {
+    ctx.future(() -> {
+      Cancellation cancellation = new Cancellation(timeout);
+      cancelIfClientLeaves(ctx, cancellation);
+      CompletableFuture<T> work;
+      try {
+        work = CompletableFuture.supplyAsync(() -> cancellation.run(compute), executor);
+      } catch (RejectedExecutionException e) {
+        ctx.header("Retry-After", RETRY_AFTER_SECONDS);
+        return CompletableFuture.failedFuture(
+            new ServiceUnavailableResponse("The server is too busy to handle this request right now"));
+      }
+      // The scan stops itself at its next checkpoint once the deadline has
+      // passed, but `orTimeout()` answers the client on time even if the
+      // query is somewhere that doesn't check (e.g., sorting).
+      return work.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).handle((response, failure) -> {
+        if (failure == null) {
+          respond.accept(ctx, response);
+          return null;
+        }
+        Throwable cause = unwrap(failure);
+        // Stop the scan, if it's still going.
+        cancellation.cancel(cause instanceof TimeoutException ? "timed out" : "failed");
+        throw toResponse(cause, cancellation);
+      });
+    });
+  }
+
+  // Stop the query if the client closes the connection (or the stream,
+  // for HTTP/2) while we're working on it. Jetty only tells listeners on
+  // the request's `AsyncContext`, so that has to exist first: Javalin
+  // usually starts it before it asks for the future, but if it hasn't, we
+  // start it here (and Javalin then uses the one we started), rather than
+  // never hearing that the client left.
+  private static void cancelIfClientLeaves(Context ctx, Cancellation cancellation) {
+    AsyncContext async = ctx.req().isAsyncStarted() ? ctx.req().getAsyncContext() : ctx.req().startAsync();
+    async.addListener(new AsyncListener() {
+      @Override
+      public void onError(AsyncEvent event) throws IOException {
+        cancellation.cancel("client disconnected");
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) throws IOException {
+        cancellation.cancel("timed out");
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) throws IOException {
+        // Nothing to stop: the response has been sent.
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) throws IOException {
+        // Nothing to do until the request finishes.
+      }
+    });
+  }
+
+  private static Throwable unwrap(Throwable failure) {
+    return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+  }
+
+  // Turn a failed query into what the client is sent: the query's own
+  // exception (e.g., a `BadRequestResponse`) as is, and a `503` if it ran
+  // out of time. (If the client has gone, it doesn't matter what we send.)
+  private static RuntimeException toResponse(Throwable failure, Cancellation cancellation) {
+    if (failure instanceof TimeoutException || failure instanceof CancellationException) {
+      return new ServiceUnavailableResponse("The request took too long (" + cancellation.reason() + ")");
+    } else if (failure instanceof RuntimeException exception) {
+      return exception;
+    } else if (failure instanceof Error error) {
+      throw error;
+    }
+    return new CompletionException(failure);
+  }
+}
@@ -0,0 +1,58 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * The response to a "batch" request that looks up many objects by ID at once,
+ * e.g., `GET /api/users/batch?ids=a,b,c`.
+ *
+ * @param <T>     the type of the objects being looked up
+ * @param found   the objects that were found, in the order their IDs were
+ *                requested
+ * @param missing the requested IDs that didn't match any object
+ */
+public record BatchResult<T>(List<T> found, List<String> missing) {
+
+  /**
+   * The most IDs a single batch request may ask for.
+   */
+  public static final int MAX_IDS = 1000;
+
+  /**
+   * Look up each of the given IDs, sorting them into the ones that were found
+   * and the ones that weren't. Repeated IDs are only looked up (and
+   * returned) once.
+   *
+   * @param <T>    the type of the objects being looked up
+   * @param ids    the IDs to look up
+   * @param lookup a function that finds the object with a given ID, or
+   *               returns `null` if there isn't one
+   * @return the found objects and missing IDs
+   * @throws BadRequestResponse if there are no IDs, or more than `MAX_IDS`
+   */
+  public static <T> BatchResult<T> lookup(Collection<String> ids, Function<String, T> lookup) {
+    if (ids.isEmpty()) {
+      throw new BadRequestResponse("No ids were specified");
+    }
+    if (ids.size() > MAX_IDS) {
+      throw new BadRequestResponse("Can't look up more than " + MAX_IDS + " ids at once");
+    }
+    List<T> found = new ArrayList<>();
+    List<String> missing = new ArrayList<>();
+    for (String id : new LinkedHashSet<>(ids)) {
+      T value = lookup.apply(id);
+      if (value != null) {
+        found.add(value);
+      } else {
+        missing.add(id);
+      }
+    }
+    return new BatchResult<>(found, missing);
+  }
+}
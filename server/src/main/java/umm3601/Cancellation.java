@@ -0,0 +1,122 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * Lets a long-running query (e.g., a scan of every todo) be stopped part
+ * of the way through, because its client has gone away or it has run out
+ * of time.
+ * <p>
+ * Java can't safely stop a thread from the outside, so the scans stop
+ * themselves: every `CHECK_INTERVAL` rows or so they call `checkpoint()`,
+ * which throws a `CancellationException` if the query they're working for
+ * has been cancelled or is past its deadline. The query's `Cancellation`
+ * is found through the thread that's running it (see `run()`), so the
+ * repositories don't need to be told about it; on a thread that isn't
+ * running a cancellable query (e.g., a Jetty thread, when `AsyncQueries`
+ * is off), `checkpoint()` does nothing.
+ * <p>
+ * Checking a thread-local every few thousand rows costs nothing we can
+ * measure, and is frequent enough that a cancelled scan stops within a
+ * fraction of a millisecond.
+ */
+public final class Cancellation {
+
+  /**
+   * About how many rows a scan looks at between calls to `checkpoint()`.
+   * It's a power of two, so scans can check `(row & (CHECK_INTERVAL - 1))
+   * == 0`.
+   */
+  public static final int CHECK_INTERVAL = 4096;
+
+  private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+  private final long deadlineNanos;
+
+  // Why the query was cancelled, or `null` while it's still wanted.
+  private volatile String reason;
+
+  /**
+   * @param timeout how long the query may run before it's cancelled
+   */
+  public Cancellation(Duration timeout) {
+    this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+  }
+
+  /**
+   * Cancel the query, unless it has already been cancelled (in which case
+   * the first reason stands).
+   *
+   * @param why why it's no longer wanted, e.g., `client disconnected`
+   */
+  public void cancel(String why) {
+    if (reason == null) {
+      reason = why;
+    }
+  }
+
+  /**
+   * @return why the query was cancelled (including `timed out`, if it's
+   *         past its deadline), or `null` if it's still wanted
+   */
+  public String reason() {
+    if (reason == null && System.nanoTime() - deadlineNanos > 0) {
+      cancel("timed out");
+    }
+    return reason;
+  }
+
+  /**
+   * @throws CancellationException if the query has been cancelled
+   */
+  public void check() {
+    String why = reason();
+    if (why != null) {
+      throw new CancellationException("Query cancelled: " + why);
+    }
+  }
+
+  /**
+   * Run (part of) a query on this thread, so that the `checkpoint()`s it
+   * passes check this `Cancellation`.
+   *
+   * @param <T>   the type of the query's result
+   * @param query the query
+   * @return what the query returned
+   * @throws CancellationException if the query was cancelled before it
+   *                               finished
+   */
+  public <T> T run(Supplier<T> query) {
+    Cancellation outer = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      check();
+      return query.get();
+    } finally {
+      CURRENT.set(outer);
+    }
+  }
+
+  /**
+   * @return the `Cancellation` of the query running on this thread, or
+   *         `null` if it isn't running a cancellable query (e.g., so it can
+   *         be passed on to other threads working on the same query)
+   */
+  public static Cancellation current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Stop the query running on this thread if it has been cancelled.
+   *
+   * @throws CancellationException if it has been cancelled
+   */
+  public static void checkpoint() {
+    Cancellation cancellation = CURRENT.get();
+    if (cancellation != null) {
+      cancellation.check();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package umm3601;
+
+/**
+ * Case-insensitive matching without making lower case copies of strings.
+ * <p>
+ * A query's filter values are "folded" once, when the query is parsed, and
+ * then compared with each object's values. Where we can, we also fold the
+ * values being searched once, when they're loaded (e.g., `TodoIndex` keeps
+ * a folded copy of each body), so matching is a plain `equals()` or
+ * `contains()`, which the JIT compiler turns into a fast comparison of the
+ * strings' bytes. Otherwise, `equalsFolded()` and `containsFolded()` fold
+ * each character as they go. Either way, nothing is allocated per object
+ * we look at, whereas the usual `a.toLowerCase().contains(b.toLowerCase())`
+ * makes two new strings for every one, which adds up (in both time and
+ * garbage) when a query looks at every todo.
+ * <p>
+ * Characters are folded the same way `String.equalsIgnoreCase()` compares
+ * them (to upper case and then to lower case), a whole Unicode code point
+ * at a time, so characters outside the Basic Multilingual Plane (written as
+ * two `char`s) are folded properly, and `equalsFolded(a, fold(b))` agrees
+ * with `a.equalsIgnoreCase(b)`. Unlike `String.toLowerCase()`, this doesn't
+ * depend on the default locale: with a Turkish locale, for example,
+ * `"TITLE".toLowerCase()` is "tıtle" (with a dotless ı), which doesn't
+ * contain "title". Like `equalsIgnoreCase()`, it's "simple" case folding,
+ * one code point to one code point, so "ß" doesn't match "SS".
+ */
+public final class CaseFolding {
+
+  private CaseFolding() {
+  }
+
+  /**
+   * Fold the case of a string.
+   *
+   * @param text the string to fold
+   * @return the string with each code point folded, which is the same for
+   *         any two strings that are equal ignoring case (and is `text`
+   *         itself if it was already folded)
+   */
+  public static String fold(String text) {
+    // Many values (e.g., most categories) are already folded, so check
+    // that first, and share the original string rather than copying it.
+    int length = text.length();
+    int unfolded = 0;
+    while (unfolded < length) {
+      int codePoint = text.codePointAt(unfolded);
+      if (fold(codePoint) != codePoint) {
+        break;
+      }
+      unfolded += Character.charCount(codePoint);
+    }
+    if (unfolded == length) {
+      return text;
+    }
+    StringBuilder folded = new StringBuilder(length).append(text, 0, unfolded);
+    for (int i = unfolded; i < length;) {
+      int codePoint = text.codePointAt(i);
+      folded.appendCodePoint(fold(codePoint));
+      i += Character.charCount(codePoint);
+    }
+    return folded.toString();
+  }
+
+  /**
+   * @param codePoint a Unicode code point
+   * @return the folded code point
+   */
+  public static int fold(int codePoint) {
+    return Character.toLowerCase(Character.toUpperCase(codePoint));
+  }
+
+  /**
+   * Check whether a string equals an already folded one, ignoring case.
+   *
+   * @param text   the string to check
+   * @param folded the (folded) string to compare it with
+   * @return `true` if `text` folds to `folded`
+   */
+  public static boolean equalsFolded(String text, String folded) {
+    // It's equal if all of `folded` matches from the start of `text`, and
+    // uses up the whole of `text`.
+    return matchesAt(text, 0, folded, 0) == text.length();
+  }
+
+  /**
+   * Check whether a string contains an already folded one, ignoring case.
+   *
+   * @param text   the string to search
+   * @param folded the (folded) string to look for
+   * @return `true` if some part of `text` folds to `folded`
+   */
+  public static boolean containsFolded(String text, String folded) {
+    if (folded.isEmpty()) {
+      return true;
+    }
+    int first = folded.codePointAt(0);
+    int firstWidth = Character.charCount(first);
+    for (int start = 0; start < text.length();) {
+      int codePoint = text.codePointAt(start);
+      int width = Character.charCount(codePoint);
+      if ((codePoint == first || fold(codePoint) == first)
+          && matchesAt(text, start + width, folded, firstWidth) >= 0) {
+        return true;
+      }
+      start += width;
+    }
+    return false;
+  }
+
+  // Check whether `text`, from `textIndex`, starts with what's left of
+  // `folded` from `foldedIndex`, ignoring case. Returns the index in
+  // `text` just after the match, or -1 if it doesn't match.
+  private static int matchesAt(String text, int textIndex, String folded, int foldedIndex) {
+    int i = textIndex;
+    for (int j = foldedIndex; j < folded.length();) {
+      if (i >= text.length()) {
+        return -1;
+      }
+      int codePoint = text.codePointAt(i);
+      int expected = folded.codePointAt(j);
+      // Folding a folded code point leaves it alone, so if they're the same
+      // we can skip folding (which is most of the time, e.g., for lower
+      // case text).
+      if (codePoint != expected && fold(codePoint) != expected) {
+        return -1;
+      }
+      i += Character.charCount(codePoint);
+      j += Character.charCount(expected);
+    }
+    return i;
+  }
+}
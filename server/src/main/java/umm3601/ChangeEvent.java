@@ -0,0 +1,27 @@
+package umm3601;
+
+/**
+ * One change to a "database", as recorded in a `ChangeFeed`.
+ *
+ * @param <T>      the type of the records that changed
+ * @param sequence the position of this change in the feed; the first change
+ *                 is 1, and each later one is one more than the last
+ * @param type     what happened, e.g., `ChangeEvent.CREATED`
+ * @param id       the `_id` of the record that changed
+ * @param record   the record as it is after the change (or, for a delete, as
+ *                 it was just before it)
+ * @param data     `record` serialized as JSON, done once when the change is
+ *                 published so it can be shared by every subscriber
+ */
+public record ChangeEvent<T>(long sequence, String type, String id, T record, String data) {
+
+  /**
+   * The type of the event sent when a record is added.
+   */
+  public static final String CREATED = "created";
+
+  /**
+   * The type of the event sent when a record is removed.
+   */
+  public static final String DELETED = "deleted";
+}
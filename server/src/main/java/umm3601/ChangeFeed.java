@@ -0,0 +1,322 @@
+package umm3601;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.sse.SseClient;
+
+/**
+ * A feed of the changes made to a "database", which clients can follow with
+ * Server-Sent Events (SSE) instead of repeatedly polling the list endpoints.
+ * <p>
+ * Changes go into a fixed size ring buffer that every subscriber reads from,
+ * so each change is stored (and serialized to JSON) once no matter how many
+ * subscribers there are. Each subscriber just remembers the sequence number
+ * of the last change it sent.
+ * <p>
+ * Publishing a change never waits for subscribers: it overwrites the oldest
+ * slot in the buffer. A subscriber that falls more than a buffer's worth of
+ * changes behind (say, because its client is on a slow network) can't catch
+ * up from the buffer, so it is sent a `reset` event, telling the client to
+ * reload the data from the list endpoint, and then continues from the newest
+ * change. That way a slow client can only ever slow itself down.
+ *
+ * @param <T> the type of the records in the "database"
+ */
+public final class ChangeFeed<T> {
+
+  /**
+   * The number of changes kept in the buffer by default.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The number of subscribers a feed allows at once by default.
+   */
+  public static final int DEFAULT_MAX_SUBSCRIBERS = 10_000;
+
+  /**
+   * The type of the event sent to a subscriber that fell too far behind to
+   * be sent the changes it missed.
+   */
+  public static final String RESET = "reset";
+
+  // How long a subscriber waits for a change before sending a "heartbeat"
+  // comment. Besides keeping proxies from closing an idle connection, this
+  // is how we notice clients that went away without saying so.
+  private static final long HEARTBEAT_MILLIS = 15_000;
+
+  private final int capacity;
+  private final int maxSubscribers;
+  private final AtomicReferenceArray<ChangeEvent<T>> slots;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  // The sequence number of the newest change, or 0 if there aren't any.
+  private volatile long lastSequence;
+
+  // Publishers take this lock just long enough to fill in a slot and wake up
+  // any waiting subscribers. Subscribers only hold it while checking whether
+  // they need to wait.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition published = lock.newCondition();
+
+  private final AtomicInteger subscribers = new AtomicInteger();
+
+  // Called with every change, in order, as it is published (e.g., to ship
+  // the changes to read replicas).
+  private final List<Consumer<ChangeEvent<T>>> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Construct a feed with the default capacity and subscriber limit.
+   */
+  public ChangeFeed() {
+    this(DEFAULT_CAPACITY, DEFAULT_MAX_SUBSCRIBERS);
+  }
+
+  /**
+   * Construct a feed.
+   *
+   * @param capacity       the number of changes to keep for subscribers
+   *                       that are behind
+   * @param maxSubscribers the largest number of subscribers to allow at once
+   */
+  public ChangeFeed(int capacity, int maxSubscribers) {
+    if (capacity <= 0 || maxSubscribers <= 0) {
+      throw new IllegalArgumentException("The capacity and subscriber limit of a feed must be positive");
+    }
+    this.capacity = capacity;
+    this.maxSubscribers = maxSubscribers;
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  /**
+   * Add a change to the feed, and wake up any subscribers waiting for one.
+   *
+   * @param type   what happened, e.g., `ChangeEvent.CREATED`
+   * @param id     the `_id` of the record that changed
+   * @param record the record that changed
+   * @return the event that was added
+   */
+  public ChangeEvent<T> publish(String type, String id, T record) {
+    return publish(type, id, record, () -> {
+    });
+  }
+
+  /**
+   * Make a change and add it to the feed.
+   * <p>
+   * The listeners (e.g., the replication log) hear about the change first,
+   * and only if they all take it is it made (by `apply`) and added to the
+   * feed. So if a listener can't take the change, it isn't made anywhere,
+   * rather than being made here but missing from the log and the feed.
+   *
+   * @param type   what happened, e.g., `ChangeEvent.CREATED`
+   * @param id     the `_id` of the record that changed
+   * @param record the record that changed
+   * @param apply  makes the change (e.g., in the repository)
+   * @return the event that was added
+   */
+  public ChangeEvent<T> publish(String type, String id, T record, Runnable apply) {
+    String data;
+    try {
+      data = mapper.writeValueAsString(record);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+    lock.lock();
+    try {
+      long sequence = lastSequence + 1;
+      ChangeEvent<T> event = new ChangeEvent<>(sequence, type, id, record, data);
+      for (Consumer<ChangeEvent<T>> listener : listeners) {
+        listener.accept(event);
+      }
+      apply.run();
+      slots.set(slotOf(sequence), event);
+      lastSequence = sequence;
+      published.signalAll();
+      return event;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Have every change published from now on passed to `listener`, in order.
+   * <p>
+   * Unlike a subscriber, a listener can't fall behind and miss changes: it
+   * is called by the publisher (while it holds the feed's lock) before the
+   * change is made or visible to subscribers, so it must be quick. If it
+   * throws, the change isn't made or added to the feed, and the exception is
+   * passed on to the publisher.
+   *
+   * @param listener what to call with each change
+   */
+  public void addListener(Consumer<ChangeEvent<T>> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * @return the sequence number of the newest change, or 0 if there aren't
+   *         any yet
+   */
+  public long lastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * @return the number of recent changes kept for clients catching up,
+   *         which grows to the feed's capacity and then stays there
+   */
+  public int bufferedCount() {
+    return (int) Math.min(lastSequence, capacity);
+  }
+
+  /**
+   * @return the number of clients currently subscribed to this feed
+   */
+  public int subscriberCount() {
+    return subscribers.get();
+  }
+
+  /**
+   * Get all the changes after the given one.
+   *
+   * @param sequence the sequence number of the last change already seen
+   * @return the later changes, oldest first, or `null` if some of them are
+   *         no longer in the buffer, in which case the caller has to start
+   *         over from `lastSequence()`
+   */
+  public List<ChangeEvent<T>> eventsAfter(long sequence) {
+    long last = lastSequence;
+    List<ChangeEvent<T>> events = new ArrayList<>();
+    for (long next = sequence + 1; next <= last; next++) {
+      ChangeEvent<T> event = slots.get(slotOf(next));
+      // If the slot holds some other change, a publisher has already
+      // reused it, so the change we wanted is gone.
+      if (event == null || event.sequence() != next) {
+        return null;
+      }
+      events.add(event);
+    }
+    return events;
+  }
+
+  /**
+   * Wait until there is a change after the given one, or until the timeout
+   * runs out.
+   *
+   * @param sequence the sequence number of the last change already seen
+   * @param timeout  the longest time to wait
+   * @param unit     the unit of `timeout`
+   * @return the sequence number of the newest change, which is still
+   *         `sequence` if the wait timed out
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  public long awaitAfter(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (lastSequence <= sequence && remaining > 0) {
+        remaining = published.awaitNanos(remaining);
+      }
+      return lastSequence;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Start sending the changes that match `filter` to an SSE client.
+   * <p>
+   * Each change is sent as an event named after its type (e.g., `created`)
+   * whose data is the JSON for the record and whose ID is its sequence
+   * number. Browsers send the ID of the last event they saw in a
+   * `Last-Event-ID` header when they reconnect, which we use to pick up
+   * where the client left off.
+   * <p>
+   * The events are sent from a virtual thread, so a subscriber costs a
+   * little memory rather than a whole platform thread while it is waiting,
+   * and a client that is slow to read only blocks its own thread.
+   *
+   * @param client the client to send the changes to
+   * @param filter which records the client is interested in
+   */
+  public void subscribe(SseClient client, Predicate<T> filter) {
+    if (subscribers.incrementAndGet() > maxSubscribers) {
+      subscribers.decrementAndGet();
+      client.sendEvent("busy", "Too many subscribers, please try again later");
+      client.close();
+      return;
+    }
+    long start = resumeFrom(client.ctx().header("Last-Event-ID"));
+    client.keepAlive();
+    Thread sender = Thread.ofVirtual().name("change-feed-subscriber").start(() -> sendChanges(client, filter, start));
+    client.onClose(sender::interrupt);
+  }
+
+  // Send the client every matching change after `start` until it goes away.
+  private void sendChanges(SseClient client, Predicate<T> filter, long start) {
+    long sequence = start;
+    try {
+      while (!client.terminated()) {
+        long last = awaitAfter(sequence, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        if (last == sequence) {
+          client.sendComment("heartbeat");
+          continue;
+        }
+        List<ChangeEvent<T>> events = eventsAfter(sequence);
+        if (events == null) {
+          // We fell too far behind; tell the client to reload everything,
+          // and carry on from the newest change.
+          client.sendEvent(RESET, Long.toString(last), Long.toString(last));
+          sequence = last;
+          continue;
+        }
+        for (ChangeEvent<T> event : events) {
+          if (filter.test(event.record())) {
+            client.sendEvent(event.type(), event.data(), Long.toString(event.sequence()));
+          }
+          sequence = event.sequence();
+        }
+      }
+    } catch (InterruptedException e) {
+      // The client went away while we were waiting for a change.
+      Thread.currentThread().interrupt();
+    } finally {
+      subscribers.decrementAndGet();
+      client.close();
+    }
+  }
+
+  // Where a (possibly reconnecting) client should start. Without a valid
+  // `Last-Event-ID` the client only gets changes from now on; with one that
+  // is too old, `eventsAfter()` returns `null` and it gets a `reset`.
+  private long resumeFrom(String lastEventId) {
+    long last = lastSequence;
+    if (lastEventId == null) {
+      return last;
+    }
+    try {
+      long sequence = Long.parseLong(lastEventId.trim());
+      return sequence >= 0 && sequence <= last ? sequence : last;
+    } catch (NumberFormatException e) {
+      return last;
+    }
+  }
+
+  private int slotOf(long sequence) {
+    return (int) (sequence % capacity);
+  }
+}
@@ -0,0 +1,101 @@
+package umm3601;
+
+import java.util.BitSet;
+
+/**
+ * Evaluates a filter over a whole "column" of primitive values (one value
+ * per row, e.g., every user's age, or every todo's owner as a dictionary
+ * code), producing a `BitSet` of the matching rows.
+ * <p>
+ * There are two implementations: `VectorColumnScan`, which compares many
+ * rows per instruction with the (incubating) Java Vector API, and
+ * `ScalarColumnScan`, which compares one row at a time. `configured()`
+ * picks one when the server starts: the vector one if the
+ * `jdk.incubator.vector` module is available and the hardware has wide
+ * enough vectors, unless the `umm3601.vectorScan` system property is
+ * `false`.
+ * <p>
+ * A scan looks at every row, so it only beats a posting list (which looks
+ * at just the matching rows) when a good fraction of the rows match; see
+ * `worthScanning()`.
+ */
+public interface ColumnScan {
+
+  /**
+   * The system property that, when set to `false`, turns off vectorized
+   * scans.
+   */
+  String VECTOR_PROPERTY = "umm3601.vectorScan";
+
+  /**
+   * @return the number of rows compared at once
+   */
+  int lanes();
+
+  /**
+   * Find the rows whose value is `value`.
+   *
+   * @param column the value of each row
+   * @param value  the value to look for
+   * @return the matching rows
+   */
+  BitSet equal(byte[] column, byte value);
+
+  /**
+   * Find the rows whose value is any of `values`.
+   *
+   * @param column the value of each row
+   * @param values the values to look for
+   * @return the matching rows
+   */
+  BitSet anyOf(int[] column, int[] values);
+
+  /**
+   * Find the rows whose value is in the given (inclusive) range.
+   *
+   * @param column the value of each row
+   * @param min    the smallest value to include
+   * @param max    the largest value to include
+   * @return the matching rows
+   */
+  BitSet between(int[] column, int min, int max);
+
+  /**
+   * Decide whether scanning a column would be quicker than visiting the
+   * matching rows one at a time (e.g., from a posting list). A scan costs
+   * about one step per `lanes()` rows, and visiting costs about one step
+   * per match.
+   *
+   * @param matches the number of rows that match
+   * @param rows    the number of rows in the column
+   * @return `true` if a scan is the better choice
+   */
+  default boolean worthScanning(int matches, int rows) {
+    return (long) matches * lanes() >= rows;
+  }
+
+  /**
+   * @return the scan chosen for this JVM and the `umm3601.vectorScan`
+   *         system property
+   */
+  static ColumnScan configured() {
+    if (Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+      try {
+        if (VectorColumnScan.isUseful()) {
+          return new VectorColumnScan();
+        }
+      } catch (LinkageError e) {
+        // The JVM wasn't started with `--add-modules jdk.incubator.vector`.
+      }
+    }
+    return new ScalarColumnScan();
+  }
+
+  /**
+   * @param rows the number of rows in a column
+   * @return the number of `long`s needed for a bit per row
+   */
+  static int wordsFor(int rows) {
+    return (rows + Long.SIZE - 1) / Long.SIZE;
+  }
+}
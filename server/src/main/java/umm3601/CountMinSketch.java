@@ -0,0 +1,153 @@
+package umm3601;
+
+/**
+ * A count-min sketch: a small, fixed-size table that estimates how many
+ * times each key has been added, without storing the keys.
+ * <p>
+ * The table has `depth` rows of `width` counters, and each row has its own
+ * hash function. Adding a key adds to one counter in every row; the
+ * estimate for a key is the smallest of its counters. Other keys that hash
+ * to the same counters can only make them bigger, so the estimate is never
+ * too small, and (with `width = e / epsilon` and `depth = ln(1 / delta)`)
+ * it's no more than `epsilon` times the total of all the counts too big,
+ * except with probability `delta`. That holds however many keys there are:
+ * a sketch for a billion todos is the same size as one for a hundred.
+ * <p>
+ * Keys are given as 64-bit hashes (see `hash()` and `combine()`), so
+ * composite keys (e.g., an owner and a category) can be added without
+ * building strings. The rows' hashes are derived from the key's hash by
+ * "double hashing", which is as good as independent hash functions for
+ * this.
+ * <p>
+ * This isn't thread-safe for writers; readers racing a writer may see a
+ * count that's one change out of date, which is within the error anyway.
+ */
+public final class CountMinSketch {
+
+  // Constants from the FNV-1a hash and the SplitMix64 finalizer.
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long MIX_1 = 0xbf58476d1ce4e5b9L;
+  private static final long MIX_2 = 0x94d049bb133111ebL;
+  private static final int SHIFT_1 = 30;
+  private static final int SHIFT_2 = 27;
+  private static final int SHIFT_3 = 31;
+  private static final int HALF = 32;
+
+  private final int width;
+  private final int depth;
+  private final double epsilon;
+  private final double delta;
+  private final int[] counts;
+  private long total;
+
+  /**
+   * @param epsilon how big the error may be, as a fraction of the total
+   *                count (e.g., 0.001)
+   * @param delta   the probability that an estimate is further off than
+   *                that (e.g., 0.01)
+   * @throws IllegalArgumentException if either isn't between 0 and 1
+   */
+  public CountMinSketch(double epsilon, double delta) {
+    if (!(epsilon > 0 && epsilon < 1 && delta > 0 && delta < 1)) {
+      throw new IllegalArgumentException("The error and its probability must be between 0 and 1");
+    }
+    this.epsilon = epsilon;
+    this.delta = delta;
+    this.width = (int) Math.ceil(Math.E / epsilon);
+    this.depth = (int) Math.ceil(Math.log(1 / delta));
+    this.counts = new int[width * depth];
+  }
+
+  /**
+   * @param text a string, or `null`
+   * @return a 64-bit hash of it (FNV-1a over its characters, then mixed)
+   */
+  public static long hash(String text) {
+    if (text == null) {
+      return 0;
+    }
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < text.length(); i++) {
+      hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * @param hash  the hash of the key so far
+   * @param value the hash of the next part of the key
+   * @return the hash of the key with that part added
+   */
+  public static long combine(long hash, long value) {
+    return mix(hash * FNV_PRIME ^ value);
+  }
+
+  private static long mix(long value) {
+    long z = value;
+    z = (z ^ (z >>> SHIFT_1)) * MIX_1;
+    z = (z ^ (z >>> SHIFT_2)) * MIX_2;
+    return z ^ (z >>> SHIFT_3);
+  }
+
+  /**
+   * Add to (or, with a negative `count`, take away from) a key's count.
+   *
+   * @param key   the key's hash
+   * @param count how much to add
+   */
+  public void add(long key, int count) {
+    int h1 = (int) key;
+    int h2 = (int) (key >>> HALF) | 1;
+    for (int row = 0; row < depth; row++) {
+      counts[row * width + Math.floorMod(h1 + row * h2, width)] += count;
+    }
+    total += count;
+  }
+
+  /**
+   * @param key the key's hash
+   * @return an estimate of the key's count, which is never too small, and
+   *         (with probability `1 - delta`) at most `epsilon * total()` too
+   *         big
+   */
+  public long estimate(long key) {
+    int h1 = (int) key;
+    int h2 = (int) (key >>> HALF) | 1;
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, counts[row * width + Math.floorMod(h1 + row * h2, width)]);
+    }
+    return Math.max(0, min);
+  }
+
+  /**
+   * @return the total of all the counts
+   */
+  public long total() {
+    return total;
+  }
+
+  /**
+   * @return how big the error may be, as a fraction of the total count
+   */
+  public double epsilon() {
+    return epsilon;
+  }
+
+  /**
+   * @return the probability that an estimate is further off than
+   *         `epsilon * total()`
+   */
+  public double delta() {
+    return delta;
+  }
+
+  /**
+   * @return how much heap the sketch takes (see `MemoryEstimate`)
+   */
+  public long estimatedBytes() {
+    return MemoryEstimate.object(1, 2 * Integer.BYTES + 2 * Double.BYTES + Long.BYTES)
+        + MemoryEstimate.array(counts.length, Integer.BYTES);
+  }
+}
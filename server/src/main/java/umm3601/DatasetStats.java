@@ -0,0 +1,59 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics `/api/admin/stats` reports for one dataset (the todos or
+ * the users), for planning how much memory the server needs.
+ *
+ * @param records       the number of records
+ * @param cardinalities the number of distinct values of each of the
+ *                      fields with few values (e.g., `owner` and
+ *                      `category` for todos)
+ * @param structures    the footprint of each of the repository's data
+ *                      structures
+ * @param heapBytes     roughly how much heap all the structures take
+ * @param offHeapBytes  how much of them is in memory-mapped files
+ * @param caches        the number of entries in each cache that grows with
+ *                      use
+ */
+public record DatasetStats(int records, Map<String, Integer> cardinalities, List<Footprint> structures,
+    long heapBytes, long offHeapBytes, Map<String, Integer> caches) {
+
+  /**
+   * Gather the statistics of a dataset, adding up the heap and off-heap
+   * totals from its structures.
+   *
+   * @param records       the number of records
+   * @param cardinalities the number of distinct values of each field
+   * @param structures    the footprint of each data structure
+   * @param caches        the number of entries in each cache
+   * @return the statistics
+   */
+  public static DatasetStats of(int records, Map<String, Integer> cardinalities, List<Footprint> structures,
+      Map<String, Integer> caches) {
+    long heap = 0;
+    long offHeap = 0;
+    for (Footprint structure : structures) {
+      if (structure.offHeap()) {
+        offHeap += structure.estimatedBytes();
+      } else {
+        heap += structure.estimatedBytes();
+      }
+    }
+    return new DatasetStats(records, cardinalities, structures, heap, offHeap, caches);
+  }
+
+  /**
+   * @param name the name of a cache
+   * @param size the number of entries in it
+   * @return a copy of these statistics that also reports that cache
+   */
+  public DatasetStats withCache(String name, int size) {
+    Map<String, Integer> moreCaches = new LinkedHashMap<>(caches);
+    moreCaches.put(name, size);
+    return new DatasetStats(records, cardinalities, structures, heapBytes, offHeapBytes, moreCaches);
+  }
+}
@@ -0,0 +1,135 @@
+package umm3601;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response to an `approx=true` list request: roughly how many records
+ * match the filters, how far off that might be, and a random sample of the
+ * matches, worked out in a time that doesn't grow with the number of
+ * records.
+ * <p>
+ * For example, `/api/todos?owner=Fry&approx=true` might be `{"count": 61,
+ * "low": 61, "high": 61, "confidence": 0.99, "method": "sketch", "total":
+ * 300, "sample": [...]}`. The true count is between `low` and `high`
+ * (inclusive), except with probability `1 - confidence`. The `method` says
+ * where the count came from:
+ * <ul>
+ * <li>`exact`: no estimate was needed (e.g., there were no filters, or the
+ * sample held every record), so `low == count == high`</li>
+ * <li>`sketch`: the count-min sketches (see `CountMinSketch`), which never
+ * count too few, so `count == high`</li>
+ * <li>`sample`: the fraction of the random sample that matched, with bounds
+ * from Hoeffding's inequality</li>
+ * </ul>
+ *
+ * @param <T>        the type of the records
+ * @param count      the estimated number of matching records
+ * @param low        the smallest the true count is likely to be
+ * @param high       the largest the true count is likely to be
+ * @param confidence the probability that the true count is between `low`
+ *                   and `high`
+ * @param method     `exact`, `sketch`, or `sample`
+ * @param total      the number of records altogether
+ * @param sample     some of the matching records, chosen at random (up to
+ *                   the request's `limit`, in its order, but not paged)
+ */
+public record Estimate<T>(long count, long low, long high, double confidence, String method, long total,
+    List<T> sample) {
+
+  /**
+   * The `method` of a count that isn't an estimate.
+   */
+  public static final String EXACT = "exact";
+
+  /**
+   * The `method` of a count from count-min sketches.
+   */
+  public static final String SKETCH = "sketch";
+
+  /**
+   * The `method` of a count from a random sample.
+   */
+  public static final String SAMPLE = "sample";
+
+  /**
+   * @param queryParams map of key-value pairs for a list request
+   * @return whether the request asks for an estimate (`approx=true`)
+   *         rather than every matching record
+   */
+  public static boolean requested(Map<String, List<String>> queryParams) {
+    List<String> approx = queryParams.get("approx");
+    return approx != null && !approx.isEmpty() && Boolean.parseBoolean(approx.get(0));
+  }
+
+  /**
+   * @param <T>    the type of the records
+   * @param count  the number of matching records
+   * @param total  the number of records altogether
+   * @param sample some of the matching records
+   * @return a count that's known exactly
+   */
+  public static <T> Estimate<T> exact(long count, long total, List<T> sample) {
+    return new Estimate<>(count, count, count, 1, EXACT, total, sample);
+  }
+
+  /**
+   * @param <T>        the type of the records
+   * @param estimate   the count from the sketches, which is never too small
+   * @param error      how much too big it might be
+   * @param total      the number of records altogether
+   * @param confidence the probability that it's no more than `error` too
+   *                   big
+   * @param sample     some of the matching records
+   * @return an estimate from count-min sketches
+   */
+  public static <T> Estimate<T> fromSketch(long estimate, long error, long total, double confidence,
+      List<T> sample) {
+    long high = Math.min(estimate, total);
+    long low = Math.max(0, Math.min(high, estimate - error));
+    return new Estimate<>(high, low, high, confidence, SKETCH, total, sample);
+  }
+
+  /**
+   * How far the fraction of a random sample that matches a filter might be
+   * from the fraction of all the records that match, by Hoeffding's
+   * inequality: `sqrt(ln(2 / delta) / (2 * sampleSize))`.
+   *
+   * @param sampleSize the number of records in the sample
+   * @param delta      the probability of being further off than that
+   * @return the largest likely difference between the two fractions
+   */
+  public static double sampleError(int sampleSize, double delta) {
+    return Math.sqrt(Math.log(2 / delta) / (2 * (double) sampleSize));
+  }
+
+  /**
+   * @param <T>        the type of the records
+   * @param matches    how many records in the sample matched
+   * @param sampleSize the number of records in the sample
+   * @param total      the number of records altogether
+   * @param upperBound a count that's known to be at least the true one
+   *                   (e.g., from a sketch of the other filters), or
+   *                   `total`
+   * @param delta      the probability of the true count being outside the
+   *                   bounds
+   * @param sample     some of the matching records
+   * @return an estimate from a random sample (or an exact count, if the
+   *         sample holds every record)
+   */
+  public static <T> Estimate<T> fromSample(int matches, int sampleSize, long total, long upperBound, double delta,
+      List<T> sample) {
+    if (sampleSize >= total) {
+      return exact(matches, total, sample);
+    } else if (sampleSize == 0) {
+      // Nothing to go on (this only happens with very small samples).
+      return new Estimate<>(0, 0, Math.min(total, upperBound), 1, SAMPLE, total, sample);
+    }
+    double fraction = (double) matches / sampleSize;
+    double error = sampleError(sampleSize, delta);
+    long high = Math.min(Math.min(total, upperBound), (long) Math.ceil((fraction + error) * total));
+    long low = Math.min(high, Math.max(0, (long) Math.floor((fraction - error) * total)));
+    long count = Math.max(low, Math.min(high, Math.round(fraction * total)));
+    return new Estimate<>(count, low, high, 1 - delta, SAMPLE, total, sample);
+  }
+}
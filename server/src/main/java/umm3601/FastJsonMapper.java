@@ -0,0 +1,143 @@
+package umm3601;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import io.javalin.json.JsonMapper;
+
+/**
+ * A Javalin `JsonMapper` with hand-written serializers for the classes we
+ * send the most of (todos and users), and arrays of them. Everything else,
+ * and all parsing, is passed on to another mapper (normally Javalin's
+ * Jackson one).
+ * <p>
+ * Jackson finds an object's properties by reflection, and Javalin's Jackson
+ * mapper hands each response to another thread to write through a pipe. The
+ * serializers registered here write each field directly into this thread's
+ * `JsonWriter`, with the property names already encoded, and the response
+ * is a single copy of the writer's bytes.
+ */
+public class FastJsonMapper implements JsonMapper {
+
+  /**
+   * Writes one kind of object as JSON.
+   *
+   * @param <T> the kind of object
+   */
+  @FunctionalInterface
+  public interface Serializer<T> {
+    /**
+     * @param out   the writer to write to
+     * @param value the object to write (never `null`)
+     */
+    void write(JsonWriter out, T value);
+  }
+
+  private final JsonMapper fallback;
+  private final Map<Class<?>, Serializer<Object>> serializers = new HashMap<>();
+
+  /**
+   * @param fallback the mapper to use for everything without a serializer
+   *                 of its own, e.g., `new JavalinJackson()`
+   */
+  public FastJsonMapper(JsonMapper fallback) {
+    this.fallback = fallback;
+  }
+
+  /**
+   * Use the given serializer for objects of exactly the given class, and
+   * for arrays of them. This should only be called while setting up, before
+   * the mapper is used.
+   *
+   * @param <T>        the class
+   * @param type       the class
+   * @param serializer its serializer
+   * @return this mapper
+   */
+  @SuppressWarnings({ "unchecked" })
+  public <T> FastJsonMapper register(Class<T> type, Serializer<T> serializer) {
+    serializers.put(type, (Serializer<Object>) serializer);
+    return this;
+  }
+
+  /**
+   * Serialize a value with the registered serializers.
+   *
+   * @param value the value to serialize
+   * @return the UTF-8 encoded JSON, or `null` if there's no serializer for
+   *         the value
+   */
+  public byte[] toJsonBytes(Object value) {
+    JsonWriter out = writeFast(value);
+    return out == null ? null : out.toByteArray();
+  }
+
+  @Override
+  public String toJsonString(Object obj, Type type) {
+    JsonWriter out = writeFast(obj);
+    return out == null ? fallback.toJsonString(obj, type) : out.toString();
+  }
+
+  @Override
+  public InputStream toJsonStream(Object obj, Type type) {
+    JsonWriter out = writeFast(obj);
+    return out == null ? fallback.toJsonStream(obj, type) : new ByteArrayInputStream(out.toByteArray());
+  }
+
+  @Override
+  public void writeToOutputStream(Stream<?> stream, OutputStream outputStream) {
+    fallback.writeToOutputStream(stream, outputStream);
+  }
+
+  @Override
+  public <T> T fromJsonString(String json, Type targetType) {
+    return fallback.fromJsonString(json, targetType);
+  }
+
+  @Override
+  public <T> T fromJsonStream(InputStream json, Type targetType) {
+    return fallback.fromJsonStream(json, targetType);
+  }
+
+  // Write `value` to this thread's writer, or return `null` if there's no
+  // serializer for it.
+  private JsonWriter writeFast(Object value) {
+    if (value == null) {
+      return null;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      Serializer<Object> serializer = serializers.get(type.getComponentType());
+      if (serializer == null) {
+        return null;
+      }
+      JsonWriter out = JsonWriter.forThisThread();
+      out.raw((byte) '[');
+      Object[] elements = (Object[]) value;
+      for (int i = 0; i < elements.length; i++) {
+        if (i > 0) {
+          out.raw((byte) ',');
+        }
+        if (elements[i] == null) {
+          out.string(null);
+        } else {
+          serializer.write(out, elements[i]);
+        }
+      }
+      out.raw((byte) ']');
+      return out;
+    }
+    Serializer<Object> serializer = serializers.get(type);
+    if (serializer == null) {
+      return null;
+    }
+    JsonWriter out = JsonWriter.forThisThread();
+    serializer.write(out, value);
+    return out;
+  }
+}
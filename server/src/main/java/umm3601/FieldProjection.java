@@ -0,0 +1,157 @@
+package umm3601;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Support for "sparse fieldsets", i.e., a `fields` query parameter like
+ * `?fields=_id,name` that limits which properties of each object are
+ * included in a JSON response.
+ * <p>
+ * Jackson can leave properties out with a "filter", but building one (and the
+ * serializers that go with it) for every request would be wasteful. Instead
+ * we build one `ObjectWriter` per distinct set of fields (and `WireFormat`)
+ * the first time that set is asked for, and reuse it after that.
+ * `ObjectWriter`s are immutable and thread safe, so they can be shared
+ * between requests.
+ */
+public class FieldProjection {
+
+  /**
+   * The query parameter holding the requested fields.
+   */
+  public static final String FIELDS_KEY = "fields";
+
+  // The name Jackson uses to connect the `@JsonFilter` on the mixin below to
+  // the filter we provide when building a writer.
+  private static final String FILTER_ID = "fieldProjection";
+
+  // Adding this "mixin" to a class has the same effect as putting
+  // `@JsonFilter(FILTER_ID)` on the class itself, but without changing it
+  // (or how Javalin's own mapper serializes it).
+  @JsonFilter(FILTER_ID)
+  private abstract static class ProjectionMixin {
+  }
+
+  private final Class<?> type;
+  private final String typeName;
+  private final Set<String> knownFields;
+  // Each format's mapper is built the first time a projection is asked for
+  // in that format, rather than all of them up front when the server starts.
+  private final Map<WireFormat, ObjectMapper> mappers = new EnumMap<>(WireFormat.class);
+  private final Map<WireFormat, Map<Set<String>, ObjectWriter>> writers = new EnumMap<>(WireFormat.class);
+
+  /**
+   * Construct a projection for objects of the given class, whose public
+   * fields are the ones that can be requested.
+   *
+   * @param type     the class of the objects to project, e.g., `User.class`
+   * @param typeName the name of the type to use in error messages, e.g., "user"
+   */
+  public FieldProjection(Class<?> type, String typeName) {
+    this.type = type;
+    this.typeName = typeName;
+    this.knownFields = Arrays.stream(type.getFields())
+        .filter(field -> !Modifier.isStatic(field.getModifiers()))
+        .map(Field::getName)
+        .collect(Collectors.toUnmodifiableSet());
+    for (WireFormat format : WireFormat.values()) {
+      writers.put(format, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Get the set of fields requested by the `fields` query parameter, if any.
+   * Fields may be comma separated (`fields=_id,name`) or repeated
+   * (`fields=_id&fields=name`).
+   *
+   * @param queryParams the query parameters of the request
+   * @return the (sorted) requested fields, or `null` if there was no `fields`
+   *         parameter, in which case every field should be returned
+   * @throws BadRequestResponse if an unknown field was requested
+   */
+  public SortedSet<String> requestedFields(Map<String, List<String>> queryParams) {
+    List<String> params = queryParams.get(FIELDS_KEY);
+    if (params == null) {
+      return null;
+    }
+    SortedSet<String> fields = new TreeSet<>();
+    for (String field : QueryParams.splitValues(params)) {
+      if (!knownFields.contains(field)) {
+        throw new BadRequestResponse("Specified field '" + field + "' is not a " + typeName + " attribute");
+      }
+      fields.add(field);
+    }
+    return Collections.unmodifiableSortedSet(fields);
+  }
+
+  /**
+   * Serialize `value` (typically an array of objects) to JSON, keeping just
+   * the given fields of each object.
+   *
+   * @param value  the value to serialize
+   * @param fields the fields to keep, as returned by `requestedFields()`
+   * @return the UTF-8 encoded JSON
+   */
+  public byte[] write(Object value, Set<String> fields) {
+    try {
+      return writer(fields, WireFormat.JSON).writeValueAsBytes(value);
+    } catch (JsonProcessingException e) {
+      // This "can't happen" for our plain data classes, but if it does
+      // the server's exception handler will turn it into a 500 response.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the number of distinct projections we've built writers for
+   */
+  public int cachedWriterCount() {
+    int count = 0;
+    for (Map<Set<String>, ObjectWriter> formatWriters : writers.values()) {
+      count += formatWriters.size();
+    }
+    return count;
+  }
+
+  /**
+   * Get a writer that keeps just the given fields of each object, for use
+   * with `WireFormat.respond()`.
+   * <p>
+   * Since `requestedFields()` only accepts known fields, there are at most
+   * 2^(number of fields) writers per format, so this cache can't grow
+   * without bound.
+   *
+   * @param fields the fields to keep, as returned by `requestedFields()`
+   * @param format the format to write
+   * @return the writer
+   */
+  public ObjectWriter writer(Set<String> fields, WireFormat format) {
+    return writers.get(format).computeIfAbsent(fields, requested -> mapper(format).writer(
+        new SimpleFilterProvider().addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(requested))));
+  }
+
+  private synchronized ObjectMapper mapper(WireFormat format) {
+    return mappers.computeIfAbsent(format, newFormat -> newFormat.newMapper().addMixIn(type, ProjectionMixin.class));
+  }
+}
@@ -0,0 +1,72 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How big one of a repository's data structures is, for the
+ * `/api/admin/stats` endpoint.
+ * <p>
+ * For example, an indexed todo repository reports the todos themselves, and
+ * each of its indexes: `{"structure": "ownerPostings", "entries": 100,
+ * "estimatedBytes": 412400, "buildMillis": 3.1, "offHeap": false}`.
+ *
+ * @param structure      what the structure is, e.g., `todos` or
+ *                       `ownerPostings`
+ * @param entries        how many entries (objects, rows, or distinct
+ *                       values) it has
+ * @param estimatedBytes roughly how much memory it takes (see
+ *                       `MemoryEstimate`)
+ * @param buildMillis    how long it took to build, or 0 if it isn't built
+ *                       from anything else
+ * @param offHeap        `true` if it's in memory-mapped files rather than
+ *                       on the Java heap (so it needs memory, but not heap)
+ */
+public record Footprint(String structure, long entries, long estimatedBytes, double buildMillis, boolean offHeap) {
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  /**
+   * @param structure      what the structure is
+   * @param entries        how many entries it has
+   * @param estimatedBytes roughly how much heap it takes
+   * @param buildNanos     how long it took to build, in nanoseconds
+   * @return the footprint of a structure on the Java heap
+   */
+  public static Footprint heap(String structure, long entries, long estimatedBytes, long buildNanos) {
+    return new Footprint(structure, entries, estimatedBytes, buildNanos / NANOS_PER_MILLI, false);
+  }
+
+  /**
+   * @param structure   what the structure is
+   * @param entries     how many entries it has
+   * @param mappedBytes how much of its files are mapped into memory
+   * @return the footprint of a structure kept in memory-mapped files
+   */
+  public static Footprint mapped(String structure, long entries, long mappedBytes) {
+    return new Footprint(structure, entries, mappedBytes, 0, true);
+  }
+
+  /**
+   * Add up the footprints of several repositories of the same kind (e.g.,
+   * the shards of a `ShardedTodoRepository`), structure by structure.
+   * The build times are added up too, so they're the total time spent
+   * building, even if the shards were built at the same time.
+   *
+   * @param parts the footprints of each repository
+   * @return the total for each structure, in the order they first appear
+   */
+  public static List<Footprint> sum(List<List<Footprint>> parts) {
+    Map<String, Footprint> totals = new LinkedHashMap<>();
+    for (List<Footprint> part : parts) {
+      for (Footprint footprint : part) {
+        totals.merge(footprint.structure(), footprint, (a, b) -> new Footprint(a.structure(),
+            a.entries() + b.entries(), a.estimatedBytes() + b.estimatedBytes(),
+            a.buildMillis() + b.buildMillis(), a.offHeap()));
+      }
+    }
+    return new ArrayList<>(totals.values());
+  }
+}
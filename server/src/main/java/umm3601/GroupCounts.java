@@ -0,0 +1,18 @@
+package umm3601;
+
+import java.util.Map;
+
+/**
+ * The response to a "stats" request: how many objects matched the request's
+ * filters, and how those matches break down by the values of one or more
+ * fields.
+ * <p>
+ * For example, the user stats for `?role=admin&groupBy=company` might be
+ * `{"count": 2, "groups": {"company": {"OHMNET": 1, "SURELOGIC": 1}}}`.
+ *
+ * @param count  the number of objects that matched the filters
+ * @param groups for each requested field, the number of matching objects
+ *               with each value of that field
+ */
+public record GroupCounts(int count, Map<String, Map<String, Integer>> groups) {
+}
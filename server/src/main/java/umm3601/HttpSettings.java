@@ -0,0 +1,107 @@
+package umm3601;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * How the server's HTTP connections are set up.
+ * <p>
+ * With HTTP/1.1, a connection carries one request at a time (pipelined
+ * requests are answered in order, so one slow response holds up the rest),
+ * so a page that fires off dozens of requests at once either waits or opens
+ * lots of connections. HTTP/2 "multiplexes" many requests over a single
+ * connection, each in its own stream, so they don't wait for each other.
+ * Browsers only speak HTTP/2 over TLS, but other services (and our load
+ * tests) can use it in cleartext ("h2c"), either by upgrading an HTTP/1.1
+ * connection or by starting with HTTP/2 straight away. HTTP/1.1 (including
+ * pipelining) keeps working on the same port for every other client.
+ *
+ * @param http2                whether to accept h2c as well as HTTP/1.1
+ * @param idleTimeoutMillis    how long an idle (kept-alive) connection is
+ *                             kept open before the server closes it
+ * @param maxConcurrentStreams how many requests one HTTP/2 connection can
+ *                             have in progress at once
+ */
+public record HttpSettings(boolean http2, long idleTimeoutMillis, int maxConcurrentStreams) {
+
+  /**
+   * The system property that, when set to `false`, turns off HTTP/2, so the
+   * server only speaks HTTP/1.1.
+   */
+  public static final String HTTP2_PROPERTY = "umm3601.http2";
+
+  /**
+   * The system property holding how long idle connections are kept open,
+   * in milliseconds.
+   */
+  public static final String IDLE_TIMEOUT_PROPERTY = "umm3601.idleTimeoutMillis";
+
+  /**
+   * The system property holding the number of concurrent streams allowed
+   * on each HTTP/2 connection.
+   */
+  public static final String MAX_STREAMS_PROPERTY = "umm3601.maxConcurrentStreams";
+
+  /**
+   * The default for `umm3601.idleTimeoutMillis`: long enough that a
+   * dashboard polling every few seconds keeps its connection, short enough
+   * that abandoned connections don't pile up.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+  /**
+   * The default for `umm3601.maxConcurrentStreams`, comfortably more than a
+   * dashboard sends at once.
+   */
+  public static final int DEFAULT_MAX_STREAMS = 256;
+
+  /**
+   * @throws IllegalArgumentException if a setting is out of range
+   */
+  public HttpSettings {
+    if (idleTimeoutMillis <= 0 || maxConcurrentStreams <= 0) {
+      throw new IllegalArgumentException("The idle timeout and stream limit must be positive");
+    }
+  }
+
+  /**
+   * @return the settings chosen by the `umm3601.http2`,
+   *         `umm3601.idleTimeoutMillis` and `umm3601.maxConcurrentStreams`
+   *         system properties
+   */
+  public static HttpSettings configured() {
+    return new HttpSettings(
+        Boolean.parseBoolean(System.getProperty(HTTP2_PROPERTY, "true")),
+        Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MILLIS),
+        Integer.getInteger(MAX_STREAMS_PROPERTY, DEFAULT_MAX_STREAMS));
+  }
+
+  /**
+   * Build the connector the server listens with, for
+   * `config.jetty.addConnector()`.
+   *
+   * @param server            the Jetty server
+   * @param httpConfiguration Javalin's HTTP configuration
+   * @param port              the port to listen on (0 for any free port)
+   * @return the connector
+   */
+  public Connector connector(org.eclipse.jetty.server.Server server, HttpConfiguration httpConfiguration,
+      int port) {
+    HttpConnectionFactory http11 = new HttpConnectionFactory(httpConfiguration);
+    ServerConnector connector;
+    if (http2) {
+      HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfiguration);
+      h2c.setMaxConcurrentStreams(maxConcurrentStreams);
+      h2c.setStreamIdleTimeout(idleTimeoutMillis);
+      connector = new ServerConnector(server, http11, h2c);
+    } else {
+      connector = new ServerConnector(server, http11);
+    }
+    connector.setPort(port);
+    connector.setIdleTimeout(idleTimeoutMillis);
+    return connector;
+  }
+}
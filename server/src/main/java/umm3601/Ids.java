@@ -0,0 +1,28 @@
+package umm3601;
+
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helpers for the `_id`s of records.
+ */
+public final class Ids {
+
+  // The IDs in our data files are 24 hex digits (12 bytes) long, like
+  // MongoDB's IDs, so we make new ones the same size.
+  private static final int ID_BYTES = 12;
+
+  private Ids() {
+  }
+
+  /**
+   * Make a new random ID, e.g., for a record that was added without one.
+   *
+   * @return a random 24 hex digit ID
+   */
+  public static String newId() {
+    byte[] bytes = new byte[ID_BYTES];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+}
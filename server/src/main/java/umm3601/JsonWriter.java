@@ -0,0 +1,257 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal JSON writer that encodes straight into a growable byte buffer
+ * (UTF-8), for the hand-written serializers `FastJsonMapper` uses.
+ * <p>
+ * Each thread has one writer (see `forThisThread()`), whose buffer is kept
+ * and reused from one response to the next, so serializing a response
+ * allocates nothing but the final copy of its bytes. Property names are
+ * encoded once, up front, with `name()`, and then copied in with `raw()`.
+ * <p>
+ * Strings are escaped the same way Jackson escapes them, so the output is
+ * byte for byte what Jackson would have written.
+ */
+public final class JsonWriter {
+
+  private static final int INITIAL_CAPACITY = 8 * 1024;
+
+  // A buffer that has grown past this (for an unusually big response) is
+  // dropped afterwards, so one big response doesn't pin that much memory
+  // to the thread forever.
+  private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+  private static final ThreadLocal<JsonWriter> WRITERS = ThreadLocal.withInitial(JsonWriter::new);
+
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+  // The bit patterns of the UTF-8 lead and continuation bytes.
+  private static final int TWO_BYTE_LEAD = 0xC0;
+  private static final int THREE_BYTE_LEAD = 0xE0;
+  private static final int FOUR_BYTE_LEAD = 0xF0;
+  private static final int CONTINUATION = 0x80;
+  private static final int SIX_BITS = 0x3F;
+  private static final int ONE_BYTE_LIMIT = 0x80;
+  private static final int TWO_BYTE_LIMIT = 0x800;
+  private static final int CONTROL_LIMIT = 0x20;
+  private static final int NIBBLE = 0xF;
+  private static final int BITS_PER_HEX_DIGIT = 4;
+
+  // The length of `Integer.MIN_VALUE`, the longest `int`.
+  private static final int MAX_INT_LENGTH = 11;
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  private JsonWriter() {
+  }
+
+  /**
+   * @return this thread's writer, emptied and ready to use
+   */
+  public static JsonWriter forThisThread() {
+    JsonWriter writer = WRITERS.get();
+    writer.reset();
+    return writer;
+  }
+
+  /**
+   * Encode a property name, with its quotes and the colon after it (and a
+   * comma before it, if asked), so it can be written with `raw()`.
+   *
+   * @param name        the property name
+   * @param commaBefore whether to start with a comma, i.e., whether the
+   *                    property comes after another one
+   * @return the encoded name
+   */
+  public static byte[] name(String name, boolean commaBefore) {
+    JsonWriter writer = new JsonWriter();
+    if (commaBefore) {
+      writer.raw((byte) ',');
+    }
+    writer.string(name);
+    writer.raw((byte) ':');
+    return writer.toByteArray();
+  }
+
+  /**
+   * @return the number of bytes written so far
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return a copy of the bytes written so far
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  /**
+   * @return the bytes written so far, as a string
+   */
+  @Override
+  public String toString() {
+    return new String(buffer, 0, size, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write some bytes that are already valid JSON (e.g., from `name()`).
+   *
+   * @param bytes the bytes to write
+   */
+  public void raw(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, size, bytes.length);
+    size += bytes.length;
+  }
+
+  /**
+   * Write a single byte that is already valid JSON, e.g., `{` or `,`.
+   *
+   * @param b the byte to write
+   */
+  public void raw(byte b) {
+    ensureCapacity(1);
+    buffer[size++] = b;
+  }
+
+  /**
+   * Write a boolean.
+   *
+   * @param value the value to write
+   */
+  public void bool(boolean value) {
+    raw(value ? TRUE : FALSE);
+  }
+
+  /**
+   * Write an integer.
+   *
+   * @param value the value to write
+   */
+  @SuppressWarnings({ "MagicNumber" })
+  public void number(int value) {
+    ensureCapacity(MAX_INT_LENGTH);
+    // A `long`, so negating `Integer.MIN_VALUE` doesn't overflow.
+    long remaining = value;
+    if (remaining < 0) {
+      buffer[size++] = '-';
+      remaining = -remaining;
+    }
+    // Write the digits backwards, and then turn them around.
+    int start = size;
+    do {
+      buffer[size++] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    } while (remaining > 0);
+    for (int left = start, right = size - 1; left < right; left++, right--) {
+      byte digit = buffer[left];
+      buffer[left] = buffer[right];
+      buffer[right] = digit;
+    }
+  }
+
+  /**
+   * Write a string (with its quotes), or `null`.
+   *
+   * @param value the value to write
+   */
+  public void string(String value) {
+    if (value == null) {
+      raw(NULL);
+    } else {
+      quoted(value);
+    }
+  }
+
+  // The shifts split a character into UTF-8's groups of six bits.
+  @SuppressWarnings({ "MagicNumber" })
+  private void quoted(String value) {
+    // At most 6 bytes per character (an escaped control character), plus the
+    // quotes.
+    ensureCapacity(value.length() * 6 + 2);
+    buffer[size++] = '"';
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < ONE_BYTE_LIMIT) {
+        if (c < CONTROL_LIMIT || c == '"' || c == '\\') {
+          escape(c);
+        } else {
+          buffer[size++] = (byte) c;
+        }
+      } else if (c < TWO_BYTE_LIMIT) {
+        buffer[size++] = (byte) (TWO_BYTE_LEAD | (c >> 6));
+        buffer[size++] = (byte) (CONTINUATION | (c & SIX_BITS));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[size++] = (byte) (FOUR_BYTE_LEAD | (codePoint >> 18));
+        buffer[size++] = (byte) (CONTINUATION | ((codePoint >> 12) & SIX_BITS));
+        buffer[size++] = (byte) (CONTINUATION | ((codePoint >> 6) & SIX_BITS));
+        buffer[size++] = (byte) (CONTINUATION | (codePoint & SIX_BITS));
+      } else if (Character.isSurrogate(c)) {
+        // Half of a surrogate pair can't be encoded; do what
+        // `String.getBytes()` does.
+        buffer[size++] = '?';
+      } else {
+        buffer[size++] = (byte) (THREE_BYTE_LEAD | (c >> 12));
+        buffer[size++] = (byte) (CONTINUATION | ((c >> 6) & SIX_BITS));
+        buffer[size++] = (byte) (CONTINUATION | (c & SIX_BITS));
+      }
+    }
+    buffer[size++] = '"';
+  }
+
+  private void escape(char c) {
+    buffer[size++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        buffer[size++] = (byte) c;
+        break;
+      case '\n':
+        buffer[size++] = 'n';
+        break;
+      case '\r':
+        buffer[size++] = 'r';
+        break;
+      case '\t':
+        buffer[size++] = 't';
+        break;
+      case '\b':
+        buffer[size++] = 'b';
+        break;
+      case '\f':
+        buffer[size++] = 'f';
+        break;
+      default:
+        buffer[size++] = 'u';
+        buffer[size++] = '0';
+        buffer[size++] = '0';
+        buffer[size++] = HEX[(c >> BITS_PER_HEX_DIGIT) & NIBBLE];
+        buffer[size++] = HEX[c & NIBBLE];
+        break;
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+    }
+  }
+
+  private void reset() {
+    if (buffer.length > MAX_RETAINED_CAPACITY) {
+      buffer = new byte[INITIAL_CAPACITY];
+    }
+    size = 0;
+  }
+}
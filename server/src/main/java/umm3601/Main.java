@@ -1,14 +1,33 @@
 package umm3601;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import umm3601.admin.AdminController;
+import umm3601.admin.StatsSource;
+import umm3601.cluster.ClusterCoordinator;
+import umm3601.jfr.FlightRecordings;
+import umm3601.replication.LogShipper;
+import umm3601.replication.Replica;
+import umm3601.replication.ReplicationController;
 import umm3601.todo.TodoController;
+import umm3601.todo.TodoDatabase;
 import umm3601.user.UserController;
+import umm3601.user.UserDatabase;
 
 public class Main {
   public static final String USER_DATA_FILE = "/users.json";
   public static final String TODO_DATA_FILE = "/todos.json";
 
+  // System properties that can name other data resources to load, e.g.,
+  // `-Dumm3601.userData=/big-users.json`. Which kind of storage the data is
+  // kept in is chosen separately (see `StorageBackend`).
+  public static final String USER_DATA_PROPERTY = "umm3601.userData";
+  public static final String TODO_DATA_PROPERTY = "umm3601.todoData";
+
   public static void main(String[] args) throws IOException {
 
     // The implementations of `Controller` used for the server. These will
@@ -16,11 +35,18 @@ public class Main {
     // be one or more controllers, each of which implements the `Controller`
     // interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers();
+    final Controller[] controllers = withAdminController(Main.getControllers());
 
     // Construct the server
     Server server = new Server(controllers);
 
+    // When building the server's class data sharing archive, just run
+    // through some typical requests and stop (see `TrainingRun`).
+    if (TrainingRun.requested()) {
+      TrainingRun.run(server);
+      return;
+    }
+
     // Start the server
     server.startServer();
   }
@@ -31,19 +57,81 @@ public class Main {
    * These will presumably be one or more controllers, each of which
    * implements the `Controller` interface. You'll add your own controllers
    * in to the array returned by this method as you create them.
+   * <p>
+   * If the `umm3601.nodes` system property lists the URLs of other servers,
+   * this server is instead the coordinator of a cluster made of them (see
+   * `ClusterCoordinator`), and keeps no data of its own.
    *
    * @return An array of implementations of `Controller` for the server.
    * @throws IOException
    */
   static Controller[] getControllers() throws IOException {
+    String nodes = System.getProperty(ClusterCoordinator.NODES_PROPERTY);
+    if (nodes != null) {
+      return new Controller[] { ClusterCoordinator.forUrls(nodes) };
+    }
+    String role = System.getProperty(ReplicationController.ROLE_PROPERTY);
+    if (role != null) {
+      return getReplicatedControllers(role,
+          Path.of(System.getProperty(ReplicationController.DIRECTORY_PROPERTY, "replication")));
+    }
     Controller[] controllers = new Controller[] {
         // You would add additional controllers here, as you create them,
         // although you need to make sure that each of your new controllers implements
         // the `Controller` interface.
-        UserController.buildUserController(USER_DATA_FILE),
-        TodoController.buildTodoController(TODO_DATA_FILE)
+        UserController.buildUserController(System.getProperty(USER_DATA_PROPERTY, USER_DATA_FILE)),
+        TodoController.buildTodoController(System.getProperty(TODO_DATA_PROPERTY, TODO_DATA_FILE))
     };
     return controllers;
   }
 
+  /**
+   * Add the `AdminController`, which every kind of server has, to the
+   * controllers for a server. It reports the stats of the controllers that
+   * have a dataset (the `StatsSource`s).
+   *
+   * @param controllers the controllers for the server's data
+   * @return those controllers and an `AdminController`
+   */
+  static Controller[] withAdminController(Controller[] controllers) {
+    List<StatsSource> statsSources = new ArrayList<>();
+    for (Controller controller : controllers) {
+      if (controller instanceof StatsSource source) {
+        statsSources.add(source);
+      }
+    }
+    Controller[] withAdmin = Arrays.copyOf(controllers, controllers.length + 1);
+    withAdmin[controllers.length] = new AdminController(FlightRecordings.configured(), statsSources);
+    return withAdmin;
+  }
+
+  /**
+   * Get the controllers for a server that is a primary (which ships its
+   * changes to replicas) or a replica (which serves a read-only copy of the
+   * primary's data). See `ReplicationController`.
+   *
+   * @param role      `primary` or `replica`
+   * @param directory the directory the primary shares with its replicas
+   * @return An array of implementations of `Controller` for the server.
+   * @throws IOException if the data or the replication files can't be read
+   *                     or written
+   */
+  static Controller[] getReplicatedControllers(String role, Path directory) throws IOException {
+    if ("primary".equals(role)) {
+      UserDatabase users = new UserDatabase(System.getProperty(USER_DATA_PROPERTY, USER_DATA_FILE));
+      TodoDatabase todos = new TodoDatabase(System.getProperty(TODO_DATA_PROPERTY, TODO_DATA_FILE));
+      LogShipper shipper = LogShipper.start(directory, todos, users);
+      return new Controller[] {
+          new UserController(users), new TodoController(todos), ReplicationController.forPrimary(shipper)
+      };
+    } else if ("replica".equals(role)) {
+      Replica replica = Replica.start(directory);
+      return new Controller[] {
+          UserController.forReplica(replica.users()), TodoController.forReplica(replica.todos()),
+          ReplicationController.forReplica(replica)
+      };
+    }
+    throw new IllegalArgumentException("Unknown replication role '" + role + "'; the choices are primary and replica");
+  }
+
 }
@@ -0,0 +1,142 @@
+package umm3601;
+
+import java.util.function.IntToLongFunction;
+
+/**
+ * Rough estimates of how much heap our data structures take, for the
+ * `/api/admin/stats` endpoint (see `Footprint`).
+ * <p>
+ * Java doesn't tell us how big an object is, so these add up the sizes a
+ * typical 64-bit HotSpot JVM uses (with "compressed" 4-byte references,
+ * which it uses for heaps under 32GB): a 12-byte header on every object,
+ * 16 bytes on every array, and everything rounded up to a multiple of 8.
+ * That's close enough for planning how much memory a server needs, which is
+ * what they're for. (For exact numbers, take a heap dump.)
+ * <p>
+ * Estimating a whole collection would mean looking at every object in it,
+ * which is too slow to do every time the stats are asked for, so
+ * `sampled()` looks at a few evenly spaced objects and scales up.
+ */
+public final class MemoryEstimate {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int ALIGNMENT = 8;
+
+  // A `String` has a reference to its bytes, an `int` hash, and two one
+  // byte fields.
+  private static final int STRING_FIELD_BYTES = 10;
+
+  // A `HashMap` has 6 references and 3 `int`s (and a `float`), and each of
+  // its entries (a `HashMap.Node`) has 3 references and an `int`.
+  private static final int HASH_MAP_REFERENCES = 6;
+  private static final int HASH_MAP_PRIMITIVE_BYTES = 16;
+  private static final int HASH_NODE_REFERENCES = 3;
+  private static final int HASH_NODE_PRIMITIVE_BYTES = 4;
+  private static final float HASH_MAP_LOAD_FACTOR = 0.75f;
+  private static final int HASH_MAP_MIN_TABLE = 16;
+
+  private static final char LATIN_1_MAX = 0xFF;
+
+  // The most objects `sampled()` looks at.
+  private static final int SAMPLES = 64;
+
+  /**
+   * The size of a boxed `Integer` (e.g., a value in a `Map<String,
+   * Integer>`).
+   */
+  public static final long INTEGER = object(0, Integer.BYTES);
+
+  private MemoryEstimate() {
+  }
+
+  /**
+   * @param references     the number of reference fields
+   * @param primitiveBytes the total size of the primitive fields
+   * @return the size of one such object, not counting what it refers to
+   */
+  public static long object(int references, int primitiveBytes) {
+    return align(OBJECT_HEADER + (long) references * REFERENCE + primitiveBytes);
+  }
+
+  /**
+   * @param length       the number of elements
+   * @param elementBytes the size of each element (e.g., 4 for an `int[]`)
+   * @return the size of such an array
+   */
+  public static long array(long length, int elementBytes) {
+    return align(ARRAY_HEADER + length * elementBytes);
+  }
+
+  /**
+   * @param length the number of elements
+   * @return the size of an array of references (not counting the objects
+   *         they refer to)
+   */
+  public static long referenceArray(long length) {
+    return array(length, REFERENCE);
+  }
+
+  /**
+   * @param text a string, or `null`
+   * @return the size of the string and its bytes (one per character if
+   *         they're all Latin-1, and two otherwise), or 0 for `null`
+   */
+  public static long string(String text) {
+    if (text == null) {
+      return 0;
+    }
+    int bytesPerChar = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) > LATIN_1_MAX) {
+        bytesPerChar = 2;
+        break;
+      }
+    }
+    return object(1, STRING_FIELD_BYTES) + array(text.length(), bytesPerChar);
+  }
+
+  /**
+   * @param entries    the number of entries
+   * @param valueBytes the size of each value, if the map is the only thing
+   *                   that refers to it (e.g., `INTEGER` for a
+   *                   `Map<String, Integer>`), or 0 if it's shared
+   * @return the size of a `HashMap` of that many entries, not counting its
+   *         keys (which are usually shared with the objects they came from)
+   */
+  public static long hashMap(long entries, long valueBytes) {
+    // The table is the smallest power of two that keeps the map no more
+    // than 3/4 full.
+    long needed = (long) Math.ceil(entries / HASH_MAP_LOAD_FACTOR);
+    long table = entries == 0 ? 0 : Math.max(HASH_MAP_MIN_TABLE, Long.highestOneBit(needed * 2 - 1));
+    return object(HASH_MAP_REFERENCES, HASH_MAP_PRIMITIVE_BYTES)
+        + (table == 0 ? 0 : referenceArray(table))
+        + entries * (object(HASH_NODE_REFERENCES, HASH_NODE_PRIMITIVE_BYTES) + valueBytes);
+  }
+
+  /**
+   * Estimate the total size of a collection's objects from a sample of
+   * them.
+   *
+   * @param rows  the number of objects
+   * @param bytes the size of the object in a given row (and whatever only
+   *              it refers to)
+   * @return the estimated total size of all of them
+   */
+  public static long sampled(int rows, IntToLongFunction bytes) {
+    if (rows == 0) {
+      return 0;
+    }
+    int samples = Math.min(SAMPLES, rows);
+    long total = 0;
+    for (int i = 0; i < samples; i++) {
+      total += bytes.applyAsLong((int) ((long) i * rows / samples));
+    }
+    return total * rows / samples;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+}
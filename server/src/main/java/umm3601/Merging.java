@@ -0,0 +1,84 @@
+package umm3601;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Combining the results of a query that was run on several parts of the data
+ * (shards, or nodes of a cluster) into the result of running it on all of
+ * the data.
+ * <p>
+ * The parts are numbered, and part `i` holds data that comes before (in
+ * stored order) the data in part `i + 1`, so the stored order of everything
+ * is just the parts one after another.
+ */
+public final class Merging {
+
+  private Merging() {
+  }
+
+  /**
+   * Put unordered results one after another, up to a limit.
+   *
+   * @param <T>      the type of the results
+   * @param parts    each part's results, in stored order
+   * @param limit    the largest number of results to keep
+   * @param newArray makes an array for the merged results
+   * @return the first `limit` results, part by part
+   */
+  public static <T> T[] concatenate(T[][] parts, int limit, IntFunction<T[]> newArray) {
+    long total = 0;
+    for (T[] part : parts) {
+      total += part.length;
+    }
+    T[] merged = newArray.apply((int) Math.min(total, limit));
+    int next = 0;
+    for (T[] part : parts) {
+      int take = Math.min(part.length, merged.length - next);
+      System.arraycopy(part, 0, merged, next, take);
+      next += take;
+    }
+    return merged;
+  }
+
+  /**
+   * A k-way merge of sorted results, keeping the first `limit`. Ties go to
+   * the earlier part, which keeps results that are equal in stored order
+   * (so the merge is as stable as the sort on each part was).
+   * <p>
+   * Each part only needs to hold its own first `limit` results, since
+   * nothing after those could make it into the merged results.
+   *
+   * @param <T>      the type of the results
+   * @param parts    each part's results, sorted by `ordering`
+   * @param ordering the order the results are in
+   * @param limit    the largest number of results to keep
+   * @param newArray makes an array for the merged results
+   * @return the first `limit` results of all the parts, in order
+   */
+  public static <T> T[] merge(T[][] parts, Comparator<? super T> ordering, int limit, IntFunction<T[]> newArray) {
+    // Each entry is {part, position}, for the next result of each part.
+    PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(parts.length, 1), (x, y) -> {
+      int byResult = ordering.compare(parts[x[0]][x[1]], parts[y[0]][y[1]]);
+      return byResult != 0 ? byResult : Integer.compare(x[0], y[0]);
+    });
+    long total = 0;
+    for (int part = 0; part < parts.length; part++) {
+      total += parts[part].length;
+      if (parts[part].length > 0) {
+        heads.add(new int[] { part, 0 });
+      }
+    }
+    T[] merged = newArray.apply((int) Math.min(total, limit));
+    for (int next = 0; next < merged.length; next++) {
+      int[] head = heads.poll();
+      merged[next] = parts[head[0]][head[1]];
+      head[1]++;
+      if (head[1] < parts[head[0]].length) {
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,179 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The changes made to an in-memory repository since its index was last
+ * built: which of the index's rows have been removed, and the items added
+ * after them (in the order they were added).
+ * <p>
+ * Rebuilding an index (sorting, posting lists, and so on) takes time in
+ * proportion to all the items, so doing it on every change makes a burst
+ * of changes very slow. Instead, the repositories keep their changes here,
+ * "on top of" the index, and queries combine the two: the index's answer,
+ * less the removed rows, plus whichever added items match (which are few,
+ * so they're just checked one by one). Once there are more than a few
+ * changes, the repository folds them into a new index (see `shouldMerge()`),
+ * so each change costs a small share of one rebuild rather than a whole
+ * one. (This is the idea behind log-structured merge trees.)
+ * <p>
+ * Like the indexes, these never change: each change makes a new
+ * `PendingChanges` (copying the added items and the removed rows, which are
+ * small next to rebuilding an index), so a query that read one sees a
+ * consistent set of items throughout.
+ *
+ * @param <T> the type of the items
+ */
+public final class PendingChanges<T> {
+
+  /**
+   * How many changes a repository keeps pending, by default, before it
+   * builds a new index with them.
+   */
+  public static final int DEFAULT_MERGE_THRESHOLD = 1024;
+
+  private static final PendingChanges<Object> NONE = new PendingChanges<>(new BitSet(), 0, List.of());
+
+  private final BitSet removed;
+  private final int removedCount;
+  private final List<T> added;
+
+  private PendingChanges(BitSet removed, int removedCount, List<T> added) {
+    this.removed = removed;
+    this.removedCount = removedCount;
+    this.added = added;
+  }
+
+  /**
+   * @param <T> the type of the items
+   * @return no changes
+   */
+  @SuppressWarnings({ "unchecked" })
+  public static <T> PendingChanges<T> none() {
+    return (PendingChanges<T>) NONE;
+  }
+
+  /**
+   * @param item an item that's been added
+   * @return these changes, plus that addition
+   */
+  public PendingChanges<T> withAdded(T item) {
+    List<T> updated = new ArrayList<>(added.size() + 1);
+    updated.addAll(added);
+    updated.add(item);
+    return new PendingChanges<>(removed, removedCount, Collections.unmodifiableList(updated));
+  }
+
+  /**
+   * @param row a row of the index that's been removed
+   * @return these changes, plus that removal
+   */
+  public PendingChanges<T> withRemovedRow(int row) {
+    BitSet updated = (BitSet) removed.clone();
+    updated.set(row);
+    return new PendingChanges<>(updated, removedCount + 1, added);
+  }
+
+  /**
+   * @param position the position (in `added()`) of an added item that's
+   *                 been removed again
+   * @return these changes, without that addition
+   */
+  public PendingChanges<T> withoutAdded(int position) {
+    List<T> updated = new ArrayList<>(added);
+    updated.remove(position);
+    return new PendingChanges<>(removed, removedCount, Collections.unmodifiableList(updated));
+  }
+
+  /**
+   * @return the number of changes (removed rows and added items)
+   */
+  public int size() {
+    return removedCount + added.size();
+  }
+
+  /**
+   * @param threshold the most changes to keep pending
+   * @return `true` if there are enough changes that the repository should
+   *         build a new index with them
+   */
+  public boolean shouldMerge(int threshold) {
+    return size() > threshold;
+  }
+
+  /**
+   * @return the number of the index's rows that have been removed
+   */
+  public int removedCount() {
+    return removedCount;
+  }
+
+  /**
+   * @param row a row of the index
+   * @return `true` if that row has been removed
+   */
+  public boolean isRemoved(int row) {
+    return removed.get(row);
+  }
+
+  /**
+   * @return the items added since the index was built, in order
+   */
+  public List<T> added() {
+    return added;
+  }
+
+  /**
+   * Find an added item.
+   *
+   * @param item picks out the item (e.g., by its ID)
+   * @return its position in `added()`, or -1 if it isn't there
+   */
+  public int positionOf(Predicate<? super T> item) {
+    for (int i = 0; i < added.size(); i++) {
+      if (item.test(added.get(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Take the removed rows out of a set of rows from the index.
+   *
+   * @param rows the rows, which may be modified, or `null` for every row
+   * @param size the number of rows in the index
+   * @return the rows that haven't been removed, or `null` for every row if
+   *         none have been
+   */
+  public BitSet live(BitSet rows, int size) {
+    if (removedCount == 0) {
+      return rows;
+    }
+    BitSet live = rows;
+    if (live == null) {
+      live = new BitSet(size);
+      live.set(0, size);
+    }
+    live.andNot(removed);
+    return live;
+  }
+
+  /**
+   * @param query picks out the items wanted
+   * @return the added items it picks out, in the order they were added
+   */
+  public List<T> addedMatching(Predicate<? super T> query) {
+    List<T> matching = new ArrayList<>();
+    for (T item : added) {
+      if (query.test(item)) {
+        matching.add(item);
+      }
+    }
+    return matching;
+  }
+}
@@ -0,0 +1,252 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * A dictionary from each distinct value of some field to the "rows" (i.e.,
+ * positions in the array the lists were built from) that have that value.
+ * <p>
+ * Each list of rows (each "posting list") is in ascending order. Lookups
+ * return `BitSet`s of rows so they can be combined with other predicates,
+ * and the length of a posting list is the number of rows with that value,
+ * so group-by counts don't need to look at the rows themselves.
+ * <p>
+ * Each distinct value also gets a "dictionary code" (its position in the
+ * dictionary), and `codes` holds the code of every row's value. A query can
+ * look up the codes it wants once, up front, and then work with those
+ * rather than the text. When a lookup matches a large fraction of the rows,
+ * scanning the column of codes with a `ColumnScan` is quicker than setting
+ * the rows' bits one at a time from the posting lists.
+ */
+public final class PostingLists {
+
+  private static final ColumnScan SCAN = ColumnScan.configured();
+
+  private static final int[] NO_CODES = {};
+
+  // The size of each of the (usually one element) arrays in
+  // `codesByFolded`.
+  private static final long FOLDED_CODES_BYTES = MemoryEstimate.array(1, Integer.BYTES);
+
+  private final int size;
+
+  // `postings[code]` is the list of rows with the value whose dictionary
+  // code is `code`, and `values[code]` is that value.
+  private final int[][] postings;
+  private final String[] values;
+
+  // `codes[row]` is the dictionary code of that row's value, and
+  // `codeByValue` gives the code of each distinct value.
+  private final int[] codes;
+  private final Map<String, Integer> codeByValue;
+
+  // The codes of the distinct values, by their folded case (see
+  // `CaseFolding`), so a case-insensitive lookup is a hash lookup rather
+  // than a comparison with every distinct value.
+  private final Map<String, int[]> codesByFolded;
+
+  private PostingLists(int size, int[][] postings, String[] values, int[] codes, Map<String, Integer> codeByValue) {
+    this.size = size;
+    this.postings = postings;
+    this.values = values;
+    this.codes = codes;
+    this.codeByValue = codeByValue;
+    this.codesByFolded = new HashMap<>();
+    for (int code = 0; code < values.length; code++) {
+      codesByFolded.merge(CaseFolding.fold(values[code]), new int[] { code }, PostingLists::concat);
+    }
+  }
+
+  /**
+   * Build posting lists for one field of an array of objects.
+   *
+   * @param <T>   the type of the objects
+   * @param rows  the objects to index
+   * @param field a function that gets the value of the field from an object
+   * @return the posting lists for that field
+   */
+  public static <T> PostingLists build(T[] rows, Function<T, String> field) {
+    List<IntList> lists = new ArrayList<>();
+    List<String> values = new ArrayList<>();
+    Map<String, Integer> codeByValue = new HashMap<>();
+    int[] codes = new int[rows.length];
+    for (int row = 0; row < rows.length; row++) {
+      String value = field.apply(rows[row]);
+      Integer code = codeByValue.get(value);
+      if (code == null) {
+        code = values.size();
+        codeByValue.put(value, code);
+        values.add(value);
+        lists.add(new IntList());
+      }
+      lists.get(code).add(row);
+      codes[row] = code;
+    }
+    int[][] postings = new int[lists.size()][];
+    for (int code = 0; code < postings.length; code++) {
+      postings[code] = lists.get(code).toArray();
+    }
+    return new PostingLists(rows.length, postings, values.toArray(new String[0]), codes, codeByValue);
+  }
+
+  /**
+   * @return the distinct values of the field
+   */
+  public Set<String> values() {
+    return codeByValue.keySet();
+  }
+
+  /**
+   * Estimate how much heap these posting lists take (see `MemoryEstimate`).
+   * This adds up the lists, so it takes time in proportion to the number of
+   * distinct values (not the number of rows).
+   *
+   * @return the estimated size, not counting the values themselves (which
+   *         are shared with the indexed objects)
+   */
+  public long estimatedBytes() {
+    long bytes = 2 * MemoryEstimate.referenceArray(postings.length)
+        + MemoryEstimate.array(codes.length, Integer.BYTES)
+        + MemoryEstimate.hashMap(codeByValue.size(), MemoryEstimate.INTEGER)
+        + MemoryEstimate.hashMap(codesByFolded.size(), FOLDED_CODES_BYTES);
+    for (int[] rows : postings) {
+      bytes += MemoryEstimate.array(rows.length, Integer.BYTES);
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the rows that have any of the given values.
+   *
+   * @param wanted the values to look for
+   * @return the matching rows
+   */
+  public BitSet rowsWithAny(Collection<String> wanted) {
+    IntList wantedCodes = new IntList();
+    for (String value : wanted) {
+      Integer code = codeByValue.get(value);
+      if (code != null) {
+        wantedCodes.add(code);
+      }
+    }
+    return rowsWithCodes(wantedCodes.toArray());
+  }
+
+  /**
+   * Look up the dictionary codes of the values equal to the given one,
+   * ignoring case. A query can do this once, and then use the codes (e.g.,
+   * with `rowsWithCodes()`) instead of the text.
+   *
+   * @param folded the value to look for, already case-folded
+   * @return the codes of the matching values (usually just one), which
+   *         must not be modified, or none if no value matches
+   */
+  public int[] codesEqualFolded(String folded) {
+    return codesByFolded.getOrDefault(folded, NO_CODES);
+  }
+
+  /**
+   * Get the rows whose values have any of the given dictionary codes.
+   *
+   * @param wanted the codes to look for (from these posting lists)
+   * @return the matching rows
+   */
+  public BitSet rowsWithCodes(int[] wanted) {
+    int matches = 0;
+    for (int code : wanted) {
+      matches += postings[code].length;
+    }
+    if (SCAN.worthScanning(matches, size)) {
+      return SCAN.anyOf(codes, wanted);
+    }
+
+    BitSet rows = new BitSet(size);
+    for (int code : wanted) {
+      for (int row : postings[code]) {
+        rows.set(row);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Count the rows with each distinct value, optionally only counting the
+   * rows in `filter`.
+   * <p>
+   * Without a filter these counts are just the lengths of the posting
+   * lists. With one, each posting list is checked against the filter, so
+   * no objects are ever looked at.
+   *
+   * @param filter the rows to count, or `null` to count all of them
+   * @return the counts, sorted by value; values with no (matching) rows are
+   *         left out
+   */
+  public SortedMap<String, Integer> counts(BitSet filter) {
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (int code = 0; code < postings.length; code++) {
+      int count = countRows(postings[code], filter);
+      if (count > 0) {
+        counts.put(values[code], count);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Count how many of the given rows are in `filter`.
+   *
+   * @param rows   the rows to count
+   * @param filter the rows that count, or `null` if they all do
+   * @return the number of `rows` in `filter`
+   */
+  public static int countRows(int[] rows, BitSet filter) {
+    if (filter == null) {
+      return rows.length;
+    }
+    int count = 0;
+    for (int row : rows) {
+      if (filter.get(row)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int[] concat(int[] first, int[] second) {
+    int[] both = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+    return both;
+  }
+
+  /**
+   * A minimal growable list of `int`s, so building posting lists doesn't box
+   * every row number into an `Integer`.
+   */
+  private static final class IntList {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int count;
+
+    void add(int value) {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, count);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for reading the query parameters of a request.
+ */
+public final class QueryParams {
+
+  private QueryParams() {
+  }
+
+  /**
+   * Split a list of query parameter values into the individual values they
+   * contain, so that both `?role=admin,editor` and `?role=admin&role=editor`
+   * mean "admin or editor".
+   *
+   * @param params the raw values of a query parameter
+   * @return the individual, trimmed, non-empty values
+   */
+  public static List<String> splitValues(List<String> params) {
+    List<String> values = new ArrayList<>();
+    for (String param : params) {
+      for (String value : param.split(",")) {
+        String trimmed = value.trim();
+        if (!trimmed.isEmpty()) {
+          values.add(trimmed);
+        }
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,349 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.TooManyRequestsResponse;
+
+/**
+ * Limits how often each client can make API requests, so one noisy client
+ * can't use up the server for everyone else.
+ * <p>
+ * Each client gets a "token bucket" for each route: the
+ * bucket holds up to `burst` tokens, refills at `perSecond` tokens a
+ * second, and each request takes a token. A request that finds the bucket
+ * empty gets a `429 Too Many Requests`, with a `Retry-After` header saying
+ * when there will be a token again.
+ * <p>
+ * Rather than storing a count of tokens and a refill time (which would need
+ * a lock to update together), each bucket stores just one number: the time
+ * at which it would be completely full again. (This trick is known as the
+ * "generic cell rate algorithm".) Taking a token pushes that time one refill
+ * interval further into the future, and the bucket is empty if that would
+ * put it more than `burst` intervals ahead of now. Since that's a single
+ * `long`, a request updates its bucket with one compare-and-set, without
+ * locking. The buckets are kept in a `ConcurrentHashMap`, which spreads its
+ * entries over many independently updated bins, so requests from different
+ * clients don't contend with each other at all.
+ * <p>
+ * A client is identified by its IP address, unless it sends an `X-API-Key`
+ * header with one of the configured known keys. (The keys aren't checked
+ * for anything else, so if we went by any key at all, a client could get a
+ * fresh, full bucket on every request just by making up a new key each
+ * time.)
+ * <p>
+ * If more than one route's prefix matches a request, the longest one
+ * applies, so `/api/users` can have a different limit from the rest of
+ * `/api`.
+ * <p>
+ * Buckets that have been full (i.e., unused) for a while are removed, so
+ * the map doesn't keep growing with every client ever seen. Rather than
+ * have one unlucky request go through the whole map, each request that
+ * adds a bucket looks at the next few buckets (going round and round the
+ * map) and removes the idle ones, so the map is swept faster than it
+ * grows. In case lots of clients turn up at once, there is also a cap on
+ * the number of buckets: once it's reached, new clients share one
+ * "overflow" bucket for each route until there's room again.
+ */
+public final class RateLimiter {
+
+  /**
+   * The header clients can use to identify themselves with an API key.
+   */
+  public static final String API_KEY_HEADER = "X-API-Key";
+
+  /**
+   * The system property holding the limits, as a comma-separated list of
+   * `prefix=perSecond/burst`, e.g., `/api/todos=50/100,/api/users=20/40`.
+   * If it's empty, nothing is limited (e.g., for the nodes of a cluster,
+   * whose clients are already limited by the coordinator).
+   */
+  public static final String LIMITS_PROPERTY = "umm3601.rateLimits";
+
+  /**
+   * The system property holding the known API keys, comma-separated. A
+   * client that sends one of these in its `X-API-Key` header gets buckets
+   * of its own, whatever its IP address.
+   */
+  public static final String API_KEYS_PROPERTY = "umm3601.apiKeys";
+
+  /**
+   * The system property holding the most buckets to keep.
+   */
+  public static final String MAX_BUCKETS_PROPERTY = "umm3601.rateLimitBuckets";
+
+  /**
+   * The default for `umm3601.rateLimits`: an average of 50 requests a second
+   * (with bursts of up to 100) for each of `/api/todos` and `/api/users`.
+   */
+  public static final String DEFAULT_LIMITS = "/api/todos=50/100,/api/users=50/100";
+
+  /**
+   * The default for `umm3601.rateLimitBuckets`: enough for a great many
+   * clients, at around a hundred bytes a bucket.
+   */
+  public static final int DEFAULT_MAX_BUCKETS = 100_000;
+
+  // How long a bucket has to have been full before it's removed.
+  private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  // How many buckets each new bucket's request looks at for removal.
+  private static final int SWEEP_STEP = 4;
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The rate limit for a route.
+   *
+   * @param perSecond how many requests a second a client may make on average
+   * @param burst     how many requests a client may make at once after
+   *                  being idle
+   */
+  public record Limit(double perSecond, int burst) {
+  }
+
+  // The limit for a route, by the path prefix it applies to.
+  private record Route(String prefix, Limit limit) {
+  }
+
+  // The routes, longest prefix first, so the first one that matches a
+  // request is the most specific.
+  private final List<Route> routes;
+  private final Set<String> apiKeys;
+  private final int maxBuckets;
+
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  // Where the sweep got to in `buckets`. Only the thread that set
+  // `sweeping` uses it.
+  private final AtomicBoolean sweeping = new AtomicBoolean();
+  private Iterator<Map.Entry<String, Bucket>> sweepPosition;
+
+  /**
+   * Construct a rate limiter with the given limits, which goes by IP
+   * address alone.
+   *
+   * @param limits the limit for the routes starting with each path prefix
+   */
+  public RateLimiter(Map<String, Limit> limits) {
+    this(limits, Set.of(), DEFAULT_MAX_BUCKETS);
+  }
+
+  /**
+   * Construct a rate limiter.
+   *
+   * @param limits     the limit for the routes starting with each path prefix
+   * @param apiKeys    the API keys that identify clients
+   * @param maxBuckets the most buckets to keep
+   */
+  public RateLimiter(Map<String, Limit> limits, Set<String> apiKeys, int maxBuckets) {
+    List<Route> sorted = new ArrayList<>();
+    limits.forEach((prefix, limit) -> sorted.add(new Route(prefix, limit)));
+    sorted.sort(Comparator.comparingInt((Route route) -> route.prefix().length()).reversed());
+    this.routes = List.copyOf(sorted);
+    this.apiKeys = Set.copyOf(apiKeys);
+    this.maxBuckets = maxBuckets;
+  }
+
+  /**
+   * @return the rate limiter chosen by the `umm3601.rateLimits`,
+   *         `umm3601.apiKeys` and `umm3601.rateLimitBuckets` system
+   *         properties
+   * @throws IllegalArgumentException if the limits can't be understood
+   */
+  public static RateLimiter configured() {
+    return new RateLimiter(
+        parseLimits(System.getProperty(LIMITS_PROPERTY, DEFAULT_LIMITS)),
+        parseKeys(System.getProperty(API_KEYS_PROPERTY, "")),
+        Integer.getInteger(MAX_BUCKETS_PROPERTY, DEFAULT_MAX_BUCKETS));
+  }
+
+  /**
+   * Read limits written the way `umm3601.rateLimits` has them.
+   *
+   * @param text e.g., `/api/todos=50/100,/api/users=20/40`
+   * @return the limit for each prefix
+   * @throws IllegalArgumentException if the limits can't be understood
+   */
+  static Map<String, Limit> parseLimits(String text) {
+    Map<String, Limit> limits = new HashMap<>();
+    for (String entry : text.split(",")) {
+      if (entry.isBlank()) {
+        continue;
+      }
+      int equals = entry.indexOf('=');
+      int slash = entry.indexOf('/', equals + 1);
+      if (equals < 1 || slash < 0) {
+        throw new IllegalArgumentException(
+            "Rate limits should look like '/api/todos=50/100', not '" + entry.strip() + "'");
+      }
+      limits.put(entry.substring(0, equals).strip(), new Limit(
+          Double.parseDouble(entry.substring(equals + 1, slash).strip()),
+          Integer.parseInt(entry.substring(slash + 1).strip())));
+    }
+    return limits;
+  }
+
+  private static Set<String> parseKeys(String text) {
+    Set<String> keys = new HashSet<>();
+    for (String key : text.split(",")) {
+      if (!key.isBlank()) {
+        keys.add(key.strip());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Add the before-handler that checks each request against its limit.
+   *
+   * @param server the Javalin server to protect
+   */
+  public void register(Javalin server) {
+    server.before(this::check);
+  }
+
+  /**
+   * Take a token for the request, or turn it away if its client has run out.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws TooManyRequestsResponse if the client has made too many requests
+   */
+  public void check(Context ctx) {
+    String path = ctx.path();
+    for (Route route : routes) {
+      if (path.startsWith(route.prefix())) {
+        long waitNanos = tryAcquire(route.prefix() + " " + client(ctx), route.limit(), System.nanoTime());
+        if (waitNanos > 0) {
+          long retryAfter = (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+          ctx.header("Retry-After", Long.toString(retryAfter));
+          throw new TooManyRequestsResponse("Too many requests, please slow down");
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @return who the request is from: its API key if that's a known one, and
+   *         otherwise its IP address
+   */
+  public String client(Context ctx) {
+    String apiKey = ctx.header(API_KEY_HEADER);
+    return apiKey != null && apiKeys.contains(apiKey) ? "key " + apiKey : ctx.ip();
+  }
+
+  /**
+   * Try to take a token from the bucket with the given key.
+   *
+   * @param key   the bucket's key, i.e., the route and the client
+   * @param limit the limit for the bucket
+   * @param now   the current time, from `System.nanoTime()`
+   * @return 0 if a token was taken, otherwise how many nanoseconds until
+   *         there will be one
+   */
+  long tryAcquire(String key, Limit limit, long now) {
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      sweep(now);
+      // The cap is only checked here, so a few requests adding buckets at
+      // the same moment can take it slightly over.
+      String kept = buckets.size() < maxBuckets ? key : key.substring(0, key.indexOf(' ') + 1) + "(overflow)";
+      bucket = buckets.computeIfAbsent(kept, k -> new Bucket(limit, now));
+    }
+    return bucket.tryAcquire(now);
+  }
+
+  /**
+   * @return the number of buckets currently being kept
+   */
+  public int bucketCount() {
+    return buckets.size();
+  }
+
+  /**
+   * Look at the next few buckets, and remove the ones that have been full
+   * for a while. Only one thread does this at a time; the others carry on
+   * as usual.
+   *
+   * @param now the current time, from `System.nanoTime()`
+   */
+  void sweep(long now) {
+    if (!sweeping.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      for (int i = 0; i < SWEEP_STEP; i++) {
+        if (sweepPosition == null || !sweepPosition.hasNext()) {
+          // Start again from the beginning (a `ConcurrentHashMap`'s
+          // iterators carry on fine while other threads change the map).
+          sweepPosition = buckets.entrySet().iterator();
+          if (!sweepPosition.hasNext()) {
+            return;
+          }
+        }
+        // A request could take a token from a bucket just as we remove
+        // it, in which case that one token isn't counted. That's fine for
+        // a bucket that was idle and full anyway.
+        if (sweepPosition.next().getValue().fullSince(now - IDLE_NANOS)) {
+          sweepPosition.remove();
+        }
+      }
+    } finally {
+      sweeping.set(false);
+    }
+  }
+
+  /**
+   * A lock-free token bucket.
+   */
+  private static final class Bucket {
+    // The time it takes to get one token back, and how far into the future
+    // `fullAt` may go (i.e., `burst` tokens' worth of refilling).
+    private final long intervalNanos;
+    private final long capacityNanos;
+
+    // The time at which this bucket will be full again. If that's in the
+    // past, the bucket is already full.
+    private final AtomicLong fullAt;
+
+    Bucket(Limit limit, long now) {
+      this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / limit.perSecond()));
+      this.capacityNanos = intervalNanos * limit.burst();
+      this.fullAt = new AtomicLong(now);
+    }
+
+    long tryAcquire(long now) {
+      while (true) {
+        long current = fullAt.get();
+        long next = Math.max(current, now) + intervalNanos;
+        long ahead = next - now;
+        if (ahead > capacityNanos) {
+          return ahead - capacityNanos;
+        }
+        if (fullAt.compareAndSet(current, next)) {
+          return 0;
+        }
+        // Another request took a token at the same moment; try again with
+        // the new value.
+      }
+    }
+
+    boolean fullSince(long time) {
+      return fullAt.get() <= time;
+    }
+  }
+}
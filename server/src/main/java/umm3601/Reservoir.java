@@ -0,0 +1,139 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * A fixed-size, uniformly random sample of a collection that changes
+ * ("random pairing", reservoir sampling extended to removals).
+ * <p>
+ * Until the sample is full, it's the whole collection. After that, each
+ * item offered is kept with probability `capacity / size`, replacing a
+ * random one already kept (Algorithm R), so at any moment every item in the
+ * collection is equally likely to be in the sample. Items taken out of the
+ * collection are taken out of the sample too, which keeps it uniform over
+ * the items that are left, just smaller.
+ * <p>
+ * Nothing is ever read back from the collection to top the sample up.
+ * Instead, each removal is "paired" with a later addition: if the removed
+ * item was in the sample, the addition that pairs with it goes into the
+ * sample, and if not, it stays out. (Which removal an addition pairs with
+ * is picked at random, which is what keeps the sample uniform.) Once every
+ * removal has been paired, it's back to plain reservoir sampling. So a run
+ * of removals shrinks the sample, and the additions after it grow it back,
+ * each in constant time (plus a scan of the sample to find a removed item).
+ * <p>
+ * Its methods are `synchronized`, so queries can take a `snapshot()` while
+ * items are being added and removed.
+ *
+ * @param <T> the type of the items
+ */
+public final class Reservoir<T> {
+
+  private final int capacity;
+  private final Random random;
+  private final List<T> items;
+  // The number of items in the collection.
+  private long size;
+  // The removals not yet paired with an addition: those of items that were
+  // in the sample, and those of items that weren't.
+  private long removedKept;
+  private long removedOther;
+
+  /**
+   * @param capacity the largest number of items to keep
+   * @param random   where to get random numbers (seeded, in tests)
+   */
+  public Reservoir(int capacity, Random random) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A reservoir must hold at least one item, not " + capacity);
+    }
+    this.capacity = capacity;
+    this.random = random;
+    this.items = new ArrayList<>(capacity);
+  }
+
+  /**
+   * Offer an item that's been added to the collection.
+   *
+   * @param item the item
+   */
+  public synchronized void offer(T item) {
+    size++;
+    long unpaired = removedKept + removedOther;
+    if (unpaired > 0) {
+      if (random.nextDouble() * unpaired < removedKept) {
+        items.add(item);
+        removedKept--;
+      } else {
+        removedOther--;
+      }
+    } else if (items.size() < capacity) {
+      // With every removal paired, the sample is only short of capacity if
+      // it's the whole collection.
+      items.add(item);
+    } else {
+      long slot = (long) (random.nextDouble() * size);
+      if (slot < items.size()) {
+        items.set((int) slot, item);
+      }
+    }
+  }
+
+  /**
+   * Take an item that's been removed from the collection out of the
+   * sample, if it's there.
+   *
+   * @param item picks out the item (e.g., by its ID, since some
+   *             repositories hand back a new object for each query)
+   * @return `true` if the item was in the sample
+   */
+  public synchronized boolean remove(Predicate<? super T> item) {
+    size = Math.max(0, size - 1);
+    for (int i = 0; i < items.size(); i++) {
+      if (item.test(items.get(i))) {
+        // Order doesn't matter, so move the last item into the gap.
+        items.set(i, items.get(items.size() - 1));
+        items.remove(items.size() - 1);
+        removedKept++;
+        forgetPairsIfEmpty();
+        return true;
+      }
+    }
+    removedOther++;
+    forgetPairsIfEmpty();
+    return false;
+  }
+
+  // An empty collection's sample is the whole of it, so there's nothing
+  // left to pair.
+  private void forgetPairsIfEmpty() {
+    if (size == 0) {
+      removedKept = 0;
+      removedOther = 0;
+    }
+  }
+
+  /**
+   * @return a copy of the items in the sample
+   */
+  public synchronized List<T> snapshot() {
+    return new ArrayList<>(items);
+  }
+
+  /**
+   * @return how many items are in the sample
+   */
+  public synchronized int size() {
+    return items.size();
+  }
+
+  /**
+   * @return the largest number of items the sample holds
+   */
+  public int capacity() {
+    return capacity;
+  }
+}
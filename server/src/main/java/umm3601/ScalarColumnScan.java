@@ -0,0 +1,47 @@
+package umm3601;
+
+import java.util.BitSet;
+
+/**
+ * A `ColumnScan` that compares one row at a time, for JVMs without the
+ * Vector API. Each comparison's result is shifted straight into the bitmask
+ * rather than tested with an `if`, so the loops have no branches for the
+ * CPU to mispredict (and the JIT may still vectorize some of them).
+ */
+public final class ScalarColumnScan implements ColumnScan {
+
+  @Override
+  public int lanes() {
+    return 1;
+  }
+
+  @Override
+  public BitSet equal(byte[] column, byte value) {
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    for (int row = 0; row < column.length; row++) {
+      words[row / Long.SIZE] |= (column[row] == value ? 1L : 0L) << row;
+    }
+    return BitSet.valueOf(words);
+  }
+
+  @Override
+  public BitSet anyOf(int[] column, int[] values) {
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    for (int value : values) {
+      for (int row = 0; row < column.length; row++) {
+        words[row / Long.SIZE] |= (column[row] == value ? 1L : 0L) << row;
+      }
+    }
+    return BitSet.valueOf(words);
+  }
+
+  @Override
+  public BitSet between(int[] column, int min, int max) {
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    for (int row = 0; row < column.length; row++) {
+      int value = column[row];
+      words[row / Long.SIZE] |= (value >= min && value <= max ? 1L : 0L) << row;
+    }
+    return BitSet.valueOf(words);
+  }
+}
@@ -5,29 +5,62 @@ import java.util.Arrays;
 import io.javalin.Javalin;
 import io.javalin.http.InternalServerErrorResponse;
 import io.javalin.http.staticfiles.Location;
+import io.javalin.json.JavalinJackson;
+import umm3601.jfr.RequestEvent;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoJson;
+import umm3601.user.User;
+import umm3601.user.UserJson;
 
 public class Server {
 
   private static final int SERVER_PORT = 4567;
+
+  // The system property holding the port to listen on, if it isn't
+  // `SERVER_PORT` (e.g., to run several nodes of a cluster on one machine).
+  public static final String PORT_PROPERTY = "umm3601.port";
   public static final String CLIENT_DIRECTORY = "../client";
 
   // The `controllers` field is an array of all the `Controller` implementations
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // Keeps any one client from making too many requests.
+  private final RateLimiter rateLimiter;
+
+  // Decides which API requests to work on when the server is busy.
+  private final AdmissionController admissionController = new AdmissionController();
+
+  // HTTP/2 and keep-alive settings for the server's connections.
+  private final HttpSettings httpSettings = HttpSettings.configured();
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
-   * and start the server.
+   * and start the server, with the rate limits the system properties ask for
+   * (see `RateLimiter.configured()`).
    *
    * @param controllers The implementations of `Controller` used for this server
    */
   public Server(Controller[] controllers) {
+    this(controllers, RateLimiter.configured());
+  }
+
+  /**
+   * Construct a `Server` object with its own rate limits (e.g., none, for
+   * the nodes of a cluster, whose clients are already limited by the
+   * coordinator).
+   *
+   * @param controllers The implementations of `Controller` used for this server
+   * @param rateLimiter The limits on how often each client can make requests
+   */
+  public Server(Controller[] controllers, RateLimiter rateLimiter) {
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
     // the caller could modify the array after passing it in, and then
     // we'd be using the modified array without realizing it.
     this.controllers = Arrays.copyOf(controllers, controllers.length);
+    this.rateLimiter = rateLimiter;
   }
 
   /**
@@ -37,11 +70,25 @@ public class Server {
    * HTTP requests.
    * It also sets up the server to shut down gracefully if it's killed or if the
    * JVM is shut down.
+   * <p>
+   * The server listens on port 4567, unless the `umm3601.port` system
+   * property says otherwise.
    */
   void startServer() {
-    Javalin javalin = configureJavalin();
+    startServer(Integer.getInteger(PORT_PROPERTY, SERVER_PORT));
+  }
+
+  /**
+   * Configure and start the server on the given port.
+   *
+   * @param port the port to listen on, or 0 for any free port
+   * @return the running Javalin server (whose `port()` is the port it's
+   *         actually listening on, and which can be `stop()`ped)
+   */
+  public Javalin startServer(int port) {
+    Javalin javalin = configureJavalin(port);
     setupRoutes(javalin);
-    javalin.start(SERVER_PORT);
+    return javalin.start(port);
   }
 
   /**
@@ -54,9 +101,10 @@ public class Server {
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    * error.
    *
+   * @param port The port to listen on
    * @return The Javalin server instance
    */
-  private Javalin configureJavalin() {
+  private Javalin configureJavalin(int port) {
     /*
      * Create a Javalin server instance. We're using the "create" method
      * rather than the "start" method here because we want to set up some
@@ -80,8 +128,27 @@ public class Server {
       // routes/endpoints that we add below on a page reachable
       // via the "/api" path.
       config.bundledPlugins.enableRouteOverview("/api");
+      // This writes todos and users (by far the most common responses)
+      // with hand-written serializers instead of Jackson. See
+      // `FastJsonMapper` for the details.
+      config.jsonMapper(jsonMapper());
+      // This replaces Javalin's default connector with one that also
+      // speaks HTTP/2 (cleartext), so a client can send many requests at
+      // once over one connection, and that keeps idle connections open
+      // for longer. See `HttpSettings` for the details, and for how to
+      // turn HTTP/2 off.
+      config.jetty.addConnector((jetty, httpConfiguration) -> httpSettings.connector(jetty, httpConfiguration, port));
+      // This records a Java Flight Recorder event for each request, once
+      // its response has been written (see `RequestEvent`), if a recording
+      // is running.
+      config.requestLogger.http((ctx, executionTimeMs) -> RequestEvent.commit(ctx));
     });
 
+    // This starts timing each request for its `RequestEvent`. It comes
+    // before the other before-handlers, so it includes the time they take
+    // (and catches the requests they turn away).
+    server.before(RequestEvent::begin);
+
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
     // Error Response"). In general you'll like to *never* actually
@@ -95,9 +162,31 @@ public class Server {
       throw new InternalServerErrorResponse(e.toString());
     });
 
+    // This limits how many API requests each client can make a second,
+    // turning away requests from clients that make too many with a "429
+    // Too Many Requests". This comes before the admission controller so
+    // those requests don't take up any of its slots.
+    rateLimiter.register(server);
+
+    // This limits how many API requests are worked on at once, turning
+    // requests away with a "503 Service Unavailable" when the server is
+    // overloaded, rather than letting expensive searches pile up and make
+    // every request slow. See `AdmissionController` for the details.
+    admissionController.register(server);
+
     return server;
   }
 
+  /**
+   * @return the mapper the server uses for JSON: fast serializers for todos
+   *         and users, and Jackson for everything else
+   */
+  public static FastJsonMapper jsonMapper() {
+    return new FastJsonMapper(new JavalinJackson())
+        .register(Todo.class, TodoJson::write)
+        .register(User.class, UserJson::write);
+  }
+
   /**
    * Setup routes for the server.
    *
@@ -0,0 +1,262 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * "Single-flight" request coalescing: when several threads ask for the
+ * same thing at once, one of them works it out and the rest wait for, and
+ * share, its answer.
+ * <p>
+ * When a dashboard refreshes, hundreds of clients can send exactly the same
+ * list request (e.g., `/api/todos?status=incomplete&orderBy=owner`) within
+ * a few milliseconds of each other. Without this, each of them filters,
+ * sorts, and serializes the same todos. With it, the first request does the
+ * work (the "flight"), any identical requests that arrive while it's doing
+ * it wait for it to finish, and they all send the same bytes.
+ * <p>
+ * A flight's answer can also be kept for a short "coalescing window" after
+ * it lands, for requests that arrive just too late to join it. The key
+ * for a list request includes the database's `version()`, so a kept answer
+ * is never used once the data has changed; the window only limits how
+ * long answers take up memory.
+ * <p>
+ * Waiting requests never wait indefinitely. Every few milliseconds they
+ * pass a `Cancellation.checkpoint()`, so a waiter whose own client has gone
+ * away, or that has run out of time, stops waiting (and gives its compute
+ * thread back) just as a scan would. And a request that has waited longer
+ * than `maxWait` for a flight that still hasn't landed stops sharing and
+ * works the answer out for itself.
+ * <p>
+ * This is off unless the `umm3601.coalesceMillis` system property is set:
+ * to 0 to share only flights that are still in progress, or to the length
+ * of the coalescing window, in milliseconds.
+ *
+ * @param <K> the type of the keys, which must have a suitable `equals()`
+ *            and `hashCode()` (e.g., a record)
+ * @param <V> the type of the answers
+ */
+public final class SingleFlight<K, V> {
+
+  /**
+   * The system property that turns coalescing on, and sets the coalescing
+   * window (in milliseconds).
+   */
+  public static final String WINDOW_PROPERTY = "umm3601.coalesceMillis";
+
+  /**
+   * How long a request waits for another's answer, by default, before it
+   * works the answer out for itself: as long as `AsyncQueries` lets a query
+   * run.
+   */
+  public static final Duration DEFAULT_MAX_WAIT = Duration.ofMillis(AsyncQueries.DEFAULT_TIMEOUT_MILLIS);
+
+  // How often a waiting request checks whether it's been cancelled.
+  private static final long CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+  // A negative window means coalescing is off.
+  private final long windowNanos;
+  private final long maxWaitNanos;
+
+  private final LongAdder computed = new LongAdder();
+  private final LongAdder shared = new LongAdder();
+
+  /**
+   * @param window how long to keep each answer after it's worked out
+   *               (`Duration.ZERO` to only share flights in progress), or
+   *               `null` to turn coalescing off
+   */
+  public SingleFlight(Duration window) {
+    this(window, DEFAULT_MAX_WAIT);
+  }
+
+  /**
+   * @param window  how long to keep each answer after it's worked out
+   *                (`Duration.ZERO` to only share flights in progress), or
+   *                `null` to turn coalescing off
+   * @param maxWait how long a request waits for another's answer before it
+   *                works the answer out for itself
+   */
+  public SingleFlight(Duration window, Duration maxWait) {
+    this.windowNanos = window == null ? -1 : window.toNanos();
+    this.maxWaitNanos = maxWait.toNanos();
+  }
+
+  /**
+   * @return the coalescing window the `umm3601.coalesceMillis` property
+   *         asks for, or `null` if it isn't set
+   */
+  public static Duration configuredWindow() {
+    Long millis = Long.getLong(WINDOW_PROPERTY);
+    return millis == null || millis < 0 ? null : Duration.ofMillis(millis);
+  }
+
+  /**
+   * @return whether coalescing is on (if it isn't, `get()` just calls the
+   *         supplier)
+   */
+  public boolean enabled() {
+    return windowNanos >= 0;
+  }
+
+  /**
+   * Get the answer for a key: join the flight for that key if there is
+   * one (or use its answer, if it landed within the coalescing window), and
+   * otherwise work it out, letting any identical requests that arrive in
+   * the meantime share the answer.
+   *
+   * @param key     identifies the question; requests with equal keys must
+   *                be happy with the same answer
+   * @param compute works out the answer
+   * @return the answer
+   * @throws RuntimeException whatever `compute` threw, if it failed (for
+   *                          every request sharing that flight, except
+   *                          that a `CancellationException` only fails the
+   *                          request that was cancelled), or a
+   *                          `CancellationException` if this request was
+   *                          cancelled while it waited
+   */
+  public V get(K key, Supplier<V> compute) {
+    if (!enabled()) {
+      computed.increment();
+      return compute.get();
+    }
+    long now = System.nanoTime();
+    Flight<V> flight = flights.compute(key,
+        (k, current) -> current == null || current.expired(now, windowNanos) ? new Flight<>() : current);
+    if (!flight.claim()) {
+      shared.increment();
+      try {
+        return flight.await(maxWaitNanos);
+      } catch (CancellationException e) {
+        // Either this request was cancelled while it waited, in which case
+        // the checkpoint stops it here, or the request doing the work was
+        // cancelled (e.g., its client went away; see `Cancellation`), which
+        // says nothing about whether this one is still wanted, so start
+        // again.
+        Cancellation.checkpoint();
+        return get(key, compute);
+      } catch (TimeoutException e) {
+        // The flight is taking far longer than it should, so rather than
+        // wait on it any longer, work the answer out for this request.
+        computed.increment();
+        return compute.get();
+      }
+    }
+
+    computed.increment();
+    V answer;
+    try {
+      answer = compute.get();
+    } catch (RuntimeException | Error e) {
+      // Don't keep failures: the next request tries again.
+      flights.remove(key, flight);
+      flight.fail(e);
+      throw e;
+    }
+    flight.land(answer);
+    if (windowNanos == 0) {
+      flights.remove(key, flight);
+    } else {
+      // Keys are seldom asked for again once the data changes, so clear
+      // out answers that have outlived the window as we go, rather than
+      // waiting for their keys to come round again.
+      long landed = System.nanoTime();
+      flights.values().removeIf(old -> old.expired(landed, windowNanos));
+    }
+    return answer;
+  }
+
+  /**
+   * @return how many answers have been worked out
+   */
+  public long computedCount() {
+    return computed.sum();
+  }
+
+  /**
+   * @return how many requests shared an answer worked out for another one
+   */
+  public long sharedCount() {
+    return shared.sum();
+  }
+
+  /**
+   * @return how many flights (in progress, or landed within the window) are
+   *         being kept
+   */
+  public int size() {
+    return flights.size();
+  }
+
+  /**
+   * One computation of an answer, and the requests waiting for it.
+   */
+  private static final class Flight<V> {
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CompletableFuture<V> answer = new CompletableFuture<>();
+
+    // When the answer was worked out (by `System.nanoTime()`); only read
+    // once `answer` is done.
+    private volatile long landedNanos;
+
+    // The first request to claim a flight works out its answer.
+    boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    void land(V value) {
+      landedNanos = System.nanoTime();
+      answer.complete(value);
+    }
+
+    void fail(Throwable failure) {
+      answer.completeExceptionally(failure);
+    }
+
+    boolean expired(long now, long window) {
+      return answer.isDone() && (answer.isCompletedExceptionally() || now - landedNanos > window);
+    }
+
+    // Wait for the answer, a little at a time, checking between times
+    // whether the waiting request has been cancelled.
+    V await(long maxWaitNanos) throws TimeoutException {
+      long deadline = System.nanoTime() + maxWaitNanos;
+      while (true) {
+        Cancellation.checkpoint();
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          throw new TimeoutException("The shared answer took too long");
+        }
+        try {
+          return answer.get(Math.min(left, CHECK_NANOS), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          // Not yet; check again.
+        } catch (ExecutionException e) {
+          // Rethrow what the request that did the work got, so every
+          // request fails the same way (e.g., with the same HTTP status).
+          if (e.getCause() instanceof RuntimeException cause) {
+            throw cause;
+          } else if (e.getCause() instanceof Error cause) {
+            throw cause;
+          }
+          throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CancellationException("Interrupted while waiting for a shared answer");
+        }
+      }
+    }
+  }
+}
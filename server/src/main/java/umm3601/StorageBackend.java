@@ -0,0 +1,113 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The kinds of storage `TodoDatabase` and `UserDatabase` can keep their data
+ * in.
+ * <p>
+ * The backend is chosen when the server starts, with the `umm3601.storage`
+ * system property, e.g., `-Dumm3601.storage=jdbc`. All the backends answer
+ * queries the same way (they pass the same tests), so the choice only
+ * affects speed, memory use, and whether changes survive a restart. The
+ * repository benchmarks (`./gradlew jmh -PjmhIncludes=RepositoryBenchmark`)
+ * compare them.
+ */
+public enum StorageBackend {
+  /** A plain array, scanned for every query. */
+  ARRAY,
+  /** In memory, with indexes for the common filters (the default). */
+  INDEXED,
+  /**
+   * A SQL database, by default an in-memory H2 database. Set the
+   * `umm3601.jdbcUrl` system property (e.g., to `jdbc:h2:file:./data/lab`)
+   * to keep the data on disk instead.
+   */
+  JDBC,
+  /**
+   * Memory-mapped files outside the Java heap, for collections that don't
+   * fit in it (todos only; users are kept `INDEXED`). The files go in a
+   * temporary directory unless the `umm3601.mappedDir` system property names
+   * one.
+   */
+  MAPPED;
+
+  /**
+   * The system property used to choose the backend.
+   */
+  public static final String PROPERTY = "umm3601.storage";
+
+  /**
+   * The system property holding the JDBC URL of the database used by the
+   * `JDBC` backend.
+   */
+  public static final String JDBC_URL_PROPERTY = "umm3601.jdbcUrl";
+
+  /**
+   * The system property holding the directory the `MAPPED` backend keeps
+   * its files in.
+   */
+  public static final String MAPPED_DIR_PROPERTY = "umm3601.mappedDir";
+
+  /**
+   * @return the backend chosen by the `umm3601.storage` system property, or
+   *         `INDEXED` if it isn't set
+   */
+  public static StorageBackend configured() {
+    return fromName(System.getProperty(PROPERTY, INDEXED.name()));
+  }
+
+  /**
+   * Find a backend by its name, ignoring case.
+   *
+   * @param name the name of the backend, e.g., "indexed"
+   * @return the backend with that name
+   * @throws IllegalArgumentException if there's no backend with that name
+   */
+  public static StorageBackend fromName(String name) {
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown storage backend '" + name + "'; the choices are "
+          + Arrays.toString(values()).toLowerCase(Locale.ROOT), e);
+    }
+  }
+
+  /**
+   * Get the JDBC URL to use for one collection. Unless `umm3601.jdbcUrl` is
+   * set, each collection gets its own private in-memory database.
+   *
+   * @param collection the name of the collection, e.g., "todos"
+   * @return the JDBC URL for that collection's database
+   */
+  public static String jdbcUrl(String collection) {
+    return System.getProperty(JDBC_URL_PROPERTY, "jdbc:h2:mem:" + collection + "-" + Ids.newId());
+  }
+
+  /**
+   * Get the directory to keep one collection's memory-mapped files in.
+   * Unless `umm3601.mappedDir` is set, this is a new temporary directory,
+   * which is deleted (along with the files) when the server stops.
+   *
+   * @param collection the name of the collection, e.g., "todos"
+   * @return the directory for that collection's files
+   */
+  public static Path mappedDirectory(String collection) {
+    String configured = System.getProperty(MAPPED_DIR_PROPERTY);
+    if (configured != null) {
+      return Path.of(configured, collection);
+    }
+    try {
+      Path directory = Files.createTempDirectory("umm3601-" + collection);
+      directory.toFile().deleteOnExit();
+      return directory;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create a directory for the " + collection, e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import io.javalin.Javalin;
+
+/**
+ * A "training run" of the server, used to build its class data sharing
+ * (CDS) archive.
+ * <p>
+ * Much of the time it takes the server to start goes on loading classes
+ * (Javalin's, Jetty's, Jackson's and our own): finding each one in a JAR,
+ * parsing and verifying it. An AppCDS archive holds those classes already
+ * parsed and verified, ready to be mapped straight into memory, and since
+ * the mapped pages can be shared it can also make the server use less
+ * memory. To build one, `./gradlew cdsArchive` runs the server once with
+ * `-XX:ArchiveClassesAtExit` and the `umm3601.training` system property
+ * set, so that instead of serving requests until it's killed, it starts,
+ * sends itself the kinds of requests real clients do (so the classes they
+ * need are loaded, and archived), and stops. Then `./gradlew runWithCds`
+ * runs the server with the archive, and `./gradlew startupReport` shows
+ * how much difference it makes.
+ */
+public final class TrainingRun {
+
+  /**
+   * The system property that, when set to `true`, makes `Main` do a
+   * training run instead of serving requests.
+   */
+  public static final String TRAINING_PROPERTY = "umm3601.training";
+
+  // The requests to send, which between them go through most of the code
+  // a client's requests do. The ids are from the bundled data files; if
+  // they aren't there we get a "404 Not Found", which is just as good for
+  // our purposes.
+  private static final String[] PATHS = {
+      "/api/todos",
+      "/api/todos?status=complete&limit=20",
+      "/api/todos?owner=Blanche&category=software%20design",
+      "/api/todos?contains=ipsum&orderBy=owner",
+      "/api/todos?fields=owner,status",
+      "/api/todos/stats?groupBy=owner,category",
+      "/api/todos/58895985a22c04e761776d54",
+      "/api/todos/batch?ids=58895985a22c04e761776d54,58895985c1849992336c219b",
+      "/api/users",
+      "/api/users?age=25&company=OHMNET",
+      "/api/users?role=admin&orderBy=name&limit=5",
+      "/api/users?fields=name,age",
+      "/api/users/stats?groupBy=company,role",
+      "/api/users/588935f57546a2daea44de7c",
+      "/api"
+  };
+
+  // How many times to send each request. Later rounds don't load many more
+  // classes, but they do give the JIT compiler something to look at before
+  // the archive is written.
+  private static final int ROUNDS = 3;
+
+  private static final int SERVER_ERROR = 500;
+
+  private TrainingRun() {
+  }
+
+  /**
+   * @return whether the `umm3601.training` property asks for a training run
+   */
+  public static boolean requested() {
+    return Boolean.getBoolean(TRAINING_PROPERTY);
+  }
+
+  /**
+   * Start the server on any free port, send it the training requests, in
+   * each of the `WireFormat`s, and stop it again.
+   *
+   * @param server the server to train
+   * @throws IOException if a request fails, or the server answers one with
+   *                     a server error (in which case the archive wouldn't
+   *                     be worth keeping)
+   */
+  public static void run(Server server) throws IOException {
+    Javalin javalin = server.startServer(0);
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      String url = "http://localhost:" + javalin.port();
+      for (int round = 0; round < ROUNDS; round++) {
+        for (String path : PATHS) {
+          for (WireFormat format : WireFormat.values()) {
+            send(client, HttpRequest.newBuilder(URI.create(url + path))
+                .header("Accept", format.contentType())
+                .build());
+          }
+        }
+      }
+    } finally {
+      javalin.stop();
+    }
+  }
+
+  private static void send(HttpClient client, HttpRequest request) throws IOException {
+    try {
+      HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+      if (response.statusCode() >= SERVER_ERROR) {
+        throw new IOException(request.uri() + " failed with " + response.statusCode());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted during the training run", e);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package umm3601;
+
+import java.util.BitSet;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A `ColumnScan` using the Java Vector API, which compares as many rows at
+ * once as fit in the CPU's widest vector registers (e.g., 8 `int`s or 32
+ * `byte`s with AVX2).
+ * <p>
+ * Each comparison gives a `VectorMask` with a bit per row, and
+ * `VectorMask.toLong()` turns that into the next few bits of the result.
+ * The vector sizes are powers of two no bigger than 64, so each vector's
+ * rows fall in a single word of the bitmask. The rows left over after the
+ * last whole vector are compared one at a time.
+ * <p>
+ * The Vector API is still incubating, so this class only loads if the JVM
+ * was started with `--add-modules jdk.incubator.vector` (the Gradle build
+ * does that for `run`, the tests, and the benchmarks).
+ */
+public final class VectorColumnScan implements ColumnScan {
+
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+  // Below this many `int`s per vector (i.e., 128 bits) the hardware
+  // probably can't run the Vector API's operations directly, and it falls
+  // back to a Java implementation that's far slower than a plain loop.
+  private static final int MIN_INT_LANES = 4;
+
+  /**
+   * @return `true` if this machine has vectors wide enough to be worth using
+   */
+  public static boolean isUseful() {
+    return INTS.length() >= MIN_INT_LANES;
+  }
+
+  @Override
+  public int lanes() {
+    return INTS.length();
+  }
+
+  @Override
+  public BitSet equal(byte[] column, byte value) {
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    int bound = BYTES.loopBound(column.length);
+    int row = 0;
+    for (; row < bound; row += BYTES.length()) {
+      long bits = ByteVector.fromArray(BYTES, column, row).eq(value).toLong();
+      words[row / Long.SIZE] |= bits << row;
+    }
+    for (; row < column.length; row++) {
+      words[row / Long.SIZE] |= (column[row] == value ? 1L : 0L) << row;
+    }
+    return BitSet.valueOf(words);
+  }
+
+  @Override
+  public BitSet anyOf(int[] column, int[] values) {
+    if (values.length == 0) {
+      return new BitSet();
+    }
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    int bound = INTS.loopBound(column.length);
+    int row = 0;
+    for (; row < bound; row += INTS.length()) {
+      IntVector rows = IntVector.fromArray(INTS, column, row);
+      VectorMask<Integer> matches = rows.eq(values[0]);
+      for (int i = 1; i < values.length; i++) {
+        matches = matches.or(rows.eq(values[i]));
+      }
+      words[row / Long.SIZE] |= matches.toLong() << row;
+    }
+    for (; row < column.length; row++) {
+      for (int value : values) {
+        words[row / Long.SIZE] |= (column[row] == value ? 1L : 0L) << row;
+      }
+    }
+    return BitSet.valueOf(words);
+  }
+
+  @Override
+  public BitSet between(int[] column, int min, int max) {
+    long[] words = new long[ColumnScan.wordsFor(column.length)];
+    int bound = INTS.loopBound(column.length);
+    int row = 0;
+    for (; row < bound; row += INTS.length()) {
+      IntVector rows = IntVector.fromArray(INTS, column, row);
+      VectorMask<Integer> matches = rows.compare(VectorOperators.GE, min)
+          .and(rows.compare(VectorOperators.LE, max));
+      words[row / Long.SIZE] |= matches.toLong() << row;
+    }
+    for (; row < column.length; row++) {
+      int value = column[row];
+      words[row / Long.SIZE] |= (value >= min && value <= max ? 1L : 0L) << row;
+    }
+    return BitSet.valueOf(words);
+  }
+}
@@ -0,0 +1,242 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import io.javalin.http.Context;
+
+/**
+ * The formats the todo and user endpoints can respond in, chosen by the
+ * request's `Accept` header ("content negotiation").
+ * <p>
+ * JSON is the default, and what browsers get. Other services can ask for
+ * one of Jackson's binary formats instead, e.g., `Accept: application/cbor`,
+ * which are smaller and quicker to write and parse than JSON, especially for
+ * big lists of todos: numbers and booleans are written in binary, and
+ * Smile also refers back to property names it has already written instead
+ * of repeating them.
+ * <p>
+ * Binary responses are written straight to the response's output stream as
+ * they're encoded (just as `ctx.json()` streams JSON), rather than built up
+ * in memory first.
+ */
+public enum WireFormat {
+  /** JSON, written by the server's `FastJsonMapper`. */
+  JSON("application/json", ObjectMapper::new),
+  /** CBOR (RFC 8949), a binary format with the same data model as JSON. */
+  CBOR("application/cbor", CBORMapper::new),
+  /** Smile, Jackson's own binary JSON format. */
+  SMILE("application/x-jackson-smile", SmileMapper::new);
+
+  private static final String ACCEPT_HEADER = "Accept";
+  private static final String VARY_HEADER = "Vary";
+
+  private final String contentType;
+  private final Supplier<ObjectMapper> newMapper;
+  // Built the first time it's needed, so starting the server doesn't load
+  // the CBOR and Smile classes (or even Jackson's data binding, for JSON)
+  // until some client actually asks for them.
+  private volatile ObjectMapper mapper;
+
+  WireFormat(String contentType, Supplier<ObjectMapper> newMapper) {
+    this.contentType = contentType;
+    this.newMapper = newMapper;
+  }
+
+  /**
+   * @return the media type of this format, e.g., "application/cbor"
+   */
+  public String contentType() {
+    return contentType;
+  }
+
+  /**
+   * @return a new Jackson mapper for this format, which leaves the streams it
+   *         writes to open (so it can write to a response)
+   */
+  public ObjectMapper newMapper() {
+    ObjectMapper result = newMapper.get();
+    result.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    return result;
+  }
+
+  /**
+   * @return a Jackson mapper for this format, shared by every request
+   */
+  public ObjectMapper mapper() {
+    ObjectMapper result = mapper;
+    if (result == null) {
+      synchronized (this) {
+        result = mapper;
+        if (result == null) {
+          result = newMapper();
+          mapper = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Choose the format a request asked for in its `Accept` header.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the chosen format
+   */
+  public static WireFormat of(Context ctx) {
+    return fromAccept(ctx.header(ACCEPT_HEADER));
+  }
+
+  /**
+   * Choose a format from an `Accept` header, e.g.,
+   * `application/cbor, application/json;q=0.5`. The format with the
+   * highest "quality" (`q`, 1 by default) wins, and ties go to the one
+   * listed first. Wildcards (e.g., `application/*`) only match JSON, and if
+   * nothing matches at all we send JSON anyway (rather than a "406 Not
+   * Acceptable"), which is what a client that didn't think about formats
+   * most likely wants.
+   *
+   * @param accept the value of the `Accept` header, or `null` if there was
+   *               none
+   * @return the chosen format
+   */
+  public static WireFormat fromAccept(String accept) {
+    if (accept == null || accept.isBlank()) {
+      return JSON;
+    }
+    WireFormat best = JSON;
+    double bestQuality = 0;
+    for (String range : accept.split(",")) {
+      String[] parts = range.split(";");
+      WireFormat format = forMediaRange(parts[0].trim().toLowerCase(Locale.ROOT));
+      double quality = quality(parts);
+      if (format != null && quality > bestQuality) {
+        best = format;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Send `value` in this format, as the whole response.
+   *
+   * @param ctx   a Javalin HTTP context
+   * @param value the value to send
+   */
+  public void respond(Context ctx, Object value) {
+    ctx.header(VARY_HEADER, ACCEPT_HEADER);
+    if (this == JSON) {
+      ctx.json(value);
+    } else {
+      stream(ctx, mapper().writer(), value);
+    }
+  }
+
+  /**
+   * Send `value` in this format, using the given writer (e.g., one from a
+   * `FieldProjection`, which leaves some properties out).
+   *
+   * @param ctx    a Javalin HTTP context
+   * @param writer a writer built from this format's `newMapper()`
+   * @param value  the value to send
+   */
+  public void respond(Context ctx, ObjectWriter writer, Object value) {
+    ctx.header(VARY_HEADER, ACCEPT_HEADER);
+    stream(ctx, writer, value);
+  }
+
+  /**
+   * Serialize `value` in this format, to be sent later (perhaps more than
+   * once) with `send()`. JSON is written by the server's JSON mapper, just
+   * as `respond()` would.
+   *
+   * @param ctx   the Javalin HTTP context of a request, for its JSON mapper
+   * @param value the value to serialize
+   * @return the serialized value
+   */
+  public byte[] serialize(Context ctx, Object value) {
+    if (this != JSON) {
+      return serialize(mapper().writer(), value);
+    }
+    try (InputStream json = ctx.jsonMapper().toJsonStream(value, value.getClass())) {
+      return json.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Serialize `value` in this format, using the given writer (e.g., one
+   * from a `FieldProjection`).
+   *
+   * @param writer a writer built from this format's `newMapper()`
+   * @param value  the value to serialize
+   * @return the serialized value
+   */
+  public byte[] serialize(ObjectWriter writer, Object value) {
+    try {
+      return writer.writeValueAsBytes(value);
+    } catch (JsonProcessingException e) {
+      // As in `FieldProjection.write()`, this "can't happen" for our data
+      // classes.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Send a value serialized in this format by `serialize()`, as the whole
+   * response.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param body the serialized value
+   */
+  public void send(Context ctx, byte[] body) {
+    ctx.header(VARY_HEADER, ACCEPT_HEADER);
+    ctx.contentType(contentType);
+    ctx.result(body);
+  }
+
+  private void stream(Context ctx, ObjectWriter writer, Object value) {
+    ctx.contentType(contentType);
+    try {
+      writer.writeValue(ctx.outputStream(), value);
+    } catch (IOException e) {
+      // Most likely the client went away part way through.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static WireFormat forMediaRange(String mediaRange) {
+    for (WireFormat format : values()) {
+      if (format.contentType.equals(mediaRange)) {
+        return format;
+      }
+    }
+    return "*/*".equals(mediaRange) || "application/*".equals(mediaRange) ? JSON : null;
+  }
+
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
@@ -0,0 +1,225 @@
+package umm3601.admin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+import umm3601.DatasetStats;
+import umm3601.jfr.FlightRecordings;
+
+/**
+ * Endpoints for looking after the running server, under `/api/admin`.
+ * <p>
+ * These report what's taking up the server's memory, and control Java
+ * Flight Recorder (see `FlightRecordings`):
+ * <ul>
+ * <li>`GET /api/admin/stats`: how much heap is in use, and for each
+ * dataset (see `StatsSource`), how many records it has, how many distinct
+ * values some of their fields have, roughly how much memory each of its
+ * data structures takes and how long each index took to build, and how big
+ * its caches are. It's cheap enough to be scraped every few seconds;</li>
+ * <li>`GET /api/admin/recording`: whether a recording is running, and how
+ * big it is;</li>
+ * <li>`POST /api/admin/recording/start`: start recording, with optional
+ * `settings` (`default` or `profile`) and `maxAgeSeconds` (how much history
+ * to keep) query parameters;</li>
+ * <li>`POST /api/admin/recording/dump`: write what has been recorded so far
+ * to a file in the recording directory, and keep going;</li>
+ * <li>`POST /api/admin/recording/stop`: dump the recording and stop.</li>
+ * </ul>
+ * The dumps are written on the server's machine (and the stats are nobody
+ * else's business), so these endpoints only
+ * answer requests from that machine (e.g., `curl -X POST
+ * localhost:4567/api/admin/recording/start`), and turn everyone else away
+ * with a "403 Forbidden".
+ */
+public class AdminController implements Controller {
+
+  private static final String SETTINGS_KEY = "settings";
+  private static final String MAX_AGE_KEY = "maxAgeSeconds";
+
+  private final FlightRecordings recordings;
+  private final List<StatsSource> statsSources;
+
+  /**
+   * The response to `/api/admin/stats`.
+   *
+   * @param heap     how much of the heap is used
+   * @param datasets the stats of each dataset, by name
+   */
+  public record ServerStats(HeapUsage heap, Map<String, DatasetStats> datasets) {
+  }
+
+  /**
+   * How much of the Java heap is used, as the JVM reports it (so `used`
+   * includes garbage that hasn't been collected yet).
+   *
+   * @param usedBytes      the memory used by objects
+   * @param committedBytes the memory the heap has now
+   * @param maxBytes       the most memory the heap can grow to
+   */
+  public record HeapUsage(long usedBytes, long committedBytes, long maxBytes) {
+  }
+
+  /**
+   * @param recordings the Flight Recorder recordings to control
+   */
+  public AdminController(FlightRecordings recordings) {
+    this(recordings, List.of());
+  }
+
+  /**
+   * @param recordings   the Flight Recorder recordings to control
+   * @param statsSources the datasets to report in `/api/admin/stats`
+   */
+  public AdminController(FlightRecordings recordings, List<StatsSource> statsSources) {
+    this.recordings = recordings;
+    this.statsSources = statsSources;
+  }
+
+  /**
+   * Turn away admin requests that don't come from this machine.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ForbiddenResponse if the request came from somewhere else
+   */
+  public void requireLocal(Context ctx) {
+    if (!isLoopback(ctx.ip())) {
+      throw new ForbiddenResponse("The admin endpoints can only be used from the server's own machine");
+    }
+  }
+
+  /**
+   * Report how much memory the server is using, and on what (see above).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getStats(Context ctx) {
+    Runtime runtime = Runtime.getRuntime();
+    long committed = runtime.totalMemory();
+    HeapUsage heap = new HeapUsage(committed - runtime.freeMemory(), committed, runtime.maxMemory());
+    Map<String, DatasetStats> datasets = new LinkedHashMap<>();
+    for (StatsSource source : statsSources) {
+      datasets.put(source.statsName(), source.stats());
+    }
+    ctx.json(new ServerStats(heap, datasets));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Report whether a recording is running.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getRecording(Context ctx) {
+    ctx.json(recordings.status());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Start a recording.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ConflictResponse   if a recording is already running
+   * @throws BadRequestResponse if the settings or maximum age are illegal
+   */
+  public void startRecording(Context ctx) {
+    String settings = ctx.queryParam(SETTINGS_KEY);
+    Duration maxAge = FlightRecordings.DEFAULT_MAX_AGE;
+    String maxAgeParam = ctx.queryParam(MAX_AGE_KEY);
+    if (maxAgeParam != null) {
+      try {
+        maxAge = Duration.ofSeconds(Long.parseLong(maxAgeParam));
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("The requested maxAgeSeconds '" + maxAgeParam + "' is not a legal number");
+      }
+      if (maxAge.isNegative() || maxAge.isZero()) {
+        throw new BadRequestResponse("The requested maxAgeSeconds '" + maxAgeParam + "' must be positive");
+      }
+    }
+    try {
+      ctx.json(recordings.start(settings == null ? FlightRecordings.DEFAULT_SETTINGS : settings, maxAge));
+    } catch (IllegalStateException e) {
+      throw new ConflictResponse(e.getMessage());
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Dump the running recording to a file, and keep recording.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ConflictResponse if no recording is running
+   * @throws IOException      if the file can't be written
+   */
+  public void dumpRecording(Context ctx) throws IOException {
+    respondWithFile(ctx, false);
+  }
+
+  /**
+   * Dump the running recording to a file, and stop recording.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ConflictResponse if no recording is running
+   * @throws IOException      if the file can't be written
+   */
+  public void stopRecording(Context ctx) throws IOException {
+    respondWithFile(ctx, true);
+  }
+
+  private void respondWithFile(Context ctx, boolean stop) throws IOException {
+    Path file;
+    try {
+      file = stop ? recordings.stop() : recordings.dump();
+    } catch (IllegalStateException e) {
+      throw new ConflictResponse(e.getMessage());
+    }
+    ctx.json(Map.of("file", file.toString()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  // Whether an IP address (as given by `ctx.ip()`, possibly with brackets
+  // around an IPv6 address) is this machine's.
+  static boolean isLoopback(String ip) {
+    String address = ip.startsWith("[") && ip.endsWith("]") ? ip.substring(1, ip.length() - 1) : ip;
+    if (address.isEmpty()) {
+      // `getByName("")` would give us the loopback address.
+      return false;
+    }
+    try {
+      // A literal IP address is just parsed, not looked up.
+      return InetAddress.getByName(address).isLoopbackAddress();
+    } catch (UnknownHostException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Setup routes for the admin endpoints (see above).
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.before("/api/admin/*", this::requireLocal);
+    server.get("/api/admin/stats", this::getStats);
+    server.get("/api/admin/recording", this::getRecording);
+    server.post("/api/admin/recording/start", this::startRecording);
+    server.post("/api/admin/recording/dump", this::dumpRecording);
+    server.post("/api/admin/recording/stop", this::stopRecording);
+  }
+}
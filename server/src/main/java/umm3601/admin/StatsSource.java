@@ -0,0 +1,25 @@
+package umm3601.admin;
+
+import umm3601.DatasetStats;
+
+/**
+ * Something with a dataset to report in `/api/admin/stats`, such as the
+ * `TodoController`. `Main` hands every controller that is one of these to
+ * the `AdminController`.
+ */
+public interface StatsSource {
+
+  /**
+   * @return the name to report the stats under, e.g., `todos`
+   */
+  String statsName();
+
+  /**
+   * Get the dataset's stats. These are asked for every time
+   * `/api/admin/stats` is, which could be every few seconds, so this must
+   * be cheap (see `TodoDatabase.stats()`).
+   *
+   * @return the stats
+   */
+  DatasetStats stats();
+}
@@ -0,0 +1,514 @@
+package umm3601.cluster;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadGatewayResponse;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+import umm3601.Estimate;
+import umm3601.FieldProjection;
+import umm3601.GroupCounts;
+import umm3601.Ids;
+import umm3601.Merging;
+import umm3601.QueryParams;
+import umm3601.RateLimiter;
+import umm3601.WireFormat;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoQuery;
+import umm3601.user.User;
+import umm3601.user.UserController;
+import umm3601.user.UserPage;
+import umm3601.user.UserQuery;
+
+/**
+ * The front of a cluster of servers ("nodes") that each hold part of the
+ * todos and users (see `Partitioning`). Clients talk to the coordinator
+ * exactly as they would to a single server, and it
+ * <ul>
+ * <li>sends requests about one object (`GET`/`DELETE /api/todos/{id}`, and
+ * `POST`s, which it gives an `_id` first if they don't have one) to the one
+ * node that holds it, and passes back that node's answer;</li>
+ * <li>sends list and stats requests to every node at once, and combines
+ * their answers. Ordered lists are merged (each node has already sorted its
+ * part), unordered ones are the nodes' answers one after another, and counts
+ * are added up.</li>
+ * </ul>
+ * Each node only has to search its own part of the data, so adding nodes
+ * adds both memory and CPU to the cluster.
+ * <p>
+ * Paging users with `offset` can't be left to the nodes (the first page of
+ * the whole list might be spread over all of them), so the coordinator asks
+ * each node for `offset + limit` users and skips `offset` of the merged list
+ * itself. A `cursor` is passed on as is: users are ordered the same way on
+ * every node, so each node can start after the cursor on its own. The `fields`
+ * parameter is applied by the coordinator, since it needs the sort fields to
+ * merge.
+ * <p>
+ * The nodes always answer the coordinator in JSON, and the coordinator
+ * answers its clients in whichever format they asked for (see `WireFormat`),
+ * just as a single server would.
+ * <p>
+ * The batch and change feed (SSE) routes aren't available through the
+ * coordinator; clients that need them can talk to the nodes directly. Nor
+ * are estimates (`approx=true`): each node's random sample is of its own
+ * part of the data, so they can't simply be put together.
+ */
+public class ClusterCoordinator implements Controller {
+
+  /**
+   * The system property holding the (comma separated) URLs of the nodes. If
+   * it is set, `Main` starts a coordinator instead of a normal server.
+   */
+  public static final String NODES_PROPERTY = "umm3601.nodes";
+
+  private static final String TODOS_PATH = "/api/todos";
+  private static final String USERS_PATH = "/api/users";
+
+  private static final FieldProjection TODO_FIELDS = new FieldProjection(Todo.class, "todo");
+  private static final FieldProjection USER_FIELDS = new FieldProjection(User.class, "user");
+
+  // Age groups are named like "20-29", and should be in order of age rather
+  // than alphabetical ("100-109" after "90-99"). The `-` we split at is
+  // the first one after the (possibly negative) lower bound.
+  private static final Comparator<String> AGE_BUCKET_ORDER = Comparator.comparingLong(
+      bucket -> Long.parseLong(bucket.substring(0, bucket.indexOf('-', 1))));
+
+  private static final ObjectMapper JSON = new ObjectMapper();
+
+  private final NodeClient[] nodes;
+
+  /**
+   * Construct a coordinator for the given nodes. The order matters: node `i`
+   * must hold partition `i` (see `Partitioning`).
+   *
+   * @param nodes the clients for each of the nodes
+   */
+  public ClusterCoordinator(List<? extends NodeClient> nodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A cluster needs at least one node");
+    }
+    this.nodes = nodes.toArray(new NodeClient[0]);
+  }
+
+  /**
+   * Build a coordinator for the nodes at the given URLs.
+   *
+   * @param urls the comma separated URLs of the nodes, in partition order,
+   *             e.g., "http://node0:4567,http://node1:4567"
+   * @return a coordinator that talks to those nodes over HTTP
+   */
+  public static ClusterCoordinator forUrls(String urls) {
+    HttpClient client = HttpNodeClient.newHttpClient();
+    List<NodeClient> nodes = new ArrayList<>();
+    for (String url : QueryParams.splitValues(List.of(urls))) {
+      nodes.add(new HttpNodeClient(client, url));
+    }
+    return new ClusterCoordinator(nodes);
+  }
+
+  /**
+   * @return the number of nodes in the cluster
+   */
+  public int nodeCount() {
+    return nodes.length;
+  }
+
+  /**
+   * Get the single todo specified by the `id` parameter, from the node
+   * that holds it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodo(Context ctx) {
+    forwardToOwner(ctx, "GET", TODOS_PATH, ctx.pathParam("id"), null);
+  }
+
+  /**
+   * Delete the todo specified by the `id` parameter, on the node that holds
+   * it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodo(Context ctx) {
+    forwardToOwner(ctx, "DELETE", TODOS_PATH, ctx.pathParam("id"), null);
+  }
+
+  /**
+   * Add a new todo (given as JSON in the request body) on the node that
+   * will hold it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewTodo(Context ctx) {
+    addNew(ctx, TODOS_PATH, "todo");
+  }
+
+  /**
+   * Get the todos matching the query parameters from every node. This takes
+   * the same parameters as `TodoController.getTodos()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodos(Context ctx) {
+    SortedSet<String> fields = TODO_FIELDS.requestedFields(ctx.queryParamMap());
+    Todo[] todos = findTodos(ctx.queryParamMap(), client(ctx));
+    respond(ctx, TODO_FIELDS, fields, todos);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Count the todos matching the query parameters on every node. This takes
+   * the same parameters as `TodoController.getTodoStats()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoStats(Context ctx) {
+    WireFormat.of(ctx).respond(ctx, countTodos(ctx.queryParamMap(), client(ctx)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Get the single user specified by the `id` parameter, from the node
+   * that holds it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUser(Context ctx) {
+    forwardToOwner(ctx, "GET", USERS_PATH, ctx.pathParam("id"), null);
+  }
+
+  /**
+   * Delete the user specified by the `id` parameter, on the node that holds
+   * it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteUser(Context ctx) {
+    forwardToOwner(ctx, "DELETE", USERS_PATH, ctx.pathParam("id"), null);
+  }
+
+  /**
+   * Add a new user (given as JSON in the request body) on the node that
+   * will hold it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewUser(Context ctx) {
+    addNew(ctx, USERS_PATH, "user");
+  }
+
+  /**
+   * Get a page of the users matching the query parameters from every node.
+   * This takes the same parameters as `UserController.getUsers()`, and
+   * likewise returns the cursor for the next page (if there may be one) in
+   * the `X-Next-Cursor` header.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsers(Context ctx) {
+    SortedSet<String> fields = USER_FIELDS.requestedFields(ctx.queryParamMap());
+    UserPage page = findUsers(ctx.queryParamMap(), client(ctx));
+    if (page.nextCursor() != null) {
+      ctx.header(UserController.NEXT_CURSOR_HEADER, page.nextCursor());
+    }
+    respond(ctx, USER_FIELDS, fields, page.users());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Count the users matching the query parameters on every node. This takes
+   * the same parameters as `UserController.getUserStats()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserStats(Context ctx) {
+    WireFormat.of(ctx).respond(ctx, countUsers(ctx.queryParamMap(), client(ctx)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  // Answer with a list in the format the client asked for (see
+  // `WireFormat`), with just the requested fields, as the nodes' controllers
+  // would.
+  private static void respond(Context ctx, FieldProjection projection, SortedSet<String> fields, Object[] list) {
+    WireFormat format = WireFormat.of(ctx);
+    if (fields == null) {
+      format.respond(ctx, list);
+    } else if (format == WireFormat.JSON) {
+      ctx.contentType(ContentType.APPLICATION_JSON);
+      ctx.result(projection.write(list, fields));
+    } else {
+      format.respond(ctx, projection.writer(fields, format), list);
+    }
+  }
+
+  // The nodes would answer `approx=true` with estimates rather than lists,
+  // which (see the class comment) can't be combined.
+  private static void rejectEstimates(Map<String, List<String>> queryParams) {
+    if (Estimate.requested(queryParams)) {
+      throw new BadRequestResponse("Estimates (approx=true) aren't available through the cluster coordinator");
+    }
+  }
+
+  /**
+   * Find the todos matching the query parameters on every node, and combine
+   * them.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param client      who the request is on behalf of
+   * @return the matching todos
+   * @throws BadRequestResponse if any of the parameters are illegal
+   */
+  public Todo[] findTodos(Map<String, List<String>> queryParams, String client) {
+    // Check the parameters here, so a bad request doesn't go to every node.
+    rejectEstimates(queryParams);
+    TodoQuery query = TodoQuery.fromParams(queryParams);
+    Todo[][] parts = askEveryNode(TODOS_PATH, forwardedParams(queryParams, query.limit()), client,
+        Todo[].class, Todo[][]::new);
+    Comparator<Todo> ordering = query.ordering();
+    return ordering == null
+        ? Merging.concatenate(parts, query.limit(), Todo[]::new)
+        : Merging.merge(parts, ordering, query.limit(), Todo[]::new);
+  }
+
+  /**
+   * Find a page of the users matching the query parameters on every node.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param client      who the request is on behalf of
+   * @return the page of users, and the cursor for the next page
+   * @throws BadRequestResponse if any of the parameters are illegal
+   */
+  public UserPage findUsers(Map<String, List<String>> queryParams, String client) {
+    rejectEstimates(queryParams);
+    UserQuery query = UserQuery.fromParams(queryParams);
+    // Every node has to return enough users to fill the page even if all
+    // of the skipped users (and the whole page) are on that node.
+    int nodeLimit = (int) Math.min((long) query.offset() + query.limit(), Integer.MAX_VALUE);
+    User[][] parts = askEveryNode(USERS_PATH, forwardedParams(queryParams, nodeLimit), client,
+        User[].class, User[][]::new);
+    Comparator<User> ordering = query.ordering();
+    User[] firstUsers = ordering == null
+        ? Merging.concatenate(parts, nodeLimit, User[]::new)
+        : Merging.merge(parts, ordering, nodeLimit, User[]::new);
+    User[] page = Arrays.copyOfRange(firstUsers, Math.min(query.offset(), firstUsers.length), firstUsers.length);
+    return new UserPage(page, query.nextCursor(page));
+  }
+
+  /**
+   * Count the todos matching the query parameters on every node.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param client      who the request is on behalf of
+   * @return the total counts
+   * @throws BadRequestResponse if any of the filters are illegal
+   */
+  public GroupCounts countTodos(Map<String, List<String>> queryParams, String client) {
+    TodoQuery.fromParams(queryParams);
+    return addCounts(askEveryNode(TODOS_PATH + "/stats", queryParams, client,
+        GroupCounts.class, GroupCounts[]::new));
+  }
+
+  /**
+   * Count the users matching the query parameters on every node.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param client      who the request is on behalf of
+   * @return the total counts
+   * @throws BadRequestResponse if any of the filters are illegal
+   */
+  public GroupCounts countUsers(Map<String, List<String>> queryParams, String client) {
+    UserQuery.fromParams(queryParams);
+    return addCounts(askEveryNode(USERS_PATH + "/stats", queryParams, client,
+        GroupCounts.class, GroupCounts[]::new));
+  }
+
+  /**
+   * Add up the counts from several nodes. The groups (and the values in
+   * each group) are kept in the order the nodes use.
+   *
+   * @param parts the counts from each node
+   * @return the total counts
+   */
+  static GroupCounts addCounts(GroupCounts[] parts) {
+    int count = 0;
+    Map<String, Map<String, Integer>> groups = new LinkedHashMap<>();
+    for (GroupCounts part : parts) {
+      count += part.count();
+      part.groups().forEach((group, counts) -> {
+        Map<String, Integer> total = groups.computeIfAbsent(group,
+            name -> new TreeMap<>("age".equals(name) ? AGE_BUCKET_ORDER : Comparator.naturalOrder()));
+        counts.forEach((value, valueCount) -> total.merge(value, valueCount, Integer::sum));
+      });
+    }
+    return new GroupCounts(count, groups);
+  }
+
+  /**
+   * Setup the routes for the cluster. These are the same as the ones
+   * `TodoController` and `UserController` provide, except for the batch and
+   * change feed routes.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // As in the controllers, "stats" has to come before the `{id}` routes.
+    server.get("api/todos/stats", this::getTodoStats);
+    server.get("api/todos/{id}", this::getTodo);
+    server.delete("api/todos/{id}", this::deleteTodo);
+    server.get("api/todos", this::getTodos);
+    server.post("api/todos", this::addNewTodo);
+
+    server.get("/api/users/stats", this::getUserStats);
+    server.get("/api/users/{id}", this::getUser);
+    server.delete("/api/users/{id}", this::deleteUser);
+    server.get("/api/users", this::getUsers);
+    server.post("/api/users", this::addNewUser);
+  }
+
+  // Give a new object an `_id` (if it doesn't have one), so we know which
+  // node it belongs on, and add it there.
+  private void addNew(Context ctx, String path, String typeName) {
+    JsonNode body;
+    try {
+      body = JSON.readTree(ctx.body());
+    } catch (IOException e) {
+      throw new BadRequestResponse("The request body should be a JSON " + typeName);
+    }
+    if (!(body instanceof ObjectNode object)) {
+      throw new BadRequestResponse("The request body should be a JSON " + typeName);
+    }
+    if (!object.hasNonNull("_id")) {
+      object.put("_id", Ids.newId());
+    }
+    forwardToOwner(ctx, "POST", path, object.get("_id").asText(), object.toString());
+  }
+
+  // Send a request about one object to the node that holds it, and answer
+  // with whatever the node answered (including errors, like a 404). The
+  // nodes always answer us in JSON, so if the client asked for another
+  // format, a successful `GET` is converted to it.
+  private void forwardToOwner(Context ctx, String method, String path, String id, String body) {
+    int owner = Partitioning.ownerOf(id, nodes.length);
+    NodeClient.Response response = await(owner,
+        nodes[owner].send(method, path + "/" + encode(id), body, client(ctx)));
+    ctx.status(response.status());
+    WireFormat format = WireFormat.of(ctx);
+    if ("GET".equals(method) && format != WireFormat.JSON && response.succeeded()
+        && isJson(response.contentType())) {
+      try {
+        format.respond(ctx, JSON.readTree(response.body()));
+      } catch (IOException e) {
+        throw new BadGatewayResponse("Node " + owner + " sent a response that couldn't be read");
+      }
+      return;
+    }
+    if (response.contentType() != null) {
+      ctx.contentType(response.contentType());
+    }
+    ctx.result(response.body());
+  }
+
+  private static boolean isJson(String contentType) {
+    return contentType != null && contentType.startsWith(ContentType.APPLICATION_JSON.getMimeType());
+  }
+
+  // Send the same `GET` to every node at once, and read each answer as a
+  // `type`. If any node fails, so does the whole request.
+  private <T> T[] askEveryNode(String path, Map<String, List<String>> queryParams, String client,
+      Class<T> type, IntFunction<T[]> newArray) {
+    String pathAndQuery = path + queryString(queryParams);
+    List<CompletableFuture<NodeClient.Response>> pending = new ArrayList<>(nodes.length);
+    for (NodeClient node : nodes) {
+      pending.add(node.send("GET", pathAndQuery, null, client));
+    }
+    T[] answers = newArray.apply(nodes.length);
+    for (int node = 0; node < nodes.length; node++) {
+      NodeClient.Response response = await(node, pending.get(node));
+      if (!response.succeeded()) {
+        throw new HttpResponseException(response.status(), response.body());
+      }
+      try {
+        answers[node] = JSON.readValue(response.body(), type);
+      } catch (IOException e) {
+        throw new BadGatewayResponse("Node " + node + " sent a response that couldn't be read");
+      }
+    }
+    return answers;
+  }
+
+  private NodeClient.Response await(int node, CompletableFuture<NodeClient.Response> response) {
+    try {
+      return response.join();
+    } catch (CompletionException e) {
+      throw new BadGatewayResponse("Node " + node + " (" + nodes[node] + ") could not be reached");
+    }
+  }
+
+  // The parameters to send on to the nodes for a list: everything but the
+  // paging (which the coordinator does) and `fields` (which would drop the
+  // fields needed for merging).
+  private static Map<String, List<String>> forwardedParams(Map<String, List<String>> queryParams, int limit) {
+    Map<String, List<String>> forwarded = new LinkedHashMap<>(queryParams);
+    forwarded.remove(FieldProjection.FIELDS_KEY);
+    forwarded.remove("offset");
+    forwarded.remove("limit");
+    if (limit != Integer.MAX_VALUE) {
+      forwarded.put("limit", List.of(Integer.toString(limit)));
+    }
+    return forwarded;
+  }
+
+  // Turn query parameters back into a query string (starting with `?`).
+  static String queryString(Map<String, List<String>> queryParams) {
+    if (queryParams.isEmpty()) {
+      return "";
+    }
+    StringJoiner query = new StringJoiner("&", "?", "");
+    queryParams.forEach((key, values) -> {
+      for (String value : values) {
+        query.add(encode(key) + "=" + encode(value));
+      }
+    });
+    return query.toString();
+  }
+
+  // `URLEncoder` is for forms, where a space is `+`; in a path it has to be
+  // `%20` (and `%20` works in a query string too).
+  private static String encode(String text) {
+    return URLEncoder.encode(text, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  // Who a request is on behalf of: the client's API key if it sent one, and
+  // otherwise its IP address. (A node's `RateLimiter` only goes by this if
+  // it's one of the node's known keys, so nodes behind a coordinator are
+  // usually run without limits of their own.)
+  private static String client(Context ctx) {
+    String apiKey = ctx.header(RateLimiter.API_KEY_HEADER);
+    return apiKey != null ? apiKey : ctx.ip();
+  }
+}
@@ -0,0 +1,65 @@
+package umm3601.cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import umm3601.RateLimiter;
+
+/**
+ * Sends requests to a node over HTTP, with the JDK's `HttpClient`.
+ * <p>
+ * The client keeps connections open between requests, so the coordinator
+ * doesn't pay for a new TCP connection to every node on every request.
+ */
+public final class HttpNodeClient implements NodeClient {
+
+  // How long to wait for a node before giving up on it.
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private final HttpClient httpClient;
+  private final String baseUrl;
+
+  /**
+   * @param client  the HTTP client to send requests with (it can be shared
+   *                by the clients for several nodes)
+   * @param baseUrl the URL of the node, e.g., "http://node1:4567"
+   */
+  public HttpNodeClient(HttpClient client, String baseUrl) {
+    this.httpClient = client;
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+  }
+
+  /**
+   * @return a new HTTP client, suitable for sharing between nodes
+   */
+  public static HttpClient newHttpClient() {
+    return HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+  }
+
+  @Override
+  public CompletableFuture<Response> send(String method, String pathAndQuery, String body, String client) {
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + pathAndQuery))
+        .timeout(TIMEOUT)
+        .header(RateLimiter.API_KEY_HEADER, client)
+        // The coordinator reads (and re-encodes) the nodes' answers as JSON.
+        .header("Accept", "application/json")
+        .method(method, body == null
+            ? HttpRequest.BodyPublishers.noBody()
+            : HttpRequest.BodyPublishers.ofString(body));
+    if (body != null) {
+      request.header("Content-Type", "application/json");
+    }
+    return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+        .thenApply(response -> new Response(response.statusCode(),
+            response.headers().firstValue("Content-Type").orElse(null), response.body()));
+  }
+
+  @Override
+  public String toString() {
+    return baseUrl;
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601.cluster;
+
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.Javalin;
+import umm3601.Controller;
+import umm3601.RateLimiter;
+import umm3601.Server;
+import umm3601.StorageBackend;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoController;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserController;
+import umm3601.user.UserDatabase;
+
+/**
+ * A whole cluster (several nodes and their coordinator) running in this
+ * JVM, each server on its own port. This is for trying the cluster out, and
+ * for the cluster benchmark; a real cluster runs each node in its own JVM
+ * (on its own machine), started with `-Dumm3601.nodeIndex=I
+ * -Dumm3601.nodeCount=N`, and a coordinator started with
+ * `-Dumm3601.nodes=URL0,URL1,...`.
+ * <p>
+ * None of the servers limit request rates, since a local cluster is for
+ * experiments and benchmarks, which send requests as fast as they can.
+ */
+public final class LocalCluster implements AutoCloseable {
+
+  private final List<Javalin> nodes = new ArrayList<>();
+  private final Javalin coordinator;
+
+  /**
+   * Start a cluster holding the given todos and users, split over
+   * `nodeCount` nodes, each listening on a free port.
+   *
+   * @param nodeCount the number of nodes
+   * @param todos     all the todos
+   * @param users     all the users
+   */
+  public LocalCluster(int nodeCount, Todo[] todos, User[] users) {
+    StorageBackend backend = StorageBackend.configured();
+    HttpClient client = HttpNodeClient.newHttpClient();
+    List<NodeClient> nodeClients = new ArrayList<>();
+    for (int node = 0; node < nodeCount; node++) {
+      Partitioning partition = new Partitioning(node, nodeCount);
+      Controller[] controllers = {
+          new UserController(new UserDatabase(UserDatabase.createRepository(
+              backend, partition.select(users, user -> user._id, User[]::new)))),
+          new TodoController(new TodoDatabase(TodoDatabase.createRepository(
+              backend, partition.select(todos, todo -> todo._id, Todo[]::new))))
+      };
+      Javalin server = new Server(controllers, new RateLimiter(Map.of())).startServer(0);
+      nodes.add(server);
+      nodeClients.add(new HttpNodeClient(client, "http://localhost:" + server.port()));
+    }
+    coordinator = new Server(new Controller[] { new ClusterCoordinator(nodeClients) }, new RateLimiter(Map.of()))
+        .startServer(0);
+  }
+
+  /**
+   * @return the URL of the coordinator, e.g., "http://localhost:41234"
+   */
+  public String url() {
+    return "http://localhost:" + coordinator.port();
+  }
+
+  /**
+   * Stop the coordinator and all the nodes.
+   */
+  @Override
+  public void close() {
+    coordinator.stop();
+    for (Javalin node : nodes) {
+      node.stop();
+    }
+  }
+}
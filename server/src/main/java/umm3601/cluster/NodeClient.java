@@ -0,0 +1,45 @@
+package umm3601.cluster;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests to one node of a cluster.
+ * <p>
+ * The coordinator only talks to nodes through this interface, so tests can
+ * stand in for the nodes without starting any servers.
+ */
+public interface NodeClient {
+
+  /**
+   * The answer from a node.
+   *
+   * @param status      the HTTP status code
+   * @param contentType the `Content-Type` of the body, or `null` if there
+   *                    isn't one
+   * @param body        the body of the response
+   */
+  record Response(int status, String contentType, String body) {
+    /**
+     * @return `true` if the status code means the request succeeded
+     */
+    @SuppressWarnings({ "MagicNumber" })
+    public boolean succeeded() {
+      return status >= 200 && status < 300;
+    }
+  }
+
+  /**
+   * Send a request to the node, without waiting for the answer.
+   *
+   * @param method      the HTTP method, e.g., "GET"
+   * @param pathAndQuery the path of the request, with its query string if it
+   *                    has one, e.g., "/api/todos?owner=Fry"
+   * @param body        the body of the request (JSON), or `null` for none
+   * @param client      who the request is on behalf of (sent as the
+   *                    `X-API-Key` header, so the node's rate limits apply
+   *                    to the original client rather than the coordinator)
+   * @return the node's answer, which fails with an `IOException` if the
+   *         node couldn't be reached
+   */
+  CompletableFuture<Response> send(String method, String pathAndQuery, String body, String client);
+}
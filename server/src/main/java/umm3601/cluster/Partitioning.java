@@ -0,0 +1,86 @@
+package umm3601.cluster;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Which part of the data one node of a cluster holds.
+ * <p>
+ * Each object belongs to exactly one node, chosen by hashing its `_id`, so
+ * the coordinator can send a request about one object straight to the node
+ * that has it, without asking the others. (`String.hashCode()` is defined by
+ * the Java spec, so every node and the coordinator agree on it.) Hashing
+ * spreads the objects evenly over the nodes, but it means a new node would
+ * move most objects; that's fine here, since the nodes load their data when
+ * they start.
+ *
+ * @param nodeIndex which node this is, counting from 0
+ * @param nodeCount how many nodes the data is split over
+ */
+public record Partitioning(int nodeIndex, int nodeCount) {
+
+  /**
+   * The system property holding this node's index.
+   */
+  public static final String NODE_INDEX_PROPERTY = "umm3601.nodeIndex";
+
+  /**
+   * The system property holding the number of nodes (1, the default, means
+   * this server holds all of the data).
+   */
+  public static final String NODE_COUNT_PROPERTY = "umm3601.nodeCount";
+
+  /**
+   * @throws IllegalArgumentException if the index isn't one of the nodes
+   */
+  public Partitioning {
+    if (nodeCount < 1 || nodeIndex < 0 || nodeIndex >= nodeCount) {
+      throw new IllegalArgumentException("There is no node " + nodeIndex + " of " + nodeCount);
+    }
+  }
+
+  /**
+   * @return the partitioning chosen by the `umm3601.nodeIndex` and
+   *         `umm3601.nodeCount` system properties, or `WHOLE` if they aren't
+   *         set
+   */
+  public static Partitioning configured() {
+    return new Partitioning(Integer.getInteger(NODE_INDEX_PROPERTY, 0), Integer.getInteger(NODE_COUNT_PROPERTY, 1));
+  }
+
+  /**
+   * Find the node that holds the object with the given ID.
+   *
+   * @param id        the `_id` of an object
+   * @param nodeCount how many nodes the data is split over
+   * @return the index of the node holding that object
+   */
+  public static int ownerOf(String id, int nodeCount) {
+    return Math.floorMod(id.hashCode(), nodeCount);
+  }
+
+  /**
+   * @param id the `_id` of an object
+   * @return `true` if this node holds the object with that ID
+   */
+  public boolean owns(String id) {
+    return ownerOf(id, nodeCount) == nodeIndex;
+  }
+
+  /**
+   * Pick out the objects this node holds, keeping them in order.
+   *
+   * @param <T>      the type of the objects
+   * @param all      every object
+   * @param id       gets the `_id` of an object
+   * @param newArray makes an array for the selected objects
+   * @return the objects this node holds
+   */
+  public <T> T[] select(T[] all, Function<T, String> id, IntFunction<T[]> newArray) {
+    if (nodeCount == 1) {
+      return all;
+    }
+    return Arrays.stream(all).filter(item -> owns(id.apply(item))).toArray(newArray);
+  }
+}
@@ -0,0 +1,61 @@
+package umm3601.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for each phase of loading (or, on a replica,
+ * reloading) data: reading a data file, building a repository and its
+ * indexes, loading a replication snapshot, or applying records from the
+ * replication log. Used just like a `QueryEvent`.
+ */
+@Name("umm3601.DataLoad")
+@Label("Data Load")
+@Category({ "umm3601", "Database" })
+@Description("A phase of loading todos or users")
+@StackTrace(false)
+@SuppressWarnings({ "VisibilityModifier" })
+public final class DataLoadEvent extends jdk.jfr.Event {
+
+  /** Reading todos or users from a JSON data file. */
+  public static final String READ = "read";
+  /** Building a repository (and its indexes) for the todos or users. */
+  public static final String BUILD = "build";
+  /** A replica loading the primary's snapshot. */
+  public static final String SNAPSHOT = "snapshot";
+  /** A replica applying records from the primary's log. */
+  public static final String REPLAY = "replay";
+
+  @Label("Collection")
+  @Description("todos, users, or both")
+  public String collection;
+
+  @Label("Phase")
+  @Description("read, build, snapshot, or replay")
+  public String phase;
+
+  @Label("Source")
+  @Description("The file or storage backend involved")
+  public String source;
+
+  @Label("Records")
+  public int records;
+
+  /**
+   * Fill in the fields describing the phase.
+   *
+   * @param collectionName `todos`, `users`, or `todos+users`
+   * @param phaseName      one of the phases above
+   * @param sourceName     the file or storage backend involved
+   * @param count          how many records were loaded
+   */
+  public void describe(String collectionName, String phaseName, String sourceName, int count) {
+    this.collection = collectionName;
+    this.phase = phaseName;
+    this.source = sourceName;
+    this.records = count;
+  }
+}
@@ -0,0 +1,166 @@
+package umm3601.jfr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Starts and stops Java Flight Recorder recordings of the running server,
+ * and dumps them to files, for `AdminController`.
+ * <p>
+ * A recording includes the JVM's own events (garbage collections, lock
+ * contention, samples of what each thread is doing, etc.) along with ours:
+ * a `RequestEvent` for each request, a `QueryEvent` for each list query,
+ * and a `DataLoadEvent` for each phase of loading data. The resulting
+ * `.jfr` files can be opened in JDK Mission Control, or summarized with
+ * `jfr print --events umm3601.Query recording.jfr`.
+ * <p>
+ * Only one recording is run at a time. To record the server starting up
+ * (and so its `DataLoadEvent`s), start the JVM with
+ * `-XX:StartFlightRecording` instead.
+ */
+public final class FlightRecordings {
+
+  /**
+   * The system property holding the directory recordings are dumped to.
+   */
+  public static final String DIRECTORY_PROPERTY = "umm3601.recordingDir";
+
+  /**
+   * The settings used if none are asked for: the JDK's `default` settings,
+   * which are designed to be cheap enough to leave on in production. The
+   * other standard settings, `profile`, record more detail at a somewhat
+   * higher cost.
+   */
+  public static final String DEFAULT_SETTINGS = "default";
+
+  /**
+   * How much history a recording keeps if nobody says otherwise; older
+   * events are thrown away, so a recording can be left running.
+   */
+  public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+  private static final String RECORDING_NAME = "umm3601";
+
+  private final Path directory;
+
+  // The running recording, if any, and the settings it was started with.
+  private Recording recording;
+  private String settings;
+
+  /**
+   * @param directory the directory to dump recordings to (created if
+   *                  necessary)
+   */
+  public FlightRecordings(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return recordings dumped to the directory named by the
+   *         `umm3601.recordingDir` system property (`recordings` by default)
+   */
+  public static FlightRecordings configured() {
+    return new FlightRecordings(Path.of(System.getProperty(DIRECTORY_PROPERTY, "recordings")));
+  }
+
+  /**
+   * What's being recorded.
+   *
+   * @param recording      whether a recording is running
+   * @param settings       the settings it was started with, or `null`
+   * @param durationMillis how long it's been running
+   * @param bytes          how much it has recorded so far (which may be more
+   *                       than a dump would hold, since old events are
+   *                       thrown away as they pass the maximum age)
+   */
+  public record Status(boolean recording, String settings, long durationMillis, long bytes) {
+  }
+
+  /**
+   * Start recording.
+   *
+   * @param settingsName the name of the JDK settings to use, `default` or
+   *                     `profile`
+   * @param maxAge       how much history to keep
+   * @return the new recording's status
+   * @throws IllegalStateException    if a recording is already running
+   * @throws IllegalArgumentException if there are no such settings
+   */
+  public synchronized Status start(String settingsName, Duration maxAge) {
+    if (isRecording()) {
+      throw new IllegalStateException("A recording is already running");
+    }
+    Configuration configuration;
+    try {
+      configuration = Configuration.getConfiguration(settingsName);
+    } catch (IOException | ParseException e) {
+      throw new IllegalArgumentException("There are no recording settings called '" + settingsName + "'", e);
+    }
+    Recording newRecording = new Recording(configuration);
+    newRecording.setName(RECORDING_NAME);
+    newRecording.setMaxAge(maxAge);
+    newRecording.setToDisk(true);
+    // Our events are on by default, but make sure, whatever the settings.
+    newRecording.enable(RequestEvent.class);
+    newRecording.enable(QueryEvent.class);
+    newRecording.enable(DataLoadEvent.class);
+    newRecording.start();
+    recording = newRecording;
+    settings = settingsName;
+    return status();
+  }
+
+  /**
+   * Write what has been recorded so far to a new file, and keep recording.
+   *
+   * @return the file it was written to
+   * @throws IllegalStateException if nothing is being recorded
+   * @throws IOException           if the file can't be written
+   */
+  public synchronized Path dump() throws IOException {
+    if (!isRecording()) {
+      throw new IllegalStateException("No recording is running");
+    }
+    Files.createDirectories(directory);
+    Path file = directory.resolve(RECORDING_NAME + "-" + System.currentTimeMillis() + ".jfr").toAbsolutePath();
+    recording.dump(file);
+    return file;
+  }
+
+  /**
+   * Dump what has been recorded, and stop recording.
+   *
+   * @return the file it was written to
+   * @throws IllegalStateException if nothing is being recorded
+   * @throws IOException           if the file can't be written
+   */
+  public synchronized Path stop() throws IOException {
+    Path file = dump();
+    recording.close();
+    recording = null;
+    settings = null;
+    return file;
+  }
+
+  /**
+   * @return what's being recorded
+   */
+  public synchronized Status status() {
+    if (!isRecording()) {
+      return new Status(false, null, 0, 0);
+    }
+    return new Status(true, settings, System.currentTimeMillis() - recording.getStartTime().toEpochMilli(),
+        recording.getSize());
+  }
+
+  private boolean isRecording() {
+    return recording != null && recording.getState() == RecordingState.RUNNING;
+  }
+}
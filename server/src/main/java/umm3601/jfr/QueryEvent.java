@@ -0,0 +1,82 @@
+package umm3601.jfr;
+
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for each todo or user list query
+ * (`listTodos()` or `listUserPage()`), with the filters it used and how the
+ * repository answered it.
+ * <p>
+ * The usual JFR pattern keeps these free when they aren't being recorded:
+ *
+ * <pre>
+ * QueryEvent event = new QueryEvent();
+ * event.begin();
+ * ... run the query ...
+ * event.end();
+ * if (event.shouldCommit()) {
+ *   ... fill in the fields ...
+ *   event.commit();
+ * }
+ * </pre>
+ *
+ * The JIT compiler sees that the event never leaves the method, so when
+ * JFR isn't recording it, nothing is allocated, and `shouldCommit()` is
+ * just a check of a flag. Only when it's `true` do we pay for working out
+ * the fields (including asking the repository to `explain()` its plan).
+ */
+@Name("umm3601.Query")
+@Label("List Query")
+@Category({ "umm3601", "Database" })
+@Description("A query listing todos or users")
+@StackTrace(false)
+@SuppressWarnings({ "VisibilityModifier" })
+public final class QueryEvent extends jdk.jfr.Event {
+
+  @Label("Collection")
+  @Description("todos or users")
+  public String collection;
+
+  @Label("Filters")
+  @Description("The query parameters the query was given, e.g., status=complete&orderBy=owner")
+  public String filters;
+
+  @Label("Index Used")
+  @Description("The indexes the repository answered the query from, or none")
+  public String index;
+
+  @Label("Rows Scanned")
+  @Description("How many rows the repository had to look at one by one, or -1 if it can't tell")
+  public int rowsScanned;
+
+  @Label("Rows Returned")
+  public int rowsReturned;
+
+  /**
+   * Fill in the fields describing the query.
+   *
+   * @param collectionName `todos` or `users`
+   * @param queryParams    the query parameters of the request
+   * @param plan           how the repository answered the query
+   * @param returned       how many rows it returned
+   */
+  public void describe(String collectionName, Map<String, List<String>> queryParams, QueryPlan plan,
+      int returned) {
+    StringJoiner params = new StringJoiner("&");
+    new TreeMap<>(queryParams).forEach((key, values) -> params.add(key + "=" + String.join(",", values)));
+    this.collection = collectionName;
+    this.filters = params.toString();
+    this.index = plan.index();
+    this.rowsScanned = plan.rowsScanned();
+    this.rowsReturned = returned;
+  }
+}
@@ -0,0 +1,24 @@
+package umm3601.jfr;
+
+/**
+ * How a repository answers a query, for `QueryEvent`s.
+ *
+ * @param index       the indexes used, e.g., `owner+status`, or `none` for a
+ *                    full scan
+ * @param rowsScanned how many rows had to be looked at one by one (rather
+ *                    than found through an index), or -1 if that can't be
+ *                    told (e.g., for the SQL database)
+ */
+public record QueryPlan(String index, int rowsScanned) {
+
+  /** The `index` of a query answered without one. */
+  public static final String NO_INDEX = "none";
+
+  /**
+   * @param rows the number of rows looked at
+   * @return the plan of a query that looked at every row
+   */
+  public static QueryPlan fullScan(int rows) {
+    return new QueryPlan(NO_INDEX, rows);
+  }
+}
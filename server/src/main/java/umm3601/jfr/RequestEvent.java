@@ -0,0 +1,87 @@
+package umm3601.jfr;
+
+import io.javalin.http.Context;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for each HTTP request the server handles,
+ * from when its first before-handler starts until the response has been
+ * written.
+ * <p>
+ * `Server` calls `begin()` from a before-handler and `commit()` from its
+ * request logger. When no recording is running (or this event is turned
+ * off in it), `begin()` does nothing but check a flag, so handling requests
+ * costs no more than it did without these events.
+ */
+@Name("umm3601.Request")
+@Label("HTTP Request")
+@Category({ "umm3601", "HTTP" })
+@Description("An HTTP request handled by the server")
+@StackTrace(false)
+@SuppressWarnings({ "VisibilityModifier" })
+public final class RequestEvent extends jdk.jfr.Event {
+
+  // The name of the `Context` attribute holding the request's event.
+  private static final String EVENT_KEY = "requestEvent";
+
+  private static final EventType TYPE = EventType.getEventType(RequestEvent.class);
+
+  @Label("Method")
+  public String method;
+
+  @Label("Route")
+  @Description("The path of the route that handled the request, e.g., /api/todos/{id}")
+  public String route;
+
+  @Label("Status")
+  public int status;
+
+  @Label("Response Size")
+  @DataAmount
+  public long bytes;
+
+  /**
+   * Start timing a request, if a recording wants these events.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public static void begin(Context ctx) {
+    if (TYPE.isEnabled()) {
+      RequestEvent event = new RequestEvent();
+      event.begin();
+      ctx.attribute(EVENT_KEY, event);
+    }
+  }
+
+  /**
+   * Finish timing a request, once its response has been written, and
+   * record it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public static void commit(Context ctx) {
+    RequestEvent event = ctx.attribute(EVENT_KEY);
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.method = ctx.method().name();
+      event.route = ctx.endpointHandlerPath();
+      if (event.route == null || event.route.isEmpty()) {
+        // No route matched, e.g., a static file, or a "404 Not Found".
+        event.route = ctx.path();
+      }
+      event.status = ctx.statusCode();
+      event.bytes = org.eclipse.jetty.server.Request.getBaseRequest(ctx.req())
+          .getResponse().getHttpChannel().getBytesWritten();
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package umm3601.replication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.ChangeEvent;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * The primary's side of replication: writes a snapshot of the todos and
+ * users, and then appends every change made to them to a log that replicas
+ * follow (see `ReplicationLog` for the files, and `Replica` for the other
+ * side).
+ * <p>
+ * Changes are written as they're published to the databases' change feeds
+ * (see `ChangeFeed.addListener()`), before they're made, so they're in the
+ * log, in order, before the request that made them gets its response.
+ * They're written to the operating system (so other processes can read them
+ * straight away) but not forced to disk, so a crash of the whole machine
+ * could lose the last few.
+ * <p>
+ * If a change can't be written, it isn't made at all, and the request (like
+ * every later one that tries to make a change) gets a
+ * `503 Service Unavailable`: the replicas can't be kept up to date any more,
+ * so the primary stops changing rather than drift away from them.
+ * <p>
+ * This has to be started before the server starts taking requests, so no
+ * change can slip in between the snapshot and the start of the log.
+ */
+public final class LogShipper implements AutoCloseable {
+
+  // How often to write a heartbeat, so replicas can tell how far behind
+  // they are even when nothing is changing.
+  static final long HEARTBEAT_MILLIS = 1000;
+
+  private final long epoch;
+  private final FileChannel log;
+  private final ScheduledExecutorService heartbeats;
+
+  // Guarded by `this`.
+  private long sequence;
+  private boolean failed;
+
+  private LogShipper(long epoch, FileChannel log) {
+    this.epoch = epoch;
+    this.log = log;
+    this.heartbeats = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "replication-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Write a snapshot of the databases and start a new log in the given
+   * directory, replacing any that were there, and start logging the changes
+   * made to the databases.
+   *
+   * @param directory the directory to share with the replicas
+   * @param todos     the todos to replicate
+   * @param users     the users to replicate
+   * @return the running shipper
+   * @throws IOException if the files can't be written
+   */
+  public static LogShipper start(Path directory, TodoDatabase todos, UserDatabase users) throws IOException {
+    Files.createDirectories(directory);
+    long epoch = ThreadLocalRandom.current().nextLong();
+
+    // Each file is written under a temporary name and then renamed, so a
+    // replica never sees half of one. The log goes first: a replica that
+    // finds a snapshot and a log from different epochs just tries again.
+    Path newLog = Files.createTempFile(directory, ReplicationLog.LOG_FILE, ".tmp");
+    FileChannel log = FileChannel.open(newLog, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    ByteBuffer header = ByteBuffer.allocate(ReplicationLog.LOG_HEADER_BYTES);
+    header.putInt(ReplicationLog.LOG_MAGIC).putLong(epoch).flip();
+    while (header.hasRemaining()) {
+      log.write(header);
+    }
+    Files.move(newLog, ReplicationLog.logFile(directory), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    Path newSnapshot = Files.createTempFile(directory, ReplicationLog.SNAPSHOT_FILE, ".tmp");
+    try (OutputStream file = Files.newOutputStream(newSnapshot);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+      out.writeInt(ReplicationLog.SNAPSHOT_MAGIC);
+      out.writeLong(epoch);
+      Todo[] allTodos = todos.listTodos(Map.of());
+      out.writeInt(allTodos.length);
+      for (Todo todo : allTodos) {
+        ReplicationLog.writeTodo(out, todo);
+      }
+      User[] allUsers = users.listUserPage(Map.of()).users();
+      out.writeInt(allUsers.length);
+      for (User user : allUsers) {
+        ReplicationLog.writeUser(out, user);
+      }
+    }
+    Files.move(newSnapshot, ReplicationLog.snapshotFile(directory), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    LogShipper shipper = new LogShipper(epoch, log);
+    todos.changes().addListener(shipper::shipTodoChange);
+    users.changes().addListener(shipper::shipUserChange);
+    shipper.heartbeats.scheduleAtFixedRate(shipper::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS,
+        TimeUnit.MILLISECONDS);
+    return shipper;
+  }
+
+  /**
+   * @return how replication is going on this primary
+   */
+  public synchronized ReplicationStatus status() {
+    return new ReplicationStatus("primary", epoch, sequence, 0, 0, !failed);
+  }
+
+  /**
+   * Stop writing heartbeats, and close the log.
+   */
+  @Override
+  public void close() {
+    heartbeats.shutdown();
+    synchronized (this) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not close the replication log", e);
+      }
+    }
+  }
+
+  private void shipTodoChange(ChangeEvent<Todo> change) {
+    if (ChangeEvent.CREATED.equals(change.type())) {
+      append(ReplicationLog.TODO_CREATED, out -> ReplicationLog.writeTodo(out, change.record()));
+    } else {
+      append(ReplicationLog.TODO_DELETED, out -> ReplicationLog.writeString(out, change.id()));
+    }
+  }
+
+  private void shipUserChange(ChangeEvent<User> change) {
+    if (ChangeEvent.CREATED.equals(change.type())) {
+      append(ReplicationLog.USER_CREATED, out -> ReplicationLog.writeUser(out, change.record()));
+    } else {
+      append(ReplicationLog.USER_DELETED, out -> ReplicationLog.writeString(out, change.id()));
+    }
+  }
+
+  private void heartbeat() {
+    try {
+      append(ReplicationLog.HEARTBEAT, null);
+    } catch (ServiceUnavailableResponse e) {
+      // `append()` has already marked the log as failed, which is reported
+      // in the status; there's no one else to tell.
+    }
+  }
+
+  // Add a record to the log. If this fails, the replicas can't be kept up
+  // to date any more, so the log is marked as failed (for the status), and
+  // this change and every later one is turned away.
+  private synchronized void append(byte kind, ReplicationLog.Writer body) {
+    if (failed) {
+      throw new ServiceUnavailableResponse("The replication log has failed, so no changes can be made");
+    }
+    ByteBuffer record = ByteBuffer.wrap(ReplicationLog.record(sequence + 1, System.currentTimeMillis(), kind, body));
+    try {
+      while (record.hasRemaining()) {
+        log.write(record);
+      }
+    } catch (IOException e) {
+      failed = true;
+      throw new ServiceUnavailableResponse("Could not write the change to the replication log");
+    }
+    sequence++;
+  }
+}
@@ -0,0 +1,334 @@
+package umm3601.replication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import umm3601.StorageBackend;
+import umm3601.jfr.DataLoadEvent;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * A read-only copy of a primary's todos and users, kept up to date by
+ * following the primary's change log (see `LogShipper` and
+ * `ReplicationLog`).
+ * <p>
+ * The replica loads the primary's snapshot into ordinary in-memory
+ * databases (so reads are just as fast as on the primary), and then a
+ * background thread applies the changes from the log as they appear. The
+ * changes go through the databases' usual `addTodo()`/`deleteTodo()` (and
+ * so on), so clients following a replica's change feeds see them too.
+ * <p>
+ * The log is read from a shared directory, so the primary and its replicas
+ * can be separate processes on one machine (or on several, with a shared
+ * file system).
+ */
+public final class Replica implements AutoCloseable {
+
+  // How often to look for new changes when the last look found none.
+  static final long POLL_MILLIS = 20;
+
+  // How many times to try loading a snapshot that matches the log (they
+  // can be from different epochs for a moment while the primary restarts).
+  private static final int BOOTSTRAP_ATTEMPTS = 50;
+  private static final long BOOTSTRAP_RETRY_MILLIS = 100;
+
+  // How long (in heartbeats) the log can go quiet before we check whether
+  // the primary has started a new one.
+  private static final int QUIET_HEARTBEATS = 3;
+
+  private final Path logFile;
+  private final long epoch;
+  private final FileChannel log;
+  private final TodoDatabase todos;
+  private final UserDatabase users;
+  private final Thread follower;
+
+  // Written only by the thread applying changes; `volatile` so `status()`
+  // can read them from request threads.
+  private volatile long position = ReplicationLog.LOG_HEADER_BYTES;
+  private volatile long sequence;
+  private volatile long lastWrittenMillis;
+  private volatile boolean broken;
+
+  private Replica(Path directory, long epoch, FileChannel log, TodoDatabase todos, UserDatabase users) {
+    this.logFile = ReplicationLog.logFile(directory);
+    this.epoch = epoch;
+    this.log = log;
+    this.todos = todos;
+    this.users = users;
+    this.lastWrittenMillis = System.currentTimeMillis();
+    this.follower = Thread.ofPlatform().daemon().name("replication-follower").unstarted(this::follow);
+  }
+
+  /**
+   * Load the primary's snapshot from the given directory, and start
+   * following its log.
+   *
+   * @param directory the directory the primary shares with its replicas
+   * @return the running replica
+   * @throws IOException if the files can't be read
+   */
+  public static Replica start(Path directory) throws IOException {
+    Replica replica = load(directory, StorageBackend.configured());
+    replica.follower.start();
+    return replica;
+  }
+
+  /**
+   * Load the primary's snapshot, without starting to follow the log (so
+   * tests can call `catchUp()` themselves).
+   *
+   * @param directory the directory the primary shares with its replicas
+   * @param backend   the kind of storage to keep the todos and users in
+   * @return the replica
+   * @throws IOException if the files can't be read
+   */
+  static Replica load(Path directory, StorageBackend backend) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try {
+        Replica replica = tryLoad(directory, backend);
+        if (replica != null) {
+          return replica;
+        }
+      } catch (NoSuchFileException e) {
+        // The primary hasn't written its files yet, so wait for it.
+        if (attempt == BOOTSTRAP_ATTEMPTS) {
+          throw e;
+        }
+      }
+      if (attempt == BOOTSTRAP_ATTEMPTS) {
+        throw new IOException("The snapshot and log in " + directory + " are from different epochs");
+      }
+      try {
+        Thread.sleep(BOOTSTRAP_RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the primary", e);
+      }
+    }
+  }
+
+  // Load the snapshot and open the log, or return `null` if they don't go
+  // together.
+  private static Replica tryLoad(Path directory, StorageBackend backend) throws IOException {
+    DataLoadEvent event = new DataLoadEvent();
+    event.begin();
+    long epoch;
+    Todo[] todos;
+    User[] users;
+    try (InputStream file = Files.newInputStream(ReplicationLog.snapshotFile(directory));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+      if (in.readInt() != ReplicationLog.SNAPSHOT_MAGIC) {
+        throw new IOException(ReplicationLog.SNAPSHOT_FILE + " is not a replication snapshot");
+      }
+      epoch = in.readLong();
+      todos = new Todo[in.readInt()];
+      for (int i = 0; i < todos.length; i++) {
+        todos[i] = ReplicationLog.readTodo(in);
+      }
+      users = new User[in.readInt()];
+      for (int i = 0; i < users.length; i++) {
+        users[i] = ReplicationLog.readUser(in);
+      }
+    }
+
+    FileChannel log = FileChannel.open(ReplicationLog.logFile(directory), StandardOpenOption.READ);
+    if (readEpoch(log) != epoch) {
+      log.close();
+      return null;
+    }
+    Replica replica = new Replica(directory, epoch, log,
+        new TodoDatabase(TodoDatabase.createRepository(backend, todos)),
+        new UserDatabase(UserDatabase.createRepository(backend, users)));
+    event.end();
+    if (event.shouldCommit()) {
+      event.describe("todos+users", DataLoadEvent.SNAPSHOT, ReplicationLog.snapshotFile(directory).toString(),
+          todos.length + users.length);
+      event.commit();
+    }
+    return replica;
+  }
+
+  /**
+   * @return the replicated todos (which should only be read)
+   */
+  public TodoDatabase todos() {
+    return todos;
+  }
+
+  /**
+   * @return the replicated users (which should only be read)
+   */
+  public UserDatabase users() {
+    return users;
+  }
+
+  /**
+   * @return how far behind the primary this replica is
+   */
+  public ReplicationStatus status() {
+    long behind;
+    try {
+      behind = Math.max(0, log.size() - position);
+    } catch (IOException e) {
+      behind = -1;
+    }
+    return new ReplicationStatus("replica", epoch, sequence, System.currentTimeMillis() - lastWrittenMillis,
+        behind, !broken && behind >= 0);
+  }
+
+  /**
+   * Stop following the log.
+   */
+  @Override
+  public void close() {
+    follower.interrupt();
+    try {
+      follower.join();
+      log.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not close the replication log", e);
+    }
+  }
+
+  /**
+   * Apply every complete record that has been added to the log since the
+   * last call.
+   *
+   * @return the number of records applied
+   * @throws IOException if the log can't be read
+   */
+  int catchUp() throws IOException {
+    DataLoadEvent event = new DataLoadEvent();
+    event.begin();
+    int applied = applyNewRecords();
+    event.end();
+    // The follower checks for new records all the time, so only record
+    // the checks that found some.
+    if (applied > 0 && event.shouldCommit()) {
+      event.describe("todos+users", DataLoadEvent.REPLAY, logFile.toString(), applied);
+      event.commit();
+    }
+    return applied;
+  }
+
+  private int applyNewRecords() throws IOException {
+    int applied = 0;
+    ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    while (true) {
+      long size = log.size();
+      if (position + Integer.BYTES > size) {
+        return applied;
+      }
+      lengthBuffer.clear();
+      readFully(lengthBuffer, position);
+      int length = lengthBuffer.flip().getInt();
+      if (position + Integer.BYTES + length > size) {
+        // The primary is part way through writing this one.
+        return applied;
+      }
+      ByteBuffer record = ByteBuffer.allocate(length);
+      readFully(record, position + Integer.BYTES);
+      apply(new DataInputStream(new ByteArrayInputStream(record.array())));
+      position += Integer.BYTES + length;
+      applied++;
+    }
+  }
+
+  private void apply(DataInputStream in) throws IOException {
+    long recordSequence = in.readLong();
+    long written = in.readLong();
+    byte kind = in.readByte();
+    switch (kind) {
+      case ReplicationLog.HEARTBEAT:
+        break;
+      case ReplicationLog.TODO_CREATED:
+        todos.addTodo(ReplicationLog.readTodo(in));
+        break;
+      case ReplicationLog.TODO_DELETED:
+        todos.deleteTodo(ReplicationLog.readString(in));
+        break;
+      case ReplicationLog.USER_CREATED:
+        users.addUser(ReplicationLog.readUser(in));
+        break;
+      case ReplicationLog.USER_DELETED:
+        users.deleteUser(ReplicationLog.readString(in));
+        break;
+      default:
+        throw new IOException("Unknown replication record kind " + kind);
+    }
+    sequence = recordSequence;
+    lastWrittenMillis = written;
+  }
+
+  // Keep applying changes until closed (or something goes wrong).
+  private void follow() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        if (catchUp() == 0) {
+          if (System.currentTimeMillis() - lastWrittenMillis > QUIET_HEARTBEATS * LogShipper.HEARTBEAT_MILLIS
+              && primaryRestarted()) {
+            // The primary has a new log (and new data) that doesn't follow
+            // on from ours, so this replica has to be restarted to reload.
+            broken = true;
+            return;
+          }
+          Thread.sleep(POLL_MILLIS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      broken = true;
+    }
+  }
+
+  private boolean primaryRestarted() {
+    try (FileChannel current = FileChannel.open(logFile, StandardOpenOption.READ)) {
+      return readEpoch(current) != epoch;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long at) throws IOException {
+    long next = at;
+    while (buffer.hasRemaining()) {
+      int read = log.read(buffer, next);
+      if (read < 0) {
+        throw new EOFException("The replication log ended part way through a record");
+      }
+      next += read;
+    }
+  }
+
+  private static long readEpoch(FileChannel log) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(ReplicationLog.LOG_HEADER_BYTES);
+    while (header.hasRemaining()) {
+      if (log.read(header, header.position()) < 0) {
+        throw new EOFException("The replication log has no header");
+      }
+    }
+    header.flip();
+    if (header.getInt() != ReplicationLog.LOG_MAGIC) {
+      throw new IOException(ReplicationLog.LOG_FILE + " is not a replication log");
+    }
+    return header.getLong();
+  }
+}
@@ -0,0 +1,82 @@
+package umm3601.replication;
+
+import java.util.function.Supplier;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Reports how replication is going (`GET /api/replication`). (On a replica,
+ * the user and todo controllers turn away requests that would change
+ * anything, since those have to go to the primary; see
+ * `UserController.forReplica()` and `TodoController.forReplica()`.)
+ * <p>
+ * A server is a primary or a replica if the `umm3601.replication` system
+ * property says so, with the files they share in the directory named by
+ * `umm3601.replicationDir`. For example, on one machine:
+ *
+ * <pre>
+ * java -Dumm3601.replication=primary -Dumm3601.replicationDir=/tmp/lab ...
+ * java -Dumm3601.replication=replica -Dumm3601.replicationDir=/tmp/lab -Dumm3601.port=4568 ...
+ * </pre>
+ */
+public final class ReplicationController implements Controller {
+
+  /**
+   * The system property holding this server's role: `primary` or
+   * `replica` (or nothing, for a server that doesn't replicate).
+   */
+  public static final String ROLE_PROPERTY = "umm3601.replication";
+
+  /**
+   * The system property holding the directory the primary shares with its
+   * replicas.
+   */
+  public static final String DIRECTORY_PROPERTY = "umm3601.replicationDir";
+
+  private final Supplier<ReplicationStatus> status;
+
+  private ReplicationController(Supplier<ReplicationStatus> status) {
+    this.status = status;
+  }
+
+  /**
+   * @param shipper the primary's log shipper
+   * @return a controller for a primary
+   */
+  public static ReplicationController forPrimary(LogShipper shipper) {
+    return new ReplicationController(shipper::status);
+  }
+
+  /**
+   * @param replica the replica
+   * @return a controller for a replica
+   */
+  public static ReplicationController forReplica(Replica replica) {
+    return new ReplicationController(replica::status);
+  }
+
+  /**
+   * Get the replication status of this server.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getStatus(Context ctx) {
+    ctx.json(status.get());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Setup the routes for replication:
+   * - `GET /api/replication`
+   * - The role, sequence number, and lag of this server
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get("/api/replication", this::getStatus);
+  }
+}
@@ -0,0 +1,168 @@
+package umm3601.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * The files a primary shares with its replicas, and how they're laid out.
+ * <p>
+ * The replication directory holds two files:
+ * <ul>
+ * <li>`snapshot.bin`: every todo and user as they were when the primary
+ * started, which a replica loads to start with;</li>
+ * <li>`changes.log`: every change made since, which a replica applies as it
+ * appears.</li>
+ * </ul>
+ * Both start with the same "epoch", a random number picked when the primary
+ * starts, so a replica can tell whether a snapshot and a log go together
+ * (and notice when the primary has restarted and begun a new log).
+ * <p>
+ * After its header, the log is a sequence of records, each an `int` length
+ * followed by that many bytes: the record's sequence number, the time it was
+ * written, its kind, and then the todo or user added (or the `_id` of the one
+ * deleted). The length comes first so a replica can tell when it has read
+ * only part of a record the primary is still writing, and wait for the rest.
+ * The primary also writes a "heartbeat" record every second, even when
+ * nothing changes, so a replica can tell how far behind it is.
+ * <p>
+ * Everything is written with `DataOutput`, so it's big-endian and strings
+ * are UTF-8 (with a length of -1 for `null`).
+ */
+final class ReplicationLog {
+
+  static final String SNAPSHOT_FILE = "snapshot.bin";
+  static final String LOG_FILE = "changes.log";
+
+  static final int SNAPSHOT_MAGIC = 0x554d5353; // "UMSS"
+  static final int LOG_MAGIC = 0x554d4c47; // "UMLG"
+
+  /** The size of the log header: the magic number and the epoch. */
+  static final int LOG_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+  static final byte HEARTBEAT = 0;
+  static final byte TODO_CREATED = 1;
+  static final byte TODO_DELETED = 2;
+  static final byte USER_CREATED = 3;
+  static final byte USER_DELETED = 4;
+
+  private ReplicationLog() {
+  }
+
+  static Path snapshotFile(Path directory) {
+    return directory.resolve(SNAPSHOT_FILE);
+  }
+
+  static Path logFile(Path directory) {
+    return directory.resolve(LOG_FILE);
+  }
+
+  /**
+   * Build one log record, including its length.
+   *
+   * @param sequence the record's sequence number
+   * @param time     when the record was written, in milliseconds since the
+   *                 epoch
+   * @param kind     what kind of record it is, e.g., `TODO_CREATED`
+   * @param body     writes the rest of the record, or `null` if there isn't
+   *                 any
+   * @return the bytes to append to the log
+   */
+  static byte[] record(long sequence, long time, byte kind, Writer body) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(0); // Filled in below, once we know the length.
+      out.writeLong(sequence);
+      out.writeLong(time);
+      out.writeByte(kind);
+      if (body != null) {
+        body.write(out);
+      }
+    } catch (IOException e) {
+      // Writing to a `ByteArrayOutputStream` can't fail.
+      throw new UncheckedIOException(e);
+    }
+    byte[] record = bytes.toByteArray();
+    int length = record.length - Integer.BYTES;
+    for (int i = 0; i < Integer.BYTES; i++) {
+      record[i] = (byte) (length >>> (Byte.SIZE * (Integer.BYTES - 1 - i)));
+    }
+    return record;
+  }
+
+  /**
+   * Writes part of a record.
+   */
+  @FunctionalInterface
+  interface Writer {
+    void write(DataOutput out) throws IOException;
+  }
+
+  static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeTodo(DataOutput out, Todo todo) throws IOException {
+    writeString(out, todo._id);
+    writeString(out, todo.owner);
+    out.writeBoolean(todo.status);
+    writeString(out, todo.body);
+    writeString(out, todo.category);
+  }
+
+  static Todo readTodo(DataInput in) throws IOException {
+    Todo todo = new Todo();
+    todo._id = readString(in);
+    todo.owner = readString(in);
+    todo.status = in.readBoolean();
+    todo.body = readString(in);
+    todo.category = readString(in);
+    return todo;
+  }
+
+  static void writeUser(DataOutput out, User user) throws IOException {
+    writeString(out, user._id);
+    writeString(out, user.name);
+    out.writeInt(user.age);
+    writeString(out, user.company);
+    writeString(out, user.email);
+    writeString(out, user.avatar);
+    writeString(out, user.role);
+  }
+
+  static User readUser(DataInput in) throws IOException {
+    User user = new User();
+    user._id = readString(in);
+    user.name = readString(in);
+    user.age = in.readInt();
+    user.company = readString(in);
+    user.email = readString(in);
+    user.avatar = readString(in);
+    user.role = readString(in);
+    return user;
+  }
+}
@@ -0,0 +1,23 @@
+package umm3601.replication;
+
+/**
+ * How replication is going, as reported by `GET /api/replication`.
+ *
+ * @param role        `primary` or `replica`
+ * @param epoch       the epoch of the log being written (or followed)
+ * @param sequence    the sequence number of the newest change written (on
+ *                    the primary) or applied (on a replica)
+ * @param lagMillis   how long ago the newest change or heartbeat applied by
+ *                    a replica was written by the primary; since the
+ *                    primary writes a heartbeat every second, this stays
+ *                    around a second or less while the replica keeps up
+ *                    (always 0 on the primary)
+ * @param bytesBehind how much of the log a replica hasn't applied yet
+ *                    (always 0 on the primary)
+ * @param healthy     `false` if replication has stopped, e.g., because the
+ *                    primary restarted with a new log, or the log couldn't
+ *                    be written
+ */
+public record ReplicationStatus(String role, long epoch, long sequence, long lagMillis, long bytesBehind,
+    boolean healthy) {
+}
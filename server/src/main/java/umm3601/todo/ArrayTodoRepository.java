@@ -0,0 +1,117 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+
+/**
+ * The simplest `TodoRepository`: the todos in an array, and every query
+ * answered by looking at every todo.
+ * <p>
+ * This is how `TodoDatabase` originally worked, and it's kept as the
+ * baseline the other repositories are measured against. Changes copy the
+ * array and swap the copy in, so a query sees either all of a change or
+ * none of it.
+ */
+public class ArrayTodoRepository implements TodoRepository {
+
+  private volatile Todo[] todos;
+
+  /**
+   * Construct a repository holding the given todos.
+   *
+   * @param todos the todos to start with
+   */
+  public ArrayTodoRepository(Todo[] todos) {
+    this.todos = Arrays.copyOf(todos, todos.length);
+  }
+
+  @Override
+  public int size() {
+    return todos.length;
+  }
+
+  @Override
+  public Todo get(String id) {
+    for (Todo todo : todos) {
+      if (todo._id.equals(id)) {
+        return todo;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Todo[] find(TodoQuery query) {
+    Todo[] current = todos;
+    List<Todo> matching = new ArrayList<>();
+    for (int row = 0; row < current.length; row++) {
+      if ((row & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+        Cancellation.checkpoint();
+      }
+      if (query.matches(current[row])) {
+        matching.add(current[row]);
+      }
+    }
+    Todo[] matches = matching.toArray(new Todo[0]);
+    if (query.ordering() != null) {
+      // `Arrays.sort` on objects is stable, so ties stay in stored order.
+      Arrays.sort(matches, query.ordering());
+    }
+    return matches.length > query.limit() ? Arrays.copyOf(matches, query.limit()) : matches;
+  }
+
+  @Override
+  public void forEach(Consumer<? super Todo> visitor) {
+    for (Todo todo : todos) {
+      visitor.accept(todo);
+    }
+  }
+
+  @Override
+  public List<Footprint> footprint() {
+    return List.of(TodoSizes.todos(todos));
+  }
+
+  @Override
+  public int count(TodoQuery query) {
+    return (int) Arrays.stream(todos).filter(query::matches).count();
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, TodoQuery query) {
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (Todo todo : todos) {
+      if (query.matches(todo)) {
+        counts.merge(TodoQuery.groupValue(todo, field), 1, Integer::sum);
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public void add(Todo todo) {
+    Todo[] current = todos;
+    Todo[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = todo;
+    todos = updated;
+  }
+
+  @Override
+  public Todo remove(String id) {
+    Todo[] current = todos;
+    for (int row = 0; row < current.length; row++) {
+      if (current[row]._id.equals(id)) {
+        todos = TodoIndex.without(current, row);
+        return current[row];
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,322 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.PendingChanges;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * A `TodoRepository` that keeps the todos in memory along with a `TodoIndex`,
+ * so most filters and counts are answered from posting lists instead of by
+ * looking at every todo.
+ * <p>
+ * Changes never modify an index. Instead they're kept as `PendingChanges`
+ * on top of it (the rows removed from it, and the todos added since), and
+ * queries combine the two. Once enough changes pile up, they're merged into
+ * a new index, which is swapped in, so a burst of changes doesn't rebuild
+ * the index on every one.
+ * <p>
+ * The index and its pending changes are swapped in together. Each query
+ * reads them once and uses them throughout, so it sees a consistent set of
+ * todos even if a change happens part way through.
+ */
+public class IndexedTodoRepository implements TodoRepository {
+
+  // The plan for each `TodoQuery.shape()`, worked out once rather than for
+  // every query.
+  private static final int[][] PLANS = buildPlans();
+
+  // An index, and the changes made since it was built.
+  private record State(TodoIndex index, PendingChanges<Todo> pending) {
+  }
+
+  private final int mergeThreshold;
+
+  private volatile State state;
+
+  /**
+   * Construct a repository holding the given todos.
+   *
+   * @param todos the todos to start with
+   */
+  public IndexedTodoRepository(Todo[] todos) {
+    this(todos, PendingChanges.DEFAULT_MERGE_THRESHOLD);
+  }
+
+  /**
+   * Construct a repository holding the given todos, which builds a new
+   * index once there are more than `mergeThreshold` pending changes. (This
+   * is so the tests can merge after just a few changes.)
+   *
+   * @param todos          the todos to start with
+   * @param mergeThreshold the most changes to keep pending
+   */
+  IndexedTodoRepository(Todo[] todos, int mergeThreshold) {
+    this.mergeThreshold = mergeThreshold;
+    this.state = new State(new TodoIndex(Arrays.copyOf(todos, todos.length)), PendingChanges.none());
+  }
+
+  @Override
+  public int size() {
+    State current = state;
+    return current.index().todos().length - current.pending().removedCount() + current.pending().added().size();
+  }
+
+  @Override
+  public Todo get(String id) {
+    State current = state;
+    int row = current.index().rowOf(id);
+    if (row >= 0 && !current.pending().isRemoved(row)) {
+      return current.index().todos()[row];
+    }
+    int position = current.pending().positionOf(todo -> todo._id.equals(id));
+    return position < 0 ? null : current.pending().added().get(position);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The todos added since the index was built are checked one by one, and
+   * come after the index's matches (before sorting), just as they were
+   * stored.
+   */
+  @Override
+  public Todo[] find(TodoQuery query) {
+    State current = state;
+    Todo[] matches = todosAt(current.index(), filter(current, query),
+        current.pending().addedMatching(query::matches));
+    Cancellation.checkpoint();
+    if (query.ordering() != null) {
+      // Sort a copy, since `todosAt` may have returned the stored todos.
+      // `Arrays.sort` on objects is stable, so ties stay in stored order.
+      matches = matches.clone();
+      Arrays.sort(matches, query.ordering());
+    }
+    return matches.length > query.limit() ? Arrays.copyOf(matches, query.limit()) : matches;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Only the body has no index, so the rows looked at one by one are the
+   * ones left for the body scan by the other filters (along with any
+   * pending additions).
+   */
+  @Override
+  public QueryPlan explain(TodoQuery query) {
+    State current = state;
+    StringJoiner indexes = new StringJoiner("+");
+    int rowsScanned = current.pending().added().size();
+    for (int step : PLANS[query.shape()]) {
+      switch (step) {
+        case TodoQuery.OWNER:
+          indexes.add("owner");
+          break;
+        case TodoQuery.CATEGORY:
+          indexes.add("category");
+          break;
+        case TodoQuery.STATUS:
+          indexes.add("status");
+          break;
+        default:
+          BitSet candidates = filter(current,
+              new TodoQuery(query.status(), query.owner(), query.category(), null, null, Integer.MAX_VALUE));
+          rowsScanned += candidates == null ? current.index().todos().length : candidates.cardinality();
+          break;
+      }
+    }
+    return new QueryPlan(indexes.length() == 0 ? QueryPlan.NO_INDEX : indexes.toString(), rowsScanned);
+  }
+
+  @Override
+  public List<Footprint> footprint() {
+    State current = state;
+    PendingChanges<Todo> pending = current.pending();
+    if (pending.size() == 0) {
+      return current.index().footprint();
+    }
+    List<Footprint> footprint = new ArrayList<>(current.index().footprint());
+    footprint.add(Footprint.heap("pendingChanges", pending.size(),
+        MemoryEstimate.referenceArray(pending.added().size())
+            + MemoryEstimate.array((current.index().todos().length + Long.SIZE - 1) / Long.SIZE, Long.BYTES), 0));
+    return footprint;
+  }
+
+  @Override
+  public void forEach(Consumer<? super Todo> visitor) {
+    visit(state, visitor);
+  }
+
+  @Override
+  public int count(TodoQuery query) {
+    State current = state;
+    BitSet matches = filter(current, query);
+    int inIndex = matches == null ? current.index().todos().length : matches.cardinality();
+    return inIndex + current.pending().addedMatching(query::matches).size();
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, TodoQuery query) {
+    State current = state;
+    BitSet matches = filter(current, query);
+    SortedMap<String, Integer> counts;
+    switch (field) {
+      case "owner":
+        counts = current.index().countByOwner(matches);
+        break;
+      case "category":
+        counts = current.index().countByCategory(matches);
+        break;
+      case "status":
+        counts = current.index().countByStatus(matches);
+        break;
+      default:
+        throw new IllegalArgumentException("Todos can't be grouped by " + field);
+    }
+    List<Todo> added = current.pending().addedMatching(query::matches);
+    if (added.isEmpty()) {
+      return counts;
+    }
+    SortedMap<String, Integer> withAdded = new TreeMap<>(counts);
+    for (Todo todo : added) {
+      withAdded.merge(TodoQuery.groupValue(todo, field), 1, Integer::sum);
+    }
+    return withAdded;
+  }
+
+  @Override
+  public void add(Todo todo) {
+    State current = state;
+    state = merged(current.index(), current.pending().withAdded(todo));
+  }
+
+  @Override
+  public Todo remove(String id) {
+    State current = state;
+    PendingChanges<Todo> pending = current.pending();
+    int row = current.index().rowOf(id);
+    if (row >= 0 && !pending.isRemoved(row)) {
+      state = merged(current.index(), pending.withRemovedRow(row));
+      return current.index().todos()[row];
+    }
+    int position = pending.positionOf(todo -> todo._id.equals(id));
+    if (position < 0) {
+      return null;
+    }
+    state = merged(current.index(), pending.withoutAdded(position));
+    return pending.added().get(position);
+  }
+
+  // Keep the changes pending, unless there are enough of them to be worth
+  // building a new index.
+  private State merged(TodoIndex index, PendingChanges<Todo> pending) {
+    if (!pending.shouldMerge(mergeThreshold)) {
+      return new State(index, pending);
+    }
+    List<Todo> todos = new ArrayList<>(index.todos().length + pending.added().size());
+    visit(new State(index, pending), todos::add);
+    return new State(new TodoIndex(todos.toArray(new Todo[0])), PendingChanges.none());
+  }
+
+  // Visit the todos in stored order: the index's rows that haven't been
+  // removed, then the todos added since.
+  private static void visit(State current, Consumer<? super Todo> visitor) {
+    Todo[] todos = current.index().todos();
+    for (int row = 0; row < todos.length; row++) {
+      if (!current.pending().isRemoved(row)) {
+        visitor.accept(todos[row]);
+      }
+    }
+    current.pending().added().forEach(visitor);
+  }
+
+  // The rows of the index matching all the filters in the query that
+  // haven't been removed, where `null` means every row. The filters are
+  // applied in the order of the query's plan, so the body scan only looks
+  // at the rows left by the index lookups (less the removed ones).
+  private static BitSet filter(State current, TodoQuery query) {
+    TodoIndex index = current.index();
+    PendingChanges<Todo> pending = current.pending();
+    // The owner and category are turned into the index's dictionary codes
+    // once, up front, so the lookups work with those rather than text.
+    int[] ownerCodes = query.owner() == null ? null : index.ownerCodes(query.owner());
+    int[] categoryCodes = query.category() == null ? null : index.categoryCodes(query.category());
+    BitSet matches = null;
+    for (int step : PLANS[query.shape()]) {
+      switch (step) {
+        case TodoQuery.OWNER:
+          matches = intersect(matches, index.ownerIn(ownerCodes));
+          break;
+        case TodoQuery.CATEGORY:
+          matches = intersect(matches, index.categoryIn(categoryCodes));
+          break;
+        case TodoQuery.STATUS:
+          matches = intersect(matches, index.statusIs(query.status()));
+          break;
+        default:
+          matches = index.bodyContains(query.contains(), pending.live(matches, index.todos().length));
+          break;
+      }
+      if (matches.isEmpty()) {
+        break;
+      }
+    }
+    return pending.live(matches, index.todos().length);
+  }
+
+  // The plan for each shape of query: the filters it has, in the order to
+  // apply them. Owner and category usually pick out the fewest todos, status
+  // about half of them, and the body has no index, so it goes last.
+  private static int[][] buildPlans() {
+    int[] order = { TodoQuery.OWNER, TodoQuery.CATEGORY, TodoQuery.STATUS, TodoQuery.CONTAINS };
+    int[][] plans = new int[TodoQuery.SHAPES][];
+    for (int shape = 0; shape < TodoQuery.SHAPES; shape++) {
+      int thisShape = shape;
+      plans[shape] = Arrays.stream(order).filter(filter -> (thisShape & filter) != 0).toArray();
+    }
+    return plans;
+  }
+
+  // Intersect two sets of matching rows, where `null` stands for "all rows".
+  private static BitSet intersect(BitSet matches, BitSet rows) {
+    if (matches == null) {
+      return rows;
+    }
+    matches.and(rows);
+    return matches;
+  }
+
+  // Turn a set of matching rows back into `Todo`s, in their original order,
+  // followed by the matching todos added since.
+  private static Todo[] todosAt(TodoIndex current, BitSet matches, List<Todo> added) {
+    Todo[] allTodos = current.todos();
+    if (matches == null && added.isEmpty()) {
+      return allTodos;
+    }
+    int inIndex = matches == null ? allTodos.length : matches.cardinality();
+    Todo[] todos = new Todo[inIndex + added.size()];
+    int next = 0;
+    if (matches == null) {
+      System.arraycopy(allTodos, 0, todos, 0, inIndex);
+      next = inIndex;
+    } else {
+      for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+        todos[next++] = allTodos[row];
+      }
+    }
+    for (Todo todo : added) {
+      todos[next++] = todo;
+    }
+    return todos;
+  }
+}
@@ -0,0 +1,341 @@
+package umm3601.todo;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.CaseFolding;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * A `TodoRepository` that keeps the todos in a SQL database, by default an
+ * embedded H2 database (see `StorageBackend`).
+ * <p>
+ * Unlike the in-memory repositories, the todos don't have to fit in the
+ * heap, and with an on-disk database URL (e.g., `jdbc:h2:file:./data/todos`)
+ * changes survive a restart. The todos from the JSON file are only loaded
+ * into the table if it's empty.
+ * <p>
+ * Each `TodoQuery` becomes a single `SELECT`, so the filters, sorting, and
+ * limit all happen in the database, using its indexes. To match the other
+ * repositories, which compare owners and categories ignoring case, we also
+ * store a folded copy (see `CaseFolding`) of those fields and the body, and
+ * compare against those. (Tables made before those copies were folded
+ * this way hold `toLowerCase()` copies instead, which only differ for the
+ * odd non-English character.)
+ */
+public class JdbcTodoRepository implements TodoRepository {
+
+  // The columns that hold the fields of a `Todo`, in the order `readTodo`
+  // expects them.
+  private static final String TODO_COLUMNS = "id, owner, status, body, category";
+
+  // The SQL column for each field todos can be sorted or grouped by.
+  private static final Map<String, String> COLUMNS = Map.of(
+      "owner", "owner",
+      "body", "body",
+      "status", "status",
+      "category", "category");
+
+  private static final String INSERT = "INSERT INTO todos "
+      + "(id, seq, owner, owner_folded, status, body, body_folded, category, category_folded) "
+      + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private final String url;
+
+  // An embedded database is closed when its last connection is, so we keep
+  // this one open for as long as the repository is around.
+  private final Connection keepOpen;
+
+  // The position to give the next todo, which keeps the todos in the order
+  // they were added (the "stored order" other repositories use).
+  private final AtomicLong nextSeq;
+
+  /**
+   * Connect to (and if necessary set up) the database at the given URL.
+   *
+   * @param url          the JDBC URL of the database
+   * @param initialTodos the todos to put in the table if it's empty
+   */
+  public JdbcTodoRepository(String url, Todo[] initialTodos) {
+    this.url = url;
+    try {
+      keepOpen = DriverManager.getConnection(url);
+      try (Statement statement = keepOpen.createStatement()) {
+        statement.execute("CREATE TABLE IF NOT EXISTS todos ("
+            + "id VARCHAR(64) PRIMARY KEY, seq BIGINT NOT NULL, "
+            + "owner VARCHAR NOT NULL, owner_folded VARCHAR NOT NULL, "
+            + "status BOOLEAN NOT NULL, "
+            + "body VARCHAR NOT NULL, body_folded VARCHAR NOT NULL, "
+            + "category VARCHAR NOT NULL, category_folded VARCHAR NOT NULL)");
+        statement.execute("CREATE INDEX IF NOT EXISTS todos_seq ON todos (seq)");
+        statement.execute("CREATE INDEX IF NOT EXISTS todos_owner ON todos (owner_folded, seq)");
+        statement.execute("CREATE INDEX IF NOT EXISTS todos_category ON todos (category_folded, seq)");
+        statement.execute("CREATE INDEX IF NOT EXISTS todos_status ON todos (status, seq)");
+      }
+      nextSeq = new AtomicLong(queryLong(keepOpen, "SELECT COALESCE(MAX(seq), 0) + 1 FROM todos"));
+      if (queryLong(keepOpen, "SELECT COUNT(*) FROM todos") == 0) {
+        insertAll(initialTodos);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not set up the todo database at " + url, e);
+    }
+  }
+
+  @Override
+  public int size() {
+    try (Connection connection = connect()) {
+      return (int) queryLong(connection, "SELECT COUNT(*) FROM todos");
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count todos", e);
+    }
+  }
+
+  @Override
+  public Todo get(String id) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(
+            "SELECT " + TODO_COLUMNS + " FROM todos WHERE id = ?")) {
+      statement.setString(1, id);
+      try (ResultSet results = statement.executeQuery()) {
+        return results.next() ? readTodo(results) : null;
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not get todo " + id, e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * H2 plans the query itself, so all we can say is that it's SQL.
+   */
+  @Override
+  public QueryPlan explain(TodoQuery query) {
+    return new QueryPlan("sql", -1);
+  }
+
+  @Override
+  public Todo[] find(TodoQuery query) {
+    List<Object> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder("SELECT " + TODO_COLUMNS + " FROM todos");
+    appendWhere(query, sql, args);
+    sql.append(" ORDER BY ");
+    if (query.orderBy() != null) {
+      sql.append(COLUMNS.get(query.orderBy())).append(", ");
+    }
+    sql.append("seq");
+    if (query.limit() != Integer.MAX_VALUE) {
+      sql.append(" LIMIT ?");
+      args.add(query.limit());
+    }
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      List<Todo> todos = new ArrayList<>();
+      while (results.next()) {
+        // Reading the rows is where a big result spends its time, so
+        // that's where we stop if the query is cancelled.
+        if ((todos.size() & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+          Cancellation.checkpoint();
+        }
+        todos.add(readTodo(results));
+      }
+      return todos.toArray(new Todo[0]);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not find todos", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Each row is read from the result set as it's visited, and H2 keeps big
+   * results on disk rather than in the heap.
+   */
+  @Override
+  public void forEach(Consumer<? super Todo> visitor) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(
+            "SELECT " + TODO_COLUMNS + " FROM todos ORDER BY seq");
+        ResultSet results = statement.executeQuery()) {
+      while (results.next()) {
+        visitor.accept(readTodo(results));
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not read todos", e);
+    }
+  }
+
+  @Override
+  public int count(TodoQuery query) {
+    List<Object> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM todos");
+    appendWhere(query, sql, args);
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      results.next();
+      return results.getInt(1);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count todos", e);
+    }
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, TodoQuery query) {
+    if (field.equals("body") || !COLUMNS.containsKey(field)) {
+      throw new IllegalArgumentException("Todos can't be grouped by " + field);
+    }
+    String column = COLUMNS.get(field);
+    List<Object> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder("SELECT " + column + ", COUNT(*) FROM todos");
+    appendWhere(query, sql, args);
+    sql.append(" GROUP BY ").append(column);
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      SortedMap<String, Integer> counts = new TreeMap<>();
+      while (results.next()) {
+        String value = field.equals("status")
+            ? TodoIndex.statusName(results.getBoolean(1))
+            : results.getString(1);
+        counts.put(value, results.getInt(2));
+      }
+      return counts;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count todos", e);
+    }
+  }
+
+  @Override
+  public void add(Todo todo) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(INSERT)) {
+      bindInsert(statement, todo, nextSeq.getAndIncrement());
+      statement.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not add todo " + todo._id, e);
+    }
+  }
+
+  @Override
+  public Todo remove(String id) {
+    Todo todo = get(id);
+    if (todo == null) {
+      return null;
+    }
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement("DELETE FROM todos WHERE id = ?")) {
+      statement.setString(1, id);
+      return statement.executeUpdate() > 0 ? todo : null;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not remove todo " + id, e);
+    }
+  }
+
+  @SuppressWarnings({ "MagicNumber" })
+  private static void bindInsert(PreparedStatement statement, Todo todo, long seq) throws SQLException {
+    statement.setString(1, todo._id);
+    statement.setLong(2, seq);
+    statement.setString(3, todo.owner);
+    statement.setString(4, CaseFolding.fold(todo.owner));
+    statement.setBoolean(5, todo.status);
+    statement.setString(6, todo.body);
+    statement.setString(7, CaseFolding.fold(todo.body));
+    statement.setString(8, todo.category);
+    statement.setString(9, CaseFolding.fold(todo.category));
+  }
+
+  // Load the initial todos in one transaction, which is much faster than
+  // committing each one separately.
+  private void insertAll(Todo[] todos) throws SQLException {
+    try (Connection connection = connect()) {
+      connection.setAutoCommit(false);
+      try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+        for (Todo todo : todos) {
+          bindInsert(statement, todo, nextSeq.getAndIncrement());
+          statement.addBatch();
+        }
+        statement.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    }
+  }
+
+  // Add a `WHERE` clause for the query's filters, and their values to `args`.
+  private static void appendWhere(TodoQuery query, StringBuilder sql, List<Object> args) {
+    List<String> conditions = new ArrayList<>();
+    if (query.status() != null) {
+      conditions.add("status = ?");
+      args.add(query.status());
+    }
+    // The query's values are already folded, the same way as the columns.
+    if (query.owner() != null) {
+      conditions.add("owner_folded = ?");
+      args.add(query.owner());
+    }
+    if (query.category() != null) {
+      conditions.add("category_folded = ?");
+      args.add(query.category());
+    }
+    if (query.contains() != null) {
+      conditions.add("body_folded LIKE ? ESCAPE '\\'");
+      args.add("%" + escapeLike(query.contains()) + "%");
+    }
+    if (!conditions.isEmpty()) {
+      sql.append(" WHERE ").append(String.join(" AND ", conditions));
+    }
+  }
+
+  // Make the `LIKE` wildcards `%` and `_` (and the escape character itself)
+  // match literally, since `contains` is plain text.
+  private static String escapeLike(String text) {
+    return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+  }
+
+  private Connection connect() throws SQLException {
+    return DriverManager.getConnection(url);
+  }
+
+  private static PreparedStatement prepare(Connection connection, String sql, List<Object> args) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(sql);
+    for (int i = 0; i < args.size(); i++) {
+      statement.setObject(i + 1, args.get(i));
+    }
+    return statement;
+  }
+
+  private static long queryLong(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet results = statement.executeQuery(sql)) {
+      results.next();
+      return results.getLong(1);
+    }
+  }
+
+  @SuppressWarnings({ "MagicNumber" })
+  private static Todo readTodo(ResultSet results) throws SQLException {
+    Todo todo = new Todo();
+    todo._id = results.getString(1);
+    todo.owner = results.getString(2);
+    todo.status = results.getBoolean(3);
+    todo.body = results.getString(4);
+    todo.category = results.getString(5);
+    return todo;
+  }
+}
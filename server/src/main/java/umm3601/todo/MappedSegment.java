@@ -0,0 +1,165 @@
+package umm3601.todo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A growable region of a file, mapped into memory.
+ * <p>
+ * A single `MappedByteBuffer` can't be bigger than 2GB, so the file is
+ * mapped in fixed size "chunks", and a position in the segment is a `long`.
+ * Ints and longs are always stored at positions that are a multiple of their
+ * size, and chunks are a power of two bytes long, so they never straddle two
+ * chunks; byte arrays (e.g., strings) can, and are copied a piece at a time.
+ * <p>
+ * The contents live in the operating system's page cache rather than the
+ * Java heap, so the segment can be much bigger than the heap, and the
+ * garbage collector never has to look at it.
+ * <p>
+ * There can be many readers at once, but only one writer. The writer has to
+ * call `ensureCapacity()` before writing past the end, and has to publish
+ * what it wrote (e.g., through a `volatile` row count) before readers look
+ * at it.
+ */
+final class MappedSegment implements Closeable {
+
+  private final FileChannel channel;
+  private final int chunkBits;
+  private final long chunkSize;
+  private final long chunkMask;
+
+  // Only ever replaced by a longer copy, so a reader can keep using the
+  // array it read.
+  private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+  /**
+   * Create (or empty) the given file, and get ready to map it.
+   *
+   * @param file      the file to keep the segment in
+   * @param chunkBits the size of each chunk, as a power of two
+   */
+  MappedSegment(Path file, int chunkBits) {
+    this.chunkBits = chunkBits;
+    this.chunkSize = 1L << chunkBits;
+    this.chunkMask = chunkSize - 1;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open " + file, e);
+    }
+  }
+
+  /**
+   * Make sure the first `bytes` bytes of the segment are mapped, growing the
+   * file if necessary.
+   *
+   * @param bytes the number of bytes needed
+   */
+  void ensureCapacity(long bytes) {
+    MappedByteBuffer[] current = chunks;
+    long needed = (bytes + chunkMask) >>> chunkBits;
+    if (needed <= current.length) {
+      return;
+    }
+    MappedByteBuffer[] grown = Arrays.copyOf(current, (int) Math.max(needed, current.length * 2L));
+    try {
+      for (int chunk = current.length; chunk < grown.length; chunk++) {
+        // Mapping past the end of the file makes the file longer.
+        grown[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, chunk * chunkSize, chunkSize);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not grow a mapped segment", e);
+    }
+    chunks = grown;
+  }
+
+  byte getByte(long position) {
+    return chunks[(int) (position >>> chunkBits)].get((int) (position & chunkMask));
+  }
+
+  void putByte(long position, byte value) {
+    chunks[(int) (position >>> chunkBits)].put((int) (position & chunkMask), value);
+  }
+
+  int getInt(long position) {
+    return chunks[(int) (position >>> chunkBits)].getInt((int) (position & chunkMask));
+  }
+
+  void putInt(long position, int value) {
+    chunks[(int) (position >>> chunkBits)].putInt((int) (position & chunkMask), value);
+  }
+
+  long getLong(long position) {
+    return chunks[(int) (position >>> chunkBits)].getLong((int) (position & chunkMask));
+  }
+
+  void putLong(long position, long value) {
+    chunks[(int) (position >>> chunkBits)].putLong((int) (position & chunkMask), value);
+  }
+
+  /**
+   * Copy bytes out of the segment.
+   *
+   * @param position where in the segment to start
+   * @param target   where to put the bytes
+   * @param length   how many bytes to copy
+   */
+  void get(long position, byte[] target, int length) {
+    MappedByteBuffer[] current = chunks;
+    int done = 0;
+    while (done < length) {
+      long at = position + done;
+      int offset = (int) (at & chunkMask);
+      int piece = (int) Math.min(length - done, chunkSize - offset);
+      current[(int) (at >>> chunkBits)].get(offset, target, done, piece);
+      done += piece;
+    }
+  }
+
+  /**
+   * Copy bytes into the segment, which must already be big enough.
+   *
+   * @param position where in the segment to start
+   * @param source   the bytes to copy
+   */
+  void put(long position, byte[] source) {
+    MappedByteBuffer[] current = chunks;
+    int done = 0;
+    while (done < source.length) {
+      long at = position + done;
+      int offset = (int) (at & chunkMask);
+      int piece = (int) Math.min(source.length - done, chunkSize - offset);
+      current[(int) (at >>> chunkBits)].put(offset, source, done, piece);
+      done += piece;
+    }
+  }
+
+  /**
+   * @return how much of the file is mapped into memory (a whole number of
+   *         chunks, so usually more than has been written), which is an
+   *         upper bound on how much of the OS's page cache it can use
+   */
+  long mappedBytes() {
+    return chunks.length * chunkSize;
+  }
+
+  /**
+   * Close the file. The mapped chunks stay usable until they're garbage
+   * collected, so readers that are part way through aren't affected.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not close a mapped segment", e);
+    }
+  }
+}
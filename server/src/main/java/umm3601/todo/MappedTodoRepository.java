@@ -0,0 +1,641 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.CaseFolding;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+
+/**
+ * A `TodoRepository` that keeps the todos in memory-mapped files instead of
+ * on the Java heap, for collections too big to hold as `Todo` objects.
+ * <p>
+ * The todos are stored by column, each column in its own `MappedSegment`:
+ * <ul>
+ * <li>`flags`: one byte per todo, for its status and whether it has been
+ * removed;</li>
+ * <li>`owners` and `categories`: an `int` per todo, the code of its value in
+ * a dictionary of the distinct owners (or categories);</li>
+ * <li>`ids`, `bodies`, and `folded`: a `long` per todo, saying where its
+ * `_id`, body, and lower case ("folded") body are in the string heap;</li>
+ * <li>`strings`: the string heap, the UTF-8 bytes of every `_id` and
+ * body;</li>
+ * <li>`idtable`: an open addressing hash table from `_id` to row.</li>
+ * </ul>
+ * A query scans just the columns it needs, straight out of the mapped files,
+ * and only builds `Todo` objects for the rows it returns. So the heap needed
+ * doesn't grow with the number of todos; only the owner and category
+ * dictionaries (which grow with the number of <em>distinct</em> values) are
+ * kept on the heap.
+ * <p>
+ * The files are rebuilt from the initial todos each time the repository is
+ * created (so this is about size, not durability), and deleted when the
+ * server stops. Removing a todo only marks it as removed, so the space isn't
+ * reused.
+ */
+public class MappedTodoRepository implements TodoRepository {
+
+  /**
+   * The default size of each mapped chunk of a file, as a power of two
+   * (64MB).
+   */
+  static final int DEFAULT_CHUNK_BITS = 26;
+
+  // The bits of a row's `flags` byte.
+  private static final byte COMPLETE = 1;
+  private static final byte REMOVED = 2;
+
+  // A reference to a string in the heap packs its position and length into
+  // one `long`: the low 24 bits are the length, and the rest the position.
+  private static final int LENGTH_BITS = 24;
+  private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+  // Sizes (in bytes) of the values in each column.
+  private static final int INT_BYTES = 4;
+  private static final int LONG_BYTES = 8;
+
+  // The hash table is rebuilt (twice as big) when it gets more than half
+  // full, which keeps the probe sequences short.
+  private static final int MIN_TABLE_SLOTS = 1024;
+  private static final int MAX_TABLE_SLOTS = 1 << 30;
+
+  // Starting sizes for things that grow as needed.
+  private static final int INITIAL_MATCHES = 1024;
+  private static final int INITIAL_BUFFER_BYTES = 1024;
+  private static final int INITIAL_DICTIONARY_SIZE = 16;
+
+  private final Path directory;
+  private final int chunkBits;
+
+  private final MappedSegment flags;
+  private final MappedSegment owners;
+  private final MappedSegment categories;
+  private final MappedSegment ids;
+  private final MappedSegment bodies;
+  private final MappedSegment foldedBodies;
+  private final MappedSegment strings;
+
+  private final Dictionary ownerDictionary = new Dictionary();
+  private final Dictionary categoryDictionary = new Dictionary();
+
+  private volatile IdTable idTable;
+
+  // The number of rows written, including removed ones. Everything about a
+  // row is written before this is increased, so readers that only look at
+  // rows below it see complete rows.
+  private volatile int rowCount;
+
+  // The number of rows that haven't been removed.
+  private volatile int liveCount;
+
+  // Only used by the (single) writer.
+  private long stringsEnd;
+  private int tableGeneration;
+
+  /**
+   * Build a repository in the given directory, holding the given todos.
+   *
+   * @param directory    where to keep the files, which are replaced if
+   *                     they already exist
+   * @param initialTodos the todos to start with
+   */
+  public MappedTodoRepository(Path directory, Todo[] initialTodos) {
+    this(directory, initialTodos, DEFAULT_CHUNK_BITS);
+  }
+
+  /**
+   * Build a repository with a given chunk size (tests use tiny chunks, so
+   * strings often straddle two of them).
+   *
+   * @param directory    where to keep the files
+   * @param initialTodos the todos to start with
+   * @param chunkBits    the size of each mapped chunk, as a power of two
+   */
+  MappedTodoRepository(Path directory, Todo[] initialTodos, int chunkBits) {
+    this.directory = directory;
+    this.chunkBits = chunkBits;
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create " + directory, e);
+    }
+    flags = segment("flags.bin");
+    owners = segment("owners.bin");
+    categories = segment("categories.bin");
+    ids = segment("ids.bin");
+    bodies = segment("bodies.bin");
+    foldedBodies = segment("folded.bin");
+    strings = segment("strings.bin");
+    // Start with room for all the initial todos, so the table doesn't have
+    // to be rebuilt while loading them.
+    long slots = Long.highestOneBit(Math.max(initialTodos.length, 1)) << 2;
+    idTable = newIdTable((int) Math.min(MAX_TABLE_SLOTS, Math.max(MIN_TABLE_SLOTS, slots)));
+    for (Todo todo : initialTodos) {
+      append(todo);
+    }
+  }
+
+  @Override
+  public int size() {
+    return liveCount;
+  }
+
+  @Override
+  public Todo get(String id) {
+    int row = rowOf(id, rowCount);
+    return row < 0 ? null : readTodo(row);
+  }
+
+  @Override
+  public Todo[] find(TodoQuery query) {
+    // Read the row count first, so the dictionaries (read by the `Scan`)
+    // cover every row we look at.
+    int rows = rowCount;
+    Scan scan = new Scan(query);
+    // Without an order, we can stop as soon as we have enough todos.
+    int wanted = query.orderBy() == null ? query.limit() : Integer.MAX_VALUE;
+    int[] matches = new int[Math.min(rows, INITIAL_MATCHES)];
+    int count = 0;
+    for (int row = 0; row < rows && count < wanted; row++) {
+      if ((row & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+        Cancellation.checkpoint();
+      }
+      if (scan.matches(row)) {
+        if (count == matches.length) {
+          matches = Arrays.copyOf(matches, matches.length * 2);
+        }
+        matches[count++] = row;
+      }
+    }
+    if (query.orderBy() != null) {
+      sortRows(query.orderBy(), matches, count);
+      Cancellation.checkpoint();
+    }
+    Todo[] todos = new Todo[Math.min(count, query.limit())];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = readTodo(matches[i]);
+    }
+    return todos;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Each todo is read from the columns just before it's visited, and
+   * dropped after, so only one is on the heap at a time.
+   */
+  @Override
+  public void forEach(Consumer<? super Todo> visitor) {
+    int rows = rowCount;
+    for (int row = 0; row < rows; row++) {
+      if ((flags.getByte(row) & REMOVED) == 0) {
+        visitor.accept(readTodo(row));
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The columns, the string heap, and the ID table are in mapped files,
+   * and only the dictionaries are on the heap.
+   */
+  @Override
+  public List<Footprint> footprint() {
+    int rows = rowCount;
+    IdTable table = idTable;
+    return List.of(
+        Footprint.mapped("flags", rows, flags.mappedBytes()),
+        Footprint.mapped("owners", rows, owners.mappedBytes()),
+        Footprint.mapped("categories", rows, categories.mappedBytes()),
+        Footprint.mapped("ids", rows, ids.mappedBytes()),
+        Footprint.mapped("bodies", rows, bodies.mappedBytes()),
+        Footprint.mapped("foldedBodies", rows, foldedBodies.mappedBytes()),
+        Footprint.mapped("strings", rows, strings.mappedBytes()),
+        Footprint.mapped("idTable", table.slots(), table.segment().mappedBytes()),
+        Footprint.heap("ownerDictionary", ownerDictionary.size(), ownerDictionary.estimatedBytes(), 0),
+        Footprint.heap("categoryDictionary", categoryDictionary.size(), categoryDictionary.estimatedBytes(), 0));
+  }
+
+  @Override
+  public int count(TodoQuery query) {
+    int rows = rowCount;
+    Scan scan = new Scan(query);
+    int count = 0;
+    for (int row = 0; row < rows; row++) {
+      if (scan.matches(row)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, TodoQuery query) {
+    int rows = rowCount;
+    Scan scan = new Scan(query);
+    MappedSegment column;
+    Dictionary dictionary;
+    switch (field) {
+      case "owner":
+        column = owners;
+        dictionary = ownerDictionary;
+        break;
+      case "category":
+        column = categories;
+        dictionary = categoryDictionary;
+        break;
+      case "status":
+        column = null;
+        dictionary = null;
+        break;
+      default:
+        throw new IllegalArgumentException("Todos can't be grouped by " + field);
+    }
+
+    int[] counts = new int[dictionary == null ? 2 : dictionary.size()];
+    for (int row = 0; row < rows; row++) {
+      if (scan.matches(row)) {
+        int value = column == null ? flags.getByte(row) & COMPLETE : column.getInt((long) row * INT_BYTES);
+        counts[value]++;
+      }
+    }
+    SortedMap<String, Integer> result = new TreeMap<>();
+    for (int value = 0; value < counts.length; value++) {
+      if (counts[value] > 0) {
+        String name = dictionary == null ? TodoIndex.statusName(value == COMPLETE) : dictionary.valueOf(value);
+        result.put(name, counts[value]);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void add(Todo todo) {
+    append(todo);
+  }
+
+  // Write a todo into a new row, and then publish the row.
+  private void append(Todo todo) {
+    int row = rowCount;
+    if (row == Integer.MAX_VALUE) {
+      throw new IllegalStateException("There is no room for more todos");
+    }
+    long rows = row + 1L;
+    flags.ensureCapacity(rows);
+    owners.ensureCapacity(rows * INT_BYTES);
+    categories.ensureCapacity(rows * INT_BYTES);
+    ids.ensureCapacity(rows * LONG_BYTES);
+    bodies.ensureCapacity(rows * LONG_BYTES);
+    foldedBodies.ensureCapacity(rows * LONG_BYTES);
+
+    flags.putByte(row, todo.status ? COMPLETE : 0);
+    owners.putInt((long) row * INT_BYTES, ownerDictionary.codeOf(todo.owner));
+    categories.putInt((long) row * INT_BYTES, categoryDictionary.codeOf(todo.category));
+    ids.putLong((long) row * LONG_BYTES, appendString(todo._id));
+    bodies.putLong((long) row * LONG_BYTES, appendString(todo.body));
+    foldedBodies.putLong((long) row * LONG_BYTES, appendString(CaseFolding.fold(todo.body)));
+
+    IdTable table = idTable;
+    if (rows * 2 > table.slots() && table.slots() < MAX_TABLE_SLOTS) {
+      table = rebuildIdTable(table.slots() * 2, row);
+    }
+    table.insert(todo._id, row);
+    rowCount = row + 1;
+    liveCount++;
+  }
+
+  @Override
+  public Todo remove(String id) {
+    int row = rowOf(id, rowCount);
+    if (row < 0) {
+      return null;
+    }
+    Todo removed = readTodo(row);
+    flags.putByte(row, (byte) (flags.getByte(row) | REMOVED));
+    liveCount--;
+    return removed;
+  }
+
+  /**
+   * Close the files. (The repository can't be used after this.)
+   */
+  public void close() {
+    for (MappedSegment segment : new MappedSegment[] {
+        flags, owners, categories, ids, bodies, foldedBodies, strings, idTable.segment() }) {
+      segment.close();
+    }
+  }
+
+  private MappedSegment segment(String name) {
+    Path file = directory.resolve(name);
+    file.toFile().deleteOnExit();
+    return new MappedSegment(file, chunkBits);
+  }
+
+  // Add a string to the heap, returning a reference to it.
+  private long appendString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > LENGTH_MASK) {
+      throw new IllegalArgumentException("A todo field is too long to store (" + bytes.length + " bytes)");
+    }
+    long position = stringsEnd;
+    strings.ensureCapacity(position + bytes.length);
+    strings.put(position, bytes);
+    stringsEnd = position + bytes.length;
+    return (position << LENGTH_BITS) | bytes.length;
+  }
+
+  private String readString(long reference) {
+    return new String(readBytes(reference, null), 0, (int) (reference & LENGTH_MASK), StandardCharsets.UTF_8);
+  }
+
+  // Copy the bytes of a string into `buffer` (or a new array, if it's
+  // `null` or too small), returning the array they're in.
+  private byte[] readBytes(long reference, byte[] buffer) {
+    int length = (int) (reference & LENGTH_MASK);
+    byte[] target = buffer == null || buffer.length < length ? new byte[length] : buffer;
+    strings.get(reference >>> LENGTH_BITS, target, length);
+    return target;
+  }
+
+  private Todo readTodo(int row) {
+    Todo todo = new Todo();
+    todo._id = readString(ids.getLong((long) row * LONG_BYTES));
+    todo.owner = ownerDictionary.valueOf(owners.getInt((long) row * INT_BYTES));
+    todo.status = (flags.getByte(row) & COMPLETE) != 0;
+    todo.body = readString(bodies.getLong((long) row * LONG_BYTES));
+    todo.category = categoryDictionary.valueOf(categories.getInt((long) row * INT_BYTES));
+    return todo;
+  }
+
+  // The row of the (not removed) todo with the given `_id`, or -1. Rows at
+  // or after `rows` may not be completely written yet, so they're ignored.
+  private int rowOf(String id, int rows) {
+    byte[] target = id.getBytes(StandardCharsets.UTF_8);
+    IdTable table = idTable;
+    for (int slot = hash(id) & table.mask(); ; slot = (slot + 1) & table.mask()) {
+      int entry = table.segment().getInt((long) slot * INT_BYTES);
+      if (entry == 0) {
+        return -1;
+      }
+      int row = entry - 1;
+      if (row < rows && (flags.getByte(row) & REMOVED) == 0 && idEquals(row, target)) {
+        return row;
+      }
+    }
+  }
+
+  private boolean idEquals(int row, byte[] target) {
+    long reference = ids.getLong((long) row * LONG_BYTES);
+    if ((reference & LENGTH_MASK) != target.length) {
+      return false;
+    }
+    return Arrays.equals(readBytes(reference, null), 0, target.length, target, 0, target.length);
+  }
+
+  @SuppressWarnings({ "MagicNumber" })
+  private static int hash(String id) {
+    int h = id.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private IdTable newIdTable(int slots) {
+    String name = "idtable-" + tableGeneration++ + ".bin";
+    MappedSegment segment = segment(name);
+    segment.ensureCapacity((long) slots * INT_BYTES);
+    return new IdTable(segment, slots - 1, directory.resolve(name));
+  }
+
+  // Build a bigger hash table holding the todos in the first `rows` rows
+  // that haven't been removed, and swap it in.
+  private IdTable rebuildIdTable(int slots, int rows) {
+    IdTable old = idTable;
+    IdTable table = newIdTable(slots);
+    for (int row = 0; row < rows; row++) {
+      if ((flags.getByte(row) & REMOVED) == 0) {
+        table.insert(readString(ids.getLong((long) row * LONG_BYTES)), row);
+      }
+    }
+    idTable = table;
+    // Readers still using the old table keep its (mapped) contents even
+    // after the file is gone.
+    old.segment().close();
+    try {
+      Files.deleteIfExists(old.file());
+    } catch (IOException e) {
+      // It's deleted when the server stops anyway.
+    }
+    return table;
+  }
+
+  // Sort the first `count` rows in `matches` by the given field. Rows start
+  // out in stored order, and every key is unique (because it includes the
+  // row), so ties stay in stored order, like the other repositories.
+  private void sortRows(String orderBy, int[] matches, int count) {
+    if (orderBy.equals("body")) {
+      // Bodies don't have small integer codes, so compare the strings.
+      String[] keys = new String[count];
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = readString(bodies.getLong((long) matches[i] * LONG_BYTES));
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparing((Integer i) -> keys[i]));
+      int[] sorted = new int[count];
+      for (int i = 0; i < count; i++) {
+        sorted[i] = matches[order[i]];
+      }
+      System.arraycopy(sorted, 0, matches, 0, count);
+      return;
+    }
+
+    int[] ranks = null;
+    MappedSegment column = null;
+    if (orderBy.equals("owner")) {
+      ranks = ownerDictionary.ranks();
+      column = owners;
+    } else if (orderBy.equals("category")) {
+      ranks = categoryDictionary.ranks();
+      column = categories;
+    }
+    // Pack (rank, row) into one `long`, so a primitive sort does it all.
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      int row = matches[i];
+      long rank = column == null ? flags.getByte(row) & COMPLETE : ranks[column.getInt((long) row * INT_BYTES)];
+      keys[i] = (rank << Integer.SIZE) | row;
+    }
+    Arrays.sort(keys);
+    for (int i = 0; i < count; i++) {
+      matches[i] = (int) keys[i];
+    }
+  }
+
+  /**
+   * The filters of one query, prepared for checking rows: the owner and
+   * category become sets of dictionary codes, and `contains` becomes the
+   * UTF-8 bytes to look for in the folded bodies.
+   */
+  private final class Scan {
+    private final Boolean status;
+    private final BitSet ownerCodes;
+    private final BitSet categoryCodes;
+    private final byte[] needle;
+    private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+
+    Scan(TodoQuery query) {
+      status = query.status();
+      ownerCodes = query.owner() == null ? null : ownerDictionary.codesMatching(query.owner());
+      categoryCodes = query.category() == null ? null : categoryDictionary.codesMatching(query.category());
+      needle = query.contains() == null ? null : query.contains().getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean matches(int row) {
+      byte rowFlags = flags.getByte(row);
+      if ((rowFlags & REMOVED) != 0) {
+        return false;
+      }
+      if (status != null && ((rowFlags & COMPLETE) != 0) != status) {
+        return false;
+      }
+      if (ownerCodes != null && !ownerCodes.get(owners.getInt((long) row * INT_BYTES))) {
+        return false;
+      }
+      if (categoryCodes != null && !categoryCodes.get(categories.getInt((long) row * INT_BYTES))) {
+        return false;
+      }
+      return needle == null || bodyContains(row);
+    }
+
+    private boolean bodyContains(int row) {
+      long reference = foldedBodies.getLong((long) row * LONG_BYTES);
+      int length = (int) (reference & LENGTH_MASK);
+      buffer = readBytes(reference, buffer);
+      return indexOf(buffer, length, needle) >= 0;
+    }
+  }
+
+  // Find `needle` in the first `length` bytes of `haystack`. Searching the
+  // UTF-8 bytes gives the same answer as searching the strings, since a
+  // character's encoding never appears in the middle of another's.
+  static int indexOf(byte[] haystack, int length, byte[] needle) {
+    if (needle.length == 0) {
+      return 0;
+    }
+    byte first = needle[0];
+    for (int start = 0; start <= length - needle.length; start++) {
+      if (haystack[start] == first
+          && Arrays.equals(haystack, start, start + needle.length, needle, 0, needle.length)) {
+        return start;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The hash table from `_id` to row. Each slot holds `row + 1`, so an empty
+   * slot is 0.
+   */
+  private record IdTable(MappedSegment segment, int mask, Path file) {
+    int slots() {
+      return mask + 1;
+    }
+
+    void insert(String id, int row) {
+      int slot = hash(id) & mask;
+      while (segment.getInt((long) slot * INT_BYTES) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      segment.putInt((long) slot * INT_BYTES, row + 1);
+    }
+  }
+
+  /**
+   * The distinct values of a column, each with a code (its position). Only
+   * the writer adds values, and it adds a value before writing any row that
+   * uses its code.
+   */
+  private static final class Dictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] values = new String[INITIAL_DICTIONARY_SIZE];
+    private volatile int size;
+
+    int codeOf(String value) {
+      Integer code = codes.get(value);
+      if (code != null) {
+        return code;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size] = value;
+      codes.put(value, size);
+      return size++;
+    }
+
+    int size() {
+      return size;
+    }
+
+    // Roughly how much heap the dictionary takes, including its values
+    // (which aren't shared with any `Todo`s).
+    long estimatedBytes() {
+      // Read the size first: the array is grown before the size goes past
+      // it, so the array we read next has at least `count` values.
+      int count = size;
+      String[] current = values;
+      return MemoryEstimate.hashMap(count, MemoryEstimate.INTEGER)
+          + MemoryEstimate.referenceArray(current.length)
+          + MemoryEstimate.sampled(count, code -> MemoryEstimate.string(current[code]));
+    }
+
+    String valueOf(int code) {
+      return values[code];
+    }
+
+    // The codes of the values equal to `target` (already folded), ignoring
+    // case.
+    BitSet codesMatching(String target) {
+      String[] current = values;
+      int count = size;
+      BitSet matching = new BitSet(count);
+      for (int code = 0; code < count; code++) {
+        if (CaseFolding.equalsFolded(current[code], target)) {
+          matching.set(code);
+        }
+      }
+      return matching;
+    }
+
+    // The position of each code's value when the values are sorted.
+    int[] ranks() {
+      String[] current = values;
+      int count = size;
+      Integer[] sorted = new Integer[count];
+      for (int code = 0; code < count; code++) {
+        sorted[code] = code;
+      }
+      Arrays.sort(sorted, Comparator.comparing((Integer code) -> current[code]));
+      int[] ranks = new int[count];
+      for (int rank = 0; rank < count; rank++) {
+        ranks[sorted[rank]] = rank;
+      }
+      return ranks;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+import umm3601.Merging;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * A `TodoRepository` that splits the todos into several "shards", each its
+ * own repository, and runs each query on all of them in parallel.
+ * <p>
+ * The shards split the todos by <em>range</em>: the first shard holds the
+ * first todos (in stored order), the next shard the next ones, and so on.
+ * New todos go in the last shard. That way the stored order is just the
+ * shards one after another, so:
+ * <ul>
+ * <li>an unordered query takes the shards' results in shard order, until it
+ * has `limit` of them;</li>
+ * <li>an ordered query asks every shard for its own top `limit` (already
+ * sorted), and does a k-way merge of those, breaking ties by shard so equal
+ * todos stay in stored order;</li>
+ * <li>counts are just added up.</li>
+ * </ul>
+ * The shards are searched on a dedicated `ForkJoinPool`, so slow queries
+ * can't starve the common pool (or Jetty's threads). Forking isn't free,
+ * though, so when there are fewer than `parallelThreshold` todos the shards
+ * are searched one after another on the calling thread instead.
+ */
+public class ShardedTodoRepository implements TodoRepository {
+
+  /**
+   * The system property holding the number of shards (1, the default,
+   * means no sharding).
+   */
+  public static final String SHARDS_PROPERTY = "umm3601.shards";
+
+  /**
+   * The system property holding the number of todos below which queries
+   * don't run in parallel.
+   */
+  public static final String THRESHOLD_PROPERTY = "umm3601.parallelThreshold";
+
+  /**
+   * The system property holding the number of threads that search shards
+   * (by default, the number of processors).
+   */
+  public static final String THREADS_PROPERTY = "umm3601.shardThreads";
+
+  /**
+   * The default for `umm3601.parallelThreshold`. Below this, scanning every
+   * todo takes less time than handing the work to other threads.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 50_000;
+
+  private final TodoRepository[] shards;
+  private final int parallelThreshold;
+  private final ForkJoinPool pool;
+
+  /**
+   * Split the given todos into shards.
+   *
+   * @param todos             the todos to start with
+   * @param shardCount        the number of shards
+   * @param parallelThreshold the number of todos below which queries run
+   *                          on the calling thread
+   * @param threads           the number of threads to search shards with
+   * @param newShard          builds a shard from its todos, given the
+   *                          shard's number (e.g., for naming its files)
+   */
+  public ShardedTodoRepository(Todo[] todos, int shardCount, int parallelThreshold, int threads,
+      ShardFactory newShard) {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("There must be at least one shard, not " + shardCount);
+    }
+    this.shards = new TodoRepository[shardCount];
+    for (int shard = 0; shard < shardCount; shard++) {
+      int from = (int) ((long) todos.length * shard / shardCount);
+      int to = (int) ((long) todos.length * (shard + 1) / shardCount);
+      shards[shard] = newShard.create(Arrays.copyOfRange(todos, from, to), shard);
+    }
+    this.parallelThreshold = parallelThreshold;
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Builds one shard of a `ShardedTodoRepository`.
+   */
+  @FunctionalInterface
+  public interface ShardFactory {
+    /**
+     * @param todos the todos in the shard
+     * @param shard the shard's number, counting from 0
+     * @return a repository holding those todos
+     */
+    TodoRepository create(Todo[] todos, int shard);
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (TodoRepository shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  @Override
+  public Todo get(String id) {
+    for (TodoRepository shard : shards) {
+      Todo todo = shard.get(id);
+      if (todo != null) {
+        return todo;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Todo[] find(TodoQuery query) {
+    Todo[][] parts = onEveryShard(shard -> shards[shard].find(query), Todo[][]::new);
+    Comparator<Todo> ordering = query.ordering();
+    return ordering == null
+        ? Merging.concatenate(parts, query.limit(), Todo[]::new)
+        : Merging.merge(parts, ordering, query.limit(), Todo[]::new);
+  }
+
+  @Override
+  public void forEach(Consumer<? super Todo> visitor) {
+    // The shards hold consecutive runs of the stored order.
+    for (TodoRepository shard : shards) {
+      shard.forEach(visitor);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Every shard is the same kind of repository, so they all use the same
+   * indexes, and between them look at the total of their rows.
+   */
+  @Override
+  public QueryPlan explain(TodoQuery query) {
+    String index = QueryPlan.NO_INDEX;
+    int rowsScanned = 0;
+    for (TodoRepository shard : shards) {
+      QueryPlan plan = shard.explain(query);
+      index = plan.index();
+      rowsScanned = rowsScanned < 0 || plan.rowsScanned() < 0 ? -1 : rowsScanned + plan.rowsScanned();
+    }
+    return new QueryPlan(index, rowsScanned);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This is the total of each structure over all the shards.
+   */
+  @Override
+  public List<Footprint> footprint() {
+    List<List<Footprint>> parts = new ArrayList<>(shards.length);
+    for (TodoRepository shard : shards) {
+      parts.add(shard.footprint());
+    }
+    return Footprint.sum(parts);
+  }
+
+  @Override
+  public int count(TodoQuery query) {
+    Integer[] counts = onEveryShard(shard -> shards[shard].count(query), Integer[]::new);
+    int total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+    return total;
+  }
+
+  @Override
+  @SuppressWarnings({ "unchecked" })
+  public SortedMap<String, Integer> countBy(String field, TodoQuery query) {
+    SortedMap<String, Integer>[] parts = onEveryShard(
+        shard -> shards[shard].countBy(field, query), SortedMap[]::new);
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (SortedMap<String, Integer> part : parts) {
+      part.forEach((value, count) -> counts.merge(value, count, Integer::sum));
+    }
+    return counts;
+  }
+
+  @Override
+  public void add(Todo todo) {
+    // Adding to the end of the last shard keeps the stored order.
+    shards[shards.length - 1].add(todo);
+  }
+
+  @Override
+  public Todo remove(String id) {
+    for (TodoRepository shard : shards) {
+      Todo removed = shard.remove(id);
+      if (removed != null) {
+        return removed;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stop the threads that search the shards.
+   */
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * @return the number of shards
+   */
+  public int shardCount() {
+    return shards.length;
+  }
+
+  // Run `task` on every shard, in parallel if there are enough todos to be
+  // worth it, returning the results in shard order.
+  private <T> T[] onEveryShard(IntFunction<T> task, IntFunction<T[]> newArray) {
+    T[] results = newArray.apply(shards.length);
+    if (shards.length == 1 || size() < parallelThreshold) {
+      for (int shard = 0; shard < shards.length; shard++) {
+        results[shard] = task.apply(shard);
+      }
+      return results;
+    }
+
+    // The shards are searched on the pool's threads, so pass on the
+    // query's `Cancellation` (if it has one), so they stop with it.
+    Cancellation cancellation = Cancellation.current();
+    List<Callable<T>> tasks = new ArrayList<>(shards.length);
+    for (int shard = 0; shard < shards.length; shard++) {
+      int thisShard = shard;
+      tasks.add(() -> cancellation == null ? task.apply(thisShard) : cancellation.run(() -> task.apply(thisShard)));
+    }
+    List<Future<T>> futures = pool.invokeAll(tasks);
+    for (int shard = 0; shard < shards.length; shard++) {
+      try {
+        results[shard] = futures.get(shard).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while searching todo shards", e);
+      } catch (ExecutionException e) {
+        // Rethrow what the shard threw (e.g., a `BadRequestResponse`) as is.
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw new IllegalStateException("Could not search a todo shard", e.getCause());
+      }
+    }
+    return results;
+  }
+}
@@ -2,19 +2,62 @@ package umm3601.todo;
 
 import java.io.IOException;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.sse.SseClient;
+import umm3601.AsyncQueries;
+import umm3601.Cancellation;
 import umm3601.Controller;
+import umm3601.DatasetStats;
+import umm3601.Estimate;
+import umm3601.FieldProjection;
+import umm3601.GroupCounts;
+import umm3601.QueryParams;
+import umm3601.SingleFlight;
+import umm3601.WireFormat;
+import umm3601.admin.StatsSource;
 
 /**
  * Controller that manages requests for info about todos.
  */
-public class TodoController implements Controller {
+public class TodoController implements Controller, StatsSource {
+
+  // Writers for the `fields` query parameter, e.g., `?fields=_id,name`.
+  private static final FieldProjection TODO_FIELDS = new FieldProjection(Todo.class, "todo");
 
   private TodoDatabase todoDatabase;
 
+  // Shares the work of identical list requests that arrive at once (see
+  // `SingleFlight`).
+  private final SingleFlight<ListKey, byte[]> listFlights;
+
+  // What makes two list requests identical: the same query (once parsed,
+  // so, e.g., `owner=Fry` and `owner=fry` are the same), fields, and
+  // format, against the same version of the todos.
+  private record ListKey(long version, TodoQuery query, Set<String> fields, WireFormat format) {
+  }
+
+  // Where list requests are worked out, if not on the request thread (see
+  // `AsyncQueries`).
+  private final AsyncQueries asyncQueries;
+
+  // `false` on a replica, whose todos only change when the primary's do
+  // (see `forReplica()`).
+  private final boolean acceptsChanges;
+
   /**
    * Construct a controller for todos.
    * <p>
@@ -25,7 +68,57 @@ public class TodoController implements Controller {
    * @param todoDatabase the `TodoDatabase` containing todo data
    */
   public TodoController(TodoDatabase todoDatabase) {
+    this(todoDatabase, SingleFlight.configuredWindow(), AsyncQueries.configured());
+  }
+
+  /**
+   * Construct a controller for todos that coalesces identical list
+   * requests (see `SingleFlight`).
+   *
+   * @param todoDatabase     the `TodoDatabase` containing todo data
+   * @param coalescingWindow how long to keep sharing a list response after
+   *                         it's worked out, or `null` to not coalesce
+   *                         requests at all
+   */
+  public TodoController(TodoDatabase todoDatabase, Duration coalescingWindow) {
+    this(todoDatabase, coalescingWindow, AsyncQueries.off());
+  }
+
+  /**
+   * Construct a controller for todos that may coalesce identical list
+   * requests (see `SingleFlight`), and may work them out on compute threads
+   * (see `AsyncQueries`).
+   *
+   * @param todoDatabase     the `TodoDatabase` containing todo data
+   * @param coalescingWindow how long to keep sharing a list response after
+   *                         it's worked out, or `null` to not coalesce
+   *                         requests at all
+   * @param asyncQueries     where to work out list requests
+   */
+  public TodoController(TodoDatabase todoDatabase, Duration coalescingWindow, AsyncQueries asyncQueries) {
+    this(todoDatabase, coalescingWindow, asyncQueries, true);
+  }
+
+  private TodoController(TodoDatabase todoDatabase, Duration coalescingWindow, AsyncQueries asyncQueries,
+      boolean acceptsChanges) {
     this.todoDatabase = todoDatabase;
+    this.listFlights = new SingleFlight<>(coalescingWindow);
+    this.asyncQueries = asyncQueries;
+    this.acceptsChanges = acceptsChanges;
+  }
+
+  /**
+   * Construct a controller for a replica's read-only copy of the todos
+   * (see `ReplicationController`). Requests to add or delete a todo get a
+   * "405 Method Not Allowed", since they have to go to the primary: a change
+   * made here would never reach the primary, and a later change from the
+   * primary that conflicts with it would stop the replica replicating.
+   *
+   * @param todoDatabase the replica's `TodoDatabase`
+   * @return a controller that only reads
+   */
+  public static TodoController forReplica(TodoDatabase todoDatabase) {
+    return new TodoController(todoDatabase, SingleFlight.configuredWindow(), AsyncQueries.configured(), false);
   }
 
   /**
@@ -55,7 +148,7 @@ public class TodoController implements Controller {
     String id = ctx.pathParam("id");
     Todo todo = todoDatabase.getTodo(id);
     if (todo != null) {
-      ctx.json(todo);
+      WireFormat.of(ctx).respond(ctx, todo);
       ctx.status(HttpStatus.OK);
     } else {
       throw new NotFoundResponse("No todo with id " + id + " was found.");
@@ -64,12 +157,218 @@ public class TodoController implements Controller {
 
   /**
    * Get a JSON response with a list of all the todos in the "database".
+   * <p>
+   * A `fields` query parameter (e.g., `fields=_id,owner`) limits each todo in
+   * the response to just those fields.
+   * <p>
+   * Clients that ask for it in their `Accept` header get CBOR or Smile
+   * instead of JSON (see `WireFormat`).
+   * <p>
+   * If coalescing is on, identical requests that arrive together are
+   * answered with the same serialized response, which only one of them
+   * works out. If `AsyncQueries` is on, the response is worked out on a
+   * compute thread, and given up on if it takes too long or the client
+   * goes away.
+   * <p>
+   * With `approx=true`, the response is an `Estimate` of how many todos
+   * match, with a random sample of them, rather than every match; it's
+   * answered straight away, since it takes about as long however many
+   * todos there are.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getTodos(Context ctx) {
-    Todo[] todos = todoDatabase.listTodos(ctx.queryParamMap());
-    ctx.json(todos);
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+    if (Estimate.requested(queryParams)) {
+      WireFormat.of(ctx).respond(ctx, todoDatabase.estimateTodos(queryParams));
+      return;
+    }
+    SortedSet<String> fields = TODO_FIELDS.requestedFields(queryParams);
+    WireFormat format = WireFormat.of(ctx);
+    if (asyncQueries.enabled()) {
+      asyncQueries.submit(ctx, () -> listResponse(ctx, queryParams, fields, format), format::send);
+      return;
+    } else if (listFlights.enabled()) {
+      format.send(ctx, listResponse(ctx, queryParams, fields, format));
+      return;
+    }
+    Todo[] todos = todoDatabase.listTodos(queryParams);
+    if (fields == null) {
+      format.respond(ctx, todos);
+    } else if (format == WireFormat.JSON) {
+      ctx.contentType(ContentType.APPLICATION_JSON);
+      ctx.result(TODO_FIELDS.write(todos, fields));
+    } else {
+      format.respond(ctx, TODO_FIELDS.writer(fields, format), todos);
+    }
+  }
+
+  // Work out a serialized list response, shared with identical requests if
+  // coalescing is on.
+  private byte[] listResponse(Context ctx, Map<String, List<String>> queryParams, Set<String> fields,
+      WireFormat format) {
+    if (!listFlights.enabled()) {
+      return serialize(ctx, format, fields, todoDatabase.listTodos(queryParams));
+    }
+    ListKey key = new ListKey(todoDatabase.version(), TodoQuery.fromParams(queryParams), fields, format);
+    return listFlights.get(key, () -> serialize(ctx, format, fields, todoDatabase.listTodos(queryParams)));
+  }
+
+  // Serialize a list response, the same way `getTodos()` sends one
+  // without coalescing.
+  private static byte[] serialize(Context ctx, WireFormat format, Set<String> fields, Todo[] todos) {
+    // Serializing a big list takes a while, so don't start if the query
+    // has already been cancelled.
+    Cancellation.checkpoint();
+    if (fields == null) {
+      return format.serialize(ctx, todos);
+    } else if (format == WireFormat.JSON) {
+      return TODO_FIELDS.write(todos, fields);
+    }
+    return format.serialize(TODO_FIELDS.writer(fields, format), todos);
+  }
+
+  /**
+   * Get many todos at once, given a comma separated list of IDs in the
+   * `ids` query parameter, e.g., `?ids=ID1,ID2,ID3`.
+   * <p>
+   * The response has the todos that were `found`, and a list of the IDs
+   * that were `missing`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoBatch(Context ctx) {
+    List<String> ids = QueryParams.splitValues(ctx.queryParams("ids"));
+    WireFormat.of(ctx).respond(ctx, todoDatabase.getTodos(ids));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Get many todos at once, given a JSON array of IDs in the request body.
+   * This is the same as `getTodoBatch()`, but doesn't run into limits on
+   * the length of URLs when there are a lot of IDs.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void postTodoBatch(Context ctx) {
+    String[] ids;
+    try {
+      ids = ctx.bodyAsClass(String[].class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body should be a JSON array of ids");
+    }
+    if (ids == null) {
+      throw new BadRequestResponse("The request body should be a JSON array of ids");
+    }
+    WireFormat.of(ctx).respond(ctx, todoDatabase.getTodos(Arrays.asList(ids)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Add a new todo, given as JSON in the request body, and respond with the
+   * `_id` it was given.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewTodo(Context ctx) {
+    Todo newTodo;
+    try {
+      newTodo = ctx.bodyAsClass(Todo.class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body should be a JSON todo");
+    }
+    if (newTodo == null) {
+      throw new BadRequestResponse("The request body should be a JSON todo");
+    }
+    if (newTodo.owner == null || newTodo.owner.isBlank()) {
+      throw new BadRequestResponse("New todos must have a non-empty owner");
+    }
+    if (newTodo.body == null || newTodo.body.isBlank()) {
+      throw new BadRequestResponse("New todos must have a non-empty body");
+    }
+    if (newTodo.category == null || newTodo.category.isBlank()) {
+      throw new BadRequestResponse("New todos must have a non-empty category");
+    }
+    String id = todoDatabase.addTodo(newTodo);
+    ctx.json(Map.of("id", id));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Delete the todo specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (todoDatabase.deleteTodo(id) == null) {
+      throw new NotFoundResponse("No todo with id " + id + " was found.");
+    }
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Stream the changes to todos (as Server-Sent Events) to a client.
+   * <p>
+   * The client can use the same `status`, `owner`, `category`, and
+   * `contains` query parameters as `getTodos()` to only hear about some
+   * todos. See `ChangeFeed` for how the events are sent.
+   *
+   * @param client the SSE client to send the changes to
+   */
+  public void streamTodoChanges(SseClient client) {
+    Predicate<Todo> filter;
+    try {
+      filter = todoDatabase.changeFilter(client.ctx().queryParamMap());
+    } catch (BadRequestResponse e) {
+      // The response has already started by the time we get here, so we
+      // can't send a 400; tell the client what was wrong with an event.
+      client.sendEvent("error", e.getMessage());
+      client.close();
+      return;
+    }
+    todoDatabase.changes().subscribe(client, filter);
+  }
+
+  /**
+   * Get a JSON response with counts of the todos matching the filters in the
+   * query parameters, grouped by owner, category, and/or status.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoStats(Context ctx) {
+    GroupCounts stats = todoDatabase.countTodos(ctx.queryParamMap());
+    ctx.json(stats);
+    ctx.status(HttpStatus.OK);
+  }
+
+  @Override
+  public String statsName() {
+    return "todos";
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Along with the database's stats, this reports how many `fields`
+   * writers have been built (see `FieldProjection`), and how many list
+   * responses are being shared (see `SingleFlight`).
+   */
+  @Override
+  public DatasetStats stats() {
+    return todoDatabase.stats()
+        .withCache("fieldWriters", TODO_FIELDS.cachedWriterCount())
+        .withCache("coalescedLists", listFlights.size());
+  }
+
+  /**
+   * Turn away a request to change the todos on a replica.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws MethodNotAllowedResponse always
+   */
+  private void refuseChange(Context ctx) {
+    throw new MethodNotAllowedResponse("This server is a read-only replica; send changes to the primary");
   }
 
   /**
@@ -79,19 +378,54 @@ public class TodoController implements Controller {
    * - `GET /api/todos?status=complete&category=homework&owner=STRING`
    * - List todos, filtered using query parameters
    * - `owner`, `status`, `body`, and `category` are optional query parameters
+   * - `fields` (e.g., `fields=_id,owner`) limits which fields are returned
+   * - `approx=true` estimates how many todos match instead, with a sample
+   * - `GET /api/todos/stats?groupBy=owner,category,status`
+   * - Count the todos (optionally filtered like the list above) in each group
+   * - `GET api/todos/batch?ids=ID1,ID2` and `POST api/todos/batch` (with a
+   * JSON array of IDs as the body)
+   * - Get up to `BatchResult.MAX_IDS` todos at once
+   * - `GET api/todos/changes?status=complete&owner=STRING` (Server-Sent Events)
+   * - Follow the todos being added and deleted, optionally filtered like the list
+   * - `POST /api/todos` (with a JSON todo as the body)
+   * - Add a new todo
+   * - `DELETE /api/todos/:id`
+   * - Delete the specified todo
    * - `GET /api/todos/:id`
    * - Get the specified todo
    *
+   * On a replica, the routes that add and delete todos are there, but
+   * only to turn the requests away (see `forReplica()`).
+   *
    * @param server The Javalin server instance
    */
   @Override
   public void addRoutes(Javalin server) {
+    // Count todos by owner, category, and/or status. This has to come
+    // before the `{id}` route, or "stats" would be taken to be a todo ID.
+    server.get("api/todos/stats", this::getTodoStats);
+
+    // Get many todos at once by ID. Like "stats", these have to
+    // come before the `{id}` route.
+    server.get("api/todos/batch", this::getTodoBatch);
+    server.post("api/todos/batch", this::postTodoBatch);
+
+    // Follow changes to the todos with Server-Sent Events. Also has
+    // to come before the `{id}` route.
+    server.sse("api/todos/changes", this::streamTodoChanges);
+
     // Get a single todo
     server.get("api/todos/{id}", this::getTodo);
 
+    // Delete a single todo
+    server.delete("api/todos/{id}", acceptsChanges ? this::deleteTodo : this::refuseChange);
+
     // Get a JSON response with a list of all the todos,
     // filtered using query parameters provided.
     server.get("api/todos", this::getTodos);
+
+    // Add a new todo
+    server.post("api/todos", acceptsChanges ? this::addNewTodo : this::refuseChange);
   }
 
 }
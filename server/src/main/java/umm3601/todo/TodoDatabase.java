@@ -2,14 +2,31 @@ package umm3601.todo;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.function.Predicate;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.ApproxSettings;
+import umm3601.BatchResult;
+import umm3601.CaseFolding;
+import umm3601.ChangeEvent;
+import umm3601.ChangeFeed;
+import umm3601.DatasetStats;
+import umm3601.Estimate;
+import umm3601.Footprint;
+import umm3601.GroupCounts;
+import umm3601.Ids;
+import umm3601.QueryParams;
+import umm3601.StorageBackend;
+import umm3601.cluster.Partitioning;
+import umm3601.jfr.DataLoadEvent;
+import umm3601.jfr.QueryEvent;
 
 /**
  * A fake "todoDatabase" of todo info
@@ -18,12 +35,147 @@ import io.javalin.http.BadRequestResponse;
  * to instead just read a bunch of todo data from a specified JSON file, and
  * then provide various database-like methods that allow the `TodoController` to
  * "query" the "todoDatabase".
+ * <p>
+ * The todos themselves are kept in a `TodoRepository`. Which one is chosen by
+ * the `StorageBackend`, so the same server can keep its todos in a plain
+ * array, in memory with indexes, in an embedded SQL database, or in
+ * memory-mapped files outside the heap.
  */
 public class TodoDatabase {
 
-  private Todo[] allTodos;
+  // The fields `countTodos` groups by if the request doesn't say.
+  private static final List<String> DEFAULT_GROUPS = List.of("owner", "category", "status");
+
+  // The fields whose number of distinct values `stats()` reports.
+  private static final List<String> CARDINALITY_FIELDS = List.of("owner", "category");
+
+  // Where the todos are actually kept.
+  private final TodoRepository repository;
+
+  // The changes made to the todos, for clients following them with SSE.
+  private final ChangeFeed<Todo> changes = new ChangeFeed<>();
+
+  // What `approx=true` requests are answered from.
+  private final TodoSketches sketches;
+
+  // The number of changes made so far, and the last `stats()` (and the
+  // number of changes it was worked out after), so the stats are only
+  // worked out again after the todos change.
+  private volatile long version;
+  private volatile CachedStats cachedStats;
 
+  private record CachedStats(long version, DatasetStats stats) {
+  }
+
+  /**
+   * Construct a "database" holding the todos from the given JSON resource,
+   * in the configured `StorageBackend`.
+   * <p>
+   * If this server is one node of a cluster (see `Partitioning`), it only
+   * keeps its own part of the todos.
+   *
+   * @param todoDataFile the name of the resource holding the todo data
+   * @throws IOException if the resource can't be found or read
+   */
   public TodoDatabase(String todoDataFile) throws IOException {
+    this(load(todoDataFile, StorageBackend.configured()));
+  }
+
+  // Read the todos and build their repository, recording how long each
+  // takes for Java Flight Recorder (see `DataLoadEvent`).
+  private static TodoRepository load(String todoDataFile, StorageBackend backend) throws IOException {
+    DataLoadEvent reading = new DataLoadEvent();
+    reading.begin();
+    Todo[] todos = Partitioning.configured().select(readTodos(todoDataFile), todo -> todo._id, Todo[]::new);
+    reading.end();
+    if (reading.shouldCommit()) {
+      reading.describe("todos", DataLoadEvent.READ, todoDataFile, todos.length);
+      reading.commit();
+    }
+
+    DataLoadEvent building = new DataLoadEvent();
+    building.begin();
+    TodoRepository repository = createRepository(backend, todos);
+    building.end();
+    if (building.shouldCommit()) {
+      building.describe("todos", DataLoadEvent.BUILD, backend.name(), todos.length);
+      building.commit();
+    }
+    return repository;
+  }
+
+  /**
+   * Construct a "database" that keeps its todos in the given repository,
+   * with the configured `ApproxSettings`.
+   *
+   * @param repository where to keep the todos
+   */
+  public TodoDatabase(TodoRepository repository) {
+    this(repository, ApproxSettings.configured());
+  }
+
+  /**
+   * Construct a "database" that keeps its todos in the given repository.
+   * <p>
+   * This looks at every todo once, one at a time (see
+   * `TodoRepository.forEach()`), to build the sketches and sample used
+   * to estimate counts (see `estimateTodos()`).
+   *
+   * @param repository where to keep the todos
+   * @param approx     how accurate estimated counts should be
+   */
+  public TodoDatabase(TodoRepository repository, ApproxSettings approx) {
+    this.repository = repository;
+    this.sketches = new TodoSketches(approx, repository);
+  }
+
+  /**
+   * Build the kind of `TodoRepository` used by the given backend.
+   * <p>
+   * If the `umm3601.shards` system property asks for more than one shard
+   * (and the backend isn't `JDBC`, where the database does its own work),
+   * the todos are split across that many repositories of the given kind,
+   * which are searched in parallel (see `ShardedTodoRepository`).
+   *
+   * @param backend the kind of storage to use
+   * @param todos   the todos to start with
+   * @return a repository holding (at least) those todos
+   */
+  public static TodoRepository createRepository(StorageBackend backend, Todo[] todos) {
+    int shards = Integer.getInteger(ShardedTodoRepository.SHARDS_PROPERTY, 1);
+    if (shards <= 1 || backend == StorageBackend.JDBC) {
+      return createShard(backend, todos, "todos");
+    }
+    return new ShardedTodoRepository(todos, shards,
+        Integer.getInteger(ShardedTodoRepository.THRESHOLD_PROPERTY,
+            ShardedTodoRepository.DEFAULT_PARALLEL_THRESHOLD),
+        Integer.getInteger(ShardedTodoRepository.THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+        (shardTodos, shard) -> createShard(backend, shardTodos, "todos-" + shard));
+  }
+
+  // Build one (unsharded) repository, where `name` keeps the files of
+  // different shards apart.
+  private static TodoRepository createShard(StorageBackend backend, Todo[] todos, String name) {
+    switch (backend) {
+      case ARRAY:
+        return new ArrayTodoRepository(todos);
+      case JDBC:
+        return new JdbcTodoRepository(StorageBackend.jdbcUrl(name), todos);
+      case MAPPED:
+        return new MappedTodoRepository(StorageBackend.mappedDirectory(name), todos);
+      default:
+        return new IndexedTodoRepository(todos);
+    }
+  }
+
+  /**
+   * Read an array of todos from the given JSON resource.
+   *
+   * @param todoDataFile the name of the resource holding the todo data
+   * @return the todos stored in that resource
+   * @throws IOException if the resource can't be found or read
+   */
+  public static Todo[] readTodos(String todoDataFile) throws IOException {
     // The `.getResourceAsStream` method searches for the given resource in
     // the classpath, and returns `null` if it isn't found. We want to throw
     // an IOException if the data file isn't found, so we need to check for
@@ -32,19 +184,121 @@ public class TodoDatabase {
     if (resourceAsStream == null) {
       throw new IOException("Could not find " + todoDataFile);
     }
-    InputStreamReader reader = new InputStreamReader(resourceAsStream);
-    // A Jackson JSON mapper knows how to parse JSON into sensible 'Todo'
-    // objects.
-    ObjectMapper objectMapper = new ObjectMapper();
-    // Read our user data file into an array of `Todo` objects.
-    allTodos = objectMapper.readValue(reader, Todo[].class);
-
-    // Close the `reader` to free resources.
-    reader.close();
+    // Read our todo data file into an array of `Todo` objects. This uses
+    // our own reader (see `TodoJson`) rather than a Jackson `ObjectMapper`,
+    // which would have to work out how to build `Todo`s by reflection, and
+    // so made starting the server noticeably slower. The reader closes the
+    // stream when it's done.
+    Todo[] todos = TodoJson.readArray(resourceAsStream);
+    return todos;
   }
 
   public int size() {
-    return allTodos.length;
+    return repository.size();
+  }
+
+  /**
+   * @return the number of changes made to the todos so far, which
+   *         changes whenever they do (so, e.g., it can be part of the key of
+   *         a cached answer)
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * Report how many todos there are, how many distinct values some of
+   * their fields have, and how much memory the repository's structures
+   * (and the sketches behind `estimateTodos()`) take (see `DatasetStats`),
+   * for `/api/admin/stats`.
+   * <p>
+   * Counting the distinct values can mean looking at every todo, so the
+   * stats are kept until the todos change. That makes this cheap enough to
+   * call every few seconds: if nothing has changed, nothing is worked out
+   * again.
+   *
+   * @return the stats
+   */
+  public DatasetStats stats() {
+    // If a change happens while we're working, we keep the stats under the
+    // version from before it, so they're worked out again next time.
+    long current = version;
+    CachedStats cached = cachedStats;
+    if (cached == null || cached.version() != current) {
+      Map<String, Integer> cardinalities = new LinkedHashMap<>();
+      for (String field : CARDINALITY_FIELDS) {
+        cardinalities.put(field, repository.countBy(field, TodoQuery.ALL).size());
+      }
+      List<Footprint> structures = new ArrayList<>(repository.footprint());
+      structures.addAll(sketches.footprint());
+      cached = new CachedStats(current, DatasetStats.of(repository.size(), cardinalities, structures, Map.of()));
+      cachedStats = cached;
+    }
+    return cached.stats().withCache("changeFeed", changes.bufferedCount());
+  }
+
+  /**
+   * @return the feed of changes made to the todos
+   */
+  public ChangeFeed<Todo> changes() {
+    return changes;
+  }
+
+  /**
+   * Add a todo. If it doesn't have an `_id`, it is given a new one.
+   * <p>
+   * This is `synchronized` so that there's only ever one change at a time,
+   * both in the repository and in the change feed.
+   *
+   * @param todo the todo to add
+   * @return the `_id` of the new todo
+   * @throws BadRequestResponse if there is already a todo with that `_id`
+   */
+  public synchronized String addTodo(Todo todo) {
+    if (todo._id == null) {
+      todo._id = Ids.newId();
+    } else if (repository.get(todo._id) != null) {
+      throw new BadRequestResponse("There is already a todo with id " + todo._id);
+    }
+    // The change is only made once the change feed's listeners (e.g., the
+    // replication log) have taken it.
+    changes.publish(ChangeEvent.CREATED, todo._id, todo, () -> {
+      repository.add(todo);
+      sketches.add(todo);
+      version++;
+    });
+    return todo._id;
+  }
+
+  /**
+   * Remove the todo with the given ID, if there is one.
+   *
+   * @param id the ID of the todo to remove
+   * @return the todo that was removed, or `null` if there was no todo with
+   *         that ID
+   */
+  public synchronized Todo deleteTodo(String id) {
+    Todo removed = repository.get(id);
+    if (removed != null) {
+      changes.publish(ChangeEvent.DELETED, id, removed, () -> {
+        repository.remove(id);
+        sketches.remove(removed);
+        version++;
+      });
+    }
+    return removed;
+  }
+
+  /**
+   * Build a test for which changes to todos a client following the change
+   * feed wants to see, from the same `status`, `owner`, `category`, and
+   * `contains` query parameters used by `listTodos()`.
+   *
+   * @param queryParams map of key-value pairs for the subscription
+   * @return a test that accepts just the todos matching all of the filters
+   */
+  public Predicate<Todo> changeFilter(Map<String, List<String>> queryParams) {
+    return TodoQuery.fromParams(queryParams)::matches;
   }
 
   /**
@@ -55,7 +309,17 @@ public class TodoDatabase {
    * @return the todo with the given ID, or null if there is no todo with that ID
    */
   public Todo getTodo(String id) {
-    return Arrays.stream(allTodos).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    return repository.get(id);
+  }
+
+  /**
+   * Get all the todos with the given IDs.
+   *
+   * @param ids the IDs of the desired todos
+   * @return the todos that were found, and the IDs that weren't
+   */
+  public BatchResult<Todo> getTodos(Collection<String> ids) {
+    return BatchResult.lookup(ids, this::getTodo);
   }
 
   /**
@@ -65,45 +329,64 @@ public class TodoDatabase {
    * @return an array of all the todos matching the given criteria
    */
   public Todo[] listTodos(Map<String, List<String>> queryParams) {
-    Todo[] filteredTodos = allTodos;
-
-    // Filter status if defined
-    if (queryParams.containsKey("status")) {
-      String targetStatus = queryParams.get("status").get(0);
-      filteredTodos = filterTodosByStatus(filteredTodos, targetStatus);
+    QueryEvent event = new QueryEvent();
+    event.begin();
+    TodoQuery query = TodoQuery.fromParams(queryParams);
+    Todo[] todos = repository.find(query);
+    event.end();
+    if (event.shouldCommit()) {
+      event.describe("todos", queryParams, repository.explain(query), todos.length);
+      event.commit();
     }
-    // Filter body if defined
-    if (queryParams.containsKey("contains")) {
-      String targetBody = queryParams.get("contains").get(0);
-      filteredTodos = filterTodosByBody(filteredTodos, targetBody);
-    }
-    // Filter owner if defined
-    if (queryParams.containsKey("owner")) {
-      String targetOwner = queryParams.get("owner").get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, targetOwner);
-    }
-    // Filter category if defined
-    if (queryParams.containsKey("category")) {
-      String targetCategory = queryParams.get("category").get(0);
-      filteredTodos = filterTodosByCategory(filteredTodos, targetCategory);
-    }
-    // Sort todo with specific order if defined
-    if (queryParams.containsKey("orderBy")) {
-      String targetOrder = queryParams.get("orderBy").get(0);
-      filteredTodos = sortTodos(filteredTodos, targetOrder);
-    }
-    // Filter todos within specific limit if defined
-    if (queryParams.containsKey("limit")) {
-      String limitParam = queryParams.get("limit").get(0);
-      try {
-        int targetLimit = Integer.parseInt(limitParam);
-        filteredTodos = filterTodosByLimit(filteredTodos, targetLimit);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+    return todos;
+  }
+
+  /**
+   * Estimate how many todos match the filters in the query params, and
+   * pick a random few of them, for an `approx=true` request.
+   * <p>
+   * This takes the same query parameters as `listTodos()`, but instead of
+   * looking at every todo, it looks up the count in a count-min sketch, or
+   * (for `contains`) works it out from a random sample, so it takes about
+   * as long however many todos there are. See `Estimate` for what's
+   * returned, and `ApproxSettings` for how accurate it is.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the estimated count, its bounds, and some matching todos
+   */
+  public Estimate<Todo> estimateTodos(Map<String, List<String>> queryParams) {
+    return sketches.estimate(TodoQuery.fromParams(queryParams), repository.size());
+  }
+
+  /**
+   * Count the todos matching the filters in the query params, grouped by
+   * one or more fields.
+   * <p>
+   * This takes the same filters as `listTodos()`, plus `groupBy`, which
+   * lists the fields to group by: any of `owner`, `category`, and `status`
+   * (the default is all three). The counting is done by the repository, so
+   * (depending on the backend) no todos need to be copied.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the number of matching todos, and the counts for each group
+   */
+  public GroupCounts countTodos(Map<String, List<String>> queryParams) {
+    TodoQuery query = TodoQuery.fromParams(queryParams).filtersOnly();
+
+    List<String> groupBy = queryParams.containsKey("groupBy")
+        ? QueryParams.splitValues(queryParams.get("groupBy"))
+        : DEFAULT_GROUPS;
+    for (String group : groupBy) {
+      if (!DEFAULT_GROUPS.contains(group)) {
+        throw new BadRequestResponse("Specified groupBy '" + group + "' is not a todo attribute that can be grouped");
       }
     }
 
-    return filteredTodos;
+    Map<String, Map<String, Integer>> groups = new LinkedHashMap<>();
+    for (String group : groupBy) {
+      groups.put(group, repository.countBy(group, query));
+    }
+    return new GroupCounts(repository.count(query), groups);
   }
 
   /**
@@ -115,7 +398,7 @@ public class TodoDatabase {
    *         status
    */
   public Todo[] filterTodosByStatus(Todo[] todos, String targetStatus) {
-    switch (targetStatus.toLowerCase()) {
+    switch (targetStatus.toLowerCase(Locale.ROOT)) {
       case "complete":
         return Arrays.stream(todos).filter(x -> x.status).toArray(Todo[]::new);
       case "incomplete":
@@ -134,9 +417,13 @@ public class TodoDatabase {
    *         body
    */
   public Todo[] filterTodosByBody(Todo[] todos, String targetBody) {
+    // Fold the target once, and compare each body with it as we go, rather
+    // than making lower case copies of the target and every body (see
+    // `CaseFolding`).
+    String folded = CaseFolding.fold(targetBody);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.body.toLowerCase().contains(targetBody.toLowerCase()))
+        .filter(todo -> CaseFolding.containsFolded(todo.body, folded))
         .toArray(Todo[]::new);
   }
 
@@ -149,9 +436,10 @@ public class TodoDatabase {
    *         owner
    */
   public Todo[] filterTodosByOwner(Todo[] todos, String targetOwner) {
+    String folded = CaseFolding.fold(targetOwner);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.owner.equalsIgnoreCase(targetOwner.toLowerCase()))
+        .filter(todo -> CaseFolding.equalsFolded(todo.owner, folded))
         .toArray(Todo[]::new);
   }
 
@@ -164,9 +452,10 @@ public class TodoDatabase {
    *         category
    */
   public Todo[] filterTodosByCategory(Todo[] todos, String targetCategory) {
+    String folded = CaseFolding.fold(targetCategory);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.category.equalsIgnoreCase(targetCategory.toLowerCase()))
+        .filter(todo -> CaseFolding.equalsFolded(todo.category, folded))
         .toArray(Todo[]::new);
   }
 
@@ -0,0 +1,274 @@
+package umm3601.todo;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import umm3601.Cancellation;
+import umm3601.CaseFolding;
+import umm3601.ColumnScan;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.PostingLists;
+
+/**
+ * Read-only indexes over an array of `Todo`s.
+ * <p>
+ * Like `UserIndex`, todos are identified by their "row" (their position in
+ * the array the index was built from), and lookups return `BitSet`s of rows
+ * that can be intersected before any `Todo`s are copied. Owner, category,
+ * and status each have `PostingLists`, which also give us group-by counts
+ * without looking at the todos themselves. Status also has a column of one
+ * byte per todo, since about half the todos match either status, and
+ * scanning that with a `ColumnScan` beats setting half the bits one by one.
+ */
+final class TodoIndex {
+
+  private static final String COMPLETE = "complete";
+  private static final String INCOMPLETE = "incomplete";
+
+  private static final ColumnScan SCAN = ColumnScan.configured();
+
+  private final Todo[] todos;
+
+  // The primary key index, from each todo's `_id` to its row.
+  private final Map<String, Integer> rowById;
+
+  private final PostingLists ownerPostings;
+  private final PostingLists categoryPostings;
+  private final PostingLists statusPostings;
+
+  // `statuses[row]` is 1 if that todo is complete, and 0 if it isn't.
+  private final byte[] statuses;
+
+  // `foldedBodies[row]` is that todo's body, case-folded (see
+  // `CaseFolding`), so searching the bodies is a plain `contains()`. That
+  // costs a second copy of each body that isn't already folded (which is
+  // nearly all of them), but saves folding every character of every body
+  // we look at, for every search.
+  private final String[] foldedBodies;
+
+  private final List<Footprint> footprint;
+
+  /**
+   * Build the indexes for the given todos.
+   *
+   * @param todos the todos to index; the index refers to them by position
+   */
+  TodoIndex(Todo[] todos) {
+    this.todos = todos;
+    // We time building each index, for `footprint()`.
+    long started = System.nanoTime();
+    rowById = new HashMap<>();
+    for (int row = 0; row < todos.length; row++) {
+      rowById.put(todos[row]._id, row);
+    }
+    long idsBuilt = System.nanoTime();
+    ownerPostings = PostingLists.build(todos, todo -> todo.owner);
+    long ownersBuilt = System.nanoTime();
+    categoryPostings = PostingLists.build(todos, todo -> todo.category);
+    long categoriesBuilt = System.nanoTime();
+    statusPostings = PostingLists.build(todos, todo -> statusName(todo.status));
+    long statusesBuilt = System.nanoTime();
+    statuses = new byte[todos.length];
+    for (int row = 0; row < todos.length; row++) {
+      statuses[row] = statusCode(todos[row].status);
+    }
+    long columnBuilt = System.nanoTime();
+    foldedBodies = new String[todos.length];
+    for (int row = 0; row < todos.length; row++) {
+      foldedBodies[row] = CaseFolding.fold(todos[row].body);
+    }
+    long bodiesFolded = System.nanoTime();
+
+    // The index never changes, so neither does its footprint, and we can
+    // work it out now rather than each time it's asked for.
+    footprint = List.of(
+        TodoSizes.todos(todos),
+        Footprint.heap("idIndex", rowById.size(),
+            MemoryEstimate.hashMap(rowById.size(), MemoryEstimate.INTEGER), idsBuilt - started),
+        Footprint.heap("ownerPostings", ownerPostings.values().size(),
+            ownerPostings.estimatedBytes(), ownersBuilt - idsBuilt),
+        Footprint.heap("categoryPostings", categoryPostings.values().size(),
+            categoryPostings.estimatedBytes(), categoriesBuilt - ownersBuilt),
+        Footprint.heap("statusPostings", statusPostings.values().size(),
+            statusPostings.estimatedBytes(), statusesBuilt - categoriesBuilt),
+        Footprint.heap("statusColumn", statuses.length,
+            MemoryEstimate.array(statuses.length, 1), columnBuilt - statusesBuilt),
+        Footprint.heap("foldedBodies", foldedBodies.length,
+            MemoryEstimate.referenceArray(foldedBodies.length) + MemoryEstimate.sampled(foldedBodies.length,
+                // Bodies that were already folded are shared, not copied.
+                row -> foldedBodies[row] == todos[row].body ? 0 : MemoryEstimate.string(foldedBodies[row])),
+            bodiesFolded - columnBuilt));
+  }
+
+  /**
+   * @return the size of the todos and of each of the indexes, and how long
+   *         each index took to build
+   */
+  List<Footprint> footprint() {
+    return footprint;
+  }
+
+  /**
+   * @return the todos covered by this index, which must not be modified
+   */
+  Todo[] todos() {
+    return todos;
+  }
+
+  /**
+   * Copy an array of todos, leaving out one of them.
+   *
+   * @param todos the todos to copy
+   * @param row   the position of the todo to leave out
+   * @return the copy
+   */
+  static Todo[] without(Todo[] todos, int row) {
+    Todo[] copy = new Todo[todos.length - 1];
+    System.arraycopy(todos, 0, copy, 0, row);
+    System.arraycopy(todos, row + 1, copy, row, todos.length - row - 1);
+    return copy;
+  }
+
+  /**
+   * @param status a todo's status
+   * @return the name of that status, i.e., "complete" or "incomplete"
+   */
+  static String statusName(boolean status) {
+    return status ? COMPLETE : INCOMPLETE;
+  }
+
+  private static byte statusCode(boolean status) {
+    return (byte) (status ? 1 : 0);
+  }
+
+  /**
+   * Find the row of the todo with the given ID.
+   *
+   * @param id the ID to look for
+   * @return the todo's row, or -1 if there's no todo with that ID
+   */
+  int rowOf(String id) {
+    return rowById.getOrDefault(id, -1);
+  }
+
+  /**
+   * Look up the dictionary codes for an owner, ignoring case, so a query
+   * can do that once and then use `ownerIn()`.
+   *
+   * @param folded the owner to look for, already case-folded
+   * @return the codes of the owners that match (usually just one)
+   */
+  int[] ownerCodes(String folded) {
+    return ownerPostings.codesEqualFolded(folded);
+  }
+
+  /**
+   * Get the rows of the todos whose owner has one of the given codes.
+   *
+   * @param codes the codes, from `ownerCodes()`
+   * @return the matching rows
+   */
+  BitSet ownerIn(int[] codes) {
+    return ownerPostings.rowsWithCodes(codes);
+  }
+
+  /**
+   * Look up the dictionary codes for a category, ignoring case, so a query
+   * can do that once and then use `categoryIn()`.
+   *
+   * @param folded the category to look for, already case-folded
+   * @return the codes of the categories that match (usually just one)
+   */
+  int[] categoryCodes(String folded) {
+    return categoryPostings.codesEqualFolded(folded);
+  }
+
+  /**
+   * Get the rows of the todos whose category has one of the given codes.
+   *
+   * @param codes the codes, from `categoryCodes()`
+   * @return the matching rows
+   */
+  BitSet categoryIn(int[] codes) {
+    return categoryPostings.rowsWithCodes(codes);
+  }
+
+  /**
+   * Get the rows of the todos with the given status.
+   *
+   * @param status `true` for complete todos, `false` for incomplete ones
+   * @return the matching rows
+   */
+  BitSet statusIs(boolean status) {
+    return SCAN.equal(statuses, statusCode(status));
+  }
+
+  /**
+   * Get the rows of the todos whose body contains the given text, ignoring
+   * case. There's no index for this, so it looks at every candidate todo,
+   * but only at its already folded body, so (unlike folding as we go) the
+   * search can use the JIT compiler's fast `String.indexOf()`.
+   *
+   * @param folded     the text to look for, already case-folded
+   * @param candidates the only rows that could match (e.g., the ones that
+   *                   passed the other filters), or `null` for all of them
+   * @return the matching rows
+   */
+  BitSet bodyContains(String folded, BitSet candidates) {
+    BitSet rows = new BitSet(todos.length);
+    if (candidates == null) {
+      for (int row = 0; row < todos.length; row++) {
+        if ((row & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+          Cancellation.checkpoint();
+        }
+        if (foldedBodies[row].contains(folded)) {
+          rows.set(row);
+        }
+      }
+    } else {
+      for (int row = candidates.nextSetBit(0), seen = 0; row >= 0; row = candidates.nextSetBit(row + 1), seen++) {
+        if ((seen & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+          Cancellation.checkpoint();
+        }
+        if (foldedBodies[row].contains(folded)) {
+          rows.set(row);
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Count the todos belonging to each owner.
+   *
+   * @param filter the rows to count, or `null` to count every todo
+   * @return the number of (matching) todos for each owner
+   */
+  SortedMap<String, Integer> countByOwner(BitSet filter) {
+    return ownerPostings.counts(filter);
+  }
+
+  /**
+   * Count the todos in each category.
+   *
+   * @param filter the rows to count, or `null` to count every todo
+   * @return the number of (matching) todos in each category
+   */
+  SortedMap<String, Integer> countByCategory(BitSet filter) {
+    return categoryPostings.counts(filter);
+  }
+
+  /**
+   * Count the complete and incomplete todos.
+   *
+   * @param filter the rows to count, or `null` to count every todo
+   * @return the number of (matching) todos with each status
+   */
+  SortedMap<String, Integer> countByStatus(BitSet filter) {
+    return statusPostings.counts(filter);
+  }
+}
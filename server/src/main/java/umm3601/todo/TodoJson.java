@@ -0,0 +1,109 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import umm3601.JsonWriter;
+
+/**
+ * Writes a `Todo` as JSON for `FastJsonMapper`, with the same properties in
+ * the same order as Jackson would use, and reads the todos in our data files.
+ * <p>
+ * Reading with Jackson's streaming parser, rather than having an
+ * `ObjectMapper` work out how to build a `Todo` by reflection, means
+ * starting the server doesn't load (and, the first time through, run in
+ * the interpreter) all of Jackson's data binding machinery.
+ */
+public final class TodoJson {
+
+  private static final byte[] ID = JsonWriter.name("_id", false);
+  private static final byte[] OWNER = JsonWriter.name("owner", true);
+  private static final byte[] STATUS = JsonWriter.name("status", true);
+  private static final byte[] BODY = JsonWriter.name("body", true);
+  private static final byte[] CATEGORY = JsonWriter.name("category", true);
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private TodoJson() {
+  }
+
+  /**
+   * @param out  the writer to write to
+   * @param todo the todo to write
+   */
+  public static void write(JsonWriter out, Todo todo) {
+    out.raw((byte) '{');
+    out.raw(ID);
+    out.string(todo._id);
+    out.raw(OWNER);
+    out.string(todo.owner);
+    out.raw(STATUS);
+    out.bool(todo.status);
+    out.raw(BODY);
+    out.string(todo.body);
+    out.raw(CATEGORY);
+    out.string(todo.category);
+    out.raw((byte) '}');
+  }
+
+  /**
+   * Read a JSON array of todos, as Jackson would with
+   * `readValue(in, Todo[].class)` (including refusing properties a
+   * `Todo` doesn't have).
+   *
+   * @param in the JSON to read, which is closed afterwards
+   * @return the todos
+   * @throws IOException if the JSON can't be read, or isn't an array of todos
+   */
+  public static Todo[] readArray(InputStream in) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected an array of todos");
+      }
+      List<Todo> todos = new ArrayList<>();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        todos.add(read(parser));
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected a todo");
+      }
+      return todos.toArray(new Todo[0]);
+    }
+  }
+
+  private static Todo read(JsonParser parser) throws IOException {
+    Todo todo = new Todo();
+    for (String name = parser.nextFieldName(); name != null; name = parser.nextFieldName()) {
+      if (!parser.nextToken().isScalarValue()) {
+        throw new JsonParseException(parser, "Expected a value for the todo's " + name);
+      }
+      switch (name) {
+        case "_id":
+          todo._id = parser.getValueAsString();
+          break;
+        case "owner":
+          todo.owner = parser.getValueAsString();
+          break;
+        case "status":
+          todo.status = parser.getBooleanValue();
+          break;
+        case "body":
+          todo.body = parser.getValueAsString();
+          break;
+        case "category":
+          todo.category = parser.getValueAsString();
+          break;
+        default:
+          throw new JsonParseException(parser, "Unrecognized todo property \"" + name + "\"");
+      }
+    }
+    return todo;
+  }
+}
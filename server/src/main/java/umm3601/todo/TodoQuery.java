@@ -0,0 +1,190 @@
+package umm3601.todo;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.CaseFolding;
+
+/**
+ * A query for todos: which todos to include, what order to put them in, and
+ * how many to return.
+ * <p>
+ * This is what `TodoDatabase` hands to its `TodoRepository`, so each kind of
+ * storage can "push down" as much of the query as it can (e.g., into an
+ * index, or a SQL `WHERE` clause) instead of the database filtering todos
+ * after they've been fetched.
+ * <p>
+ * The text filters are case-folded (see `CaseFolding`) once, by
+ * `fromParams()`, so matching a todo against them doesn't have to make lower
+ * case copies of anything. (The constructor takes them already folded, so
+ * copies of a query, like `filtersOnly()`, don't fold them again.) The filters that are present make up the query's
+ * `shape()`, which repositories can use to pick a plan for answering it.
+ *
+ * @param status   `true` for only complete todos, `false` for only
+ *                 incomplete ones, or `null` for either
+ * @param owner    only include todos with this owner (ignoring case), or
+ *                 `null` for any owner; already folded
+ * @param category only include todos in this category (ignoring case), or
+ *                 `null` for any category; already folded
+ * @param contains only include todos whose body contains this text
+ *                 (ignoring case), or `null` for any body; already folded
+ * @param orderBy  the field to sort by (`owner`, `body`, `status`, or
+ *                 `category`), or `null` to keep the stored order
+ * @param limit    the largest number of todos to return
+ */
+public record TodoQuery(Boolean status, String owner, String category, String contains, String orderBy, int limit) {
+
+  /**
+   * A query for every todo, in the stored order.
+   */
+  public static final TodoQuery ALL = new TodoQuery(null, null, null, null, null, Integer.MAX_VALUE);
+
+  // The bits of `shape()`, one for each filter.
+  static final int STATUS = 1;
+  static final int OWNER = 2;
+  static final int CATEGORY = 4;
+  static final int CONTAINS = 8;
+
+  /**
+   * The number of different shapes a query can have.
+   */
+  static final int SHAPES = 16;
+
+  // How todos can be sorted. Sorting is stable, so todos that are equal in
+  // the chosen field stay in the stored order.
+  private static final Map<String, Comparator<Todo>> ORDERINGS = Map.of(
+      "owner", Comparator.comparing(todo -> todo.owner),
+      "body", Comparator.comparing(todo -> todo.body),
+      "status", (x, y) -> Boolean.compare(x.status, y.status),
+      "category", Comparator.comparing(todo -> todo.category));
+
+  /**
+   * Build a query from the query parameters of a request, checking that
+   * they all make sense.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the query
+   * @throws BadRequestResponse if any of the parameters are illegal
+   */
+  public static TodoQuery fromParams(Map<String, List<String>> queryParams) {
+    Boolean status = null;
+    if (queryParams.containsKey("status")) {
+      status = parseStatus(queryParams.get("status").get(0));
+    }
+    String contains = foldedParam(queryParams, "contains");
+    String owner = foldedParam(queryParams, "owner");
+    String category = foldedParam(queryParams, "category");
+
+    String orderBy = null;
+    if (queryParams.containsKey("orderBy")) {
+      orderBy = queryParams.get("orderBy").get(0);
+      if (!ORDERINGS.containsKey(orderBy)) {
+        throw new BadRequestResponse("Specified order '" + orderBy + "' is not an applicable todo attribute");
+      }
+    }
+
+    int limit = Integer.MAX_VALUE;
+    if (queryParams.containsKey("limit")) {
+      String limitParam = queryParams.get("limit").get(0);
+      try {
+        limit = Integer.parseInt(limitParam);
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+      }
+      if (limit < 0) {
+        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be negative");
+      }
+    }
+
+    return new TodoQuery(status, owner, category, contains, orderBy, limit);
+  }
+
+  // The (first) value of a text parameter, case-folded, or `null` if it's
+  // missing.
+  private static String foldedParam(Map<String, List<String>> queryParams, String name) {
+    return queryParams.containsKey(name) ? CaseFolding.fold(queryParams.get(name).get(0)) : null;
+  }
+
+  /**
+   * Turn a status name into the value of `Todo.status`.
+   *
+   * @param targetStatus "complete" or "incomplete" (in any case)
+   * @return `true` for "complete" and `false` for "incomplete"
+   * @throws BadRequestResponse if it's neither
+   */
+  static boolean parseStatus(String targetStatus) {
+    switch (targetStatus.toLowerCase(Locale.ROOT)) {
+      case "complete":
+        return true;
+      case "incomplete":
+        return false;
+      default:
+        throw new BadRequestResponse("Specified status '" + targetStatus + "' is not a valid todo status");
+    }
+  }
+
+  /**
+   * Check whether a todo passes this query's filters. (This ignores the
+   * order and limit, which aren't about any one todo.)
+   *
+   * @param todo the todo to check
+   * @return `true` if the todo should be included
+   */
+  public boolean matches(Todo todo) {
+    return (status == null || todo.status == status)
+        && (owner == null || CaseFolding.equalsFolded(todo.owner, owner))
+        && (category == null || CaseFolding.equalsFolded(todo.category, category))
+        && (contains == null || CaseFolding.containsFolded(todo.body, contains));
+  }
+
+  /**
+   * @return which filters this query has, as a combination of the `STATUS`,
+   *         `OWNER`, `CATEGORY`, and `CONTAINS` bits (less than `SHAPES`)
+   */
+  int shape() {
+    return (status == null ? 0 : STATUS)
+        | (owner == null ? 0 : OWNER)
+        | (category == null ? 0 : CATEGORY)
+        | (contains == null ? 0 : CONTAINS);
+  }
+
+  /**
+   * Get the value of a field that todos can be grouped by.
+   *
+   * @param todo  the todo
+   * @param field `owner`, `category`, or `status`
+   * @return the todo's value for that field, where the status is
+   *         "complete" or "incomplete"
+   */
+  static String groupValue(Todo todo, String field) {
+    switch (field) {
+      case "owner":
+        return todo.owner;
+      case "category":
+        return todo.category;
+      case "status":
+        return TodoIndex.statusName(todo.status);
+      default:
+        throw new IllegalArgumentException("Todos can't be grouped by " + field);
+    }
+  }
+
+  /**
+   * @return a query with the same filters, but no order or limit, e.g., for
+   *         counting the matching todos
+   */
+  public TodoQuery filtersOnly() {
+    return new TodoQuery(status, owner, category, contains, null, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the order todos should be sorted into, or `null` if they should
+   *         stay in the stored order
+   */
+  public Comparator<Todo> ordering() {
+    return orderBy == null ? null : ORDERINGS.get(orderBy);
+  }
+}
@@ -0,0 +1,119 @@
+package umm3601.todo;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+import umm3601.Footprint;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * Where `TodoDatabase` keeps its todos.
+ * <p>
+ * There are several implementations, with different trade-offs between
+ * speed, memory, and durability (see `StorageBackend`), and all of them have
+ * to pass the same tests (`TodoRepositoryContract`). Each gets queries as
+ * `TodoQuery` objects, so it can use whatever indexes it has to answer them.
+ * <p>
+ * Implementations must allow reads at the same time as other reads and
+ * writes. `TodoDatabase` makes sure there's only one write at a time.
+ */
+public interface TodoRepository {
+
+  /**
+   * @return the number of todos
+   */
+  int size();
+
+  /**
+   * Get the todo with the given ID.
+   *
+   * @param id the ID of the desired todo
+   * @return the todo with that ID, or `null` if there isn't one
+   */
+  Todo get(String id);
+
+  /**
+   * Get the todos matching a query, in the order (and up to the limit) the
+   * query asks for.
+   *
+   * @param query the query
+   * @return the matching todos
+   */
+  Todo[] find(TodoQuery query);
+
+  /**
+   * Count the todos passing a query's filters (ignoring its limit).
+   *
+   * @param query the query
+   * @return the number of matching todos
+   */
+  int count(TodoQuery query);
+
+  /**
+   * Visit every todo, in stored order, one at a time. Unlike
+   * `find(TodoQuery.ALL)`, this never holds all the todos at once, so a
+   * repository that keeps them out of the heap only reads one at a time.
+   * `TodoDatabase` uses this to build its `approx=true` sketches.
+   *
+   * @param visitor called with each todo
+   */
+  void forEach(Consumer<? super Todo> visitor);
+
+  /**
+   * Describe how `find()` answers a query, for the `QueryEvent`s recorded
+   * by Java Flight Recorder. This is only called while they're being
+   * recorded, so it can do some of the work of `find()` over again.
+   * <p>
+   * By default, every todo is looked at.
+   *
+   * @param query the query
+   * @return which indexes are used, and how many todos are looked at
+   */
+  default QueryPlan explain(TodoQuery query) {
+    return QueryPlan.fullScan(size());
+  }
+
+  /**
+   * Describe how much memory the repository's data structures take, and
+   * how long its indexes took to build, for `/api/admin/stats`. This may be
+   * asked for every few seconds, so it must be quick: it should use
+   * figures worked out when the structures were built, or estimates from a
+   * sample (see `MemoryEstimate`), rather than look at every todo.
+   * <p>
+   * By default there's nothing to report (e.g., the SQL database keeps its
+   * todos itself).
+   *
+   * @return the footprint of each of the repository's structures
+   */
+  default List<Footprint> footprint() {
+    return List.of();
+  }
+
+  /**
+   * Count the todos passing a query's filters that have each value of a
+   * field.
+   *
+   * @param field `owner`, `category`, or `status` (whose values are
+   *              "complete" and "incomplete")
+   * @param query the query
+   * @return the counts, sorted by value; values with no matching todos are
+   *         left out
+   */
+  SortedMap<String, Integer> countBy(String field, TodoQuery query);
+
+  /**
+   * Add a todo, which must have an `_id` that isn't already used.
+   *
+   * @param todo the todo to add
+   */
+  void add(Todo todo);
+
+  /**
+   * Remove the todo with the given ID.
+   *
+   * @param id the ID of the todo to remove
+   * @return the todo that was removed, or `null` if there wasn't one
+   */
+  Todo remove(String id);
+}
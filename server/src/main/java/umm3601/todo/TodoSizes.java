@@ -0,0 +1,40 @@
+package umm3601.todo;
+
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+
+/**
+ * Estimates of how much heap todos take (see `MemoryEstimate`), for the
+ * repositories' `footprint()`s.
+ */
+final class TodoSizes {
+
+  // A `Todo` has four `String`s and a `boolean`.
+  private static final int TODO_REFERENCES = 4;
+  private static final long TODO = MemoryEstimate.object(TODO_REFERENCES, 1);
+
+  private TodoSizes() {
+  }
+
+  /**
+   * @param todo a todo
+   * @return the size of the todo and its strings
+   */
+  static long of(Todo todo) {
+    return TODO
+        + MemoryEstimate.string(todo._id)
+        + MemoryEstimate.string(todo.owner)
+        + MemoryEstimate.string(todo.body)
+        + MemoryEstimate.string(todo.category);
+  }
+
+  /**
+   * @param todos an array of todos
+   * @return the footprint of the array and (an estimate from a sample of)
+   *         the todos in it
+   */
+  static Footprint todos(Todo[] todos) {
+    return Footprint.heap("todos", todos.length,
+        MemoryEstimate.referenceArray(todos.length) + MemoryEstimate.sampled(todos.length, row -> of(todos[row])), 0);
+  }
+}
@@ -0,0 +1,169 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import umm3601.ApproxSettings;
+import umm3601.CaseFolding;
+import umm3601.CountMinSketch;
+import umm3601.Estimate;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.Reservoir;
+
+/**
+ * The count-min sketches and random sample that answer `approx=true` todo
+ * requests (see `Estimate`) without looking at every todo.
+ * <p>
+ * There's a sketch for each combination of the `status`, `owner`, and
+ * `category` filters (seven in all), counting the todos with each
+ * combination of values, so a query with any of those filters is a single
+ * lookup in a single sketch. The `contains` filter can't be sketched (a body
+ * contains far too many strings), so queries with it are estimated from the
+ * sample instead, with the sketch of their other filters capping the count.
+ * <p>
+ * `TodoDatabase` builds this when it loads the todos, and keeps it up to
+ * date as todos are added and removed. Changes have to be made one at a
+ * time (the database's are `synchronized`), but estimates can be made at
+ * any time.
+ */
+final class TodoSketches {
+
+  // The filters that are sketched, as `TodoQuery.shape()` bits.
+  private static final int SKETCHED = TodoQuery.STATUS | TodoQuery.OWNER | TodoQuery.CATEGORY;
+
+  private final ApproxSettings settings;
+
+  // The sketch for each combination of filters, indexed by its shape (so
+  // the first, for no filters at all, is never used).
+  private final CountMinSketch[] sketches = new CountMinSketch[SKETCHED + 1];
+
+  private final Reservoir<Todo> sample;
+
+  // How long building the sketches and sample took.
+  private final long buildNanos;
+
+  /**
+   * @param settings how accurate the estimates should be
+   * @param todos    the todos to start with, which are read one at a time
+   */
+  TodoSketches(ApproxSettings settings, TodoRepository todos) {
+    long start = System.nanoTime();
+    this.settings = settings;
+    for (int shape = 1; shape <= SKETCHED; shape++) {
+      sketches[shape] = new CountMinSketch(settings.epsilon(), settings.delta());
+    }
+    this.sample = new Reservoir<>(settings.sampleSize(), new Random());
+    todos.forEach(this::add);
+    this.buildNanos = System.nanoTime() - start;
+  }
+
+  /**
+   * Count a todo that's been added.
+   *
+   * @param todo the new todo
+   */
+  void add(Todo todo) {
+    count(todo, 1);
+    sample.offer(todo);
+  }
+
+  /**
+   * Stop counting a todo that's been removed.
+   *
+   * @param todo the removed todo
+   */
+  void remove(Todo todo) {
+    count(todo, -1);
+    String id = todo._id;
+    sample.remove(kept -> kept._id.equals(id));
+  }
+
+  private void count(Todo todo, int change) {
+    long status = statusHash(todo.status);
+    long owner = foldedHash(todo.owner);
+    long category = foldedHash(todo.category);
+    for (int shape = 1; shape <= SKETCHED; shape++) {
+      sketches[shape].add(key(shape, status, owner, category), change);
+    }
+  }
+
+  // The key of a todo (or query) in the sketch for `shape`, made from the
+  // hashes of just the fields in that shape.
+  private static long key(int shape, long status, long owner, long category) {
+    long key = shape;
+    if ((shape & TodoQuery.STATUS) != 0) {
+      key = CountMinSketch.combine(key, status);
+    }
+    if ((shape & TodoQuery.OWNER) != 0) {
+      key = CountMinSketch.combine(key, owner);
+    }
+    if ((shape & TodoQuery.CATEGORY) != 0) {
+      key = CountMinSketch.combine(key, category);
+    }
+    return key;
+  }
+
+  private static long statusHash(Boolean status) {
+    return status == null ? 0 : CountMinSketch.hash(TodoIndex.statusName(status));
+  }
+
+  // Queries hold their text filters folded, so the todos' values are
+  // folded the same way before they're hashed.
+  private static long foldedHash(String text) {
+    return text == null ? 0 : CountMinSketch.hash(CaseFolding.fold(text));
+  }
+
+  /**
+   * Estimate how many todos match a query, and pick a few of them.
+   *
+   * @param query the query
+   * @param total the number of todos
+   * @return the estimate, with the sampled todos that match (in the
+   *         query's order, up to its limit)
+   */
+  Estimate<Todo> estimate(TodoQuery query, int total) {
+    List<Todo> kept = sample.snapshot();
+    List<Todo> matches = new ArrayList<>();
+    for (Todo todo : kept) {
+      if (query.matches(todo)) {
+        matches.add(todo);
+      }
+    }
+    int matchCount = matches.size();
+    if (query.ordering() != null) {
+      matches.sort(query.ordering());
+    }
+    List<Todo> shown = matches.size() > query.limit() ? matches.subList(0, query.limit()) : matches;
+
+    int shape = query.shape() & SKETCHED;
+    if (shape == 0 && query.contains() == null) {
+      return Estimate.exact(total, total, shown);
+    }
+    long sketched = shape == 0 ? total
+        : sketches[shape].estimate(key(shape, statusHash(query.status()),
+            CountMinSketch.hash(query.owner()), CountMinSketch.hash(query.category())));
+    // The sample is exact if it holds every todo (as it does for small
+    // datasets).
+    if (query.contains() != null || kept.size() >= total) {
+      return Estimate.fromSample(matchCount, kept.size(), total, sketched, settings.delta(), shown);
+    }
+    return Estimate.fromSketch(sketched, (long) Math.ceil(settings.epsilon() * total), total,
+        1 - settings.delta(), shown);
+  }
+
+  /**
+   * @return the footprint of the sketches, and of the sample (not counting
+   *         the todos in it, which the in-memory repositories share)
+   */
+  List<Footprint> footprint() {
+    long sketchBytes = 0;
+    for (int shape = 1; shape <= SKETCHED; shape++) {
+      sketchBytes += sketches[shape].estimatedBytes();
+    }
+    return List.of(
+        Footprint.heap("approxSketches", SKETCHED, sketchBytes, buildNanos),
+        Footprint.heap("approxSample", sample.size(), MemoryEstimate.referenceArray(sample.capacity()), 0));
+  }
+}
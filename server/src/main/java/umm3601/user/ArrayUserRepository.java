@@ -0,0 +1,138 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+
+/**
+ * The simplest `UserRepository`: the users in an array, and every query
+ * answered by looking at every user.
+ * <p>
+ * This is how `UserDatabase` originally worked, and it's kept as the
+ * baseline the other repositories are measured against. Changes copy the
+ * array and swap the copy in, so a query sees either all of a change or
+ * none of it.
+ */
+public class ArrayUserRepository implements UserRepository {
+
+  private volatile User[] users;
+
+  /**
+   * Construct a repository holding the given users.
+   *
+   * @param users the users to start with
+   */
+  public ArrayUserRepository(User[] users) {
+    this.users = Arrays.copyOf(users, users.length);
+  }
+
+  @Override
+  public int size() {
+    return users.length;
+  }
+
+  @Override
+  public User get(String id) {
+    for (User user : users) {
+      if (user._id.equals(id)) {
+        return user;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public User[] find(UserQuery query) {
+    User[] current = users;
+    List<User> matching = new ArrayList<>();
+    for (int row = 0; row < current.length; row++) {
+      if ((row & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+        Cancellation.checkpoint();
+      }
+      if (query.matches(current[row])) {
+        matching.add(current[row]);
+      }
+    }
+    User[] matches = matching.toArray(new User[0]);
+    Comparator<User> ordering = query.ordering();
+    int start = 0;
+    if (ordering != null) {
+      Arrays.sort(matches, ordering);
+      if (query.after() != null) {
+        while (start < matches.length && ordering.compare(matches[start], query.after()) <= 0) {
+          start++;
+        }
+      }
+    }
+    start = (int) Math.min((long) start + query.offset(), matches.length);
+    int end = (int) Math.min((long) start + query.limit(), matches.length);
+    return Arrays.copyOfRange(matches, start, end);
+  }
+
+  @Override
+  public void forEach(Consumer<? super User> visitor) {
+    for (User user : users) {
+      visitor.accept(user);
+    }
+  }
+
+  @Override
+  public List<Footprint> footprint() {
+    return List.of(UserSizes.users(users));
+  }
+
+  @Override
+  public int count(UserQuery query) {
+    return (int) Arrays.stream(users).filter(query::matches).count();
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, UserQuery query) {
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (User user : users) {
+      if (query.matches(user)) {
+        counts.merge(UserQuery.groupValue(user, field), 1, Integer::sum);
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Integer> countByAgeBucket(int width, UserQuery query) {
+    SortedMap<Integer, Integer> countsByAge = new TreeMap<>();
+    for (User user : users) {
+      if (query.matches(user)) {
+        countsByAge.merge(user.age, 1, Integer::sum);
+      }
+    }
+    return UserIndex.bucketAges(countsByAge, width);
+  }
+
+  @Override
+  public void add(User user) {
+    User[] current = users;
+    User[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = user;
+    users = updated;
+  }
+
+  @Override
+  public User remove(String id) {
+    User[] current = users;
+    for (int row = 0; row < current.length; row++) {
+      if (current[row]._id.equals(id)) {
+        users = UserIndex.without(current, row);
+        return current[row];
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,408 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.PendingChanges;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * A `UserRepository` that keeps the users in memory along with a
+ * `UserIndex`, so filters are answered from the age index and posting lists,
+ * and sorted pages from presorted rows, instead of by looking at every user.
+ * <p>
+ * Changes never modify an index. Instead they're kept as `PendingChanges`
+ * on top of it (the rows removed from it, and the users added since), and
+ * queries combine the two. Once enough changes pile up, they're merged
+ * into a new index, which is swapped in. So a burst of changes doesn't
+ * rebuild the index (including the sorted orderings) on every one, and
+ * the few pending changes are cheap to check one by one.
+ * <p>
+ * The index and its pending changes are swapped in together. Each query
+ * reads them once and uses them throughout, so it sees a consistent set of
+ * users even if a change happens part way through.
+ */
+public class IndexedUserRepository implements UserRepository {
+
+  // A filter is "sparse" if fewer than 1 in this many of the rows match it.
+  private static final int SPARSE_FILTER = 16;
+
+  // An index, and the changes made since it was built.
+  private record State(UserIndex index, PendingChanges<User> pending) {
+  }
+
+  private final int mergeThreshold;
+
+  private volatile State state;
+
+  /**
+   * Construct a repository holding the given users.
+   *
+   * @param users the users to start with
+   */
+  public IndexedUserRepository(User[] users) {
+    this(users, PendingChanges.DEFAULT_MERGE_THRESHOLD);
+  }
+
+  /**
+   * Construct a repository holding the given users, which builds a new
+   * index once there are more than `mergeThreshold` pending changes. (This
+   * is so the tests can merge after just a few changes.)
+   *
+   * @param users          the users to start with
+   * @param mergeThreshold the most changes to keep pending
+   */
+  IndexedUserRepository(User[] users, int mergeThreshold) {
+    this.mergeThreshold = mergeThreshold;
+    this.state = new State(new UserIndex(Arrays.copyOf(users, users.length)), PendingChanges.none());
+  }
+
+  @Override
+  public int size() {
+    State current = state;
+    return current.index().size() - current.pending().removedCount() + current.pending().added().size();
+  }
+
+  @Override
+  public User get(String id) {
+    State current = state;
+    int row = current.index().rowOf(id);
+    if (row >= 0 && !current.pending().isRemoved(row)) {
+      return current.index().users()[row];
+    }
+    int position = current.pending().positionOf(user -> user._id.equals(id));
+    return position < 0 ? null : current.pending().added().get(position);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Each filter is answered from `UserIndex` as a set of matching rows, and
+   * the sets are intersected, so we only look at the users that match every
+   * filter. Ordering uses the presorted rows in the index, so nothing is
+   * sorted per request, and a cursor's starting point is found with a binary
+   * search instead of skipping over every earlier user the way `offset` has
+   * to. When only a few rows match the filters, walking through the ordering
+   * would mostly skip over rows that don't, so instead just the matching
+   * rows' positions in the ordering are looked up and sorted. The users
+   * added since the index was built are checked one by one,
+   * and (if there's an order) sorted and merged in as the rows are walked.
+   */
+  @Override
+  public User[] find(UserQuery query) {
+    State current = state;
+    BitSet matches = filter(current, query);
+    List<User> added = current.pending().addedMatching(query::matches);
+    Cancellation.checkpoint();
+
+    // The common case of an unordered, unpaged query doesn't need to
+    // walk the rows in any particular order.
+    if (query.orderBy() == null && query.limit() == Integer.MAX_VALUE && query.offset() == 0) {
+      return usersAt(current.index().users(), matches, added);
+    }
+
+    List<User> page = new ArrayList<>();
+    walk(current.index(), query, matches, added, page);
+    return page.toArray(new User[0]);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The filters all have indexes, so the only rows looked at one by one
+   * are the ones walked through in order to find a page (along with any
+   * pending additions).
+   */
+  @Override
+  public QueryPlan explain(UserQuery query) {
+    State current = state;
+    StringJoiner indexes = new StringJoiner("+");
+    if (query.hasAgeRange()) {
+      indexes.add("age");
+    }
+    if (query.companies() != null) {
+      indexes.add("company");
+    }
+    if (query.roles() != null) {
+      indexes.add("role");
+    }
+    if (query.orderBy() != null) {
+      indexes.add(query.orderBy() + " order");
+    }
+    int rowsScanned = current.pending().added().size();
+    if (query.orderBy() != null || query.limit() != Integer.MAX_VALUE || query.offset() != 0) {
+      rowsScanned += walk(current.index(), query, filter(current, query),
+          current.pending().addedMatching(query::matches), new ArrayList<>());
+    }
+    return new QueryPlan(indexes.length() == 0 ? QueryPlan.NO_INDEX : indexes.toString(), rowsScanned);
+  }
+
+  @Override
+  public List<Footprint> footprint() {
+    State current = state;
+    PendingChanges<User> pending = current.pending();
+    if (pending.size() == 0) {
+      return current.index().footprint();
+    }
+    List<Footprint> footprint = new ArrayList<>(current.index().footprint());
+    footprint.add(Footprint.heap("pendingChanges", pending.size(),
+        MemoryEstimate.referenceArray(pending.added().size())
+            + MemoryEstimate.array((current.index().size() + Long.SIZE - 1) / Long.SIZE, Long.BYTES), 0));
+    return footprint;
+  }
+
+  @Override
+  public void forEach(Consumer<? super User> visitor) {
+    visit(state, visitor);
+  }
+
+  @Override
+  public int count(UserQuery query) {
+    State current = state;
+    BitSet matches = filter(current, query);
+    int inIndex = matches == null ? current.index().size() : matches.cardinality();
+    return inIndex + current.pending().addedMatching(query::matches).size();
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, UserQuery query) {
+    State current = state;
+    BitSet matches = filter(current, query);
+    SortedMap<String, Integer> counts;
+    switch (field) {
+      case "company":
+        counts = current.index().countByCompany(matches);
+        break;
+      case "role":
+        counts = current.index().countByRole(matches);
+        break;
+      default:
+        throw new IllegalArgumentException("Users can't be grouped by " + field);
+    }
+    List<User> added = current.pending().addedMatching(query::matches);
+    if (added.isEmpty()) {
+      return counts;
+    }
+    SortedMap<String, Integer> withAdded = new TreeMap<>(counts);
+    for (User user : added) {
+      withAdded.merge(UserQuery.groupValue(user, field), 1, Integer::sum);
+    }
+    return withAdded;
+  }
+
+  @Override
+  public Map<String, Integer> countByAgeBucket(int width, UserQuery query) {
+    State current = state;
+    Map<String, Integer> counts = current.index().countByAgeBucket(width, filter(current, query));
+    List<User> added = current.pending().addedMatching(query::matches);
+    if (added.isEmpty()) {
+      return counts;
+    }
+    SortedMap<Integer, Integer> addedByAge = new TreeMap<>();
+    for (User user : added) {
+      addedByAge.merge(user.age, 1, Integer::sum);
+    }
+    return addBuckets(counts, UserIndex.bucketAges(addedByAge, width));
+  }
+
+  @Override
+  public void add(User user) {
+    State current = state;
+    state = merged(current.index(), current.pending().withAdded(user));
+  }
+
+  @Override
+  public User remove(String id) {
+    State current = state;
+    PendingChanges<User> pending = current.pending();
+    int row = current.index().rowOf(id);
+    if (row >= 0 && !pending.isRemoved(row)) {
+      state = merged(current.index(), pending.withRemovedRow(row));
+      return current.index().users()[row];
+    }
+    int position = pending.positionOf(user -> user._id.equals(id));
+    if (position < 0) {
+      return null;
+    }
+    state = merged(current.index(), pending.withoutAdded(position));
+    return pending.added().get(position);
+  }
+
+  // Keep the changes pending, unless there are enough of them to be worth
+  // building a new index.
+  private State merged(UserIndex index, PendingChanges<User> pending) {
+    if (!pending.shouldMerge(mergeThreshold)) {
+      return new State(index, pending);
+    }
+    List<User> users = new ArrayList<>(index.size() + pending.added().size());
+    visit(new State(index, pending), users::add);
+    return new State(new UserIndex(users.toArray(new User[0])), PendingChanges.none());
+  }
+
+  // Visit the users in stored order: the index's rows that haven't been
+  // removed, then the users added since.
+  private static void visit(State current, Consumer<? super User> visitor) {
+    User[] users = current.index().users();
+    for (int row = 0; row < users.length; row++) {
+      if (!current.pending().isRemoved(row)) {
+        visitor.accept(users[row]);
+      }
+    }
+    current.pending().added().forEach(visitor);
+  }
+
+  // The rows of the index that match all the filters in the query and
+  // haven't been removed, where `null` means every row.
+  private static BitSet filter(State current, UserQuery query) {
+    UserIndex index = current.index();
+    BitSet matches = null;
+    if (query.hasAgeRange()) {
+      matches = intersect(matches, index.ageBetween(query.minAge(), query.maxAge()));
+    }
+    if (query.companies() != null) {
+      matches = intersect(matches, index.companyIn(query.companies()));
+    }
+    if (query.roles() != null) {
+      matches = intersect(matches, index.roleIn(query.roles()));
+    }
+    return current.pending().live(matches, index.size());
+  }
+
+  // Walk through the rows in the query's order (if any), from its cursor,
+  // adding the matching ones after the first `offset` to `page` until it's
+  // full, and return the number of the index's rows walked through. The
+  // `added` users (which all match) come after the rows if there's no order,
+  // or are merged in at their place in it if there is. If the filters are
+  // sparse, only the matching rows are walked through (so a page costs about
+  // as much as there are matching rows, rather than as there are rows).
+  private static int walk(UserIndex index, UserQuery query, BitSet matches, List<User> added, List<User> page) {
+    User[] allUsers = index.users();
+    int[] order = null;
+    Comparator<User> ordering = null;
+    List<User> extra = added;
+    int start = 0;
+    if (query.orderBy() != null) {
+      order = index.rowsInOrder(query.orderBy());
+      ordering = UserIndex.ORDERINGS.get(query.orderBy());
+      extra = new ArrayList<>(added.size());
+      for (User user : added) {
+        if (query.after() == null || ordering.compare(user, query.after()) > 0) {
+          extra.add(user);
+        }
+      }
+      extra.sort(ordering);
+      if (query.after() != null) {
+        start = index.positionAfter(query.orderBy(), query.after());
+      }
+    }
+
+    // The positions to walk through, in order, or `null` for all of them
+    // from `start` on.
+    int[] positions = null;
+    if (matches != null && matches.cardinality() < allUsers.length / SPARSE_FILTER) {
+      positions = order == null ? matches.stream().toArray() : index.positionsOf(query.orderBy(), matches, start);
+    }
+    int end = positions == null ? allUsers.length - start : positions.length;
+
+    int skipped = 0;
+    int step = 0;
+    int next = 0;
+    for (int walked = 0; page.size() < query.limit() && (step < end || next < extra.size()); walked++) {
+      if ((walked & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+        Cancellation.checkpoint();
+      }
+      User user;
+      if (step < end) {
+        int position = positions == null ? start + step : positions[step];
+        int row = order == null ? position : order[position];
+        if (matches != null && !matches.get(row)) {
+          step++;
+          continue;
+        }
+        user = allUsers[row];
+        if (ordering != null && next < extra.size() && ordering.compare(extra.get(next), user) < 0) {
+          user = extra.get(next++);
+        } else {
+          step++;
+        }
+      } else {
+        user = extra.get(next++);
+      }
+      if (skipped < query.offset()) {
+        skipped++;
+      } else {
+        page.add(user);
+      }
+    }
+    return step;
+  }
+
+  // Intersect two sets of matching rows, where `null` stands for "all rows".
+  private static BitSet intersect(BitSet matches, BitSet rows) {
+    if (matches == null) {
+      return rows;
+    }
+    matches.and(rows);
+    return matches;
+  }
+
+  // Turn a set of matching rows back into `User`s, in their original order,
+  // followed by the matching users added since.
+  private static User[] usersAt(User[] allUsers, BitSet matches, List<User> added) {
+    if (matches == null && added.isEmpty()) {
+      return allUsers;
+    }
+    int inIndex = matches == null ? allUsers.length : matches.cardinality();
+    User[] users = new User[inIndex + added.size()];
+    int next = 0;
+    if (matches == null) {
+      System.arraycopy(allUsers, 0, users, 0, inIndex);
+      next = inIndex;
+    } else {
+      for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+        users[next++] = allUsers[row];
+      }
+    }
+    for (User user : added) {
+      users[next++] = user;
+    }
+    return users;
+  }
+
+  // Add two sets of age bucket counts, keeping them in increasing order of
+  // age.
+  private static Map<String, Integer> addBuckets(Map<String, Integer> counts, Map<String, Integer> more) {
+    SortedMap<Long, String> buckets = new TreeMap<>();
+    Map<String, Integer> sums = new HashMap<>(counts);
+    for (String bucket : counts.keySet()) {
+      buckets.put(lowestAge(bucket), bucket);
+    }
+    for (Map.Entry<String, Integer> count : more.entrySet()) {
+      buckets.put(lowestAge(count.getKey()), count.getKey());
+      sums.merge(count.getKey(), count.getValue(), Integer::sum);
+    }
+    Map<String, Integer> added = new LinkedHashMap<>();
+    for (String bucket : buckets.values()) {
+      added.put(bucket, sums.get(bucket));
+    }
+    return added;
+  }
+
+  // The first age in a bucket like "20-29" (or "-10--1").
+  private static long lowestAge(String bucket) {
+    return Long.parseLong(bucket.substring(0, bucket.indexOf('-', 1)));
+  }
+}
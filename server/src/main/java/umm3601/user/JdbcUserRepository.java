@@ -0,0 +1,393 @@
+package umm3601.user;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import umm3601.Cancellation;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * A `UserRepository` that keeps the users in a SQL database, by default an
+ * embedded H2 database (see `StorageBackend`).
+ * <p>
+ * Unlike the in-memory repositories, the users don't have to fit in the
+ * heap, and with an on-disk database URL (e.g., `jdbc:h2:file:./data/users`)
+ * changes survive a restart. The users from the JSON file are only loaded
+ * into the table if it's empty.
+ * <p>
+ * Each `UserQuery` becomes a single `SELECT`. A cursor becomes a "keyset"
+ * condition, `(key > ? OR (key = ? AND id > ?))`, which the index on
+ * `(key, id)` answers by seeking straight to the start of the page.
+ */
+public class JdbcUserRepository implements UserRepository {
+
+  // The columns that hold the fields of a `User`, in the order `readUser`
+  // expects them.
+  private static final String USER_COLUMNS = "id, name, age, company, email, avatar, role";
+
+  // The SQL column for each field users can be sorted or grouped by.
+  private static final Map<String, String> COLUMNS = Map.of(
+      "name", "name",
+      "age", "age",
+      "company", "company",
+      "role", "role");
+
+  private static final String INSERT = "INSERT INTO users "
+      + "(id, seq, name, age, company, email, avatar, role) "
+      + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private final String url;
+
+  // An embedded database is closed when its last connection is, so we keep
+  // this one open for as long as the repository is around.
+  private final Connection keepOpen;
+
+  // The position to give the next user, which keeps the users in the order
+  // they were added (the "stored order" other repositories use).
+  private final AtomicLong nextSeq;
+
+  /**
+   * Connect to (and if necessary set up) the database at the given URL.
+   *
+   * @param url          the JDBC URL of the database
+   * @param initialUsers the users to put in the table if it's empty
+   */
+  public JdbcUserRepository(String url, User[] initialUsers) {
+    this.url = url;
+    try {
+      keepOpen = DriverManager.getConnection(url);
+      try (Statement statement = keepOpen.createStatement()) {
+        statement.execute("CREATE TABLE IF NOT EXISTS users ("
+            + "id VARCHAR(64) PRIMARY KEY, seq BIGINT NOT NULL, "
+            + "name VARCHAR, age INT NOT NULL, company VARCHAR, "
+            + "email VARCHAR, avatar VARCHAR, role VARCHAR)");
+        statement.execute("CREATE INDEX IF NOT EXISTS users_seq ON users (seq)");
+        for (String column : COLUMNS.values()) {
+          statement.execute("CREATE INDEX IF NOT EXISTS users_" + column + " ON users (" + column + ", id)");
+        }
+      }
+      nextSeq = new AtomicLong(queryLong(keepOpen, "SELECT COALESCE(MAX(seq), 0) + 1 FROM users"));
+      if (queryLong(keepOpen, "SELECT COUNT(*) FROM users") == 0) {
+        insertAll(initialUsers);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not set up the user database at " + url, e);
+    }
+  }
+
+  @Override
+  public int size() {
+    try (Connection connection = connect()) {
+      return (int) queryLong(connection, "SELECT COUNT(*) FROM users");
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count users", e);
+    }
+  }
+
+  @Override
+  public User get(String id) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(
+            "SELECT " + USER_COLUMNS + " FROM users WHERE id = ?")) {
+      statement.setString(1, id);
+      try (ResultSet results = statement.executeQuery()) {
+        return results.next() ? readUser(results) : null;
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not get user " + id, e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * H2 plans the query itself, so all we can say is that it's SQL.
+   */
+  @Override
+  public QueryPlan explain(UserQuery query) {
+    return new QueryPlan("sql", -1);
+  }
+
+  @Override
+  public User[] find(UserQuery query) {
+    List<String> conditions = new ArrayList<>();
+    List<Object> args = new ArrayList<>();
+    addFilters(query, conditions, args);
+    StringBuilder order = new StringBuilder(" ORDER BY ");
+    if (query.orderBy() != null) {
+      String column = COLUMNS.get(query.orderBy());
+      if (query.after() != null) {
+        Object key = cursorKey(query.orderBy(), query.after());
+        conditions.add("(" + column + " > ? OR (" + column + " = ? AND id > ?))");
+        Collections.addAll(args, key, key, query.after()._id);
+      }
+      order.append(column).append(", id");
+    } else {
+      order.append("seq");
+    }
+
+    StringBuilder sql = new StringBuilder("SELECT " + USER_COLUMNS + " FROM users");
+    appendWhere(sql, conditions);
+    sql.append(order);
+    if (query.limit() != Integer.MAX_VALUE) {
+      sql.append(" LIMIT ?");
+      args.add(query.limit());
+    }
+    if (query.offset() != 0) {
+      sql.append(" OFFSET ?");
+      args.add(query.offset());
+    }
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      List<User> users = new ArrayList<>();
+      while (results.next()) {
+        // Reading the rows is where a big result spends its time, so
+        // that's where we stop if the query is cancelled.
+        if ((users.size() & (Cancellation.CHECK_INTERVAL - 1)) == 0) {
+          Cancellation.checkpoint();
+        }
+        users.add(readUser(results));
+      }
+      return users.toArray(new User[0]);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not find users", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Each row is read from the result set as it's visited, and H2 keeps big
+   * results on disk rather than in the heap.
+   */
+  @Override
+  public void forEach(Consumer<? super User> visitor) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(
+            "SELECT " + USER_COLUMNS + " FROM users ORDER BY seq");
+        ResultSet results = statement.executeQuery()) {
+      while (results.next()) {
+        visitor.accept(readUser(results));
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not read users", e);
+    }
+  }
+
+  @Override
+  public int count(UserQuery query) {
+    List<String> conditions = new ArrayList<>();
+    List<Object> args = new ArrayList<>();
+    addFilters(query, conditions, args);
+    StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM users");
+    appendWhere(sql, conditions);
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      results.next();
+      return results.getInt(1);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count users", e);
+    }
+  }
+
+  @Override
+  public SortedMap<String, Integer> countBy(String field, UserQuery query) {
+    if (!field.equals("company") && !field.equals("role")) {
+      throw new IllegalArgumentException("Users can't be grouped by " + field);
+    }
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    groupCounts(field, query, results -> counts.put(results.getString(1), results.getInt(2)));
+    return counts;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The database counts the users of each age, and we group those counts
+   * into buckets, since there are far fewer ages than users.
+   */
+  @Override
+  public Map<String, Integer> countByAgeBucket(int width, UserQuery query) {
+    SortedMap<Integer, Integer> countsByAge = new TreeMap<>();
+    groupCounts("age", query, results -> countsByAge.put(results.getInt(1), results.getInt(2)));
+    return UserIndex.bucketAges(countsByAge, width);
+  }
+
+  @Override
+  public void add(User user) {
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement(INSERT)) {
+      bindInsert(statement, user, nextSeq.getAndIncrement());
+      statement.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not add user " + user._id, e);
+    }
+  }
+
+  @Override
+  public User remove(String id) {
+    User user = get(id);
+    if (user == null) {
+      return null;
+    }
+    try (Connection connection = connect();
+        PreparedStatement statement = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+      statement.setString(1, id);
+      return statement.executeUpdate() > 0 ? user : null;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not remove user " + id, e);
+    }
+  }
+
+  // Something to do with each row of a result, which may throw an
+  // `SQLException` (unlike a `Consumer`).
+  private interface RowHandler {
+    void accept(ResultSet results) throws SQLException;
+  }
+
+  // Run `SELECT column, COUNT(*) ... GROUP BY column` for the query's
+  // filters, handing each row to `handler`.
+  private void groupCounts(String column, UserQuery query, RowHandler handler) {
+    List<String> conditions = new ArrayList<>();
+    List<Object> args = new ArrayList<>();
+    addFilters(query, conditions, args);
+    StringBuilder sql = new StringBuilder("SELECT " + column + ", COUNT(*) FROM users");
+    appendWhere(sql, conditions);
+    sql.append(" GROUP BY ").append(column);
+    try (Connection connection = connect();
+        PreparedStatement statement = prepare(connection, sql.toString(), args);
+        ResultSet results = statement.executeQuery()) {
+      while (results.next()) {
+        handler.accept(results);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not count users", e);
+    }
+  }
+
+  @SuppressWarnings({ "MagicNumber" })
+  private static void bindInsert(PreparedStatement statement, User user, long seq) throws SQLException {
+    statement.setString(1, user._id);
+    statement.setLong(2, seq);
+    statement.setString(3, user.name);
+    statement.setInt(4, user.age);
+    statement.setString(5, user.company);
+    statement.setString(6, user.email);
+    statement.setString(7, user.avatar);
+    statement.setString(8, user.role);
+  }
+
+  // Load the initial users in one transaction, which is much faster than
+  // committing each one separately.
+  private void insertAll(User[] users) throws SQLException {
+    try (Connection connection = connect()) {
+      connection.setAutoCommit(false);
+      try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+        for (User user : users) {
+          bindInsert(statement, user, nextSeq.getAndIncrement());
+          statement.addBatch();
+        }
+        statement.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    }
+  }
+
+  // Add the conditions for the query's filters, and their values to `args`.
+  private static void addFilters(UserQuery query, List<String> conditions, List<Object> args) {
+    if (query.minAge() != Integer.MIN_VALUE) {
+      conditions.add("age >= ?");
+      args.add(query.minAge());
+    }
+    if (query.maxAge() != Integer.MAX_VALUE) {
+      conditions.add("age <= ?");
+      args.add(query.maxAge());
+    }
+    if (query.companies() != null) {
+      conditions.add(inList("company", query.companies(), args));
+    }
+    if (query.roles() != null) {
+      conditions.add(inList("role", query.roles(), args));
+    }
+  }
+
+  // `column IN (?, ?, ...)`, or `FALSE` if there are no values, since SQL
+  // doesn't allow an empty `IN` list.
+  private static String inList(String column, Collection<String> values, List<Object> args) {
+    if (values.isEmpty()) {
+      return "FALSE";
+    }
+    args.addAll(values);
+    return column + " IN (" + String.join(", ", Collections.nCopies(values.size(), "?")) + ")";
+  }
+
+  private static void appendWhere(StringBuilder sql, List<String> conditions) {
+    if (!conditions.isEmpty()) {
+      sql.append(" WHERE ").append(String.join(" AND ", conditions));
+    }
+  }
+
+  private static Object cursorKey(String orderBy, User after) {
+    switch (orderBy) {
+      case "name":
+        return after.name;
+      case "age":
+        return after.age;
+      case "company":
+        return after.company;
+      default:
+        return after.role;
+    }
+  }
+
+  private Connection connect() throws SQLException {
+    return DriverManager.getConnection(url);
+  }
+
+  private static PreparedStatement prepare(Connection connection, String sql, List<Object> args) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(sql);
+    for (int i = 0; i < args.size(); i++) {
+      statement.setObject(i + 1, args.get(i));
+    }
+    return statement;
+  }
+
+  private static long queryLong(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet results = statement.executeQuery(sql)) {
+      results.next();
+      return results.getLong(1);
+    }
+  }
+
+  @SuppressWarnings({ "MagicNumber" })
+  private static User readUser(ResultSet results) throws SQLException {
+    User user = new User();
+    user._id = results.getString(1);
+    user.name = results.getString(2);
+    user.age = results.getInt(3);
+    user.company = results.getString(4);
+    user.email = results.getString(5);
+    user.avatar = results.getString(6);
+    user.role = results.getString(7);
+    return user;
+  }
+}
@@ -1,20 +1,80 @@
 package umm3601.user;
 
 import java.io.IOException;
+import java.time.Duration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.sse.SseClient;
+import umm3601.AsyncQueries;
+import umm3601.Cancellation;
 import umm3601.Controller;
+import umm3601.DatasetStats;
+import umm3601.Estimate;
+import umm3601.FieldProjection;
+import umm3601.GroupCounts;
+import umm3601.QueryParams;
+import umm3601.SingleFlight;
+import umm3601.WireFormat;
+import umm3601.admin.StatsSource;
 
 /**
  * Controller that manages requests for info about users.
  */
-public class UserController implements Controller {
+public class UserController implements Controller, StatsSource {
+
+  /**
+   * The response header holding the cursor for the next page of users, when
+   * there might be one.
+   */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  // The roles a user can have.
+  private static final Set<String> ROLES = Set.of("admin", "editor", "viewer");
+
+  // Writers for the `fields` query parameter, e.g., `?fields=_id,name`.
+  private static final FieldProjection USER_FIELDS = new FieldProjection(User.class, "user");
 
   private UserDatabase userDatabase;
 
+  // Shares the work of identical list requests that arrive at once (see
+  // `SingleFlight`).
+  private final SingleFlight<ListKey, ListResponse> listFlights;
+
+  // What makes two list requests identical: the same query parameters
+  // (in any order), and format, against the same version of the users.
+  // (Unlike `TodoQuery`, a parsed `UserQuery` can't be compared, since its
+  // cursor holds a `User`.)
+  private record ListKey(long version, SortedMap<String, List<String>> params, WireFormat format) {
+  }
+
+  // A serialized page of users, and the cursor for the next page.
+  private record ListResponse(byte[] body, String nextCursor) {
+  }
+
+  // Where list requests are worked out, if not on the request thread (see
+  // `AsyncQueries`).
+  private final AsyncQueries asyncQueries;
+
+  // `false` on a replica, whose users only change when the primary's do
+  // (see `forReplica()`).
+  private final boolean acceptsChanges;
+
   /**
    * Construct a controller for users.
    * <p>
@@ -25,7 +85,57 @@ public class UserController implements Controller {
    * @param userDatabase the `UserDatabase` containing user data
    */
   public UserController(UserDatabase userDatabase) {
+    this(userDatabase, SingleFlight.configuredWindow(), AsyncQueries.configured());
+  }
+
+  /**
+   * Construct a controller for users that coalesces identical list
+   * requests (see `SingleFlight`).
+   *
+   * @param userDatabase     the `UserDatabase` containing user data
+   * @param coalescingWindow how long to keep sharing a list response after
+   *                         it's worked out, or `null` to not coalesce
+   *                         requests at all
+   */
+  public UserController(UserDatabase userDatabase, Duration coalescingWindow) {
+    this(userDatabase, coalescingWindow, AsyncQueries.off());
+  }
+
+  /**
+   * Construct a controller for users that may coalesce identical list
+   * requests (see `SingleFlight`), and may work them out on compute threads
+   * (see `AsyncQueries`).
+   *
+   * @param userDatabase     the `UserDatabase` containing user data
+   * @param coalescingWindow how long to keep sharing a list response after
+   *                         it's worked out, or `null` to not coalesce
+   *                         requests at all
+   * @param asyncQueries     where to work out list requests
+   */
+  public UserController(UserDatabase userDatabase, Duration coalescingWindow, AsyncQueries asyncQueries) {
+    this(userDatabase, coalescingWindow, asyncQueries, true);
+  }
+
+  private UserController(UserDatabase userDatabase, Duration coalescingWindow, AsyncQueries asyncQueries,
+      boolean acceptsChanges) {
     this.userDatabase = userDatabase;
+    this.listFlights = new SingleFlight<>(coalescingWindow);
+    this.asyncQueries = asyncQueries;
+    this.acceptsChanges = acceptsChanges;
+  }
+
+  /**
+   * Construct a controller for a replica's read-only copy of the users
+   * (see `ReplicationController`). Requests to add or delete a user get a
+   * "405 Method Not Allowed", since they have to go to the primary: a change
+   * made here would never reach the primary, and a later change from the
+   * primary that conflicts with it would stop the replica replicating.
+   *
+   * @param userDatabase the replica's `UserDatabase`
+   * @return a controller that only reads
+   */
+  public static UserController forReplica(UserDatabase userDatabase) {
+    return new UserController(userDatabase, SingleFlight.configuredWindow(), AsyncQueries.configured(), false);
   }
 
   /**
@@ -55,7 +165,7 @@ public class UserController implements Controller {
     String id = ctx.pathParam("id");
     User user = userDatabase.getUser(id);
     if (user != null) {
-      ctx.json(user);
+      WireFormat.of(ctx).respond(ctx, user);
       ctx.status(HttpStatus.OK);
     } else {
       throw new NotFoundResponse("No user with id " + id + " was found.");
@@ -64,22 +174,271 @@ public class UserController implements Controller {
 
   /**
    * Get a JSON response with a list of all the users in the "database".
+   * <p>
+   * If the list is ordered and paged (`orderBy` and `limit`), and there may
+   * be more users after this page, the cursor for the next page is returned
+   * in the `X-Next-Cursor` header.
+   * <p>
+   * A `fields` query parameter (e.g., `fields=_id,name`) limits each user in
+   * the response to just those fields.
+   * <p>
+   * Clients that ask for it in their `Accept` header get CBOR or Smile
+   * instead of JSON (see `WireFormat`).
+   * <p>
+   * If coalescing is on, identical requests that arrive together are
+   * answered with the same serialized response, which only one of them
+   * works out. If `AsyncQueries` is on, the response is worked out on a
+   * compute thread, and given up on if it takes too long or the client
+   * goes away.
+   * <p>
+   * With `approx=true`, the response is an `Estimate` of how many users
+   * match, with a random sample of them, rather than every match; it's
+   * answered straight away, since it takes about as long however many
+   * users there are.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    User[] users = userDatabase.listUsers(ctx.queryParamMap());
-    ctx.json(users);
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+    if (Estimate.requested(queryParams)) {
+      WireFormat.of(ctx).respond(ctx, userDatabase.estimateUsers(queryParams));
+      return;
+    }
+    SortedSet<String> fields = USER_FIELDS.requestedFields(queryParams);
+    if (asyncQueries.enabled()) {
+      WireFormat format = WireFormat.of(ctx);
+      asyncQueries.submit(ctx, () -> listResponse(ctx, queryParams, fields, format),
+          (context, response) -> send(context, format, response));
+      return;
+    } else if (listFlights.enabled()) {
+      WireFormat format = WireFormat.of(ctx);
+      send(ctx, format, listResponse(ctx, queryParams, fields, format));
+      return;
+    }
+    UserPage page = userDatabase.listUserPage(queryParams);
+    if (page.nextCursor() != null) {
+      ctx.header(NEXT_CURSOR_HEADER, page.nextCursor());
+    }
+    WireFormat format = WireFormat.of(ctx);
+    if (fields == null) {
+      format.respond(ctx, page.users());
+    } else if (format == WireFormat.JSON) {
+      ctx.contentType(ContentType.APPLICATION_JSON);
+      ctx.result(USER_FIELDS.write(page.users(), fields));
+    } else {
+      format.respond(ctx, USER_FIELDS.writer(fields, format), page.users());
+    }
     ctx.status(HttpStatus.OK);
   }
 
+  // Work out a serialized list response, shared with identical requests if
+  // coalescing is on.
+  private ListResponse listResponse(Context ctx, Map<String, List<String>> queryParams, Set<String> fields,
+      WireFormat format) {
+    Supplier<ListResponse> compute = () -> {
+      UserPage page = userDatabase.listUserPage(queryParams);
+      return new ListResponse(serialize(ctx, format, fields, page.users()), page.nextCursor());
+    };
+    if (!listFlights.enabled()) {
+      return compute.get();
+    }
+    return listFlights.get(new ListKey(userDatabase.version(), new TreeMap<>(queryParams), format), compute);
+  }
+
+  private static void send(Context ctx, WireFormat format, ListResponse response) {
+    if (response.nextCursor() != null) {
+      ctx.header(NEXT_CURSOR_HEADER, response.nextCursor());
+    }
+    format.send(ctx, response.body());
+    ctx.status(HttpStatus.OK);
+  }
+
+  // Serialize a list response, the same way `getUsers()` sends one without
+  // coalescing.
+  private static byte[] serialize(Context ctx, WireFormat format, Set<String> fields, User[] users) {
+    // Serializing a big page takes a while, so don't start if the query
+    // has already been cancelled.
+    Cancellation.checkpoint();
+    if (fields == null) {
+      return format.serialize(ctx, users);
+    } else if (format == WireFormat.JSON) {
+      return USER_FIELDS.write(users, fields);
+    }
+    return format.serialize(USER_FIELDS.writer(fields, format), users);
+  }
+
+  /**
+   * Get many users at once, given a comma separated list of IDs in the
+   * `ids` query parameter, e.g., `?ids=ID1,ID2,ID3`.
+   * <p>
+   * The response has the users that were `found`, and a list of the IDs
+   * that were `missing`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserBatch(Context ctx) {
+    List<String> ids = QueryParams.splitValues(ctx.queryParams("ids"));
+    WireFormat.of(ctx).respond(ctx, userDatabase.getUsers(ids));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Get many users at once, given a JSON array of IDs in the request body.
+   * This is the same as `getUserBatch()`, but doesn't run into limits on
+   * the length of URLs when there are a lot of IDs.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void postUserBatch(Context ctx) {
+    String[] ids;
+    try {
+      ids = ctx.bodyAsClass(String[].class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body should be a JSON array of ids");
+    }
+    if (ids == null) {
+      throw new BadRequestResponse("The request body should be a JSON array of ids");
+    }
+    WireFormat.of(ctx).respond(ctx, userDatabase.getUsers(Arrays.asList(ids)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Add a new user, given as JSON in the request body, and respond with the
+   * `_id` it was given.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewUser(Context ctx) {
+    User newUser;
+    try {
+      newUser = ctx.bodyAsClass(User.class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body should be a JSON user");
+    }
+    if (newUser == null) {
+      throw new BadRequestResponse("The request body should be a JSON user");
+    }
+    if (newUser.name == null || newUser.name.isBlank()) {
+      throw new BadRequestResponse("New users must have a non-empty name");
+    }
+    if (newUser.age < 0) {
+      throw new BadRequestResponse("New users can't have a negative age");
+    }
+    if (newUser.company == null || newUser.company.isBlank()) {
+      throw new BadRequestResponse("New users must have a non-empty company");
+    }
+    if (newUser.email == null || !newUser.email.contains("@")) {
+      throw new BadRequestResponse("New users must have a legal email");
+    }
+    if (!ROLES.contains(newUser.role)) {
+      throw new BadRequestResponse("New users must have a legal role");
+    }
+    String id = userDatabase.addUser(newUser);
+    ctx.json(Map.of("id", id));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Delete the user specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteUser(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (userDatabase.deleteUser(id) == null) {
+      throw new NotFoundResponse("No user with id " + id + " was found.");
+    }
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Stream the changes to users (as Server-Sent Events) to a client.
+   * <p>
+   * The client can use the same `age`, `ageMin`, `ageMax`, `company`, and
+   * `role` query parameters as `getUsers()` to only hear about some users.
+   * See `ChangeFeed` for how the events are sent.
+   *
+   * @param client the SSE client to send the changes to
+   */
+  public void streamUserChanges(SseClient client) {
+    Predicate<User> filter;
+    try {
+      filter = userDatabase.changeFilter(client.ctx().queryParamMap());
+    } catch (BadRequestResponse e) {
+      // The response has already started by the time we get here, so we
+      // can't send a 400; tell the client what was wrong with an event.
+      client.sendEvent("error", e.getMessage());
+      client.close();
+      return;
+    }
+    userDatabase.changes().subscribe(client, filter);
+  }
+
+  /**
+   * Get a JSON response with counts of the users matching the filters in the
+   * query parameters, grouped by company, role, and/or age.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserStats(Context ctx) {
+    GroupCounts stats = userDatabase.countUsers(ctx.queryParamMap());
+    ctx.json(stats);
+    ctx.status(HttpStatus.OK);
+  }
+
+  @Override
+  public String statsName() {
+    return "users";
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Along with the database's stats, this reports how many `fields`
+   * writers have been built (see `FieldProjection`), and how many list
+   * responses are being shared (see `SingleFlight`).
+   */
+  @Override
+  public DatasetStats stats() {
+    return userDatabase.stats()
+        .withCache("fieldWriters", USER_FIELDS.cachedWriterCount())
+        .withCache("coalescedLists", listFlights.size());
+  }
+
+  /**
+   * Turn away a request to change the users on a replica.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws MethodNotAllowedResponse always
+   */
+  private void refuseChange(Context ctx) {
+    throw new MethodNotAllowedResponse("This server is a read-only replica; send changes to the primary");
+  }
+
   /**
    * Setup routes for the `user` collection endpoints.
    *
    * These endpoints are:
-   * - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
+   * - `GET /api/users?age=NUMBER&ageMin=NUMBER&ageMax=NUMBER&company=STRING&role=STRING`
    * - List users, filtered using query parameters
-   * - `age`, `company`, and `name` are optional query parameters
+   * - `age`, `ageMin`, `ageMax`, `company`, and `role` are optional query parameters
+   * - `company` and `role` accept several comma separated values, e.g., `role=admin,editor`
+   * - `orderBy` (`name`, `age`, `company`, or `role`), `limit`, `offset`, and
+   * `cursor` sort and page the results
+   * - `fields` (e.g., `fields=_id,name`) limits which fields are returned
+   * - `approx=true` estimates how many users match instead, with a sample
+   * - `GET /api/users/stats?groupBy=company,role,age&ageBucket=NUMBER`
+   * - Count the users (optionally filtered like the list above) in each group
+   * - `GET /api/users/batch?ids=ID1,ID2` and `POST /api/users/batch` (with a
+   * JSON array of IDs as the body)
+   * - Get up to `BatchResult.MAX_IDS` users at once
+   * - `GET /api/users/changes?company=STRING&role=STRING` (Server-Sent Events)
+   * - Follow the users being added and deleted, optionally filtered like the list
+   * - `POST /api/users` (with a JSON user as the body)
+   * - Add a new user
+   * - `DELETE /api/users/:id`
+   * - Delete the specified user
    * - `GET /api/users/:id`
    * - Get the specified user
    *
@@ -90,14 +449,36 @@ public class UserController implements Controller {
    * method will then call `addRoutes` for each controller, which will
    * add the routes for that controller's data.
    *
+   * On a replica, the routes that add and delete users are there, but
+   * only to turn the requests away (see `forReplica()`).
+   *
    * @param server The Javalin server instance
    */
   @Override
   public void addRoutes(Javalin server) {
+    // Count users by company, role, and/or age. This has to come before
+    // the `{id}` route, or "stats" would be taken to be a user ID.
+    server.get("/api/users/stats", this::getUserStats);
+
+    // Get many users at once by ID. Like "stats", these have to
+    // come before the `{id}` route.
+    server.get("/api/users/batch", this::getUserBatch);
+    server.post("/api/users/batch", this::postUserBatch);
+
+    // Follow changes to the users with Server-Sent Events. Also has
+    // to come before the `{id}` route.
+    server.sse("/api/users/changes", this::streamUserChanges);
+
     // Get specific user
     server.get("/api/users/{id}", this::getUser);
 
+    // Delete specific user
+    server.delete("/api/users/{id}", acceptsChanges ? this::deleteUser : this::refuseChange);
+
     // List users, filtered using query parameters
     server.get("/api/users", this::getUsers);
+
+    // Add new user
+    server.post("/api/users", acceptsChanges ? this::addNewUser : this::refuseChange);
   }
 }
@@ -2,14 +2,29 @@ package umm3601.user;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.function.Predicate;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.ApproxSettings;
+import umm3601.BatchResult;
+import umm3601.ChangeEvent;
+import umm3601.ChangeFeed;
+import umm3601.DatasetStats;
+import umm3601.Estimate;
+import umm3601.Footprint;
+import umm3601.GroupCounts;
+import umm3601.Ids;
+import umm3601.QueryParams;
+import umm3601.StorageBackend;
+import umm3601.cluster.Partitioning;
+import umm3601.jfr.DataLoadEvent;
+import umm3601.jfr.QueryEvent;
 
 /**
  * A fake "userDatabase" of user info
@@ -18,12 +33,141 @@ import io.javalin.http.BadRequestResponse;
  * to instead just read a bunch of user data from a specified JSON file, and
  * then provide various database-like methods that allow the `UserController` to
  * "query" the "userDatabase".
+ * <p>
+ * The users themselves are kept in a `UserRepository`. Which one is chosen by
+ * the `StorageBackend`, so the same server can keep its users in a plain
+ * array, in memory with indexes, or in an embedded SQL database.
  */
 public class UserDatabase {
 
-  private User[] allUsers;
+  // The fields `countUsers` groups by if the request doesn't say.
+  private static final List<String> DEFAULT_GROUPS = List.of("company", "role", "age");
+
+  // The default width (in years) of the age groups in `countUsers`.
+  private static final int DEFAULT_AGE_BUCKET = 10;
+
+  // The fields whose number of distinct values `stats()` reports.
+  private static final List<String> CARDINALITY_FIELDS = List.of("company", "role");
+
+  // Where the users are actually kept.
+  private final UserRepository repository;
+
+  // The changes made to the users, for clients following them with SSE.
+  private final ChangeFeed<User> changes = new ChangeFeed<>();
+
+  // What `approx=true` requests are answered from.
+  private final UserSketches sketches;
 
+  // The number of changes made so far, and the last `stats()` (and the
+  // number of changes it was worked out after), so the stats are only
+  // worked out again after the users change.
+  private volatile long version;
+  private volatile CachedStats cachedStats;
+
+  private record CachedStats(long version, DatasetStats stats) {
+  }
+
+  /**
+   * Construct a "database" holding the users from the given JSON resource,
+   * in the configured `StorageBackend`.
+   * <p>
+   * If this server is one node of a cluster (see `Partitioning`), it only
+   * keeps its own part of the users.
+   *
+   * @param userDataFile the name of the resource holding the user data
+   * @throws IOException if the resource can't be found or read
+   */
   public UserDatabase(String userDataFile) throws IOException {
+    this(load(userDataFile, StorageBackend.configured()));
+  }
+
+  // Read the users and build their repository, recording how long each
+  // takes for Java Flight Recorder (see `DataLoadEvent`).
+  private static UserRepository load(String userDataFile, StorageBackend backend) throws IOException {
+    DataLoadEvent reading = new DataLoadEvent();
+    reading.begin();
+    User[] users = Partitioning.configured().select(readUsers(userDataFile), user -> user._id, User[]::new);
+    reading.end();
+    if (reading.shouldCommit()) {
+      reading.describe("users", DataLoadEvent.READ, userDataFile, users.length);
+      reading.commit();
+    }
+
+    DataLoadEvent building = new DataLoadEvent();
+    building.begin();
+    UserRepository repository = createRepository(backend, users);
+    building.end();
+    if (building.shouldCommit()) {
+      building.describe("users", DataLoadEvent.BUILD, backend.name(), users.length);
+      building.commit();
+    }
+    return repository;
+  }
+
+  /**
+   * Construct a "database" directly from an array of users. This is handy for
+   * tests and benchmarks that want to build (possibly very large) synthetic
+   * datasets without going through a JSON file.
+   *
+   * @param users the users to store in the database
+   */
+  public UserDatabase(User[] users) {
+    this(new IndexedUserRepository(users));
+  }
+
+  /**
+   * Construct a "database" that keeps its users in the given repository,
+   * with the configured `ApproxSettings`.
+   *
+   * @param repository where to keep the users
+   */
+  public UserDatabase(UserRepository repository) {
+    this(repository, ApproxSettings.configured());
+  }
+
+  /**
+   * Construct a "database" that keeps its users in the given repository.
+   * <p>
+   * This looks at every user once, one at a time (see
+   * `UserRepository.forEach()`), to build the sketches and sample used
+   * to estimate counts (see `estimateUsers()`).
+   *
+   * @param repository where to keep the users
+   * @param approx     how accurate estimated counts should be
+   */
+  public UserDatabase(UserRepository repository, ApproxSettings approx) {
+    this.repository = repository;
+    this.sketches = new UserSketches(approx, repository);
+  }
+
+  /**
+   * Build the kind of `UserRepository` used by the given backend.
+   *
+   * @param backend the kind of storage to use
+   * @param users   the users to start with
+   * @return a repository holding (at least) those users
+   */
+  public static UserRepository createRepository(StorageBackend backend, User[] users) {
+    switch (backend) {
+      case ARRAY:
+        return new ArrayUserRepository(users);
+      case JDBC:
+        return new JdbcUserRepository(StorageBackend.jdbcUrl("users"), users);
+      default:
+        // There's no memory-mapped user repository, so `MAPPED` keeps the
+        // users indexed in memory.
+        return new IndexedUserRepository(users);
+    }
+  }
+
+  /**
+   * Read an array of users from the given JSON resource.
+   *
+   * @param userDataFile the name of the resource holding the user data
+   * @return the users stored in that resource
+   * @throws IOException if the resource can't be found or read
+   */
+  public static User[] readUsers(String userDataFile) throws IOException {
     // The `.getResourceAsStream` method searches for the given resource in
     // the classpath, and returns `null` if it isn't found. We want to throw
     // an IOException if the data file isn't found, so we need to check for
@@ -32,19 +176,118 @@ public class UserDatabase {
     if (resourceAsStream == null) {
       throw new IOException("Could not find " + userDataFile);
     }
-    InputStreamReader reader = new InputStreamReader(resourceAsStream);
-    // A Jackson JSON mapper knows how to parse JSON into sensible 'User'
-    // objects.
-    ObjectMapper objectMapper = new ObjectMapper();
-    // Read our user data file into an array of User objects.
-    allUsers = objectMapper.readValue(reader, User[].class);
-
-    // Close the `reader` to free resources.
-    reader.close();
+    // Read our user data file into an array of `User` objects. This uses
+    // our own reader (see `UserJson`) rather than a Jackson `ObjectMapper`,
+    // which would have to work out how to build `User`s by reflection, and
+    // so made starting the server noticeably slower. The reader closes the
+    // stream when it's done.
+    User[] users = UserJson.readArray(resourceAsStream);
+    return users;
   }
 
   public int size() {
-    return allUsers.length;
+    return repository.size();
+  }
+
+  /**
+   * @return the number of changes made to the users so far, which
+   *         changes whenever they do (so, e.g., it can be part of the key of
+   *         a cached answer)
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * Report how many users there are, how many distinct values some of
+   * their fields have, and how much memory the repository's structures
+   * (and the sketches behind `estimateUsers()`) take (see `DatasetStats`),
+   * for `/api/admin/stats`.
+   * <p>
+   * Counting the distinct values can mean looking at every user, so the
+   * stats are kept until the users change. That makes this cheap enough to
+   * call every few seconds: if nothing has changed, nothing is worked out
+   * again.
+   *
+   * @return the stats
+   */
+  public DatasetStats stats() {
+    // If a change happens while we're working, we keep the stats under the
+    // version from before it, so they're worked out again next time.
+    long current = version;
+    CachedStats cached = cachedStats;
+    if (cached == null || cached.version() != current) {
+      Map<String, Integer> cardinalities = new LinkedHashMap<>();
+      for (String field : CARDINALITY_FIELDS) {
+        cardinalities.put(field, repository.countBy(field, UserQuery.ALL).size());
+      }
+      List<Footprint> structures = new ArrayList<>(repository.footprint());
+      structures.addAll(sketches.footprint());
+      cached = new CachedStats(current, DatasetStats.of(repository.size(), cardinalities, structures, Map.of()));
+      cachedStats = cached;
+    }
+    return cached.stats().withCache("changeFeed", changes.bufferedCount());
+  }
+
+  /**
+   * @return the feed of changes made to the users
+   */
+  public ChangeFeed<User> changes() {
+    return changes;
+  }
+
+  /**
+   * Add a user. If it doesn't have an `_id`, it is given a new one.
+   *
+   * @param user the user to add
+   * @return the `_id` of the new user
+   * @throws BadRequestResponse if there is already a user with that `_id`
+   */
+  public synchronized String addUser(User user) {
+    if (user._id == null) {
+      user._id = Ids.newId();
+    } else if (repository.get(user._id) != null) {
+      throw new BadRequestResponse("There is already a user with id " + user._id);
+    }
+    // The change is only made once the change feed's listeners (e.g., the
+    // replication log) have taken it.
+    changes.publish(ChangeEvent.CREATED, user._id, user, () -> {
+      repository.add(user);
+      sketches.add(user);
+      version++;
+    });
+    return user._id;
+  }
+
+  /**
+   * Remove the user with the given ID, if there is one.
+   *
+   * @param id the ID of the user to remove
+   * @return the user that was removed, or `null` if there was no user with
+   *         that ID
+   */
+  public synchronized User deleteUser(String id) {
+    User removed = repository.get(id);
+    if (removed != null) {
+      changes.publish(ChangeEvent.DELETED, id, removed, () -> {
+        repository.remove(id);
+        sketches.remove(removed);
+        version++;
+      });
+    }
+    return removed;
+  }
+
+  /**
+   * Build a test for which changes to users a client following the change
+   * feed wants to see, from the same `age`, `ageMin`, `ageMax`, `company`,
+   * and `role` query parameters used by `listUserPage()`.
+   *
+   * @param queryParams map of key-value pairs for the subscription
+   * @return a test that accepts just the users matching all of the filters
+   */
+  public Predicate<User> changeFilter(Map<String, List<String>> queryParams) {
+    return UserQuery.fromParams(queryParams)::matches;
   }
 
   /**
@@ -55,41 +298,129 @@ public class UserDatabase {
    * @return the user with the given ID, or null if there is no user with that ID
    */
   public User getUser(String id) {
-    return Arrays.stream(allUsers).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    return repository.get(id);
+  }
+
+  /**
+   * Get all the users with the given IDs.
+   *
+   * @param ids the IDs of the desired users
+   * @return the users that were found, and the IDs that weren't
+   */
+  public BatchResult<User> getUsers(Collection<String> ids) {
+    return BatchResult.lookup(ids, this::getUser);
   }
 
   /**
    * Get an array of all the users satisfying the queries in the params.
+   * <p>
+   * This is just the `users` part of `listUserPage()`; see there for the
+   * supported query parameters.
    *
    * @param queryParams map of key-value pairs for the query
    * @return an array of all the users matching the given criteria
    */
   public User[] listUsers(Map<String, List<String>> queryParams) {
-    User[] filteredUsers = allUsers;
-
-    // Filter age if defined
-    if (queryParams.containsKey("age")) {
-      String ageParam = queryParams.get("age").get(0);
-      try {
-        int targetAge = Integer.parseInt(ageParam);
-        filteredUsers = filterUsersByAge(filteredUsers, targetAge);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
-      }
-    }
-    // Filter company if defined
-    if (queryParams.containsKey("company")) {
-      String targetCompany = queryParams.get("company").get(0);
-      filteredUsers = filterUsersByCompany(filteredUsers, targetCompany);
+    return listUserPage(queryParams).users();
+  }
+
+  /**
+   * Get a page of the users satisfying the queries in the params.
+   * <p>
+   * Supported query parameters are:
+   * <ul>
+   * <li>`age`: exact age</li>
+   * <li>`ageMin` and `ageMax`: inclusive bounds on the age (either may be
+   * given without the other)</li>
+   * <li>`company`: one or more companies, e.g., `company=OHMNET,NIQUENT`</li>
+   * <li>`role`: one or more roles, e.g., `role=admin,editor`</li>
+   * <li>`orderBy`: one of `name`, `age`, `company`, or `role`</li>
+   * <li>`limit`: the largest number of users to return</li>
+   * <li>`offset`: the number of matching users to skip first</li>
+   * <li>`cursor`: the `nextCursor` from a previous (ordered) page</li>
+   * </ul>
+   * A cursor holds the `(key, _id)` of the last user on the previous page,
+   * so the repository can start the next page right after it instead of
+   * skipping over every earlier user the way `offset` has to.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the users on the requested page, and a cursor for the next page
+   */
+  public UserPage listUserPage(Map<String, List<String>> queryParams) {
+    QueryEvent event = new QueryEvent();
+    event.begin();
+    UserQuery query = UserQuery.fromParams(queryParams);
+    User[] users = repository.find(query);
+    event.end();
+    if (event.shouldCommit()) {
+      event.describe("users", queryParams, repository.explain(query), users.length);
+      event.commit();
     }
-    // Filter by role
-    if (queryParams.containsKey("role")) {
-      String targetRole = queryParams.get("role").get(0);
-      filteredUsers = filterUsersByRole(filteredUsers, targetRole);
+    return new UserPage(users, query.nextCursor(users));
+  }
+
+  /**
+   * Estimate how many users match the filters in the query params, and
+   * pick a random few of them, for an `approx=true` request.
+   * <p>
+   * This takes the same filters as `listUserPage()`, but instead of
+   * looking at every user, it adds up counts from a count-min sketch, or
+   * works them out from a random sample, so it takes about as long however
+   * many users there are. See `Estimate` for what's returned, and
+   * `ApproxSettings` for how accurate it is.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the estimated count, its bounds, and some matching users
+   */
+  public Estimate<User> estimateUsers(Map<String, List<String>> queryParams) {
+    return sketches.estimate(UserQuery.fromParams(queryParams), repository.size());
+  }
+
+  /**
+   * Count the users matching the filters in the query params, grouped by
+   * one or more fields.
+   * <p>
+   * This takes the same filters as `listUserPage()`, plus:
+   * <ul>
+   * <li>`groupBy`: the fields to group by, any of `company`, `role`, and
+   * `age` (the default is all three)</li>
+   * <li>`ageBucket`: how many years wide each age group is (default 10)</li>
+   * </ul>
+   * The counting is done by the repository, so no users are copied.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the number of matching users, and the counts for each group
+   */
+  public GroupCounts countUsers(Map<String, List<String>> queryParams) {
+    UserQuery query = UserQuery.fromParams(queryParams).filtersOnly();
+
+    List<String> groupBy = queryParams.containsKey("groupBy")
+        ? QueryParams.splitValues(queryParams.get("groupBy"))
+        : DEFAULT_GROUPS;
+    int ageBucket = DEFAULT_AGE_BUCKET;
+    if (queryParams.containsKey("ageBucket")) {
+      String ageBucketParam = queryParams.get("ageBucket").get(0);
+      ageBucket = UserQuery.parseInteger("ageBucket", ageBucketParam);
+      if (ageBucket <= 0) {
+        throw new BadRequestResponse("Specified ageBucket '" + ageBucketParam + "' must be positive");
+      }
     }
-    // Process other query parameters here...
 
-    return filteredUsers;
+    Map<String, Map<String, Integer>> groups = new LinkedHashMap<>();
+    for (String group : groupBy) {
+      switch (group) {
+        case "company":
+        case "role":
+          groups.put(group, repository.countBy(group, query));
+          break;
+        case "age":
+          groups.put(group, repository.countByAgeBucket(ageBucket, query));
+          break;
+        default:
+          throw new BadRequestResponse("Specified groupBy '" + group + "' is not a user attribute that can be grouped");
+      }
+    }
+    return new GroupCounts(repository.count(query), groups);
   }
 
   /**
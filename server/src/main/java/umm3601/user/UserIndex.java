@@ -0,0 +1,472 @@
+package umm3601.user;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Function;
+
+import umm3601.ColumnScan;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.PostingLists;
+
+/**
+ * Read-only indexes over an array of `User`s.
+ * <p>
+ * Users are identified by their "row", i.e., their position in the array the
+ * index was built from. Every lookup returns the matching rows as a `BitSet`,
+ * so several predicates can be combined with `and()`/`or()` and only the
+ * final result has to be turned back into `User` objects.
+ * <p>
+ * The indexes are:
+ * <ul>
+ * <li>a sorted `int[]` of ages (plus the row each age came from), so an age
+ * range is just two binary searches; when the range holds many of the
+ * users, the ages in row order are scanned with a `ColumnScan` instead;</li>
+ * <li>`PostingLists` for company and role, i.e., a dictionary from each
+ * distinct value to the (ascending) rows that have that value;</li>
+ * <li>the rows sorted by each of the `ORDERINGS`, so sorted (and paged)
+ * results don't need to sort anything per request, along with where each
+ * row comes in each ordering.</li>
+ * </ul>
+ */
+final class UserIndex {
+
+  /**
+   * The orderings users can be sorted by (via the `orderBy` query parameter).
+   * Ties are always broken by `_id`, so each ordering is total. That is what
+   * lets a `(key, _id)` cursor say exactly where the previous page stopped.
+   */
+  static final Map<String, Comparator<User>> ORDERINGS = Map.of(
+      "name", Comparator.comparing((User user) -> user.name).thenComparing(user -> user._id),
+      "age", Comparator.comparingInt((User user) -> user.age).thenComparing(user -> user._id),
+      "company", Comparator.comparing((User user) -> user.company).thenComparing(user -> user._id),
+      "role", Comparator.comparing((User user) -> user.role).thenComparing(user -> user._id));
+
+  private static final ColumnScan SCAN = ColumnScan.configured();
+
+  private final User[] users;
+  private final int size;
+
+  // The primary key index, from each user's `_id` to its row.
+  private final Map<String, Integer> rowById;
+
+  // `rowsInOrder.get(orderBy)` lists every row, sorted by that ordering, and
+  // `positionsInOrder.get(orderBy)[row]` is where that row comes in it.
+  private final Map<String, int[]> rowsInOrder;
+  private final Map<String, int[]> positionsInOrder;
+
+  // `sortedAges[i]` is the age of user `rowsByAge[i]`, and `sortedAges` is in
+  // ascending order.
+  private final int[] sortedAges;
+  private final int[] rowsByAge;
+
+  // `ages[row]` is the age of that user, for scanning.
+  private final int[] ages;
+
+  private final PostingLists companyPostings;
+  private final PostingLists rolePostings;
+
+  private final List<Footprint> footprint;
+
+  /**
+   * Build the indexes for the given users.
+   *
+   * @param users the users to index; the index refers to them by position
+   */
+  UserIndex(User[] users) {
+    this.users = users;
+    this.size = users.length;
+
+    // We time building each index, for `footprint()`.
+    long started = System.nanoTime();
+    rowById = new HashMap<>();
+    for (int row = 0; row < size; row++) {
+      rowById.put(users[row]._id, row);
+    }
+    long idsBuilt = System.nanoTime();
+
+    rowsInOrder = new HashMap<>();
+    positionsInOrder = new HashMap<>();
+    int[] idRanks = ranks(users, user -> user._id);
+    for (String orderBy : ORDERINGS.keySet()) {
+      int[] rows = sortRows(sortKeyRanks(users, orderBy), idRanks);
+      int[] positions = new int[size];
+      for (int position = 0; position < size; position++) {
+        positions[rows[position]] = position;
+      }
+      rowsInOrder.put(orderBy, rows);
+      positionsInOrder.put(orderBy, positions);
+    }
+    long orderingsBuilt = System.nanoTime();
+
+    // The age ordering doubles as the age index.
+    rowsByAge = rowsInOrder.get("age");
+    sortedAges = new int[size];
+    ages = new int[size];
+    for (int i = 0; i < size; i++) {
+      sortedAges[i] = users[rowsByAge[i]].age;
+      ages[i] = users[i].age;
+    }
+    long agesBuilt = System.nanoTime();
+
+    companyPostings = PostingLists.build(users, user -> user.company);
+    long companiesBuilt = System.nanoTime();
+    rolePostings = PostingLists.build(users, user -> user.role);
+    long rolesBuilt = System.nanoTime();
+
+    // The index never changes, so we can work out its footprint now. (The
+    // age index shares `rowsByAge` with the orderings, so that's counted
+    // there.)
+    footprint = List.of(
+        UserSizes.users(users),
+        Footprint.heap("idIndex", size, MemoryEstimate.hashMap(size, MemoryEstimate.INTEGER), idsBuilt - started),
+        Footprint.heap("orderings", rowsInOrder.size(), 2 * MemoryEstimate.hashMap(rowsInOrder.size(), 0)
+            + 2 * rowsInOrder.size() * MemoryEstimate.array(size, Integer.BYTES), orderingsBuilt - idsBuilt),
+        Footprint.heap("ageIndex", size, 2 * MemoryEstimate.array(size, Integer.BYTES), agesBuilt - orderingsBuilt),
+        Footprint.heap("companyPostings", companyPostings.values().size(),
+            companyPostings.estimatedBytes(), companiesBuilt - agesBuilt),
+        Footprint.heap("rolePostings", rolePostings.values().size(),
+            rolePostings.estimatedBytes(), rolesBuilt - companiesBuilt));
+  }
+
+  /**
+   * @return the size of the users and of each of the indexes, and how long
+   *         each index took to build
+   */
+  List<Footprint> footprint() {
+    return footprint;
+  }
+
+  /**
+   * @return the number of users covered by this index
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the users covered by this index, which must not be modified
+   */
+  User[] users() {
+    return users;
+  }
+
+  /**
+   * Find the row of the user with the given ID.
+   *
+   * @param id the ID to look for
+   * @return the user's row, or -1 if there's no user with that ID
+   */
+  int rowOf(String id) {
+    return rowById.getOrDefault(id, -1);
+  }
+
+  /**
+   * Get the rows of all the users whose age is in the given (inclusive) range.
+   *
+   * @param minAge the smallest age to include
+   * @param maxAge the largest age to include
+   * @return the matching rows
+   */
+  BitSet ageBetween(int minAge, int maxAge) {
+    BitSet rows = new BitSet(size);
+    if (minAge > maxAge) {
+      return rows;
+    }
+    int from = firstIndexAtLeast(sortedAges, minAge);
+    int to = firstIndexAbove(sortedAges, maxAge);
+    if (SCAN.worthScanning(to - from, size)) {
+      return SCAN.between(ages, minAge, maxAge);
+    }
+    for (int i = from; i < to; i++) {
+      rows.set(rowsByAge[i]);
+    }
+    return rows;
+  }
+
+  /**
+   * Get the rows of all the users who work for any of the given companies.
+   *
+   * @param companies the companies to look for
+   * @return the matching rows
+   */
+  BitSet companyIn(Collection<String> companies) {
+    return companyPostings.rowsWithAny(companies);
+  }
+
+  /**
+   * Get the rows of all the users who have any of the given roles.
+   *
+   * @param roles the roles to look for
+   * @return the matching rows
+   */
+  BitSet roleIn(Collection<String> roles) {
+    return rolePostings.rowsWithAny(roles);
+  }
+
+  /**
+   * Count the users at each company.
+   *
+   * @param filter the rows to count, or `null` to count every user
+   * @return the number of (matching) users at each company
+   */
+  SortedMap<String, Integer> countByCompany(BitSet filter) {
+    return companyPostings.counts(filter);
+  }
+
+  /**
+   * Count the users with each role.
+   *
+   * @param filter the rows to count, or `null` to count every user
+   * @return the number of (matching) users with each role
+   */
+  SortedMap<String, Integer> countByRole(BitSet filter) {
+    return rolePostings.counts(filter);
+  }
+
+  /**
+   * Count the users in each age "bucket", where the buckets are `width`
+   * years wide and start at multiples of `width`, e.g., "20-29", "30-39",
+   * etc. for a width of 10.
+   * <p>
+   * Since the ages are sorted, each bucket is a contiguous run of
+   * `sortedAges`, found with a binary search. Without a filter the count is
+   * just the length of that run.
+   *
+   * @param width  the number of years in each bucket
+   * @param filter the rows to count, or `null` to count every user
+   * @return the number of (matching) users in each non-empty bucket, in
+   *         increasing order of age
+   */
+  Map<String, Integer> countByAgeBucket(int width, BitSet filter) {
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    int position = 0;
+    while (position < size) {
+      long low = Math.floorDiv((long) sortedAges[position], (long) width) * width;
+      long high = low + width - 1;
+      int end = high >= Integer.MAX_VALUE ? size : firstIndexAbove(sortedAges, (int) high);
+      int count = end - position;
+      if (filter != null) {
+        count = 0;
+        for (int i = position; i < end; i++) {
+          if (filter.get(rowsByAge[i])) {
+            count++;
+          }
+        }
+      }
+      if (count > 0) {
+        counts.put(low + "-" + high, count);
+      }
+      position = end;
+    }
+    return counts;
+  }
+
+  /**
+   * Get every row, sorted by the given ordering.
+   *
+   * @param orderBy the name of one of the `ORDERINGS`
+   * @return the sorted rows, or `null` if there is no such ordering
+   */
+  int[] rowsInOrder(String orderBy) {
+    return rowsInOrder.get(orderBy);
+  }
+
+  /**
+   * Find where some rows come in an ordering, e.g., so a sparse filter's
+   * few matching rows can be put in order without walking through all the
+   * rows that don't match.
+   *
+   * @param orderBy the name of one of the `ORDERINGS`
+   * @param rows    the rows to look for
+   * @param from    the first position wanted
+   * @return the positions of those rows in `rowsInOrder(orderBy)` that are
+   *         at least `from`, in increasing order
+   */
+  int[] positionsOf(String orderBy, BitSet rows, int from) {
+    int[] positionOf = positionsInOrder.get(orderBy);
+    int[] positions = new int[rows.cardinality()];
+    int count = 0;
+    for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+      if (positionOf[row] >= from) {
+        positions[count++] = positionOf[row];
+      }
+    }
+    Arrays.sort(positions, 0, count);
+    return count == positions.length ? positions : Arrays.copyOf(positions, count);
+  }
+
+  /**
+   * Find where a page that starts just after `probe` begins, i.e., the first
+   * position in `rowsInOrder(orderBy)` whose user comes strictly after
+   * `probe` in that ordering. The probe doesn't have to be in the database,
+   * so a cursor still works if the user it came from has since gone away.
+   *
+   * @param orderBy the name of one of the `ORDERINGS`
+   * @param probe   a user holding the sort key and `_id` to start after
+   * @return the first position after `probe`
+   */
+  int positionAfter(String orderBy, User probe) {
+    Comparator<User> ordering = ORDERINGS.get(orderBy);
+    int[] rows = rowsInOrder.get(orderBy);
+    int low = 0;
+    int high = rows.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ordering.compare(users[rows[mid]], probe) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Group exact age counts into age buckets, the same way
+   * `countByAgeBucket()` does. This is for repositories that can count the
+   * users of each age, but don't have an index sorted by age.
+   *
+   * @param countsByAge the number of users of each age
+   * @param width       the number of years in each bucket
+   * @return the number of users in each non-empty bucket, in increasing
+   *         order of age
+   */
+  static Map<String, Integer> bucketAges(SortedMap<Integer, Integer> countsByAge, int width) {
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Integer> entry : countsByAge.entrySet()) {
+      long low = Math.floorDiv((long) entry.getKey(), (long) width) * width;
+      long high = low + width - 1;
+      counts.merge(low + "-" + high, entry.getValue(), Integer::sum);
+    }
+    return counts;
+  }
+
+  /**
+   * Copy an array of users, leaving one out.
+   *
+   * @param users the users
+   * @param row   the position of the user to leave out
+   * @return a new array with every user except `users[row]`
+   */
+  static User[] without(User[] users, int row) {
+    User[] updated = new User[users.length - 1];
+    System.arraycopy(users, 0, updated, 0, row);
+    System.arraycopy(users, row + 1, updated, row, users.length - row - 1);
+    return updated;
+  }
+
+  // The index of the first element of `sorted` that is `>= target`, or
+  // `sorted.length` if there isn't one.
+  private static int firstIndexAtLeast(int[] sorted, int target) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // The index of the first element of `sorted` that is `> target`, or
+  // `sorted.length` if there isn't one.
+  private static int firstIndexAbove(int[] sorted, int target) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] <= target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // Sort the rows by a key, breaking ties by `_id` (like `ORDERINGS`), given
+  // the rank of each row's key and `_id`. Each row becomes a `long` holding
+  // the two ranks, so sorting is a primitive sort of the `long`s, rather than
+  // sorting boxed rows with a comparator that looks up two users for every
+  // comparison. (This assumes the `_id`s are unique, which `rowById` does
+  // too.)
+  private static int[] sortRows(int[] keyRanks, int[] idRanks) {
+    long[] packed = new long[keyRanks.length];
+    int[] rowByIdRank = new int[idRanks.length];
+    for (int row = 0; row < packed.length; row++) {
+      packed[row] = ((long) keyRanks[row] << Integer.SIZE) | idRanks[row];
+      rowByIdRank[idRanks[row]] = row;
+    }
+    Arrays.sort(packed);
+    int[] rows = new int[packed.length];
+    for (int i = 0; i < packed.length; i++) {
+      rows[i] = rowByIdRank[(int) packed[i]];
+    }
+    return rows;
+  }
+
+  // The rank of each row's key for one of the `ORDERINGS`.
+  private static int[] sortKeyRanks(User[] users, String orderBy) {
+    switch (orderBy) {
+      case "name":
+        return ranks(users, user -> user.name);
+      case "age":
+        return ranks(Arrays.stream(users).mapToInt(user -> user.age).toArray());
+      case "company":
+        return ranks(users, user -> user.company);
+      case "role":
+        return ranks(users, user -> user.role);
+      default:
+        throw new IllegalArgumentException("Users can't be sorted by " + orderBy);
+    }
+  }
+
+  // `ranks[row]` is where that row's value comes among the distinct values,
+  // in increasing order, so rows with equal values have equal ranks.
+  private static int[] ranks(User[] users, Function<User, String> field) {
+    String[] values = new String[users.length];
+    for (int row = 0; row < users.length; row++) {
+      values[row] = field.apply(users[row]);
+    }
+    String[] distinct = values.clone();
+    Arrays.sort(distinct);
+    int count = 0;
+    for (int i = 0; i < distinct.length; i++) {
+      if (count == 0 || !distinct[i].equals(distinct[count - 1])) {
+        distinct[count++] = distinct[i];
+      }
+    }
+    int[] ranks = new int[values.length];
+    for (int row = 0; row < values.length; row++) {
+      ranks[row] = Arrays.binarySearch(distinct, 0, count, values[row]);
+    }
+    return ranks;
+  }
+
+  private static int[] ranks(int[] values) {
+    int[] distinct = values.clone();
+    Arrays.sort(distinct);
+    int count = 0;
+    for (int i = 0; i < distinct.length; i++) {
+      if (count == 0 || distinct[i] != distinct[count - 1]) {
+        distinct[count++] = distinct[i];
+      }
+    }
+    int[] ranks = new int[values.length];
+    for (int row = 0; row < values.length; row++) {
+      ranks[row] = Arrays.binarySearch(distinct, 0, count, values[row]);
+    }
+    return ranks;
+  }
+}
@@ -0,0 +1,121 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import umm3601.JsonWriter;
+
+/**
+ * Writes a `User` as JSON for `FastJsonMapper`, with the same properties in
+ * the same order as Jackson would use, and reads the users in our data files.
+ * <p>
+ * Reading with Jackson's streaming parser, rather than having an
+ * `ObjectMapper` work out how to build a `User` by reflection, means
+ * starting the server doesn't load (and, the first time through, run in
+ * the interpreter) all of Jackson's data binding machinery.
+ */
+public final class UserJson {
+
+  private static final byte[] ID = JsonWriter.name("_id", false);
+  private static final byte[] NAME = JsonWriter.name("name", true);
+  private static final byte[] AGE = JsonWriter.name("age", true);
+  private static final byte[] COMPANY = JsonWriter.name("company", true);
+  private static final byte[] EMAIL = JsonWriter.name("email", true);
+  private static final byte[] AVATAR = JsonWriter.name("avatar", true);
+  private static final byte[] ROLE = JsonWriter.name("role", true);
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private UserJson() {
+  }
+
+  /**
+   * @param out  the writer to write to
+   * @param user the user to write
+   */
+  public static void write(JsonWriter out, User user) {
+    out.raw((byte) '{');
+    out.raw(ID);
+    out.string(user._id);
+    out.raw(NAME);
+    out.string(user.name);
+    out.raw(AGE);
+    out.number(user.age);
+    out.raw(COMPANY);
+    out.string(user.company);
+    out.raw(EMAIL);
+    out.string(user.email);
+    out.raw(AVATAR);
+    out.string(user.avatar);
+    out.raw(ROLE);
+    out.string(user.role);
+    out.raw((byte) '}');
+  }
+
+  /**
+   * Read a JSON array of users, as Jackson would with
+   * `readValue(in, User[].class)` (including refusing properties a
+   * `User` doesn't have).
+   *
+   * @param in the JSON to read, which is closed afterwards
+   * @return the users
+   * @throws IOException if the JSON can't be read, or isn't an array of users
+   */
+  public static User[] readArray(InputStream in) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected an array of users");
+      }
+      List<User> users = new ArrayList<>();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        users.add(read(parser));
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected a user");
+      }
+      return users.toArray(new User[0]);
+    }
+  }
+
+  private static User read(JsonParser parser) throws IOException {
+    User user = new User();
+    for (String name = parser.nextFieldName(); name != null; name = parser.nextFieldName()) {
+      if (!parser.nextToken().isScalarValue()) {
+        throw new JsonParseException(parser, "Expected a value for the user's " + name);
+      }
+      switch (name) {
+        case "_id":
+          user._id = parser.getValueAsString();
+          break;
+        case "name":
+          user.name = parser.getValueAsString();
+          break;
+        case "age":
+          user.age = parser.getIntValue();
+          break;
+        case "company":
+          user.company = parser.getValueAsString();
+          break;
+        case "email":
+          user.email = parser.getValueAsString();
+          break;
+        case "avatar":
+          user.avatar = parser.getValueAsString();
+          break;
+        case "role":
+          user.role = parser.getValueAsString();
+          break;
+        default:
+          throw new JsonParseException(parser, "Unrecognized user property \"" + name + "\"");
+      }
+    }
+    return user;
+  }
+}
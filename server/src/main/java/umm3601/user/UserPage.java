@@ -0,0 +1,11 @@
+package umm3601.user;
+
+/**
+ * One page of results from `UserDatabase.listUserPage`.
+ *
+ * @param users      the users on this page
+ * @param nextCursor an opaque cursor for fetching the page after this one, or
+ *                   `null` if there (definitely) isn't one
+ */
+public record UserPage(User[] users, String nextCursor) {
+}
@@ -0,0 +1,262 @@
+package umm3601.user;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.QueryParams;
+
+/**
+ * A query for users: which users to include, what order to put them in, and
+ * which page of them to return.
+ * <p>
+ * This is what `UserDatabase` hands to its `UserRepository`, so each kind of
+ * storage can "push down" as much of the query as it can (e.g., into an
+ * index, or a SQL `WHERE` clause) instead of the database filtering users
+ * after they've been fetched.
+ *
+ * @param minAge    the smallest age to include
+ * @param maxAge    the largest age to include
+ * @param companies only include users at one of these companies, or `null`
+ *                  for any company
+ * @param roles     only include users with one of these roles, or `null`
+ *                  for any role
+ * @param orderBy   the ordering to sort by (one of `UserIndex.ORDERINGS`),
+ *                  or `null` to keep the stored order
+ * @param after     only include users that come strictly after this one in
+ *                  the `orderBy` ordering (from a cursor), or `null` to
+ *                  start at the beginning
+ * @param offset    the number of matching users to skip
+ * @param limit     the largest number of users to return
+ */
+public record UserQuery(int minAge, int maxAge, Set<String> companies, Set<String> roles,
+    String orderBy, User after, int offset, int limit) {
+
+  /**
+   * A query for every user, in the stored order.
+   */
+  public static final UserQuery ALL = new UserQuery(
+      Integer.MIN_VALUE, Integer.MAX_VALUE, null, null, null, null, 0, Integer.MAX_VALUE);
+
+  // The number of newline separated parts in a decoded cursor.
+  private static final int CURSOR_PARTS = 3;
+
+  /**
+   * Build a query from the query parameters of a request, checking that
+   * they all make sense. See `UserDatabase.listUserPage()` for the
+   * parameters.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the query
+   * @throws BadRequestResponse if any of the parameters are illegal
+   */
+  public static UserQuery fromParams(Map<String, List<String>> queryParams) {
+    // `age` and the range are combined, so `age=25&ageMax=20` matches no one.
+    int minAge = Integer.MIN_VALUE;
+    int maxAge = Integer.MAX_VALUE;
+    if (queryParams.containsKey("age")) {
+      int targetAge = parseInteger("age", queryParams.get("age").get(0));
+      minAge = targetAge;
+      maxAge = targetAge;
+    }
+    if (queryParams.containsKey("ageMin")) {
+      minAge = Math.max(minAge, parseInteger("ageMin", queryParams.get("ageMin").get(0)));
+    }
+    if (queryParams.containsKey("ageMax")) {
+      maxAge = Math.min(maxAge, parseInteger("ageMax", queryParams.get("ageMax").get(0)));
+    }
+    Set<String> companies = queryParams.containsKey("company")
+        ? Set.copyOf(QueryParams.splitValues(queryParams.get("company")))
+        : null;
+    Set<String> roles = queryParams.containsKey("role")
+        ? Set.copyOf(QueryParams.splitValues(queryParams.get("role")))
+        : null;
+
+    String orderBy = queryParams.containsKey("orderBy") ? queryParams.get("orderBy").get(0) : null;
+    User after = null;
+    if (queryParams.containsKey("cursor")) {
+      String cursor = queryParams.get("cursor").get(0);
+      String[] cursorParts = decodeCursor(cursor);
+      if (orderBy == null) {
+        orderBy = cursorParts[0];
+      } else if (!orderBy.equals(cursorParts[0])) {
+        throw new BadRequestResponse("Specified cursor was not created for orderBy '" + orderBy + "'");
+      }
+      after = cursorProbe(cursor, cursorParts);
+    }
+    if (orderBy != null && !UserIndex.ORDERINGS.containsKey(orderBy)) {
+      throw new BadRequestResponse("Specified order '" + orderBy + "' is not an applicable user attribute");
+    }
+    int limit = queryParams.containsKey("limit")
+        ? parseCount("limit", queryParams.get("limit").get(0))
+        : Integer.MAX_VALUE;
+    int offset = queryParams.containsKey("offset")
+        ? parseCount("offset", queryParams.get("offset").get(0))
+        : 0;
+
+    return new UserQuery(minAge, maxAge, companies, roles, orderBy, after, offset, limit);
+  }
+
+  /**
+   * Check whether a user passes this query's filters. (This ignores the
+   * order, cursor, and paging, which aren't about any one user.)
+   *
+   * @param user the user to check
+   * @return `true` if the user should be included
+   */
+  public boolean matches(User user) {
+    return user.age >= minAge && user.age <= maxAge
+        && (companies == null || companies.contains(user.company))
+        && (roles == null || roles.contains(user.role));
+  }
+
+  /**
+   * Get the value of a field that users can be grouped by (other than age,
+   * which is grouped into buckets).
+   *
+   * @param user  the user
+   * @param field `company` or `role`
+   * @return the user's value for that field
+   */
+  static String groupValue(User user, String field) {
+    switch (field) {
+      case "company":
+        return user.company;
+      case "role":
+        return user.role;
+      default:
+        throw new IllegalArgumentException("Users can't be grouped by " + field);
+    }
+  }
+
+  /**
+   * @return `true` if this query has an age range that excludes some ages
+   */
+  public boolean hasAgeRange() {
+    return minAge != Integer.MIN_VALUE || maxAge != Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return a query with the same filters, but no order or paging, e.g., for
+   *         counting the matching users
+   */
+  public UserQuery filtersOnly() {
+    return new UserQuery(minAge, maxAge, companies, roles, null, null, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the order users should be sorted into, or `null` if they should
+   *         stay in the stored order
+   */
+  public Comparator<User> ordering() {
+    return orderBy == null ? null : UserIndex.ORDERINGS.get(orderBy);
+  }
+
+  /**
+   * Get the cursor for the page after the given one.
+   *
+   * @param page the users returned for this query
+   * @return a cursor for the next page, or `null` if there definitely
+   *         isn't one (or the query isn't ordered, since cursors need an
+   *         order)
+   */
+  public String nextCursor(User[] page) {
+    // A full page means there may be more.
+    if (orderBy != null && page.length > 0 && page.length == limit) {
+      return encodeCursor(orderBy, page[page.length - 1]);
+    }
+    return null;
+  }
+
+  /**
+   * Parse a query parameter that has to be an integer.
+   *
+   * @param paramName the name of the parameter, for the error message
+   * @param param     the value of the parameter
+   * @return the value as an integer
+   * @throws BadRequestResponse if it isn't an integer
+   */
+  static int parseInteger(String paramName, String param) {
+    try {
+      return Integer.parseInt(param);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified " + paramName + " '" + param + "' can't be parsed to an integer");
+    }
+  }
+
+  private static int parseCount(String paramName, String countParam) {
+    int count = parseInteger(paramName, countParam);
+    if (count < 0) {
+      throw new BadRequestResponse("Specified " + paramName + " '" + countParam + "' can't be negative");
+    }
+    return count;
+  }
+
+  // A cursor is the URL-safe Base64 encoding of
+  // "<orderBy>\n<_id>\n<sort key>" for the last user on a page.
+  private static String encodeCursor(String orderBy, User last) {
+    String cursor = orderBy + "\n" + last._id + "\n" + cursorKey(orderBy, last);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String[] decodeCursor(String cursor) {
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      String[] parts = decoded.split("\n", CURSOR_PARTS);
+      if (parts.length == CURSOR_PARTS && UserIndex.ORDERINGS.containsKey(parts[0])) {
+        return parts;
+      }
+    } catch (IllegalArgumentException e) {
+      // Fall through to the `BadRequestResponse` below.
+    }
+    throw new BadRequestResponse("Specified cursor '" + cursor + "' is not a valid cursor");
+  }
+
+  private static String cursorKey(String orderBy, User user) {
+    switch (orderBy) {
+      case "name":
+        return user.name;
+      case "age":
+        return Integer.toString(user.age);
+      case "company":
+        return user.company;
+      default:
+        return user.role;
+    }
+  }
+
+  // Rebuild just enough of a `User` from a (decoded) cursor to compare it
+  // with other users in the cursor's ordering.
+  private static User cursorProbe(String cursor, String[] parts) {
+    User probe = new User();
+    probe._id = parts[1];
+    String key = parts[2];
+    switch (parts[0]) {
+      case "name":
+        probe.name = key;
+        break;
+      case "age":
+        probe.age = parseCursorAge(cursor, key);
+        break;
+      case "company":
+        probe.company = key;
+        break;
+      default:
+        probe.role = key;
+        break;
+    }
+    return probe;
+  }
+
+  private static int parseCursorAge(String cursor, String key) {
+    try {
+      return Integer.parseInt(key);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified cursor '" + cursor + "' is not a valid cursor");
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+import umm3601.Footprint;
+import umm3601.jfr.QueryPlan;
+
+/**
+ * Where `UserDatabase` keeps its users.
+ * <p>
+ * There are several implementations, with different trade-offs between
+ * speed, memory, and durability (see `StorageBackend`), and all of them have
+ * to pass the same tests (`UserRepositoryContract`). Each gets queries as
+ * `UserQuery` objects, so it can use whatever indexes it has to answer them.
+ * <p>
+ * Implementations must allow reads at the same time as other reads and
+ * writes. `UserDatabase` makes sure there's only one write at a time.
+ */
+public interface UserRepository {
+
+  /**
+   * @return the number of users
+   */
+  int size();
+
+  /**
+   * Get the user with the given ID.
+   *
+   * @param id the ID of the desired user
+   * @return the user with that ID, or `null` if there isn't one
+   */
+  User get(String id);
+
+  /**
+   * Get the page of users matching a query: the matching users, in the
+   * query's order, starting after its cursor, skipping `offset` of them, and
+   * up to its limit.
+   *
+   * @param query the query
+   * @return the matching users
+   */
+  User[] find(UserQuery query);
+
+  /**
+   * Count the users passing a query's filters (ignoring its paging).
+   *
+   * @param query the query
+   * @return the number of matching users
+   */
+  int count(UserQuery query);
+
+  /**
+   * Visit every user, in stored order, one at a time. Unlike
+   * `find(UserQuery.ALL)`, this never holds all the users at once, so a
+   * repository that keeps them out of the heap only reads one at a time.
+   * `UserDatabase` uses this to build its `approx=true` sketches.
+   *
+   * @param visitor called with each user
+   */
+  void forEach(Consumer<? super User> visitor);
+
+  /**
+   * Describe how `find()` answers a query, for the `QueryEvent`s recorded
+   * by Java Flight Recorder. This is only called while they're being
+   * recorded, so it can do some of the work of `find()` over again.
+   * <p>
+   * By default, every user is looked at.
+   *
+   * @param query the query
+   * @return which indexes are used, and how many users are looked at
+   */
+  default QueryPlan explain(UserQuery query) {
+    return QueryPlan.fullScan(size());
+  }
+
+  /**
+   * Describe how much memory the repository's data structures take, and
+   * how long its indexes took to build, for `/api/admin/stats`. Like
+   * `TodoRepository.footprint()`, this must be quick.
+   * <p>
+   * By default there's nothing to report (e.g., the SQL database keeps its
+   * users itself).
+   *
+   * @return the footprint of each of the repository's structures
+   */
+  default List<Footprint> footprint() {
+    return List.of();
+  }
+
+  /**
+   * Count the users passing a query's filters that have each value of a
+   * field.
+   *
+   * @param field `company` or `role`
+   * @param query the query
+   * @return the counts, sorted by value; values with no matching users are
+   *         left out
+   */
+  SortedMap<String, Integer> countBy(String field, UserQuery query);
+
+  /**
+   * Count the users passing a query's filters in each age "bucket", where
+   * the buckets are `width` years wide and start at multiples of `width`,
+   * e.g., "20-29", "30-39", etc. for a width of 10.
+   *
+   * @param width the number of years in each bucket
+   * @param query the query
+   * @return the number of matching users in each non-empty bucket, in
+   *         increasing order of age
+   */
+  Map<String, Integer> countByAgeBucket(int width, UserQuery query);
+
+  /**
+   * Add a user, which must have an `_id` that isn't already used.
+   *
+   * @param user the user to add
+   */
+  void add(User user);
+
+  /**
+   * Remove the user with the given ID.
+   *
+   * @param id the ID of the user to remove
+   * @return the user that was removed, or `null` if there wasn't one
+   */
+  User remove(String id);
+}
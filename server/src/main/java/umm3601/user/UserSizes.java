@@ -0,0 +1,42 @@
+package umm3601.user;
+
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+
+/**
+ * Estimates of how much heap users take (see `MemoryEstimate`), for the
+ * repositories' `footprint()`s.
+ */
+final class UserSizes {
+
+  // A `User` has six `String`s and an `int`.
+  private static final int USER_REFERENCES = 6;
+  private static final long USER = MemoryEstimate.object(USER_REFERENCES, Integer.BYTES);
+
+  private UserSizes() {
+  }
+
+  /**
+   * @param user a user
+   * @return the size of the user and its strings
+   */
+  static long of(User user) {
+    return USER
+        + MemoryEstimate.string(user._id)
+        + MemoryEstimate.string(user.name)
+        + MemoryEstimate.string(user.company)
+        + MemoryEstimate.string(user.email)
+        + MemoryEstimate.string(user.avatar)
+        + MemoryEstimate.string(user.role);
+  }
+
+  /**
+   * @param users an array of users
+   * @return the footprint of the array and (an estimate from a sample of)
+   *         the users in it
+   */
+  static Footprint users(User[] users) {
+    return Footprint.heap("users", users.length,
+        MemoryEstimate.referenceArray(users.length) + MemoryEstimate.sampled(users.length, row -> of(users[row])), 0);
+  }
+}
@@ -0,0 +1,216 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import umm3601.ApproxSettings;
+import umm3601.CountMinSketch;
+import umm3601.Estimate;
+import umm3601.Footprint;
+import umm3601.MemoryEstimate;
+import umm3601.Reservoir;
+
+/**
+ * The count-min sketches and random sample that answer `approx=true` user
+ * requests (see `Estimate`) without looking at every user.
+ * <p>
+ * There's a sketch for each combination of the `company`, `role`, and age
+ * filters (seven in all), counting the users with each combination of
+ * values. A query can ask for several companies, several roles, and a
+ * range of ages, so its count is the sum of the counts of every
+ * combination it covers, each of which can be too big by `epsilon` times
+ * the number of users. When there are so many combinations that the sum's
+ * error would be bigger than the sample's, the query is estimated from the
+ * sample instead; either way, the number of lookups is bounded.
+ * <p>
+ * `UserDatabase` builds this when it loads the users, and keeps it up to
+ * date as users are added and removed. Changes have to be made one at a
+ * time (the database's are `synchronized`), but estimates can be made at
+ * any time.
+ */
+final class UserSketches {
+
+  // The bits of a query's shape, one for each sketched filter.
+  private static final int COMPANY = 1;
+  private static final int ROLE = 2;
+  private static final int AGE = 4;
+  private static final int SHAPES = COMPANY | ROLE | AGE;
+
+  // The most sketch lookups one estimate may take.
+  private static final int MAX_TERMS = 1024;
+
+  // Used for the fields a sketch doesn't have.
+  private static final long[] NO_HASHES = new long[] { 0 };
+
+  private final ApproxSettings settings;
+
+  // The sketch for each combination of filters, indexed by its shape (so
+  // the first, for no filters at all, is never used).
+  private final CountMinSketch[] sketches = new CountMinSketch[SHAPES + 1];
+
+  private final Reservoir<User> sample;
+
+  // The youngest and oldest ages seen, so an age range can be narrowed to
+  // the ages users might actually have. (They aren't narrowed again when
+  // users are removed, which just means a few extra lookups.)
+  private volatile int minAge = Integer.MAX_VALUE;
+  private volatile int maxAge = Integer.MIN_VALUE;
+
+  // How long building the sketches and sample took.
+  private final long buildNanos;
+
+  /**
+   * @param settings how accurate the estimates should be
+   * @param users    the users to start with, which are read one at a time
+   */
+  UserSketches(ApproxSettings settings, UserRepository users) {
+    long start = System.nanoTime();
+    this.settings = settings;
+    for (int shape = 1; shape <= SHAPES; shape++) {
+      sketches[shape] = new CountMinSketch(settings.epsilon(), settings.delta());
+    }
+    this.sample = new Reservoir<>(settings.sampleSize(), new Random());
+    users.forEach(this::add);
+    this.buildNanos = System.nanoTime() - start;
+  }
+
+  /**
+   * Count a user that's been added.
+   *
+   * @param user the new user
+   */
+  void add(User user) {
+    count(user, 1);
+    minAge = Math.min(minAge, user.age);
+    maxAge = Math.max(maxAge, user.age);
+    sample.offer(user);
+  }
+
+  /**
+   * Stop counting a user that's been removed.
+   *
+   * @param user the removed user
+   */
+  void remove(User user) {
+    count(user, -1);
+    String id = user._id;
+    sample.remove(kept -> kept._id.equals(id));
+  }
+
+  private void count(User user, int change) {
+    long company = CountMinSketch.hash(user.company);
+    long role = CountMinSketch.hash(user.role);
+    for (int shape = 1; shape <= SHAPES; shape++) {
+      sketches[shape].add(key(shape, company, role, user.age), change);
+    }
+  }
+
+  // The key of a user (or part of a query) in the sketch for `shape`, made
+  // from just the fields in that shape.
+  private static long key(int shape, long company, long role, int age) {
+    long key = shape;
+    if ((shape & COMPANY) != 0) {
+      key = CountMinSketch.combine(key, company);
+    }
+    if ((shape & ROLE) != 0) {
+      key = CountMinSketch.combine(key, role);
+    }
+    if ((shape & AGE) != 0) {
+      key = CountMinSketch.combine(key, age);
+    }
+    return key;
+  }
+
+  private static long[] hashes(Set<String> values) {
+    if (values == null) {
+      return NO_HASHES;
+    }
+    long[] hashes = new long[values.size()];
+    int i = 0;
+    for (String value : values) {
+      hashes[i++] = CountMinSketch.hash(value);
+    }
+    return hashes;
+  }
+
+  /**
+   * Estimate how many users match a query, and pick a few of them.
+   *
+   * @param query the query
+   * @param total the number of users
+   * @return the estimate, with the sampled users that match (in the
+   *         query's order, up to its limit, but ignoring its cursor and
+   *         offset)
+   */
+  Estimate<User> estimate(UserQuery query, int total) {
+    List<User> kept = sample.snapshot();
+    List<User> matches = new ArrayList<>();
+    for (User user : kept) {
+      if (query.matches(user)) {
+        matches.add(user);
+      }
+    }
+    int matchCount = matches.size();
+    if (query.ordering() != null) {
+      matches.sort(query.ordering());
+    }
+    List<User> shown = matches.size() > query.limit() ? matches.subList(0, query.limit()) : matches;
+
+    int shape = (query.companies() == null ? 0 : COMPANY)
+        | (query.roles() == null ? 0 : ROLE)
+        | (query.hasAgeRange() ? AGE : 0);
+    if (shape == 0) {
+      return Estimate.exact(total, total, shown);
+    }
+    long[] companies = hashes(query.companies());
+    long[] roles = hashes(query.roles());
+    // Without an age filter, the age is left out of the key, so there's
+    // one "age" to look up.
+    int fromAge = (shape & AGE) == 0 ? 0 : Math.max(query.minAge(), minAge);
+    int toAge = (shape & AGE) == 0 ? 0 : Math.min(query.maxAge(), maxAge);
+    long terms = (long) companies.length * roles.length * Math.max(0, (long) toAge - fromAge + 1);
+    if (terms == 0) {
+      // No user can match (e.g., the age range is outside every user's).
+      return Estimate.exact(0, total, shown);
+    }
+    // The sample is exact if it holds every user (as it does for small
+    // datasets), and better than a sum of too many sketched counts.
+    if (kept.size() >= total || terms > MAX_TERMS
+        || terms * settings.epsilon() > Estimate.sampleError(Math.max(1, kept.size()), settings.delta())) {
+      return Estimate.fromSample(matchCount, kept.size(), total, total, settings.delta(), shown);
+    }
+
+    // The keys are all different, so in each row of the sketch their
+    // counters add up to no more than the row's count of the matching
+    // users plus `terms * epsilon * total`, except with probability 1/e,
+    // and the sum of the estimates is no more than any row's sum. So the
+    // whole sum has the same `delta` as a single estimate.
+    CountMinSketch sketch = sketches[shape];
+    long sum = 0;
+    for (long company : companies) {
+      for (long role : roles) {
+        for (int age = fromAge; age <= toAge; age++) {
+          sum += sketch.estimate(key(shape, company, role, age));
+        }
+      }
+    }
+    return Estimate.fromSketch(sum, (long) Math.ceil(terms * settings.epsilon() * total), total,
+        1 - settings.delta(), shown);
+  }
+
+  /**
+   * @return the footprint of the sketches, and of the sample (not counting
+   *         the users in it, which the in-memory repositories share)
+   */
+  List<Footprint> footprint() {
+    long sketchBytes = 0;
+    for (int shape = 1; shape <= SHAPES; shape++) {
+      sketchBytes += sketches[shape].estimatedBytes();
+    }
+    return List.of(
+        Footprint.heap("approxSketches", SHAPES, sketchBytes, buildNanos),
+        Footprint.heap("approxSample", sample.size(), MemoryEstimate.referenceArray(sample.capacity()), 0));
+  }
+}
@@ -0,0 +1,164 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.AdmissionController.Cost;
+import umm3601.AdmissionController.Limiter;
+import umm3601.AdmissionController.Settings;
+
+/**
+ * Tests for `AdmissionController`, using a mock `Context` like the
+ * controller tests do.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AdmissionControllerSpec {
+
+  @Mock
+  private Context ctx;
+
+  private Map<String, List<String>> queryParams;
+
+  @BeforeEach
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    queryParams = new HashMap<>();
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+  }
+
+  @Test
+  public void estimatesCostFromQueryShape() {
+    when(ctx.path()).thenReturn("/api/todos/58895985c1849992336c219b");
+    assertEquals(Cost.LIGHT, AdmissionController.estimateCost("todos", ctx));
+
+    when(ctx.path()).thenReturn("/api/todos");
+    assertEquals(Cost.HEAVY, AdmissionController.estimateCost("todos", ctx));
+    queryParams.put("owner", List.of("Fry"));
+    assertEquals(Cost.LIGHT, AdmissionController.estimateCost("todos", ctx));
+    queryParams.put("contains", List.of("tempor"));
+    assertEquals(Cost.HEAVY, AdmissionController.estimateCost("todos", ctx));
+
+    queryParams.clear();
+    when(ctx.path()).thenReturn("/api/users");
+    assertEquals(Cost.HEAVY, AdmissionController.estimateCost("users", ctx));
+    queryParams.put("orderBy", List.of("name"));
+    queryParams.put("limit", List.of("20"));
+    assertEquals(Cost.LIGHT, AdmissionController.estimateCost("users", ctx));
+
+    // Estimates are cheap, whatever the query.
+    queryParams.clear();
+    queryParams.put("approx", List.of("true"));
+    assertEquals(Cost.LIGHT, AdmissionController.estimateCost("users", ctx));
+    when(ctx.path()).thenReturn("/api/todos");
+    queryParams.put("contains", List.of("tempor"));
+    assertEquals(Cost.LIGHT, AdmissionController.estimateCost("todos", ctx));
+  }
+
+  @Test
+  public void rejectsRequestsWhenSaturated() {
+    AdmissionController admission = new AdmissionController(Map.of(
+        Cost.LIGHT, new Settings(1, 1, 1, 1000, 0),
+        Cost.HEAVY, new Settings(1, 1, 1, 1000, 0)));
+    when(ctx.path()).thenReturn("/api/users/588935f5c668650dc77df581");
+
+    admission.admit(ctx);
+    ArgumentCaptor<Object> permit = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).attribute(eq("admissionPermit"), permit.capture());
+
+    // The only light slot is taken, so the next request is turned away...
+    Assertions.assertThrows(ServiceUnavailableResponse.class, () -> admission.admit(ctx));
+    verify(ctx).header("Retry-After", "1");
+
+    // ...but a heavy request has its own limit, and so does a different
+    // collection.
+    when(ctx.path()).thenReturn("/api/users");
+    admission.admit(ctx);
+    when(ctx.path()).thenReturn("/api/todos/58895985c1849992336c219b");
+    admission.admit(ctx);
+
+    // Once the first request is done, there's room again.
+    when(ctx.attribute("admissionPermit")).thenReturn(permit.getAllValues().get(0));
+    admission.release(ctx);
+    when(ctx.path()).thenReturn("/api/users/588935f5c668650dc77df581");
+    admission.admit(ctx);
+  }
+
+  @Test
+  public void leavesOtherRequestsAlone() {
+    AdmissionController admission = new AdmissionController(Map.of(
+        Cost.LIGHT, new Settings(1, 1, 1, 1000, 0),
+        Cost.HEAVY, new Settings(1, 1, 1, 1000, 0)));
+    when(ctx.path()).thenReturn("/api/todos/changes");
+    admission.admit(ctx);
+    admission.admit(ctx);
+    when(ctx.path()).thenReturn("/todos.html");
+    admission.admit(ctx);
+    admission.admit(ctx);
+    verify(ctx, Mockito.never()).attribute(eq("admissionPermit"), Mockito.any());
+    assertTrue(admission.currentLimits().isEmpty());
+  }
+
+  @Test
+  public void adaptsLimitToLatency() {
+    Limiter limiter = new Limiter(new Settings(10, 2, 20, 50, 0));
+    long fast = TimeUnit.MILLISECONDS.toNanos(5);
+    long slow = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // Fast requests slowly raise the limit...
+    for (int i = 0; i < 100; i++) {
+      assertTrue(limiter.acquire());
+      limiter.release(fast);
+    }
+    assertTrue(limiter.limit() > 10);
+    assertTrue(limiter.limit() <= 20);
+
+    // ...and slow ones quickly lower it, but never below the minimum.
+    for (int i = 0; i < 100; i++) {
+      assertTrue(limiter.acquire());
+      limiter.release(slow);
+    }
+    assertEquals(2, limiter.limit());
+
+    assertTrue(limiter.acquire());
+    assertTrue(limiter.acquire());
+    assertFalse(limiter.acquire());
+    assertEquals(2, limiter.inFlight());
+  }
+
+  @Test
+  public void waitsForASlotUntilTheDeadline() throws InterruptedException {
+    Limiter limiter = new Limiter(new Settings(1, 1, 1, 1000, 5000));
+    assertTrue(limiter.acquire());
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      limiter.release(0);
+    });
+    releaser.start();
+    // This waits for the other thread to release its slot.
+    assertTrue(limiter.acquire());
+    releaser.join();
+  }
+}
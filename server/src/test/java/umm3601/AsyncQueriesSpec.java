@@ -0,0 +1,188 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.EOFException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Tests for `AsyncQueries`, using mock `Context`s like the controller tests
+ * do. Javalin would run the future a handler gives it; here the tests run
+ * it themselves.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AsyncQueriesSpec {
+
+  private static Context newContext() {
+    Context ctx = Mockito.mock(Context.class);
+    HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+    when(ctx.req()).thenReturn(req);
+    when(req.startAsync()).thenReturn(Mockito.mock(AsyncContext.class));
+    return ctx;
+  }
+
+  // The listener `AsyncQueries` added to the request's `AsyncContext`.
+  private static AsyncListener listener(AsyncContext async) {
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    verify(async).addListener(listener.capture());
+    return listener.getValue();
+  }
+
+  // Start the future the handler gave Javalin.
+  private static CompletableFuture<?> start(Context ctx) {
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> future = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).future(future.capture());
+    return future.getValue().get();
+  }
+
+  // What the future failed with.
+  private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+    ExecutionException failed = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    return failed.getCause();
+  }
+
+  @Test
+  public void isOffUnlessAskedFor() {
+    assertFalse(AsyncQueries.off().enabled());
+    assertTrue(new AsyncQueries(1, 1, Duration.ofSeconds(1)).enabled());
+  }
+
+  @Test
+  public void answersOnAComputeThread() throws Exception {
+    AsyncQueries async = new AsyncQueries(2, 4, Duration.ofSeconds(5));
+    Context ctx = newContext();
+    async.submit(ctx, () -> Thread.currentThread().getName(), Context::result);
+    start(ctx).get(5, TimeUnit.SECONDS);
+
+    ArgumentCaptor<String> thread = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(thread.capture());
+    assertTrue(thread.getValue().startsWith("query-"), thread.getValue());
+  }
+
+  @Test
+  public void passesOnQueryErrors() throws Exception {
+    AsyncQueries async = new AsyncQueries(1, 1, Duration.ofSeconds(5));
+    Context ctx = newContext();
+    async.<String>submit(ctx, () -> {
+      throw new BadRequestResponse("Bad query");
+    }, Context::result);
+    assertTrue(failure(start(ctx)) instanceof BadRequestResponse);
+  }
+
+  @Test
+  public void stopsQueriesThatTakeTooLong() throws Exception {
+    AsyncQueries async = new AsyncQueries(1, 1, Duration.ofMillis(50));
+    Context ctx = newContext();
+    CountDownLatch stopped = new CountDownLatch(1);
+    async.submit(ctx, () -> {
+      // A scan that would go on forever, if it weren't for its checkpoints.
+      try {
+        while (true) {
+          Cancellation.checkpoint();
+          Thread.onSpinWait();
+        }
+      } finally {
+        stopped.countDown();
+      }
+    }, (Context context, String result) -> context.result(result));
+    assertTrue(failure(start(ctx)) instanceof ServiceUnavailableResponse);
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void clientsLeavingStopTheirQueriesAtTheNextCheckpoint() throws Exception {
+    AsyncQueries async = new AsyncQueries(1, 1, Duration.ofSeconds(30));
+    Context ctx = newContext();
+    CountDownLatch scanning = new CountDownLatch(1);
+    CountDownLatch stopped = new CountDownLatch(1);
+    async.submit(ctx, () -> {
+      try {
+        while (true) {
+          scanning.countDown();
+          Cancellation.checkpoint();
+          Thread.onSpinWait();
+        }
+      } finally {
+        stopped.countDown();
+      }
+    }, (Context context, String result) -> context.result(result));
+    CompletableFuture<?> future = start(ctx);
+    assertTrue(scanning.await(5, TimeUnit.SECONDS));
+
+    // Javalin hadn't started async processing yet (the mock says it
+    // hasn't), so `AsyncQueries` started it to hear about the client.
+    AsyncContext asyncContext = ctx.req().startAsync();
+    listener(asyncContext).onError(new AsyncEvent(asyncContext, new EOFException("Reset")));
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    Throwable failure = failure(future);
+    assertTrue(failure instanceof ServiceUnavailableResponse);
+    assertEquals("The request took too long (client disconnected)", failure.getMessage());
+  }
+
+  @Test
+  public void listensOnTheAsyncContextJavalinStarted() throws Exception {
+    AsyncQueries async = new AsyncQueries(1, 1, Duration.ofSeconds(5));
+    Context ctx = newContext();
+    AsyncContext started = Mockito.mock(AsyncContext.class);
+    when(ctx.req().isAsyncStarted()).thenReturn(true);
+    when(ctx.req().getAsyncContext()).thenReturn(started);
+    async.submit(ctx, () -> "done", Context::result);
+    start(ctx).get(5, TimeUnit.SECONDS);
+
+    verify(started).addListener(any(AsyncListener.class));
+    verify(ctx.req(), never()).startAsync();
+  }
+
+  @Test
+  public void turnsAwayQueriesWhenTheQueueIsFull() throws Exception {
+    AsyncQueries async = new AsyncQueries(1, 1, Duration.ofSeconds(5));
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<String> blocked = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "done";
+    };
+    Context running = newContext();
+    Context queued = newContext();
+    Context turnedAway = newContext();
+    async.submit(running, blocked, Context::result);
+    CompletableFuture<?> first = start(running);
+    async.submit(queued, blocked, Context::result);
+    CompletableFuture<?> second = start(queued);
+    async.submit(turnedAway, blocked, Context::result);
+
+    assertTrue(failure(start(turnedAway)) instanceof ServiceUnavailableResponse);
+    verify(turnedAway).header("Retry-After", "1");
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `Cancellation`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CancellationSpec {
+
+  @Test
+  public void checkpointsDoNothingOutsideACancellableQuery() {
+    assertNull(Cancellation.current());
+    Cancellation.checkpoint();
+  }
+
+  @Test
+  public void checkpointsStopCancelledQueries() {
+    Cancellation cancellation = new Cancellation(Duration.ofMinutes(1));
+    assertEquals("done", cancellation.run(() -> {
+      assertSame(cancellation, Cancellation.current());
+      Cancellation.checkpoint();
+      return "done";
+    }));
+    assertNull(Cancellation.current());
+
+    CancellationException stopped = assertThrows(CancellationException.class, () -> cancellation.run(() -> {
+      cancellation.cancel("client disconnected");
+      cancellation.cancel("timed out");
+      Cancellation.checkpoint();
+      return "not done";
+    }));
+    // The first reason stands.
+    assertEquals("Query cancelled: client disconnected", stopped.getMessage());
+    assertNull(Cancellation.current());
+  }
+
+  @Test
+  public void queriesPastTheirDeadlineAreCancelled() {
+    Cancellation cancellation = new Cancellation(Duration.ZERO);
+    assertEquals("timed out", cancellation.reason());
+    assertThrows(CancellationException.class, () -> cancellation.run(() -> "too late"));
+  }
+
+  @Test
+  public void innerQueriesRestoreTheOuterOne() {
+    Cancellation outer = new Cancellation(Duration.ofMinutes(1));
+    Cancellation inner = new Cancellation(Duration.ofMinutes(1));
+    outer.run(() -> inner.run(() -> {
+      assertSame(inner, Cancellation.current());
+      return null;
+    }));
+    outer.run(() -> {
+      inner.run(() -> null);
+      assertSame(outer, Cancellation.current());
+      return null;
+    });
+  }
+}
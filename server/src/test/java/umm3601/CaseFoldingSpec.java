@@ -0,0 +1,87 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `CaseFolding`, checking that it agrees with the
+ * `equalsIgnoreCase()` and `toLowerCase().contains()` it replaces.
+ */
+public class CaseFoldingSpec {
+
+  @Test
+  public void foldsToLowerCase() {
+    assertEquals("software design", CaseFolding.fold("Software DESIGN"));
+  }
+
+  @Test
+  public void equalsFoldedAgreesWithEqualsIgnoreCase() {
+    String[] values = { "Blanche", "BLANCHE", "blanche", "Blanch", "Fry", "" };
+    for (String text : values) {
+      for (String target : values) {
+        assertEquals(text.equalsIgnoreCase(target), CaseFolding.equalsFolded(text, CaseFolding.fold(target)),
+            text + " vs " + target);
+      }
+    }
+  }
+
+  @Test
+  public void containsFoldedFindsMatchesAnywhere() {
+    assertTrue(CaseFolding.containsFolded("Ipsum Dolor TEMPOR", "tempor"));
+    assertTrue(CaseFolding.containsFolded("Ipsum Dolor TEMPOR", "ipsum"));
+    assertTrue(CaseFolding.containsFolded("Ipsum Dolor TEMPOR", "m dol"));
+    assertTrue(CaseFolding.containsFolded("Ipsum", ""));
+  }
+
+  @Test
+  public void containsFoldedRejectsNonMatches() {
+    assertFalse(CaseFolding.containsFolded("Ipsum Dolor", "magna"));
+    assertFalse(CaseFolding.containsFolded("Ips", "ipsum"));
+    assertFalse(CaseFolding.containsFolded("", "a"));
+  }
+
+  @Test
+  public void foldReturnsFoldedStringsAsTheyAre() {
+    String folded = "software design";
+    assertSame(folded, CaseFolding.fold(folded));
+  }
+
+  @Test
+  public void foldsAccentedAndGreekLetters() {
+    assertEquals("élan ωμέγα", CaseFolding.fold("ÉLAN ΩΜΈΓΑ"));
+    assertTrue(CaseFolding.equalsFolded("Ωμέγα", CaseFolding.fold("ΩΜΈΓΑ")));
+    // Final and non-final sigma are the same letter, ignoring case.
+    assertTrue(CaseFolding.equalsFolded("ς", CaseFolding.fold("σ")));
+  }
+
+  @Test
+  @SuppressWarnings({ "MagicNumber" })
+  public void foldsCharactersOutsideTheBasicMultilingualPlane() {
+    // Deseret capital and small long I, each written as two `char`s.
+    String capital = Character.toString(0x10400);
+    String small = Character.toString(0x10428);
+    assertEquals(small, CaseFolding.fold(capital));
+    assertTrue(CaseFolding.equalsFolded(capital, small));
+    assertTrue(CaseFolding.containsFolded("x" + capital + "y", small + "y"));
+    assertFalse(CaseFolding.containsFolded("x" + capital, small + "y"));
+  }
+
+  @Test
+  public void doesNotDependOnTheDefaultLocale() {
+    Locale defaultLocale = Locale.getDefault();
+    try {
+      // In Turkish, upper case I is lower case dotless ı.
+      Locale.setDefault(Locale.forLanguageTag("tr"));
+      assertEquals("title", CaseFolding.fold("TITLE"));
+      assertTrue(CaseFolding.containsFolded("A TITLE", "title"));
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `ColumnScan`s, checking both of them against a plain loop,
+ * on columns whose lengths aren't a multiple of any vector size (so the
+ * leftover rows at the end get checked too).
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ColumnScanSpec {
+
+  private static final int[] LENGTHS = { 0, 1, 7, 63, 64, 65, 1000, 1027 };
+
+  private final ColumnScan[] scans = { new ScalarColumnScan(), new VectorColumnScan() };
+  private final Random random = new Random(3601);
+
+  @Test
+  public void equalFindsMatchingBytes() {
+    for (int length : LENGTHS) {
+      byte[] column = new byte[length];
+      for (int row = 0; row < length; row++) {
+        column[row] = (byte) random.nextInt(3);
+      }
+      BitSet expected = new BitSet();
+      for (int row = 0; row < length; row++) {
+        if (column[row] == 1) {
+          expected.set(row);
+        }
+      }
+      for (ColumnScan scan : scans) {
+        assertEquals(expected, scan.equal(column, (byte) 1), scan.getClass().getSimpleName() + " " + length);
+      }
+    }
+  }
+
+  @Test
+  public void anyOfFindsMatchingCodes() {
+    for (int length : LENGTHS) {
+      int[] column = randomInts(length, 10);
+      BitSet expected = new BitSet();
+      for (int row = 0; row < length; row++) {
+        if (column[row] == 2 || column[row] == 7) {
+          expected.set(row);
+        }
+      }
+      for (ColumnScan scan : scans) {
+        assertEquals(expected, scan.anyOf(column, new int[] { 2, 7 }), scan.getClass().getSimpleName());
+        assertEquals(new BitSet(), scan.anyOf(column, new int[0]), scan.getClass().getSimpleName());
+      }
+    }
+  }
+
+  @Test
+  public void betweenFindsValuesInRange() {
+    for (int length : LENGTHS) {
+      int[] column = randomInts(length, 100);
+      BitSet expected = new BitSet();
+      for (int row = 0; row < length; row++) {
+        if (column[row] >= 25 && column[row] <= 60) {
+          expected.set(row);
+        }
+      }
+      for (ColumnScan scan : scans) {
+        assertEquals(expected, scan.between(column, 25, 60), scan.getClass().getSimpleName());
+      }
+    }
+  }
+
+  @Test
+  public void scalarScanPrefersPostingLists() {
+    ColumnScan scan = new ScalarColumnScan();
+    assertEquals(false, scan.worthScanning(500, 1000));
+    assertEquals(true, scan.worthScanning(1000, 1000));
+  }
+
+  private int[] randomInts(int length, int bound) {
+    int[] values = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = random.nextInt(bound);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `CountMinSketch`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CountMinSketchSpec {
+
+  @Test
+  public void estimatesAreNeverTooSmallAndRarelyTooBig() {
+    CountMinSketch sketch = new CountMinSketch(0.01, 0.01);
+    // A skewed set of counts: a few common keys, and lots of rare ones.
+    Random random = new Random(3601);
+    Map<Long, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 50_000; i++) {
+      long key = CountMinSketch.hash("key " + (int) (Math.pow(random.nextDouble(), 3) * 5000));
+      counts.merge(key, 1, Integer::sum);
+      sketch.add(key, 1);
+    }
+    assertEquals(50_000, sketch.total());
+
+    int tooBig = 0;
+    for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+      long estimate = sketch.estimate(count.getKey());
+      assertTrue(estimate >= count.getValue());
+      if (estimate > count.getValue() + sketch.epsilon() * sketch.total()) {
+        tooBig++;
+      }
+    }
+    // At most `delta` of them should be further off than `epsilon * total`
+    // (with some slack, so the test isn't flaky).
+    assertTrue(tooBig <= 2 * sketch.delta() * counts.size(), tooBig + " of " + counts.size());
+  }
+
+  @Test
+  public void countsCanBeTakenAway() {
+    CountMinSketch sketch = new CountMinSketch(0.001, 0.01);
+    long fry = CountMinSketch.hash("Fry");
+    long dawn = CountMinSketch.hash("Dawn");
+    sketch.add(fry, 3);
+    sketch.add(dawn, 1);
+    sketch.add(fry, -1);
+    assertEquals(2, sketch.estimate(fry));
+    assertEquals(1, sketch.estimate(dawn));
+    assertEquals(0, sketch.estimate(CountMinSketch.hash("Blanche")));
+    assertEquals(3, sketch.total());
+  }
+
+  @Test
+  public void combinedKeysDependOnTheOrderOfTheirParts() {
+    long fry = CountMinSketch.hash("Fry");
+    long homework = CountMinSketch.hash("homework");
+    assertEquals(CountMinSketch.combine(fry, homework), CountMinSketch.combine(fry, homework));
+    assertTrue(CountMinSketch.combine(fry, homework) != CountMinSketch.combine(homework, fry));
+    assertEquals(0, CountMinSketch.hash(null));
+  }
+
+  @Test
+  public void sizeDependsOnlyOnTheErrorBounds() {
+    CountMinSketch sketch = new CountMinSketch(0.001, 0.01);
+    // 2719 counters (e / 0.001) in each of 5 rows (ln 100).
+    assertTrue(sketch.estimatedBytes() >= 2719 * 5 * Integer.BYTES);
+    assertTrue(sketch.estimatedBytes() < 2719 * 5 * Integer.BYTES + 100);
+
+    assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0.01, 1));
+  }
+}
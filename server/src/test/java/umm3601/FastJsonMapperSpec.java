@@ -0,0 +1,141 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.Fixtures.todo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.json.JsonMapper;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoJson;
+import umm3601.user.User;
+import umm3601.user.UserJson;
+
+/**
+ * Tests for `FastJsonMapper` and the todo and user serializers, checking
+ * that they write exactly what Jackson would have, and read our data files
+ * just as Jackson would.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class FastJsonMapperSpec {
+
+  private final ObjectMapper jackson = new ObjectMapper();
+
+  // Stands in for Javalin's mapper, so we can see what gets passed on.
+  private final JsonMapper fallback = new JsonMapper() {
+    @Override
+    public String toJsonString(Object obj, Type type) {
+      return "fallback";
+    }
+  };
+
+  private final FastJsonMapper mapper = new FastJsonMapper(fallback)
+      .register(Todo.class, TodoJson::write)
+      .register(User.class, UserJson::write);
+
+  // A user with every field set, including the avatar.
+  private static User user(String name, int age) {
+    User user = Fixtures.user("588935f57546a2daea44de7c", name, age, "OHMNET", "viewer");
+    user.avatar = "https://gravatar.com/avatar/a?d=identicon";
+    return user;
+  }
+
+  @Test
+  public void writesTodosLikeJackson() throws IOException {
+    Todo[] todos = {
+        todo("58895985a22c04e761776d54", "Blanche", false, "In sunt ex non tempor cillum commodo.", "software design"),
+        todo("58895985c1849992336c219b", "Fry", true, "Ipsum esse est ullamco magna.", "video games"),
+    };
+    assertArrayEquals(jackson.writeValueAsBytes(todos), mapper.toJsonBytes(todos));
+    assertArrayEquals(jackson.writeValueAsBytes(todos[0]), mapper.toJsonBytes(todos[0]));
+  }
+
+  @Test
+  public void writesUsersLikeJackson() throws IOException {
+    User[] users = { user("Connie Stewart", 25), user("Lynn Ferguson", -7), user("Max", Integer.MIN_VALUE),
+        user("Big", Integer.MAX_VALUE), user("Zero", 0) };
+    assertArrayEquals(jackson.writeValueAsBytes(users), mapper.toJsonBytes(users));
+  }
+
+  @Test
+  public void escapesStringsLikeJackson() throws IOException {
+    Todo tricky = todo("id", "Quote \" and \\ backslash", true, "Lines\nand\ttabs\r\b\f\u0001\u001f end",
+        "café 中文 😀 / ~");
+    assertEquals(jackson.writeValueAsString(tricky), new String(mapper.toJsonBytes(tricky), "UTF-8"));
+  }
+
+  @Test
+  public void writesNullsLikeJackson() throws IOException {
+    Todo[] todos = { todo(null, null, false, null, null), null };
+    assertArrayEquals(jackson.writeValueAsBytes(todos), mapper.toJsonBytes(todos));
+    assertArrayEquals(jackson.writeValueAsBytes(new Todo[0]), mapper.toJsonBytes(new Todo[0]));
+  }
+
+  @Test
+  public void writesBigArrays() throws IOException {
+    Todo[] todos = new Todo[20_000];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = todo("id" + i, "Owner" + i, i % 2 == 0, "Body number " + i, "groceries");
+    }
+    assertArrayEquals(jackson.writeValueAsBytes(todos), mapper.toJsonBytes(todos));
+    // The thread's writer starts over (and small) after a big response.
+    assertArrayEquals(jackson.writeValueAsBytes(todos[0]), mapper.toJsonBytes(todos[0]));
+  }
+
+  @Test
+  public void passesOtherValuesOn() {
+    assertNull(mapper.toJsonBytes(Map.of("id", "abc")));
+    assertNull(mapper.toJsonBytes(new String[] { "a" }));
+    assertEquals("fallback", mapper.toJsonString(Map.of("id", "abc"), Map.class));
+    assertEquals("fallback", mapper.toJsonString(null, Object.class));
+  }
+
+  @Test
+  public void readsTheDataFilesLikeJackson() throws IOException {
+    try (InputStream ours = Main.class.getResourceAsStream(Main.TODO_DATA_FILE);
+        InputStream theirs = Main.class.getResourceAsStream(Main.TODO_DATA_FILE)) {
+      assertArrayEquals(jackson.writeValueAsBytes(jackson.readValue(theirs, Todo[].class)),
+          jackson.writeValueAsBytes(TodoJson.readArray(ours)));
+    }
+    try (InputStream ours = Main.class.getResourceAsStream(Main.USER_DATA_FILE);
+        InputStream theirs = Main.class.getResourceAsStream(Main.USER_DATA_FILE)) {
+      assertArrayEquals(jackson.writeValueAsBytes(jackson.readValue(theirs, User[].class)),
+          jackson.writeValueAsBytes(UserJson.readArray(ours)));
+    }
+  }
+
+  @Test
+  public void readsNullsAndEmptyArrays() throws IOException {
+    Todo[] todos = TodoJson.readArray(json("[{\"_id\":\"a\",\"owner\":null,\"status\":true}]"));
+    assertEquals(1, todos.length);
+    assertEquals("a", todos[0]._id);
+    assertNull(todos[0].owner);
+    assertTrue(todos[0].status);
+    assertEquals(0, UserJson.readArray(json("[]")).length);
+  }
+
+  @Test
+  public void refusesWhatJacksonWouldRefuse() {
+    assertThrows(IOException.class, () -> TodoJson.readArray(json("[{\"_id\":\"a\",\"priority\":3}]")));
+    assertThrows(IOException.class, () -> UserJson.readArray(json("{\"name\":\"Connie\"}")));
+    assertThrows(IOException.class, () -> UserJson.readArray(json("[{\"name\":{\"first\":\"Connie\"}}]")));
+    assertThrows(IOException.class, () -> UserJson.readArray(json("[\"Connie\"]")));
+  }
+
+  private static InputStream json(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * Builders for the todos and users the tests are made of (and for the
+ * response stream of a mock context), so every spec makes them the same
+ * way.
+ */
+public final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /**
+   * @param id       the todo's `_id`
+   * @param owner    its owner
+   * @param status   whether it's complete
+   * @param body     its body
+   * @param category its category
+   * @return a new todo with those fields
+   */
+  public static Todo todo(String id, String owner, boolean status, String body, String category) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = body;
+    todo.category = category;
+    return todo;
+  }
+
+  /**
+   * @param id      the user's `_id`
+   * @param name    their name, which their email address is made from
+   * @param age     their age
+   * @param company their company
+   * @param role    their role
+   * @return a new user with those fields (and no avatar)
+   */
+  public static User user(String id, String name, int age, String company, String role) {
+    User user = new User();
+    user._id = id;
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = role;
+    return user;
+  }
+
+  /**
+   * `ctx.outputStream()` is the servlet's stream, so a mock context hands
+   * back one of these, which collects the response in `bytes`.
+   *
+   * @param bytes where the response is written
+   * @return a servlet stream writing to `bytes`
+   */
+  public static ServletOutputStream servletStream(ByteArrayOutputStream bytes) {
+    return new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+      }
+
+      @Override
+      public void write(int b) {
+        bytes.write(b);
+      }
+    };
+  }
+}
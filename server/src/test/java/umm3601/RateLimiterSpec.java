@@ -0,0 +1,156 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.TooManyRequestsResponse;
+import umm3601.RateLimiter.Limit;
+
+/**
+ * Tests for `RateLimiter`, using a mock `Context` like the controller
+ * tests do.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class RateLimiterSpec {
+
+  private static final Limit TEN_PER_SECOND = new Limit(10, 5);
+
+  @Mock
+  private Context ctx;
+
+  private RateLimiter rateLimiter;
+
+  @BeforeEach
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    rateLimiter = new RateLimiter(Map.of("/api/todos", TEN_PER_SECOND), Set.of("known-key"), 100);
+  }
+
+  @Test
+  public void allowsBurstThenRefills() {
+    long now = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(0, rateLimiter.tryAcquire("client", TEN_PER_SECOND, now));
+    }
+    // The bucket is empty, and gets its next token in a tenth of a second.
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), rateLimiter.tryAcquire("client", TEN_PER_SECOND, now));
+    // Other clients have their own buckets.
+    assertEquals(0, rateLimiter.tryAcquire("other client", TEN_PER_SECOND, now));
+
+    long later = now + TimeUnit.MILLISECONDS.toNanos(100);
+    assertEquals(0, rateLimiter.tryAcquire("client", TEN_PER_SECOND, later));
+    assertTrue(rateLimiter.tryAcquire("client", TEN_PER_SECOND, later) > 0);
+  }
+
+  @Test
+  public void rejectsNoisyClients() {
+    when(ctx.path()).thenReturn("/api/todos");
+    when(ctx.ip()).thenReturn("10.0.0.1");
+    for (int i = 0; i < 5; i++) {
+      rateLimiter.check(ctx);
+    }
+    Assertions.assertThrows(TooManyRequestsResponse.class, () -> rateLimiter.check(ctx));
+    verify(ctx).header("Retry-After", "1");
+
+    // Making up an API key doesn't help...
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn("made-up-key");
+    Assertions.assertThrows(TooManyRequestsResponse.class, () -> rateLimiter.check(ctx));
+    // ...but the same address with a known key is a different client.
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn("known-key");
+    rateLimiter.check(ctx);
+  }
+
+  @Test
+  public void theLongestMatchingPrefixApplies() {
+    // Many prefixes, so some would come before "/api/users" in a hash map.
+    Map<String, Limit> limits = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      limits.put("/api/" + i, TEN_PER_SECOND);
+    }
+    limits.put("/api", new Limit(10, 100));
+    limits.put("/api/users", new Limit(10, 2));
+    RateLimiter limiter = new RateLimiter(limits);
+    when(ctx.path()).thenReturn("/api/users/abc");
+    when(ctx.ip()).thenReturn("10.0.0.1");
+    limiter.check(ctx);
+    limiter.check(ctx);
+    Assertions.assertThrows(TooManyRequestsResponse.class, () -> limiter.check(ctx));
+    // Other routes under "/api" get the looser limit.
+    when(ctx.path()).thenReturn("/api/todos");
+    for (int i = 0; i < 50; i++) {
+      limiter.check(ctx);
+    }
+  }
+
+  @Test
+  public void readsLimitsFromText() {
+    assertEquals(Map.of("/api/todos", new Limit(50, 100), "/api/users", new Limit(2.5, 5)),
+        RateLimiter.parseLimits("/api/todos=50/100, /api/users = 2.5/5"));
+    assertEquals(Map.of(), RateLimiter.parseLimits(""));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> RateLimiter.parseLimits("/api/todos=50"));
+  }
+
+  @Test
+  public void capsTheNumberOfBuckets() {
+    long now = System.nanoTime();
+    for (int i = 0; i < 1000; i++) {
+      rateLimiter.tryAcquire("/api/todos 10.0." + (i / 256) + "." + (i % 256), TEN_PER_SECOND, now);
+    }
+    // The clients past the cap share one bucket, which soon runs out.
+    assertEquals(101, rateLimiter.bucketCount());
+    assertTrue(rateLimiter.tryAcquire("/api/todos 10.1.0.0", TEN_PER_SECOND, now) > 0);
+  }
+
+  @Test
+  public void newBucketsSweepAwayIdleOnes() {
+    long now = System.nanoTime();
+    for (int i = 0; i < 50; i++) {
+      rateLimiter.tryAcquire("/api/todos 10.0.0." + i, TEN_PER_SECOND, now);
+    }
+    // Each new client, once the others have been idle for a while, removes
+    // a few of them, so the map shrinks rather than grows.
+    long later = now + TimeUnit.MINUTES.toNanos(5);
+    for (int i = 0; i < 20; i++) {
+      rateLimiter.tryAcquire("/api/todos 10.0.1." + i, TEN_PER_SECOND, later);
+    }
+    assertTrue(rateLimiter.bucketCount() < 50);
+  }
+
+  @Test
+  public void onlyLimitsConfiguredRoutes() {
+    when(ctx.path()).thenReturn("/api/users");
+    when(ctx.ip()).thenReturn("10.0.0.1");
+    for (int i = 0; i < 100; i++) {
+      rateLimiter.check(ctx);
+    }
+    assertEquals(0, rateLimiter.bucketCount());
+  }
+
+  @Test
+  public void evictsIdleBuckets() {
+    long now = System.nanoTime();
+    rateLimiter.tryAcquire("idle client", TEN_PER_SECOND, now);
+    assertEquals(1, rateLimiter.bucketCount());
+
+    // Right away the bucket isn't full yet, so it's kept...
+    rateLimiter.sweep(now);
+    assertEquals(1, rateLimiter.bucketCount());
+    // ...but once it has been full for a while it's removed.
+    rateLimiter.sweep(now + TimeUnit.MINUTES.toNanos(5));
+    assertEquals(0, rateLimiter.bucketCount());
+  }
+}
@@ -0,0 +1,138 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `Reservoir`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ReservoirSpec {
+
+  @Test
+  public void holdsEverythingUntilItIsFull() {
+    Reservoir<Integer> reservoir = new Reservoir<>(5, new Random(1));
+    for (int i = 0; i < 3; i++) {
+      reservoir.offer(i);
+    }
+    assertEquals(List.of(0, 1, 2), reservoir.snapshot());
+    for (int i = 3; i < 100; i++) {
+      reservoir.offer(i);
+    }
+    assertEquals(5, reservoir.size());
+    assertEquals(5, reservoir.capacity());
+  }
+
+  @Test
+  public void everyItemIsEquallyLikelyToBeKept() {
+    // Sample 10 of 100 items, many times over, and count how often each
+    // is kept: about 1000 times each.
+    int[] kept = new int[100];
+    Random random = new Random(3601);
+    for (int run = 0; run < 10_000; run++) {
+      Reservoir<Integer> reservoir = new Reservoir<>(10, random);
+      for (int i = 0; i < 100; i++) {
+        reservoir.offer(i);
+      }
+      for (int item : reservoir.snapshot()) {
+        kept[item]++;
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      assertTrue(kept[i] > 850 && kept[i] < 1150, "item " + i + " was kept " + kept[i] + " times");
+    }
+  }
+
+  @Test
+  public void removedItemsLeaveTheSample() {
+    Reservoir<String> reservoir = new Reservoir<>(4, new Random(1));
+    List.of("a", "b", "c", "d").forEach(reservoir::offer);
+
+    assertTrue(reservoir.remove("b"::equals));
+    assertEquals(3, reservoir.size());
+    assertFalse(reservoir.snapshot().contains("b"));
+
+    // "b" was in the sample, so the next item takes its place.
+    reservoir.offer("e");
+    assertEquals(List.of("a", "d", "c", "e"), reservoir.snapshot());
+  }
+
+  @Test
+  public void additionsRefillTheSampleAfterRemovals() {
+    Reservoir<Integer> reservoir = new Reservoir<>(4, new Random(1));
+    List<Integer> all = new ArrayList<>(IntStream.range(0, 100).boxed().toList());
+    all.forEach(reservoir::offer);
+
+    // Three removals from the sample, and ten from outside it.
+    for (int item : reservoir.snapshot().subList(0, 3)) {
+      assertTrue(reservoir.remove(Integer.valueOf(item)::equals));
+      all.remove(Integer.valueOf(item));
+    }
+    for (int i = 0; i < 10; i++) {
+      Integer item = all.stream().filter(kept -> !reservoir.snapshot().contains(kept)).findFirst().get();
+      assertFalse(reservoir.remove(item::equals));
+      all.remove(item);
+    }
+    assertEquals(1, reservoir.size());
+
+    // Pairing the 13 removals with the next 13 additions puts exactly 3 of
+    // them in the sample.
+    for (int i = 100; i < 113; i++) {
+      reservoir.offer(i);
+      all.add(i);
+    }
+    assertEquals(4, reservoir.size());
+    assertTrue(all.containsAll(reservoir.snapshot()));
+  }
+
+  @Test
+  public void everyItemIsEquallyLikelyToBeKeptAfterRemovals() {
+    // Sample 10 of 100 items, take half of them away, and add 50 more,
+    // many times over: each of the 100 left should be kept about 1000
+    // times.
+    int[] kept = new int[150];
+    Random random = new Random(3601);
+    for (int run = 0; run < 10_000; run++) {
+      Reservoir<Integer> reservoir = new Reservoir<>(10, random);
+      for (int i = 0; i < 100; i++) {
+        reservoir.offer(i);
+      }
+      for (int i = 0; i < 50; i++) {
+        reservoir.remove(Integer.valueOf(i)::equals);
+      }
+      for (int i = 100; i < 150; i++) {
+        reservoir.offer(i);
+      }
+      assertEquals(10, reservoir.size());
+      for (int item : reservoir.snapshot()) {
+        kept[item]++;
+      }
+    }
+    for (int i = 50; i < 150; i++) {
+      assertTrue(kept[i] > 850 && kept[i] < 1150, "item " + i + " was kept " + kept[i] + " times");
+    }
+  }
+
+  @Test
+  public void emptyingTheCollectionStartsAfresh() {
+    Reservoir<String> reservoir = new Reservoir<>(2, new Random(1));
+    List.of("a", "b", "c").forEach(reservoir::offer);
+    List.of("a", "b", "c").forEach(item -> reservoir.remove(item::equals));
+    reservoir.offer("d");
+    assertEquals(List.of("d"), reservoir.snapshot());
+  }
+
+  @Test
+  public void mustHoldSomething() {
+    assertThrows(IllegalArgumentException.class, () -> new Reservoir<>(0, new Random()));
+  }
+}
@@ -0,0 +1,223 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `SingleFlight`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class SingleFlightSpec {
+
+  @Test
+  public void computesEveryTimeWhenOff() {
+    SingleFlight<String, Integer> flights = new SingleFlight<>(null);
+    AtomicInteger calls = new AtomicInteger();
+    assertFalse(flights.enabled());
+    flights.get("a", calls::incrementAndGet);
+    flights.get("a", calls::incrementAndGet);
+    assertEquals(2, calls.get());
+    assertEquals(0, flights.sharedCount());
+  }
+
+  @Test
+  public void concurrentRequestsShareOneComputation() throws Exception {
+    SingleFlight<String, Object> flights = new SingleFlight<>(Duration.ZERO);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    int requests = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(requests);
+    try {
+      List<Future<Object>> answers = new ArrayList<>();
+      // The first request holds its flight open until the others have
+      // joined it.
+      answers.add(pool.submit(() -> flights.get("todos", () -> {
+        calls.incrementAndGet();
+        await(release);
+        return new Object();
+      })));
+      while (flights.computedCount() == 0) {
+        Thread.onSpinWait();
+      }
+      for (int i = 1; i < requests; i++) {
+        answers.add(pool.submit(() -> flights.get("todos", () -> {
+          calls.incrementAndGet();
+          return new Object();
+        })));
+      }
+      while (flights.sharedCount() < requests - 1) {
+        Thread.onSpinWait();
+      }
+      release.countDown();
+
+      Object first = answers.get(0).get(5, TimeUnit.SECONDS);
+      for (Future<Object> answer : answers) {
+        assertSame(first, answer.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, calls.get());
+      // With no window, the flight is forgotten as soon as it lands.
+      assertEquals(0, flights.size());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void differentKeysAreComputedSeparately() {
+    SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofMinutes(1));
+    assertEquals("a", flights.get("a", () -> "a"));
+    assertEquals("b", flights.get("b", () -> "b"));
+    assertEquals(2, flights.computedCount());
+  }
+
+  @Test
+  public void keepsAnswersForTheWindow() {
+    SingleFlight<String, Object> kept = new SingleFlight<>(Duration.ofMinutes(1));
+    Object answer = kept.get("a", Object::new);
+    assertSame(answer, kept.get("a", Object::new));
+    assertEquals(1, kept.sharedCount());
+
+    SingleFlight<String, Object> notKept = new SingleFlight<>(Duration.ZERO);
+    Object first = notKept.get("a", Object::new);
+    assertTrue(first != notKept.get("a", Object::new));
+    assertEquals(0, notKept.sharedCount());
+  }
+
+  @Test
+  public void failuresAreNotKept() {
+    SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofMinutes(1));
+    assertThrows(IllegalStateException.class, () -> flights.get("a", () -> {
+      throw new IllegalStateException("Broken");
+    }));
+    assertEquals(0, flights.size());
+    assertEquals("a", flights.get("a", () -> "a"));
+  }
+
+  @Test
+  public void waitersStartOverIfTheLeaderIsCancelled() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>(Duration.ZERO);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> leader = pool.submit(() -> flights.get("todos", () -> {
+        await(release);
+        throw new CancellationException("Query cancelled: client disconnected");
+      }));
+      while (flights.computedCount() == 0) {
+        Thread.onSpinWait();
+      }
+      Future<String> waiter = pool.submit(() -> flights.get("todos", () -> "todos"));
+      while (flights.sharedCount() == 0) {
+        Thread.onSpinWait();
+      }
+      release.countDown();
+
+      ExecutionException cancelled = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+      assertTrue(cancelled.getCause() instanceof CancellationException);
+      assertEquals("todos", waiter.get(5, TimeUnit.SECONDS));
+      assertEquals(2, flights.computedCount());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void cancelledWaitersStopWaiting() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>(Duration.ZERO);
+    CountDownLatch release = new CountDownLatch(1);
+    Cancellation cancellation = new Cancellation(Duration.ofMinutes(1));
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> leader = pool.submit(() -> flights.get("todos", () -> {
+        await(release);
+        return "todos";
+      }));
+      while (flights.computedCount() == 0) {
+        Thread.onSpinWait();
+      }
+      Future<String> waiter = pool.submit(() -> cancellation.run(() -> flights.get("todos", () -> "mine")));
+      while (flights.sharedCount() == 0) {
+        Thread.onSpinWait();
+      }
+
+      // The waiter's client goes away while the leader is still working,
+      // so the waiter stops (without starting again), and the leader
+      // carries on.
+      cancellation.cancel("client disconnected");
+      ExecutionException cancelled = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+      assertTrue(cancelled.getCause() instanceof CancellationException);
+      assertFalse(leader.isDone());
+      release.countDown();
+      assertEquals("todos", leader.get(5, TimeUnit.SECONDS));
+      assertEquals(1, flights.computedCount());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void waitersWorkItOutThemselvesIfTheFlightIsTooSlow() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>(Duration.ZERO, Duration.ofMillis(50));
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> leader = pool.submit(() -> flights.get("todos", () -> {
+        await(release);
+        return "todos";
+      }));
+      while (flights.computedCount() == 0) {
+        Thread.onSpinWait();
+      }
+      assertEquals("mine", pool.submit(() -> flights.get("todos", () -> "mine")).get(5, TimeUnit.SECONDS));
+      assertEquals(1, flights.sharedCount());
+      assertEquals(2, flights.computedCount());
+      release.countDown();
+      assertEquals("todos", leader.get(5, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void configuredWindowComesFromTheProperty() {
+    String old = System.getProperty(SingleFlight.WINDOW_PROPERTY);
+    try {
+      System.clearProperty(SingleFlight.WINDOW_PROPERTY);
+      assertEquals(null, SingleFlight.configuredWindow());
+      System.setProperty(SingleFlight.WINDOW_PROPERTY, "250");
+      assertEquals(Duration.ofMillis(250), SingleFlight.configuredWindow());
+    } finally {
+      if (old == null) {
+        System.clearProperty(SingleFlight.WINDOW_PROPERTY);
+      } else {
+        System.setProperty(SingleFlight.WINDOW_PROPERTY, old);
+      }
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+}
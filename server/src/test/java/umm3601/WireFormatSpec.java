@@ -0,0 +1,35 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for choosing a `WireFormat` from an `Accept` header.
+ */
+public class WireFormatSpec {
+
+  @Test
+  public void defaultsToJson() {
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept(null));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept(""));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("*/*"));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("text/html,application/xhtml+xml,*/*;q=0.8"));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("application/xml"));
+  }
+
+  @Test
+  public void choosesRequestedBinaryFormats() {
+    assertEquals(WireFormat.CBOR, WireFormat.fromAccept("application/cbor"));
+    assertEquals(WireFormat.SMILE, WireFormat.fromAccept("Application/X-Jackson-Smile"));
+    assertEquals(WireFormat.CBOR, WireFormat.fromAccept("application/cbor, application/json"));
+  }
+
+  @Test
+  public void respectsQuality() {
+    assertEquals(WireFormat.SMILE, WireFormat.fromAccept("application/json;q=0.5, application/x-jackson-smile"));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("application/cbor;q=0.2, application/json"));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("application/cbor;q=0"));
+    assertEquals(WireFormat.JSON, WireFormat.fromAccept("application/cbor;q=oops"));
+  }
+}
@@ -0,0 +1,412 @@
+package umm3601.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static umm3601.Fixtures.servletStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadGatewayResponse;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import umm3601.GroupCounts;
+import umm3601.WireFormat;
+import umm3601.todo.ArrayTodoRepository;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+import umm3601.user.UserPage;
+
+/**
+ * Tests `ClusterCoordinator` against "nodes" that answer from an in-memory
+ * database instead of over HTTP, checking that the cluster answers every
+ * list and stats query the same way one database holding everything does.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ClusterCoordinatorSpec {
+
+  private static final ObjectMapper JSON = new ObjectMapper();
+  private static final int NODES = 3;
+
+  private Todo[] todos;
+  private User[] users;
+  private TodoDatabase allTodos;
+  private UserDatabase allUsers;
+  private List<FakeNode> nodes;
+  private ClusterCoordinator coordinator;
+
+  @BeforeEach
+  public void setupCluster() {
+    Random random = new Random(3601);
+    String[] owners = { "Blanche", "Fry", "Dawn", "Roberta", "Barry" };
+    String[] categories = { "homework", "groceries", "video games", "software design" };
+    String[] companies = { "OHMNET", "IBM", "UMM", "FRENEX" };
+    String[] roles = { "admin", "editor", "viewer" };
+    todos = new Todo[300];
+    for (int i = 0; i < todos.length; i++) {
+      Todo todo = new Todo();
+      todo._id = "todo" + i;
+      todo.owner = owners[random.nextInt(owners.length)];
+      todo.status = random.nextBoolean();
+      todo.body = "body " + random.nextInt(40);
+      todo.category = categories[random.nextInt(categories.length)];
+      todos[i] = todo;
+    }
+    users = new User[200];
+    for (int i = 0; i < users.length; i++) {
+      User user = new User();
+      user._id = "user" + i;
+      user.name = "Name " + random.nextInt(60);
+      user.age = 18 + random.nextInt(90);
+      user.company = companies[random.nextInt(companies.length)];
+      user.email = "user" + i + "@example.com";
+      user.role = roles[random.nextInt(roles.length)];
+      users[i] = user;
+    }
+    allTodos = new TodoDatabase(new ArrayTodoRepository(todos));
+    allUsers = new UserDatabase(users);
+
+    nodes = new ArrayList<>();
+    for (int node = 0; node < NODES; node++) {
+      Partitioning partition = new Partitioning(node, NODES);
+      nodes.add(new FakeNode(
+          new TodoDatabase(new ArrayTodoRepository(partition.select(todos, todo -> todo._id, Todo[]::new))),
+          new UserDatabase(partition.select(users, user -> user._id, User[]::new))));
+    }
+    coordinator = new ClusterCoordinator(nodes);
+  }
+
+  @Test
+  public void findsTheSameTodosAsOneDatabase() {
+    List<Map<String, List<String>>> queries = List.of(
+        Map.of(),
+        Map.of("owner", List.of("fry")),
+        Map.of("status", List.of("complete"), "category", List.of("homework")),
+        Map.of("contains", List.of("body 3")),
+        Map.of("limit", List.of("0")));
+    for (Map<String, List<String>> query : queries) {
+      assertEquals(sortedIds(allTodos.listTodos(query)), sortedIds(coordinator.findTodos(query, "test")),
+          query.toString());
+    }
+  }
+
+  @Test
+  public void limitsUnorderedTodos() {
+    // Without an order, any 7 of the matching todos will do.
+    List<String> matching = ids(allTodos.listTodos(Map.of("contains", List.of("body 3"))));
+    Todo[] limited = coordinator.findTodos(Map.of("contains", List.of("body 3"), "limit", List.of("7")), "test");
+    assertEquals(7, limited.length);
+    for (Todo todo : limited) {
+      assertTrue(matching.contains(todo._id), todo._id);
+    }
+  }
+
+  @Test
+  public void mergesSortedTodos() {
+    List<Map<String, List<String>>> queries = List.of(
+        Map.of("orderBy", List.of("owner")),
+        Map.of("orderBy", List.of("body"), "limit", List.of("25")),
+        Map.of("orderBy", List.of("category"), "status", List.of("incomplete"), "limit", List.of("40")));
+    for (Map<String, List<String>> query : queries) {
+      Todo[] expected = allTodos.listTodos(query);
+      Todo[] actual = coordinator.findTodos(query, "test");
+      assertEquals(expected.length, actual.length, query.toString());
+      // Todos that tie may come from different nodes in a different order
+      // than in one database, so only the sort fields have to match.
+      String orderBy = query.get("orderBy").get(0);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(sortField(expected[i], orderBy), sortField(actual[i], orderBy), query + " at " + i);
+      }
+    }
+  }
+
+  @Test
+  public void findsTheSameUserPagesAsOneDatabase() {
+    List<Map<String, List<String>>> queries = List.of(
+        Map.of("orderBy", List.of("age")),
+        Map.of("orderBy", List.of("name"), "limit", List.of("15")),
+        Map.of("orderBy", List.of("company"), "offset", List.of("30"), "limit", List.of("20")),
+        Map.of("orderBy", List.of("role"), "role", List.of("admin,viewer"), "ageMin", List.of("40")),
+        Map.of("orderBy", List.of("age"), "offset", List.of("500")));
+    for (Map<String, List<String>> query : queries) {
+      UserPage expected = allUsers.listUserPage(query);
+      UserPage actual = coordinator.findUsers(query, "test");
+      assertEquals(ids(expected.users()), ids(actual.users()), query.toString());
+      assertEquals(expected.nextCursor(), actual.nextCursor(), query.toString());
+    }
+  }
+
+  @Test
+  public void findsTheSameUnorderedUsersAsOneDatabase() {
+    Map<String, List<String>> query = Map.of("company", List.of("UMM"), "age", List.of("40"));
+    assertEquals(sortedIds(allUsers.listUserPage(query).users()),
+        sortedIds(coordinator.findUsers(query, "test").users()));
+  }
+
+  @Test
+  public void pagesThroughUsersWithCursors() {
+    List<String> seen = new ArrayList<>();
+    Map<String, List<String>> query = new HashMap<>(Map.of("orderBy", List.of("age"), "limit", List.of("17")));
+    UserPage page = coordinator.findUsers(query, "test");
+    seen.addAll(ids(page.users()));
+    while (page.nextCursor() != null) {
+      query.put("cursor", List.of(page.nextCursor()));
+      page = coordinator.findUsers(query, "test");
+      seen.addAll(ids(page.users()));
+    }
+    assertEquals(ids(allUsers.listUserPage(Map.of("orderBy", List.of("age"))).users()), seen);
+  }
+
+  @Test
+  public void addsUpTodoCounts() {
+    Map<String, List<String>> query = Map.of("owner", List.of("Dawn"));
+    GroupCounts expected = allTodos.countTodos(query);
+    GroupCounts actual = coordinator.countTodos(query, "test");
+    assertEquals(expected, actual);
+    assertEquals(new ArrayList<>(expected.groups().keySet()), new ArrayList<>(actual.groups().keySet()));
+  }
+
+  @Test
+  public void addsUpUserCountsKeepingAgesInOrder() {
+    Map<String, List<String>> query = Map.of("groupBy", List.of("age,role"), "ageBucket", List.of("20"));
+    GroupCounts expected = allUsers.countUsers(query);
+    GroupCounts actual = coordinator.countUsers(query, "test");
+    assertEquals(expected, actual);
+    // "100-119" comes after "80-99", not before it.
+    assertEquals(new ArrayList<>(expected.groups().get("age").keySet()),
+        new ArrayList<>(actual.groups().get("age").keySet()));
+  }
+
+  @Test
+  public void answersListsInTheRequestedFormat() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Context ctx = mock(Context.class);
+    when(ctx.header("Accept")).thenReturn("application/cbor");
+    when(ctx.queryParamMap()).thenReturn(Map.of("orderBy", List.of("age")));
+    when(ctx.ip()).thenReturn("127.0.0.1");
+    when(ctx.outputStream()).thenReturn(servletStream(response));
+
+    coordinator.getUsers(ctx);
+
+    verify(ctx).contentType("application/cbor");
+    verify(ctx, never()).json(any());
+    JsonNode expected = JSON.valueToTree(allUsers.listUserPage(Map.of("orderBy", List.of("age"))).users());
+    assertEquals(expected, WireFormat.CBOR.mapper().readTree(response.toByteArray()));
+  }
+
+  @Test
+  public void projectsFieldsInBinaryFormats() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Context ctx = mock(Context.class);
+    when(ctx.header("Accept")).thenReturn("application/x-jackson-smile");
+    when(ctx.queryParamMap()).thenReturn(Map.of("owner", List.of("Dawn"), "fields", List.of("owner")));
+    when(ctx.ip()).thenReturn("127.0.0.1");
+    when(ctx.outputStream()).thenReturn(servletStream(response));
+
+    coordinator.getTodos(ctx);
+
+    verify(ctx).contentType("application/x-jackson-smile");
+    JsonNode projected = WireFormat.SMILE.mapper().readTree(response.toByteArray());
+    assertEquals(allTodos.listTodos(Map.of("owner", List.of("Dawn"))).length, projected.size());
+    for (JsonNode todo : projected) {
+      assertEquals(1, todo.size());
+      assertTrue(todo.has("owner"));
+    }
+  }
+
+  @Test
+  public void answersStatsInTheRequestedFormat() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Context ctx = mock(Context.class);
+    when(ctx.header("Accept")).thenReturn("application/cbor");
+    when(ctx.queryParamMap()).thenReturn(Map.of("owner", List.of("Dawn")));
+    when(ctx.ip()).thenReturn("127.0.0.1");
+    when(ctx.outputStream()).thenReturn(servletStream(response));
+
+    coordinator.getTodoStats(ctx);
+
+    verify(ctx).contentType("application/cbor");
+    assertEquals(JSON.valueToTree(allTodos.countTodos(Map.of("owner", List.of("Dawn")))),
+        WireFormat.CBOR.mapper().readTree(response.toByteArray()));
+  }
+
+  @Test
+  public void findsEveryTodoOnExactlyOneNode() {
+    int found = 0;
+    for (int node = 0; node < NODES; node++) {
+      for (Todo todo : nodes.get(node).todos.listTodos(Map.of())) {
+        assertEquals(node, Partitioning.ownerOf(todo._id, NODES));
+        found++;
+      }
+    }
+    assertEquals(todos.length, found);
+  }
+
+  @Test
+  public void rejectsBadQueriesWithoutAskingTheNodes() {
+    assertThrows(BadRequestResponse.class,
+        () -> coordinator.findTodos(Map.of("orderBy", List.of("nonsense")), "test"));
+    assertThrows(BadRequestResponse.class,
+        () -> coordinator.findUsers(Map.of("age", List.of("old")), "test"));
+    assertThrows(BadRequestResponse.class,
+        () -> coordinator.findTodos(Map.of("approx", List.of("true")), "test"));
+    assertThrows(BadRequestResponse.class,
+        () -> coordinator.findUsers(Map.of("approx", List.of("true")), "test"));
+    for (FakeNode node : nodes) {
+      assertEquals(0, node.requests.size());
+    }
+  }
+
+  @Test
+  public void sendsListsToEveryNodeWithoutPaging() {
+    Map<String, List<String>> query = new LinkedHashMap<>();
+    query.put("orderBy", List.of("name"));
+    query.put("offset", List.of("10"));
+    query.put("limit", List.of("5"));
+    query.put("fields", List.of("name"));
+    coordinator.findUsers(query, "someone");
+    for (FakeNode node : nodes) {
+      assertEquals(List.of("GET /api/users?orderBy=name&limit=15 for someone"), node.requests);
+    }
+  }
+
+  @Test
+  public void failsIfANodeCantBeReached() {
+    List<NodeClient> withDeadNode = new ArrayList<>(nodes);
+    withDeadNode.set(1, (method, path, body, client) -> CompletableFuture.failedFuture(new IOException("down")));
+    ClusterCoordinator broken = new ClusterCoordinator(withDeadNode);
+    assertThrows(BadGatewayResponse.class, () -> broken.findTodos(Map.of(), "test"));
+  }
+
+  @Test
+  public void passesOnErrorsFromNodes() {
+    List<NodeClient> withFailingNode = new ArrayList<>(nodes);
+    withFailingNode.set(2, (method, path, body, client) -> CompletableFuture.completedFuture(
+        new NodeClient.Response(503, "application/json", "{\"title\":\"Busy\"}")));
+    ClusterCoordinator busy = new ClusterCoordinator(withFailingNode);
+    assertThrows(HttpResponseException.class, () -> busy.countTodos(Map.of(), "test"));
+  }
+
+  @Test
+  public void encodesForwardedParameters() {
+    Map<String, List<String>> params = new LinkedHashMap<>();
+    params.put("contains", List.of("a&b c"));
+    params.put("role", List.of("admin", "viewer"));
+    assertEquals("?contains=a%26b%20c&role=admin&role=viewer", ClusterCoordinator.queryString(params));
+    assertEquals("", ClusterCoordinator.queryString(Map.of()));
+  }
+
+  @Test
+  public void refusesAnEmptyCluster() {
+    assertThrows(IllegalArgumentException.class, () -> new ClusterCoordinator(List.of()));
+  }
+
+  private static List<String> ids(Object[] objects) {
+    List<String> ids = new ArrayList<>();
+    for (Object object : objects) {
+      ids.add(object instanceof Todo todo ? todo._id : ((User) object)._id);
+    }
+    return ids;
+  }
+
+  private static List<String> sortedIds(Object[] objects) {
+    List<String> ids = ids(objects);
+    ids.sort(null);
+    return ids;
+  }
+
+  private static Object sortField(Todo todo, String field) {
+    switch (field) {
+      case "owner":
+        return todo.owner;
+      case "body":
+        return todo.body;
+      case "status":
+        return todo.status;
+      default:
+        return todo.category;
+    }
+  }
+
+  /**
+   * A node that answers the coordinator's list and stats requests from its
+   * own databases, and remembers what it was asked.
+   */
+  private static final class FakeNode implements NodeClient {
+    private final TodoDatabase todos;
+    private final UserDatabase users;
+    private final List<String> requests = new ArrayList<>();
+
+    FakeNode(TodoDatabase todos, UserDatabase users) {
+      this.todos = todos;
+      this.users = users;
+    }
+
+    @Override
+    public CompletableFuture<Response> send(String method, String pathAndQuery, String body, String client) {
+      requests.add(method + " " + pathAndQuery + " for " + client);
+      String[] parts = pathAndQuery.split("\\?", 2);
+      Map<String, List<String>> params = parts.length > 1 ? parseQuery(parts[1]) : Map.of();
+      try {
+        Object answer;
+        switch (parts[0]) {
+          case "/api/todos":
+            answer = todos.listTodos(params);
+            break;
+          case "/api/todos/stats":
+            answer = todos.countTodos(params);
+            break;
+          case "/api/users":
+            answer = users.listUserPage(params).users();
+            break;
+          case "/api/users/stats":
+            answer = users.countUsers(params);
+            break;
+          default:
+            return CompletableFuture.completedFuture(new Response(404, null, "Not found"));
+        }
+        return CompletableFuture.completedFuture(
+            new Response(200, "application/json", JSON.writeValueAsString(answer)));
+      } catch (BadRequestResponse e) {
+        return CompletableFuture.completedFuture(new Response(400, null, e.getMessage()));
+      } catch (JsonProcessingException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+
+    private static Map<String, List<String>> parseQuery(String query) {
+      Map<String, List<String>> params = new LinkedHashMap<>();
+      for (String pair : query.split("&")) {
+        String[] keyAndValue = pair.split("=", 2);
+        params.computeIfAbsent(URLDecoder.decode(keyAndValue[0], StandardCharsets.UTF_8), key -> new ArrayList<>())
+            .add(URLDecoder.decode(keyAndValue[1], StandardCharsets.UTF_8));
+      }
+      return params;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package umm3601.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests `Partitioning`, which decides which node of a cluster holds which
+ * objects.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class PartitioningSpec {
+
+  private static final String[] IDS = {
+      "588935f57546a2daea44de7c", "588935f5597aa66ad4b2d1b3", "588935f5c668650dc77df581",
+      "588935f5b9a62b1eb2e4d18a", "588935f53ebd8e1c3eb7dd43", "588935f5fb3c2e4f96c51d05",
+      "c", "some other id", "", "-1" };
+
+  @Test
+  public void everyIdHasExactlyOneOwner() {
+    for (int nodeCount = 1; nodeCount <= 8; nodeCount++) {
+      for (String id : IDS) {
+        int owners = 0;
+        for (int node = 0; node < nodeCount; node++) {
+          if (new Partitioning(node, nodeCount).owns(id)) {
+            owners++;
+            assertEquals(node, Partitioning.ownerOf(id, nodeCount));
+          }
+        }
+        assertEquals(1, owners, id + " should have one owner of " + nodeCount);
+      }
+    }
+  }
+
+  @Test
+  public void selectSplitsTheDataWithoutLosingAny() {
+    List<String> reassembled = new ArrayList<>();
+    for (int node = 0; node < 3; node++) {
+      Partitioning partition = new Partitioning(node, 3);
+      String[] selected = partition.select(IDS, id -> id, String[]::new);
+      for (String id : selected) {
+        assertTrue(partition.owns(id));
+      }
+      reassembled.addAll(Arrays.asList(selected));
+    }
+    String[] sorted = IDS.clone();
+    Arrays.sort(sorted);
+    String[] actual = reassembled.toArray(new String[0]);
+    Arrays.sort(actual);
+    assertArrayEquals(sorted, actual);
+  }
+
+  @Test
+  public void selectKeepsEverythingOnASingleNode() {
+    assertSame(IDS, new Partitioning(0, 1).select(IDS, id -> id, String[]::new));
+  }
+
+  @Test
+  public void spreadsIdsOverTheNodes() {
+    int[] counts = new int[4];
+    for (int i = 0; i < 4000; i++) {
+      counts[Partitioning.ownerOf(Integer.toHexString(i * 7919), 4)]++;
+    }
+    for (int count : counts) {
+      assertTrue(count > 800 && count < 1200, "Uneven split " + Arrays.toString(counts));
+    }
+  }
+
+  @Test
+  public void rejectsNodesOutsideTheCluster() {
+    assertThrows(IllegalArgumentException.class, () -> new Partitioning(3, 3));
+    assertThrows(IllegalArgumentException.class, () -> new Partitioning(-1, 3));
+    assertThrows(IllegalArgumentException.class, () -> new Partitioning(0, 0));
+  }
+}
@@ -0,0 +1,140 @@
+package umm3601.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.Fixtures.todo;
+import static umm3601.Fixtures.user;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import umm3601.StorageBackend;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests for `FlightRecordings`, and for the `QueryEvent`s that end up in
+ * its recordings.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class FlightRecordingsSpec {
+
+  private Path directory;
+  private FlightRecordings recordings;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("recordings-spec");
+    recordings = new FlightRecordings(directory);
+  }
+
+  @AfterEach
+  public void cleanUp() throws IOException {
+    if (recordings.status().recording()) {
+      recordings.stop();
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static List<RecordedEvent> queryEvents(Path file) throws IOException {
+    return RecordingFile.readAllEvents(file).stream()
+        .filter(event -> event.getEventType().getName().equals("umm3601.Query"))
+        .toList();
+  }
+
+  @Test
+  public void startsAndStops() throws IOException {
+    assertFalse(recordings.status().recording());
+    assertTrue(recordings.start(FlightRecordings.DEFAULT_SETTINGS, Duration.ofMinutes(1)).recording());
+    assertEquals(FlightRecordings.DEFAULT_SETTINGS, recordings.status().settings());
+    assertThrows(IllegalStateException.class,
+        () -> recordings.start(FlightRecordings.DEFAULT_SETTINGS, Duration.ofMinutes(1)));
+
+    Path dumped = recordings.dump();
+    assertTrue(recordings.status().recording());
+    Path stopped = recordings.stop();
+    assertFalse(recordings.status().recording());
+    assertTrue(Files.size(dumped) > 0);
+    assertTrue(Files.size(stopped) > 0);
+    assertEquals(directory.toAbsolutePath(), stopped.getParent());
+  }
+
+  @Test
+  public void refusesToDumpWithoutARecording() {
+    assertThrows(IllegalStateException.class, recordings::dump);
+    assertThrows(IllegalStateException.class, recordings::stop);
+  }
+
+  @Test
+  public void refusesUnknownSettings() {
+    assertThrows(IllegalArgumentException.class, () -> recordings.start("no-such-settings", Duration.ofMinutes(1)));
+    assertFalse(recordings.status().recording());
+  }
+
+  @Test
+  public void recordsTodoQueries() throws IOException {
+    TodoDatabase todos = new TodoDatabase(TodoDatabase.createRepository(StorageBackend.INDEXED, new Todo[] {
+        todo("t1", "Blanche", true, "Ipsum", "homework"),
+        todo("t2", "Fry", false, "Lorem ipsum", "homework"),
+        todo("t3", "Fry", true, "Dolor", "homework") }));
+    recordings.start(FlightRecordings.DEFAULT_SETTINGS, Duration.ofMinutes(1));
+    todos.listTodos(Map.of("owner", List.of("fry"), "contains", List.of("ipsum")));
+    List<RecordedEvent> events = queryEvents(recordings.stop());
+
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("todos", event.getString("collection"));
+    assertEquals("contains=ipsum&owner=fry", event.getString("filters"));
+    // The owner index leaves two todos for the body scan, which finds one.
+    assertEquals("owner", event.getString("index"));
+    assertEquals(2, event.getInt("rowsScanned"));
+    assertEquals(1, event.getInt("rowsReturned"));
+  }
+
+  @Test
+  public void recordsUserQueries() throws IOException {
+    UserDatabase users = new UserDatabase(new User[] {
+        user("u1", "Chris", 25, "UMM", "viewer"), user("u2", "Pat", 37, "UMM", "viewer"),
+        user("u3", "Sam", 25, "UMM", "viewer"), user("u4", "Alex", 25, "UMM", "viewer") });
+    recordings.start(FlightRecordings.DEFAULT_SETTINGS, Duration.ofMinutes(1));
+    users.listUserPage(Map.of("age", List.of("25"), "orderBy", List.of("name"), "limit", List.of("2")));
+    List<RecordedEvent> events = queryEvents(recordings.stop());
+
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("users", event.getString("collection"));
+    assertEquals("age+name order", event.getString("index"));
+    // Alex, Chris, then (skipping Pat) the page is full.
+    assertEquals(2, event.getInt("rowsScanned"));
+    assertEquals(2, event.getInt("rowsReturned"));
+  }
+
+  @Test
+  public void recordsNothingWhenNotRecording() throws IOException {
+    TodoDatabase todos = new TodoDatabase(TodoDatabase.createRepository(StorageBackend.INDEXED, new Todo[] {
+        todo("t1", "Blanche", true, "Ipsum", "homework") }));
+    todos.listTodos(Map.of());
+    recordings.start(FlightRecordings.DEFAULT_SETTINGS, Duration.ofMinutes(1));
+    assertTrue(queryEvents(recordings.stop()).isEmpty());
+  }
+}
@@ -0,0 +1,213 @@
+package umm3601.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.Fixtures.todo;
+import static umm3601.Fixtures.user;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.StorageBackend;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests shipping changes from a primary (`LogShipper`) to a replica
+ * (`Replica`) through a shared directory. The replica's `catchUp()` is
+ * called directly, rather than from its background thread, so the tests
+ * know exactly what it has applied.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ReplicationSpec {
+
+  private Path directory;
+  private TodoDatabase todos;
+  private UserDatabase users;
+  private final List<AutoCloseable> opened = new ArrayList<>();
+
+  @BeforeEach
+  public void setupPrimary() throws IOException {
+    directory = Files.createTempDirectory("replication-spec");
+    todos = new TodoDatabase(TodoDatabase.createRepository(StorageBackend.INDEXED, new Todo[] {
+        todo("t1", "Blanche", true, "Ipsum", "homework"),
+        todo("t2", "Fry", false, "Lorem ünïcödé", "groceries") }));
+    users = new UserDatabase(new User[] {
+        user("u1", "Chris", 25, "UMM", "admin"),
+        user("u2", "Pat", 37, "IBM", "viewer") });
+  }
+
+  @AfterEach
+  public void cleanUp() throws Exception {
+    for (AutoCloseable closeable : opened) {
+      closeable.close();
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  public void replicaStartsFromTheSnapshot() throws IOException {
+    startPrimary();
+    Replica replica = startReplica();
+
+    assertEquals(2, replica.todos().size());
+    Todo fry = replica.todos().getTodo("t2");
+    assertEquals("Fry", fry.owner);
+    assertFalse(fry.status);
+    assertEquals("Lorem ünïcödé", fry.body);
+    assertEquals("groceries", fry.category);
+    User pat = replica.users().listUserPage(Map.of("company", List.of("IBM"))).users()[0];
+    assertEquals("u2", pat._id);
+    assertEquals(37, pat.age);
+    assertEquals("viewer", pat.role);
+    assertNull(pat.avatar);
+  }
+
+  @Test
+  public void replicaAppliesChangesFromTheLog() throws IOException {
+    LogShipper primary = startPrimary();
+    Replica replica = startReplica();
+
+    todos.addTodo(todo("t3", "Dawn", true, "New", "software design"));
+    todos.deleteTodo("t1");
+    users.addUser(user("u3", "Sam", 19, "OHMNET", "editor"));
+    users.deleteUser("u2");
+    assertEquals(4, primary.status().sequence());
+
+    assertEquals(4, replica.catchUp());
+    assertEquals(0, replica.catchUp());
+    assertNull(replica.todos().getTodo("t1"));
+    assertEquals("Dawn", replica.todos().getTodo("t3").owner);
+    assertEquals(2, replica.users().listUserPage(Map.of()).users().length);
+    assertEquals(1, replica.users().listUserPage(Map.of("company", List.of("OHMNET"))).users().length);
+
+    ReplicationStatus status = replica.status();
+    assertEquals("replica", status.role());
+    assertEquals(primary.status().epoch(), status.epoch());
+    assertEquals(4, status.sequence());
+    assertEquals(0, status.bytesBehind());
+    assertTrue(status.healthy());
+  }
+
+  @Test
+  public void replicaChangesAreVisibleOnItsChangeFeed() throws IOException {
+    startPrimary();
+    Replica replica = startReplica();
+    todos.addTodo(todo("t3", "Dawn", true, "New", "software design"));
+    replica.catchUp();
+    assertEquals(1, replica.todos().changes().lastSequence());
+    assertEquals("t3", replica.todos().changes().eventsAfter(0).get(0).id());
+  }
+
+  @Test
+  public void replicaWaitsForRecordsThatAreOnlyPartlyWritten() throws IOException {
+    startPrimary();
+    Replica replica = startReplica();
+    todos.addTodo(todo("t3", "Dawn", true, "New", "software design"));
+
+    // Cut the last record in half, as if the primary were still writing it.
+    Path log = directory.resolve(ReplicationLog.LOG_FILE);
+    byte[] whole = Files.readAllBytes(log);
+    int cut = ReplicationLog.LOG_HEADER_BYTES + 10;
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      channel.truncate(cut);
+    }
+    assertEquals(0, replica.catchUp());
+    assertTrue(replica.status().bytesBehind() > 0);
+
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(whole, cut, whole.length - cut));
+    }
+    assertEquals(1, replica.catchUp());
+    assertNotNull(replica.todos().getTodo("t3"));
+  }
+
+  @Test
+  public void heartbeatsKeepTheLagDown() throws Exception {
+    startPrimary();
+    Replica replica = startReplica();
+    Thread.sleep(LogShipper.HEARTBEAT_MILLIS + 500);
+    assertTrue(replica.catchUp() >= 1);
+    assertTrue(replica.status().lagMillis() < 2 * LogShipper.HEARTBEAT_MILLIS,
+        "Lag was " + replica.status().lagMillis());
+  }
+
+  @Test
+  public void replicaRejectsALogFromAnotherEpoch() throws IOException {
+    startPrimary();
+    // Replace the log with one from a different primary.
+    try (FileChannel channel = FileChannel.open(directory.resolve(ReplicationLog.LOG_FILE),
+        StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(ReplicationLog.LOG_HEADER_BYTES)
+          .putInt(ReplicationLog.LOG_MAGIC).putLong(42).flip(), 0);
+    }
+    assertThrows(IOException.class, () -> Replica.load(directory, StorageBackend.INDEXED));
+  }
+
+  @Test
+  public void changesThatCantBeLoggedAreNotMade() throws IOException {
+    LogShipper primary = startPrimary();
+    // Closing the log makes every write to it fail.
+    primary.close();
+
+    Todo todo = todo("t3", "Dawn", true, "New", "software design");
+    assertThrows(ServiceUnavailableResponse.class, () -> todos.addTodo(todo));
+    assertThrows(ServiceUnavailableResponse.class, () -> users.deleteUser("u1"));
+    assertFalse(primary.status().healthy());
+
+    // Neither change was made, or sent to the change feeds.
+    assertNull(todos.getTodo("t3"));
+    assertEquals(2, todos.size());
+    assertNotNull(users.getUser("u1"));
+    assertEquals(0, todos.changes().lastSequence());
+    assertEquals(0, users.changes().lastSequence());
+    // And the log stays failed, so later changes are turned away too.
+    assertThrows(ServiceUnavailableResponse.class, () -> todos.deleteTodo("t1"));
+    assertNotNull(todos.getTodo("t1"));
+  }
+
+  @Test
+  public void primaryReportsItsStatus() throws IOException {
+    LogShipper primary = startPrimary();
+    ReplicationStatus status = primary.status();
+    assertEquals("primary", status.role());
+    assertEquals(0, status.sequence());
+    assertTrue(status.healthy());
+  }
+
+  private LogShipper startPrimary() throws IOException {
+    LogShipper shipper = LogShipper.start(directory, todos, users);
+    opened.add(shipper);
+    return shipper;
+  }
+
+  private Replica startReplica() throws IOException {
+    Replica replica = Replica.load(directory, StorageBackend.INDEXED);
+    opened.add(replica);
+    return replica;
+  }
+}
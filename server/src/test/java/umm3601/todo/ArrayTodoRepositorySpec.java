@@ -0,0 +1,11 @@
+package umm3601.todo;
+
+/**
+ * Runs the `TodoRepositoryContract` tests against `ArrayTodoRepository`.
+ */
+public class ArrayTodoRepositorySpec extends TodoRepositoryContract {
+  @Override
+  protected TodoRepository createRepository(Todo[] todos) {
+    return new ArrayTodoRepository(todos);
+  }
+}
@@ -0,0 +1,107 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static umm3601.Fixtures.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the `TodoRepositoryContract` tests against `IndexedTodoRepository`.
+ * <p>
+ * Those only make a few changes, which stay pending, so this also checks
+ * that lots of changes (merged into new indexes many times over) give the
+ * same answers as `ArrayTodoRepository`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class IndexedTodoRepositorySpec extends TodoRepositoryContract {
+
+  private static final String[] OWNERS = { "Blanche", "blanche", "Fry", "Dawn" };
+  private static final String[] CATEGORIES = { "homework", "Homework", "video games" };
+
+  @Override
+  protected TodoRepository createRepository(Todo[] todos) {
+    return new IndexedTodoRepository(todos);
+  }
+
+  private static Todo randomTodo(Random random, String id) {
+    String body = (random.nextBoolean() ? "Lorem ipsum " : "Dolor sit amet ") + random.nextInt(30);
+    return todo(id, OWNERS[random.nextInt(OWNERS.length)], random.nextBoolean(), body,
+        CATEGORIES[random.nextInt(CATEGORIES.length)]);
+  }
+
+  private static TodoQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return TodoQuery.fromParams(params);
+  }
+
+  private static List<String> ids(Todo[] todos) {
+    return Arrays.stream(todos).map(todo -> todo._id).toList();
+  }
+
+  private static String idOf(Todo todo) {
+    return todo == null ? null : todo._id;
+  }
+
+  private static void assertSameAnswers(TodoRepository expected, TodoRepository actual) {
+    assertEquals(expected.size(), actual.size());
+    TodoQuery[] queries = {
+        TodoQuery.ALL,
+        query("owner", "blanche"),
+        query("category", "homework", "status", "complete"),
+        query("contains", "IPSUM", "orderBy", "body"),
+        query("contains", "ipsum 1", "owner", "fry", "limit", "3"),
+        query("orderBy", "owner", "limit", "7")
+    };
+    for (TodoQuery query : queries) {
+      assertEquals(ids(expected.find(query)), ids(actual.find(query)));
+      assertEquals(expected.count(query), actual.count(query));
+      for (String field : List.of("owner", "category", "status")) {
+        assertEquals(expected.countBy(field, query), actual.countBy(field, query));
+      }
+    }
+    List<String> visited = new ArrayList<>();
+    actual.forEach(todo -> visited.add(todo._id));
+    assertEquals(ids(expected.find(TodoQuery.ALL)), visited);
+  }
+
+  @Test
+  public void changesGiveTheSameAnswersAcrossMerges() {
+    Random random = new Random(3601);
+    Todo[] todos = new Todo[40];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = randomTodo(random, "t" + i);
+    }
+    TodoRepository expected = new ArrayTodoRepository(todos);
+    // Merge after every 5 changes.
+    TodoRepository actual = new IndexedTodoRepository(todos, 5);
+
+    for (int change = 0; change < 200; change++) {
+      if (random.nextInt(3) == 0 && expected.size() > 0) {
+        // Remove a todo that's either in the index or was added since,
+        // or (now and then) one that isn't there at all.
+        Todo[] all = expected.find(TodoQuery.ALL);
+        String id = random.nextInt(10) == 0 ? "missing" : all[random.nextInt(all.length)]._id;
+        assertEquals(idOf(expected.remove(id)), idOf(actual.remove(id)));
+      } else {
+        // Reuse a removed todo's ID now and then.
+        String id = random.nextInt(10) == 0 ? "t" + random.nextInt(todos.length) : "n" + change;
+        Todo todo = randomTodo(random, id);
+        if (expected.get(id) == null) {
+          expected.add(todo);
+          actual.add(todo);
+        }
+      }
+      assertSameAnswers(expected, actual);
+    }
+  }
+}
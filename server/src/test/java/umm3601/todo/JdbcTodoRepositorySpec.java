@@ -0,0 +1,88 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static umm3601.Fixtures.todo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.Ids;
+
+/**
+ * Runs the `TodoRepositoryContract` tests against `JdbcTodoRepository`, each
+ * with its own in-memory H2 database.
+ */
+public class JdbcTodoRepositorySpec extends TodoRepositoryContract {
+  @Override
+  protected TodoRepository createRepository(Todo[] todos) {
+    return new JdbcTodoRepository("jdbc:h2:mem:todos-" + Ids.newId(), todos);
+  }
+
+  @Test
+  public void onlyLoadsTheInitialTodosIntoAnEmptyTable() {
+    String url = "jdbc:h2:mem:todos-" + Ids.newId();
+    Todo[] todos = { todo("t1", "Fry", true, "Ipsum", "homework") };
+    JdbcTodoRepository first = new JdbcTodoRepository(url, todos);
+    first.add(todo("t2", "Dawn", false, "Magna", "groceries"));
+
+    // A second repository on the same database keeps what's already there.
+    JdbcTodoRepository second = new JdbcTodoRepository(url, todos);
+    assertEquals(2, second.size());
+    second.add(todo("t3", "Blanche", false, "Tempor", "homework"));
+    assertEquals("t3", second.find(TodoQuery.ALL)[2]._id);
+  }
+
+  @Test
+  public void keepsChangesInAnOnDiskDatabase() throws IOException, SQLException {
+    Path directory = Files.createTempDirectory("jdbc-todos");
+    String url = "jdbc:h2:file:" + directory.resolve("todos");
+    try {
+      JdbcTodoRepository first = new JdbcTodoRepository(url, new Todo[] {
+          todo("t1", "Fry", true, "Ipsum", "homework"),
+          todo("t2", "Dawn", false, "Magna", "groceries") });
+      first.add(todo("t3", "fry", false, "Tempor", "homework"));
+      first.remove("t1");
+      shutDown(url);
+
+      // As if the server had restarted, with a different JSON file.
+      JdbcTodoRepository second = new JdbcTodoRepository(url, new Todo[0]);
+      second.add(todo("t4", "Blanche", true, "Dolor", "software design"));
+      assertEquals(List.of("t2", "t3", "t4"), ids(second.find(TodoQuery.ALL)));
+      assertEquals(new TreeMap<>(Map.of("Blanche", 1, "Dawn", 1, "fry", 1)),
+          second.countBy("owner", TodoQuery.ALL));
+      shutDown(url);
+    } finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  // Close the database, and with it the repository's connection, so the
+  // next repository has to read it back from the file.
+  private static void shutDown(String url) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  private static List<String> ids(Todo[] todos) {
+    return Arrays.stream(todos).map(todo -> todo._id).toList();
+  }
+}
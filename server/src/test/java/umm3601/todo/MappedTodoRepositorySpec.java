@@ -0,0 +1,77 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static umm3601.Fixtures.todo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the `TodoRepositoryContract` tests against `MappedTodoRepository`.
+ * <p>
+ * The repositories here map their files in tiny (64 byte) chunks, so lots of
+ * strings straddle two chunks, and the files grow many times.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MappedTodoRepositorySpec extends TodoRepositoryContract {
+
+  private static final int TINY_CHUNK_BITS = 6;
+
+  private final List<MappedTodoRepository> opened = new ArrayList<>();
+
+  @Override
+  protected TodoRepository createRepository(Todo[] todos) {
+    try {
+      MappedTodoRepository repository = new MappedTodoRepository(
+          Files.createTempDirectory("mapped-todos"), todos, TINY_CHUNK_BITS);
+      opened.add(repository);
+      return repository;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @AfterEach
+  public void closeRepositories() {
+    opened.forEach(MappedTodoRepository::close);
+  }
+
+  @Test
+  public void growsPastItsInitialSize() {
+    MappedTodoRepository repository = (MappedTodoRepository) createRepository(new Todo[0]);
+    // Enough todos that the ID table has to be rebuilt a few times.
+    for (int i = 0; i < 5000; i++) {
+      repository.add(todo("id" + i, "Owner" + (i % 7), i % 3 == 0, "Body ünïcode " + i, "cat" + (i % 5)));
+    }
+    for (int i = 0; i < 5000; i += 2) {
+      repository.remove("id" + i);
+    }
+    assertEquals(2500, repository.size());
+    assertNull(repository.get("id1000"));
+    assertEquals("Body ünïcode 4999", repository.get("id4999").body);
+    assertEquals("Owner1", repository.get("id4999").owner);
+    Todo[] found = repository.find(TodoQuery.fromParams(Map.of("contains", List.of("ÜNÏCODE 4999"))));
+    assertEquals(1, found.length);
+    assertEquals("id4999", found[0]._id);
+
+    // An `_id` can be reused once its todo has been removed.
+    repository.add(todo("id0", "Dawn", true, "Back again", "homework"));
+    assertEquals("Dawn", repository.get("id0").owner);
+  }
+
+  @Test
+  public void findsBytesInBytes() {
+    byte[] haystack = "abcabd".getBytes();
+    assertEquals(3, MappedTodoRepository.indexOf(haystack, haystack.length, "abd".getBytes()));
+    assertEquals(-1, MappedTodoRepository.indexOf(haystack, 5, "abd".getBytes()));
+    assertEquals(0, MappedTodoRepository.indexOf(haystack, 0, new byte[0]));
+  }
+}
@@ -0,0 +1,97 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static umm3601.Fixtures.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.Footprint;
+
+/**
+ * Runs the `TodoRepositoryContract` tests against `ShardedTodoRepository`,
+ * with three indexed shards and a threshold of 0, so every query runs in
+ * parallel and has to be merged.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ShardedTodoRepositorySpec extends TodoRepositoryContract {
+
+  private final List<ShardedTodoRepository> opened = new ArrayList<>();
+
+  @Override
+  protected TodoRepository createRepository(Todo[] todos) {
+    return sharded(todos, 3);
+  }
+
+  private ShardedTodoRepository sharded(Todo[] todos, int shards) {
+    ShardedTodoRepository repository = new ShardedTodoRepository(todos, shards, 0, 2,
+        (shardTodos, shard) -> new IndexedTodoRepository(shardTodos));
+    opened.add(repository);
+    return repository;
+  }
+
+  @AfterEach
+  public void closeRepositories() {
+    opened.forEach(ShardedTodoRepository::close);
+  }
+
+  @Test
+  public void addsUpTheShardsFootprints() {
+    Todo[] todos = new Todo[10];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = todo("t" + i, "Fry", i % 2 == 0, "body " + i, "homework");
+    }
+    List<Footprint> single = new IndexedTodoRepository(todos).footprint();
+    List<Footprint> sharded = sharded(todos, 3).footprint();
+    assertEquals(single.stream().map(Footprint::structure).toList(),
+        sharded.stream().map(Footprint::structure).toList());
+    for (int i = 0; i < single.size(); i++) {
+      Footprint whole = single.get(i);
+      Footprint parts = sharded.get(i);
+      if (!whole.structure().endsWith("Postings")) {
+        // Every shard has the same owner, category, and statuses, so the
+        // postings' values are counted once per shard.
+        assertEquals(whole.entries(), parts.entries(), whole.structure());
+      }
+    }
+  }
+
+  @Test
+  public void answersLikeASingleRepository() {
+    Random random = new Random(3601);
+    String[] owners = { "Blanche", "blanche", "Fry", "Dawn", "Roberta" };
+    String[] categories = { "homework", "groceries", "video games" };
+    Todo[] todos = new Todo[500];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = todo("t" + i, owners[random.nextInt(owners.length)], random.nextBoolean(),
+          "body " + random.nextInt(50), categories[random.nextInt(categories.length)]);
+    }
+    TodoRepository single = new ArrayTodoRepository(todos);
+    TodoRepository sharded = sharded(todos, 7);
+
+    List<Map<String, List<String>>> queries = List.of(
+        Map.of(),
+        Map.of("limit", List.of("10")),
+        Map.of("orderBy", List.of("owner")),
+        Map.of("orderBy", List.of("status"), "limit", List.of("123")),
+        Map.of("orderBy", List.of("body"), "owner", List.of("BLANCHE"), "limit", List.of("40")),
+        Map.of("orderBy", List.of("category"), "contains", List.of("body 4")),
+        Map.of("status", List.of("complete"), "category", List.of("Homework")));
+    for (Map<String, List<String>> params : queries) {
+      TodoQuery query = TodoQuery.fromParams(params);
+      assertEquals(ids(single.find(query)), ids(sharded.find(query)), params.toString());
+      assertEquals(single.count(query), sharded.count(query));
+      assertEquals(single.countBy("owner", query), sharded.countBy("owner", query));
+    }
+  }
+
+  private static List<String> ids(Todo[] todos) {
+    return Arrays.stream(todos).map(todo -> todo._id).toList();
+  }
+}
@@ -1,16 +1,27 @@
 package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static umm3601.Fixtures.servletStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -24,9 +35,20 @@ import org.mockito.MockitoAnnotations;
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.sse.SseClient;
+import umm3601.BatchResult;
+import umm3601.ChangeEvent;
+import umm3601.ChangeFeed;
+import umm3601.DatasetStats;
+import umm3601.Estimate;
+import umm3601.GroupCounts;
 import umm3601.Main;
+import umm3601.Server;
+import umm3601.WireFormat;
 
 /**
  * Tests the logic of the TodoController
@@ -109,6 +131,53 @@ public class TodoControllerSpec {
     });
   }
 
+  /**
+   * Verify that a replica's controller turns away requests to add or
+   * delete todos, since they'd make it differ from the primary.
+   */
+  @Test
+  public void replicaRefusesChanges() throws Exception {
+    TodoController replica = TodoController.forReplica(db);
+    Javalin mockServer = Mockito.mock(Javalin.class);
+    replica.addRoutes(mockServer);
+    ArgumentCaptor<Handler> add = ArgumentCaptor.forClass(Handler.class);
+    verify(mockServer).post(eq("api/todos"), add.capture());
+    ArgumentCaptor<Handler> delete = ArgumentCaptor.forClass(Handler.class);
+    verify(mockServer).delete(eq("api/todos/{id}"), delete.capture());
+
+    int size = db.size();
+    when(ctx.pathParam("id")).thenReturn(db.listTodos(new HashMap<>())[0]._id);
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> add.getValue().handle(ctx));
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> delete.getValue().handle(ctx));
+    assertEquals(size, db.size());
+  }
+
+  @Test
+  public void statsDescribeTheTodosAndFollowChanges() {
+    Todo[] todos = db.listTodos(new HashMap<>());
+    int owners = (int) Arrays.stream(todos).map(todo -> todo.owner).distinct().count();
+    int categories = (int) Arrays.stream(todos).map(todo -> todo.category).distinct().count();
+
+    DatasetStats stats = todoController.stats();
+    assertEquals("todos", todoController.statsName());
+    assertEquals(db.size(), stats.records());
+    assertEquals(owners, stats.cardinalities().get("owner"));
+    assertEquals(categories, stats.cardinalities().get("category"));
+    assertTrue(stats.caches().containsKey("fieldWriters"));
+    assertEquals(0, stats.caches().get("changeFeed"));
+
+    Todo todo = new Todo();
+    todo.owner = "Somebody New";
+    todo.status = false;
+    todo.body = "Count me";
+    todo.category = "homework";
+    db.addTodo(todo);
+    stats = todoController.stats();
+    assertEquals(todos.length + 1, stats.records());
+    assertEquals(owners + 1, stats.cardinalities().get("owner"));
+    assertEquals(1, stats.caches().get("changeFeed"));
+  }
+
   @Test
   public void canGetAllTodos() throws IOException {
     // Call the method on the mock context, which doesn't
@@ -455,4 +524,420 @@ public class TodoControllerSpec {
     });
     assertEquals("No todo with id " + "invalidID" + " was found.", exception.getMessage());
   }
+
+  /**
+   * Confirm that `fields` limits the properties of each todo in the
+   * response to just the requested ones.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canProjectTodoFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,owner" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    // The projected JSON goes to `result()` rather than `json()`.
+    ArgumentCaptor<byte[]> resultCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(resultCaptor.capture());
+    JsonNode todos = new ObjectMapper().readTree(resultCaptor.getValue());
+    assertEquals(db.size(), todos.size());
+    for (JsonNode todo : todos) {
+      assertEquals(2, todo.size());
+      assertTrue(todo.has("_id"));
+      assertTrue(todo.has("owner"));
+      assertFalse(todo.has("body"));
+    }
+  }
+
+  /**
+   * Confirm that asking for a field that Todos don't have gets a
+   * 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalField() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,shoeSize" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+    assertEquals("Specified field 'shoeSize' is not a todo attribute", exception.getMessage());
+  }
+
+  /**
+   * Confirm that a client asking for CBOR gets it, streamed to the response,
+   * rather than JSON.
+   *
+   * @throws IOException if the response can't be decoded
+   */
+  @Test
+  public void canRespondWithCbor() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    when(ctx.header("Accept")).thenReturn("application/cbor");
+    when(ctx.outputStream()).thenReturn(servletStream(response));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).contentType("application/cbor");
+    verify(ctx, Mockito.never()).json(any());
+    JsonNode todos = WireFormat.CBOR.mapper().readTree(response.toByteArray());
+    assertEquals(db.size(), todos.size());
+  }
+
+  /**
+   * Confirm that `fields` also works for binary formats.
+   *
+   * @throws IOException if the response can't be decoded
+   */
+  @Test
+  public void canProjectTodoFieldsInSmile() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "owner" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header("Accept")).thenReturn("application/json;q=0.5, application/x-jackson-smile");
+    when(ctx.outputStream()).thenReturn(servletStream(response));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).contentType("application/x-jackson-smile");
+    JsonNode todos = WireFormat.SMILE.mapper().readTree(response.toByteArray());
+    assertEquals(db.size(), todos.size());
+    for (JsonNode todo : todos) {
+      assertEquals(1, todo.size());
+      assertTrue(todo.has("owner"));
+    }
+  }
+
+  /**
+   * Confirm that, with coalescing on, identical list requests share one
+   * serialized response, but only until the todos change.
+   *
+   * @throws IOException if the response can't be decoded
+   */
+  @Test
+  public void coalescedListsFollowChanges() throws IOException {
+    TodoController coalescing = new TodoController(db, Duration.ofMinutes(1));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] { "incomplete" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.jsonMapper()).thenReturn(Server.jsonMapper());
+
+    coalescing.getTodos(ctx);
+    coalescing.getTodos(ctx);
+    Todo todo = new Todo();
+    todo.owner = "Somebody New";
+    todo.status = false;
+    todo.body = "Share me";
+    todo.category = "homework";
+    db.addTodo(todo);
+    coalescing.getTodos(ctx);
+
+    ArgumentCaptor<byte[]> responses = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, Mockito.times(3)).result(responses.capture());
+    verify(ctx, Mockito.never()).json(any());
+    List<byte[]> bodies = responses.getAllValues();
+    assertSame(bodies.get(0), bodies.get(1));
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals(mapper.readTree(bodies.get(0)).size() + 1, mapper.readTree(bodies.get(2)).size());
+  }
+
+  /**
+   * Confirm that `approx=true` gets an estimate of how many todos match
+   * (which is exact, for a dataset this small), with a sample of them,
+   * instead of the todos themselves.
+   */
+  @Test
+  public void canEstimateTodos() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] { "Blanche" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "3" }));
+    queryParams.put("approx", Arrays.asList(new String[] { "true" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Estimate<Todo>> estimateCaptor = ArgumentCaptor.forClass(Estimate.class);
+    verify(ctx).json(estimateCaptor.capture());
+    Estimate<Todo> estimate = estimateCaptor.getValue();
+    assertEquals(Estimate.EXACT, estimate.method());
+    assertEquals(db.listTodos(Map.of("owner", List.of("Blanche"))).length, estimate.count());
+    assertEquals(db.size(), estimate.total());
+    assertEquals(3, estimate.sample().size());
+    for (Todo todo : estimate.sample()) {
+      assertEquals("Blanche", todo.owner);
+    }
+  }
+
+  /**
+   * Confirm that the stats endpoint counts every todo, grouped by owner,
+   * category, and status, when there are no filters.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canCountAllTodos() throws IOException {
+    todoController.getTodoStats(ctx);
+
+    ArgumentCaptor<GroupCounts> statsCaptor = ArgumentCaptor.forClass(GroupCounts.class);
+    verify(ctx).json(statsCaptor.capture());
+    GroupCounts stats = statsCaptor.getValue();
+    assertEquals(db.size(), stats.count());
+    assertEquals(3, stats.groups().size());
+    for (Map<String, Integer> group : stats.groups().values()) {
+      assertEquals(db.size(), group.values().stream().mapToInt(Integer::intValue).sum());
+    }
+    assertEquals(61, stats.groups().get("owner").get("Fry"));
+  }
+
+  /**
+   * Confirm that the stats respect the same filters as the list of todos,
+   * and that `groupBy` picks which groups are counted.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canCountFilteredTodosByStatus() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] { "fry" }));
+    queryParams.put("groupBy", Arrays.asList(new String[] { "status" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodoStats(ctx);
+
+    ArgumentCaptor<GroupCounts> statsCaptor = ArgumentCaptor.forClass(GroupCounts.class);
+    verify(ctx).json(statsCaptor.capture());
+    GroupCounts stats = statsCaptor.getValue();
+
+    // Compare against the (filtered) lists of todos.
+    Map<String, List<String>> complete = new HashMap<>(queryParams);
+    complete.put("status", Arrays.asList("complete"));
+    Map<String, List<String>> incomplete = new HashMap<>(queryParams);
+    incomplete.put("status", Arrays.asList("incomplete"));
+    assertEquals(db.listTodos(queryParams).length, stats.count());
+    assertEquals(Map.of(
+        "complete", db.listTodos(complete).length,
+        "incomplete", db.listTodos(incomplete).length),
+        stats.groups().get("status"));
+    assertEquals(Set.of("status"), stats.groups().keySet());
+  }
+
+  /**
+   * Confirm that grouping by something that can't be grouped gets a
+   * 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalGroupBy() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("groupBy", Arrays.asList(new String[] { "body" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodoStats(ctx);
+    });
+  }
+
+  /**
+   * Confirm that a batch request returns the todos that exist and
+   * reports the IDs that don't.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canGetBatchOfTodos() throws IOException {
+    String first = "58895985c1849992336c219b";
+    String second = "58895985a22c04e761776d54";
+    when(ctx.queryParams("ids")).thenReturn(Arrays.asList(first + "," + second + ",invalidID"));
+
+    todoController.getTodoBatch(ctx);
+
+    ArgumentCaptor<BatchResult<Todo>> batchCaptor = ArgumentCaptor.forClass(BatchResult.class);
+    verify(ctx).json(batchCaptor.capture());
+    BatchResult<Todo> batch = batchCaptor.getValue();
+    assertEquals(Arrays.asList(db.getTodo(first), db.getTodo(second)), batch.found());
+    assertEquals(Arrays.asList("invalidID"), batch.missing());
+  }
+
+  /**
+   * Confirm that the IDs for a batch can also be sent as a JSON array in
+   * the body of a POST, and that an empty array is rejected.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canPostBatchOfTodos() throws IOException {
+    String id = "58895985c1849992336c219b";
+    when(ctx.bodyAsClass(String[].class)).thenReturn(new String[] { id }, new String[] {});
+
+    todoController.postTodoBatch(ctx);
+
+    ArgumentCaptor<BatchResult<Todo>> batchCaptor = ArgumentCaptor.forClass(BatchResult.class);
+    verify(ctx).json(batchCaptor.capture());
+    assertEquals(Arrays.asList(db.getTodo(id)), batchCaptor.getValue().found());
+    assertTrue(batchCaptor.getValue().missing().isEmpty());
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.postTodoBatch(ctx);
+    });
+  }
+
+  @Test
+  public void canAddNewTodo() {
+    Todo newTodo = new Todo();
+    newTodo.owner = "Test Owner";
+    newTodo.status = false;
+    newTodo.body = "Write some tests";
+    newTodo.category = "homework";
+    when(ctx.bodyAsClass(Todo.class)).thenReturn(newTodo);
+    int sizeBefore = db.size();
+
+    todoController.addNewTodo(ctx);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    assertEquals(sizeBefore + 1, db.size());
+    // The new todo was given an ID, can be looked up and listed, and is in
+    // the change feed.
+    assertTrue(newTodo._id != null);
+    assertEquals(newTodo, db.getTodo(newTodo._id));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList("test owner"));
+    assertEquals(1, db.listTodos(queryParams).length);
+    List<ChangeEvent<Todo>> events = db.changes().eventsAfter(0);
+    assertEquals(1, events.size());
+    assertEquals(ChangeEvent.CREATED, events.get(0).type());
+    assertEquals(newTodo._id, events.get(0).id());
+  }
+
+  @Test
+  public void addNewTodoRejectsIllegalTodos() {
+    Todo noOwner = new Todo();
+    noOwner.body = "Write some tests";
+    noOwner.category = "homework";
+    when(ctx.bodyAsClass(Todo.class)).thenReturn(noOwner);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodo(ctx);
+    });
+
+    Todo duplicate = new Todo();
+    duplicate._id = "58895985c1849992336c219b";
+    duplicate.owner = "Fry";
+    duplicate.body = "Again";
+    duplicate.category = "homework";
+    when(ctx.bodyAsClass(Todo.class)).thenReturn(duplicate);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodo(ctx);
+    });
+
+    assertEquals(0, db.changes().lastSequence());
+  }
+
+  @Test
+  public void canDeleteTodo() {
+    String id = "58895985c1849992336c219b";
+    int sizeBefore = db.size();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    todoController.deleteTodo(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(sizeBefore - 1, db.size());
+    assertEquals(null, db.getTodo(id));
+    assertEquals(ChangeEvent.DELETED, db.changes().eventsAfter(0).get(0).type());
+
+    // Deleting it again is a 404.
+    Assertions.assertThrows(NotFoundResponse.class, () -> {
+      todoController.deleteTodo(ctx);
+    });
+  }
+
+  @Test
+  public void changeFilterMatchesListFilters() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList("fry"));
+    queryParams.put("status", Arrays.asList("complete"));
+    Predicate<Todo> filter = db.changeFilter(queryParams);
+
+    Todo[] matching = db.listTodos(queryParams);
+    for (Todo todo : matching) {
+      assertTrue(filter.test(todo));
+    }
+    Map<String, List<String>> noParams = new HashMap<>();
+    long matchCount = Arrays.stream(db.listTodos(noParams)).filter(filter).count();
+    assertEquals(matching.length, matchCount);
+
+    queryParams.put("status", Arrays.asList("bad"));
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.changeFilter(queryParams));
+  }
+
+  @Test
+  public void streamsMatchingChangesToSubscribers() throws Exception {
+    SseClient client = Mockito.mock(SseClient.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("category", Arrays.asList("groceries"));
+    when(client.ctx()).thenReturn(ctx);
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.streamTodoChanges(client);
+    ArgumentCaptor<Runnable> onClose = ArgumentCaptor.forClass(Runnable.class);
+    verify(client).keepAlive();
+    verify(client).onClose(onClose.capture());
+    assertEquals(1, db.changes().subscriberCount());
+
+    Todo homework = new Todo();
+    homework.owner = "Test Owner";
+    homework.body = "Not for this subscriber";
+    homework.category = "homework";
+    db.addTodo(homework);
+    Todo groceries = new Todo();
+    groceries.owner = "Test Owner";
+    groceries.body = "Buy some milk";
+    groceries.category = "groceries";
+    db.addTodo(groceries);
+
+    // Only the second change matches the subscriber's filter.
+    verify(client, Mockito.timeout(5000)).sendEvent(eq(ChangeEvent.CREATED), any(), eq("2"));
+    verify(client, Mockito.never()).sendEvent(any(), any(), eq("1"));
+
+    // Closing the connection stops the subscriber.
+    onClose.getValue().run();
+    verify(client, Mockito.timeout(5000)).close();
+  }
+
+  @Test
+  public void streamRejectsIllegalFilters() {
+    SseClient client = Mockito.mock(SseClient.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList("bad"));
+    when(client.ctx()).thenReturn(ctx);
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.streamTodoChanges(client);
+
+    verify(client).sendEvent(eq("error"), any());
+    verify(client).close();
+    assertEquals(0, db.changes().subscriberCount());
+  }
+
+  @Test
+  public void changeFeedDropsOverwrittenEvents() {
+    ChangeFeed<Todo> feed = new ChangeFeed<>(4, 1);
+    Todo todo = db.getTodo("58895985c1849992336c219b");
+    for (int i = 0; i < 6; i++) {
+      feed.publish(ChangeEvent.CREATED, todo._id, todo);
+    }
+    assertEquals(6, feed.lastSequence());
+    // The last 4 changes are still there...
+    assertEquals(4, feed.eventsAfter(2).size());
+    assertEquals(3, feed.eventsAfter(2).get(0).sequence());
+    // ...but the first two have been overwritten, so a subscriber that
+    // hasn't seen them has to start over.
+    assertEquals(null, feed.eventsAfter(0));
+  }
 }
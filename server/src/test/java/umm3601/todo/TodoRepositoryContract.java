@@ -0,0 +1,194 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.Fixtures.todo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.Cancellation;
+import umm3601.Footprint;
+
+/**
+ * The tests every `TodoRepository` has to pass, so all the storage backends
+ * answer queries the same way.
+ * <p>
+ * Each implementation gets a (tiny) subclass that says how to build one; the
+ * tests here use a small, fixed set of todos chosen to hit the awkward cases
+ * (owners differing only in case, ties when sorting, `%` and `_` in bodies).
+ * Results are compared by `_id`, since some repositories (e.g., JDBC) hand
+ * back new `Todo` objects rather than the ones they were given.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public abstract class TodoRepositoryContract {
+
+  private TodoRepository repository;
+
+  /**
+   * Build the repository being tested.
+   *
+   * @param todos the todos it should start with
+   * @return a repository holding exactly those todos
+   */
+  protected abstract TodoRepository createRepository(Todo[] todos);
+
+  @BeforeEach
+  public void setUp() {
+    repository = createRepository(new Todo[] {
+        todo("t1", "Blanche", false, "In sunt ex non tempor", "software design"),
+        todo("t2", "Fry", true, "Ipsum esse est 100% ullamco", "video games"),
+        todo("t3", "blanche", true, "Ullamco irure laborum", "homework"),
+        todo("t4", "Dawn", false, "Magna ex_cepteur", "video games"),
+        todo("t5", "Fry", false, "ipsum dolor", "Homework")
+    });
+  }
+
+  // Build a query from alternating parameter names and values.
+  private static TodoQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return TodoQuery.fromParams(params);
+  }
+
+  private static List<String> ids(Todo[] todos) {
+    return Arrays.stream(todos).map(todo -> todo._id).toList();
+  }
+
+  @Test
+  public void reportsAPlausibleFootprint() {
+    for (Footprint footprint : repository.footprint()) {
+      assertTrue(footprint.entries() > 0, footprint.structure());
+      assertTrue(footprint.estimatedBytes() > 0, footprint.structure());
+      assertTrue(footprint.buildMillis() >= 0, footprint.structure());
+    }
+  }
+
+  @Test
+  public void findsEverythingInStoredOrder() {
+    assertEquals(5, repository.size());
+    assertEquals(List.of("t1", "t2", "t3", "t4", "t5"), ids(repository.find(TodoQuery.ALL)));
+  }
+
+  @Test
+  public void getsTodosById() {
+    Todo todo = repository.get("t4");
+    assertEquals("t4", todo._id);
+    assertEquals("Dawn", todo.owner);
+    assertFalse(todo.status);
+    assertEquals("Magna ex_cepteur", todo.body);
+    assertEquals("video games", todo.category);
+    assertNull(repository.get("nope"));
+  }
+
+  @Test
+  public void filtersByOwnerAndCategoryIgnoringCase() {
+    assertEquals(List.of("t1", "t3"), ids(repository.find(query("owner", "BLANCHE"))));
+    assertEquals(List.of("t3", "t5"), ids(repository.find(query("category", "homework"))));
+  }
+
+  @Test
+  public void filtersByStatus() {
+    assertEquals(List.of("t2", "t3"), ids(repository.find(query("status", "complete"))));
+    assertEquals(List.of("t5"), ids(repository.find(query("status", "incomplete", "owner", "fry"))));
+  }
+
+  @Test
+  public void filtersByBodyContentsLiterally() {
+    assertEquals(List.of("t2", "t5"), ids(repository.find(query("contains", "IPSUM"))));
+    // `%` and `_` are plain text, not wildcards.
+    assertEquals(List.of("t2"), ids(repository.find(query("contains", "%"))));
+    assertEquals(List.of("t4"), ids(repository.find(query("contains", "x_c"))));
+    assertEquals(List.of(), ids(repository.find(query("contains", "s_n"))));
+  }
+
+  @Test
+  public void sortsStablyByTheRequestedField() {
+    // Upper case sorts before lower case, and ties keep the stored order.
+    assertEquals(List.of("t1", "t4", "t2", "t5", "t3"), ids(repository.find(query("orderBy", "owner"))));
+    assertEquals(List.of("t1", "t4", "t5", "t2", "t3"), ids(repository.find(query("orderBy", "status"))));
+  }
+
+  @Test
+  public void limitsTheResults() {
+    assertEquals(List.of("t1", "t4"), ids(repository.find(query("orderBy", "owner", "limit", "2"))));
+    assertEquals(List.of(), ids(repository.find(query("limit", "0"))));
+    // A limit past the end just returns everything.
+    assertEquals(5, repository.find(query("limit", "100")).length);
+  }
+
+  @Test
+  public void countsMatchingTodos() {
+    assertEquals(5, repository.count(TodoQuery.ALL));
+    assertEquals(3, repository.count(query("status", "incomplete")));
+    assertEquals(0, repository.count(query("owner", "nobody")));
+  }
+
+  @Test
+  public void countsTodosByField() {
+    assertEquals(new TreeMap<>(Map.of("Blanche", 1, "Dawn", 1, "Fry", 2, "blanche", 1)),
+        repository.countBy("owner", TodoQuery.ALL));
+    assertEquals(new TreeMap<>(Map.of("complete", 2, "incomplete", 3)),
+        repository.countBy("status", TodoQuery.ALL));
+    assertEquals(new TreeMap<>(Map.of("Homework", 1, "video games", 1)),
+        repository.countBy("category", query("owner", "Fry")));
+  }
+
+  @Test
+  public void refusesToCountByBody() {
+    assertThrows(IllegalArgumentException.class, () -> repository.countBy("body", TodoQuery.ALL));
+  }
+
+  @Test
+  public void addsTodosAtTheEnd() {
+    repository.add(todo("t6", "Roberta", true, "Sunt ipsum", "groceries"));
+    assertEquals(6, repository.size());
+    assertEquals("Roberta", repository.get("t6").owner);
+    assertEquals(List.of("t2", "t5", "t6"), ids(repository.find(query("contains", "ipsum"))));
+  }
+
+  @Test
+  public void removesTodos() {
+    assertEquals("t2", repository.remove("t2")._id);
+    assertNull(repository.get("t2"));
+    assertNull(repository.remove("t2"));
+    assertEquals(List.of("t1", "t3", "t4", "t5"), ids(repository.find(TodoQuery.ALL)));
+    assertEquals(new TreeMap<>(Map.of("incomplete", 3, "complete", 1)),
+        repository.countBy("status", TodoQuery.ALL));
+  }
+
+  @Test
+  public void visitsEveryTodoInStoredOrder() {
+    repository.remove("t2");
+    repository.add(todo("t6", "Roberta", true, "Sunt ipsum", "groceries"));
+    List<String> visited = new ArrayList<>();
+    repository.forEach(todo -> visited.add(todo._id));
+    assertEquals(List.of("t1", "t3", "t4", "t5", "t6"), visited);
+  }
+
+  @Test
+  public void stopsWhenCancelled() {
+    Cancellation cancellation = new Cancellation(Duration.ofMinutes(1));
+    assertThrows(CancellationException.class, () -> cancellation.run(() -> {
+      // As if the client went away just as the query started.
+      cancellation.cancel("client disconnected");
+      return repository.find(query("orderBy", "owner"));
+    }));
+    // Other queries are unaffected.
+    assertEquals(5, repository.find(query("orderBy", "owner")).length);
+  }
+}
@@ -0,0 +1,156 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.ApproxSettings;
+import umm3601.Estimate;
+import umm3601.Fixtures;
+
+/**
+ * Tests for `TodoSketches`, and the `approx=true` estimates `TodoDatabase`
+ * makes with them.
+ * <p>
+ * The sampled estimates are random, so these use a tiny `delta` (one in a
+ * million) to keep the tests from failing by bad luck.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoSketchesSpec {
+
+  private static final ApproxSettings SETTINGS = new ApproxSettings(0.001, 1e-6, 1000);
+
+  private static final String[] CATEGORIES = { "homework", "software design", "video games", "groceries" };
+
+  private Todo[] todos;
+  private TodoSketches sketches;
+
+  @BeforeEach
+  public void setUp() {
+    // Far more todos than the sample holds, with owners whose names differ
+    // only in case, and "ipsum" in about a third of the bodies.
+    Random random = new Random(3601);
+    todos = new Todo[20_000];
+    for (int i = 0; i < todos.length; i++) {
+      String owner = (random.nextBoolean() ? "Owner " : "OWNER ") + random.nextInt(40);
+      String body = random.nextInt(3) == 0 ? "Lorem ipsum " + i : "Dolor sit amet " + i;
+      todos[i] = Fixtures.todo("t" + i, owner, random.nextBoolean(), body,
+          CATEGORIES[random.nextInt(CATEGORIES.length)]);
+    }
+    sketches = new TodoSketches(SETTINGS, new ArrayTodoRepository(todos));
+  }
+
+  // Build a query from alternating parameter names and values.
+  private static TodoQuery query(String... namesAndValues) {
+    return TodoQuery.fromParams(params(namesAndValues));
+  }
+
+  private static Map<String, List<String>> params(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return params;
+  }
+
+  private static long actual(Todo[] all, TodoQuery query) {
+    return Arrays.stream(all).filter(query::matches).count();
+  }
+
+  private static void assertBrackets(long actual, Estimate<Todo> estimate) {
+    assertTrue(estimate.low() <= actual && actual <= estimate.high(),
+        actual + " is outside " + estimate.low() + ".." + estimate.high());
+    assertTrue(estimate.low() <= estimate.count() && estimate.count() <= estimate.high());
+  }
+
+  @Test
+  public void queriesWithoutFiltersAreExact() {
+    Estimate<Todo> estimate = sketches.estimate(query("limit", "5"), todos.length);
+    assertEquals(Estimate.EXACT, estimate.method());
+    assertEquals(todos.length, estimate.count());
+    assertEquals(5, estimate.sample().size());
+  }
+
+  @Test
+  public void sketchedFiltersAreWithinTheirErrorBound() {
+    TodoQuery[] queries = {
+        query("owner", "owner 7"),
+        query("status", "complete"),
+        query("category", "Video Games", "status", "incomplete"),
+        query("owner", "OWNER 12", "category", "homework", "status", "complete"),
+        query("owner", "nobody")
+    };
+    for (TodoQuery query : queries) {
+      Estimate<Todo> estimate = sketches.estimate(query, todos.length);
+      assertEquals(Estimate.SKETCH, estimate.method());
+      assertEquals(1 - SETTINGS.delta(), estimate.confidence());
+      assertBrackets(actual(todos, query), estimate);
+      assertTrue(estimate.high() - estimate.low() <= Math.ceil(SETTINGS.epsilon() * todos.length));
+      assertTrue(estimate.sample().stream().allMatch(query::matches));
+    }
+  }
+
+  @Test
+  public void containsIsEstimatedFromTheSample() {
+    TodoQuery query = query("contains", "IPSUM", "status", "complete", "orderBy", "owner", "limit", "10");
+    Estimate<Todo> estimate = sketches.estimate(query, todos.length);
+    assertEquals(Estimate.SAMPLE, estimate.method());
+    assertBrackets(actual(todos, query), estimate);
+    // Within about 8.5% of all the todos (see `Estimate.sampleError()`).
+    assertTrue(estimate.high() - estimate.low() <= 2 * 0.086 * todos.length);
+
+    List<Todo> sample = estimate.sample();
+    assertEquals(10, sample.size());
+    assertTrue(sample.stream().allMatch(query::matches));
+    for (int i = 1; i < sample.size(); i++) {
+      assertTrue(sample.get(i - 1).owner.compareTo(sample.get(i).owner) <= 0);
+    }
+  }
+
+  @Test
+  public void smallDatasetsAreCountedExactly() {
+    Todo[] few = Arrays.copyOf(todos, 500);
+    TodoSketches small = new TodoSketches(SETTINGS, new ArrayTodoRepository(few));
+    TodoQuery query = query("contains", "ipsum", "owner", "Owner 3");
+    Estimate<Todo> estimate = small.estimate(query, few.length);
+    assertEquals(Estimate.EXACT, estimate.method());
+    assertEquals(actual(few, query), estimate.count());
+  }
+
+  @Test
+  public void estimatesFollowChangesToTheDatabase() {
+    Todo[] some = Arrays.copyOf(todos, 200);
+    TodoDatabase db = new TodoDatabase(new ArrayTodoRepository(some), new ApproxSettings(0.001, 0.01, 20));
+    Map<String, List<String>> owner7 = params("owner", "Owner 7", "approx", "true");
+    TodoQuery query = TodoQuery.fromParams(owner7);
+
+    // Remove most of the todos, which takes most of them out of the sample
+    // too, and then add as many new ones, which fill it back up (without
+    // the database reading all the todos again).
+    for (int i = 0; i < 150; i++) {
+      db.deleteTodo(some[i]._id);
+    }
+    for (int i = 0; i < 150; i++) {
+      db.addTodo(Fixtures.todo("new" + i, "owner " + (i % 10), true, "Lorem ipsum", "homework"));
+    }
+    Todo[] left = db.listTodos(Map.of());
+    Estimate<Todo> estimate = db.estimateTodos(owner7);
+    assertEquals(200, estimate.total());
+    assertBrackets(actual(left, query), estimate);
+
+    Estimate<Todo> all = db.estimateTodos(params("approx", "true"));
+    assertEquals(20, all.sample().size());
+    List<String> ids = Arrays.stream(left).map(todo -> todo._id).toList();
+    assertTrue(all.sample().stream().allMatch(todo -> ids.contains(todo._id)));
+    assertFalse(all.sample().stream().anyMatch(todo -> todo._id.equals(some[0]._id)));
+  }
+}
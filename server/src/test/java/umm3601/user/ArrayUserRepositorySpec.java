@@ -0,0 +1,11 @@
+package umm3601.user;
+
+/**
+ * Runs the `UserRepositoryContract` tests against `ArrayUserRepository`.
+ */
+public class ArrayUserRepositorySpec extends UserRepositoryContract {
+  @Override
+  protected UserRepository createRepository(User[] users) {
+    return new ArrayUserRepository(users);
+  }
+}
@@ -0,0 +1,157 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.Fixtures.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the `UserRepositoryContract` tests against `IndexedUserRepository`.
+ * <p>
+ * Those only make a few changes, which stay pending, so this also checks
+ * that lots of changes (merged into new indexes many times over) give the
+ * same answers as `ArrayUserRepository`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class IndexedUserRepositorySpec extends UserRepositoryContract {
+
+  private static final String[] COMPANIES = { "ACME", "GLOBEX", "INITECH" };
+  private static final String[] ROLES = { "admin", "editor", "viewer" };
+
+  @Override
+  protected UserRepository createRepository(User[] users) {
+    return new IndexedUserRepository(users);
+  }
+
+  private static User randomUser(Random random, String id) {
+    return user(id, "User" + random.nextInt(20), 18 + random.nextInt(50),
+        COMPANIES[random.nextInt(COMPANIES.length)], ROLES[random.nextInt(ROLES.length)]);
+  }
+
+  private static UserQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return UserQuery.fromParams(params);
+  }
+
+  private static List<String> ids(User[] users) {
+    return Arrays.stream(users).map(user -> user._id).toList();
+  }
+
+  // Follow the cursors from the first page of `orderBy` to the last,
+  // returning the IDs of every user seen.
+  private static List<String> pageThrough(UserRepository repository, String orderBy) {
+    List<String> seen = new ArrayList<>();
+    UserQuery page = query("orderBy", orderBy, "role", "admin,viewer", "limit", "4");
+    while (page != null) {
+      User[] users = repository.find(page);
+      seen.addAll(ids(users));
+      String cursor = page.nextCursor(users);
+      page = cursor == null ? null : query("cursor", cursor, "role", "admin,viewer", "limit", "4");
+    }
+    return seen;
+  }
+
+  private static void assertSameAnswers(UserRepository expected, UserRepository actual) {
+    assertEquals(expected.size(), actual.size());
+    UserQuery[] queries = {
+        UserQuery.ALL,
+        query("company", "GLOBEX"),
+        query("ageMin", "30", "ageMax", "45", "role", "editor"),
+        query("orderBy", "age", "offset", "3", "limit", "5"),
+        query("orderBy", "name", "company", "ACME,INITECH"),
+        query("limit", "6", "offset", "2")
+    };
+    for (UserQuery query : queries) {
+      assertEquals(ids(expected.find(query)), ids(actual.find(query)));
+      assertEquals(expected.count(query), actual.count(query));
+      assertEquals(expected.countBy("company", query), actual.countBy("company", query));
+      assertEquals(expected.countBy("role", query), actual.countBy("role", query));
+      assertEquals(expected.countByAgeBucket(10, query), actual.countByAgeBucket(10, query));
+    }
+    for (String orderBy : UserIndex.ORDERINGS.keySet()) {
+      assertEquals(pageThrough(expected, orderBy), pageThrough(actual, orderBy));
+    }
+    List<String> visited = new ArrayList<>();
+    actual.forEach(user -> visited.add(user._id));
+    assertEquals(ids(expected.find(UserQuery.ALL)), visited);
+  }
+
+  @Test
+  public void changesGiveTheSameAnswersAcrossMerges() {
+    Random random = new Random(3601);
+    User[] users = new User[40];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = randomUser(random, "u" + i);
+    }
+    UserRepository expected = new ArrayUserRepository(users);
+    // Merge after every 5 changes.
+    UserRepository actual = new IndexedUserRepository(users, 5);
+
+    for (int change = 0; change < 200; change++) {
+      if (random.nextInt(3) == 0 && expected.size() > 0) {
+        // Remove a user that's either in the index or was added since,
+        // or (now and then) one that isn't there at all.
+        User[] all = expected.find(UserQuery.ALL);
+        String id = random.nextInt(10) == 0 ? "missing" : all[random.nextInt(all.length)]._id;
+        User removed = expected.remove(id);
+        assertEquals(idOf(removed), idOf(actual.remove(id)));
+      } else {
+        // Reuse a removed user's ID now and then.
+        String id = random.nextInt(10) == 0 ? "u" + random.nextInt(users.length) : "n" + change;
+        User user = randomUser(random, id);
+        if (expected.get(user._id) == null) {
+          expected.add(user);
+          actual.add(user);
+        }
+      }
+      assertSameAnswers(expected, actual);
+    }
+  }
+
+  @Test
+  public void sparseFiltersOnlyWalkThroughTheirMatches() {
+    // 1 in 50 users works at "RARE".
+    Random random = new Random(3601);
+    User[] users = new User[5000];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = randomUser(random, "u" + i);
+      if (i % 50 == 7) {
+        users[i].company = "RARE";
+      }
+    }
+    UserRepository expected = new ArrayUserRepository(users);
+    UserRepository actual = new IndexedUserRepository(users);
+    for (String orderBy : UserIndex.ORDERINGS.keySet()) {
+      List<String> seen = new ArrayList<>();
+      UserQuery page = query("orderBy", orderBy, "company", "RARE", "limit", "7");
+      while (page != null) {
+        User[] found = actual.find(page);
+        // Each page only walks through the rare users' rows (from the
+        // cursor on), not the thousands of other rows between them.
+        assertTrue(actual.explain(page).rowsScanned() <= 100);
+        seen.addAll(ids(found));
+        String cursor = page.nextCursor(found);
+        page = cursor == null ? null : query("cursor", cursor, "company", "RARE", "limit", "7");
+      }
+      assertEquals(ids(expected.find(query("orderBy", orderBy, "company", "RARE"))), seen);
+    }
+    UserQuery unordered = query("company", "RARE", "offset", "90", "limit", "20");
+    assertEquals(ids(expected.find(unordered)), ids(actual.find(unordered)));
+    assertEquals(100, actual.explain(unordered).rowsScanned());
+  }
+
+  private static String idOf(User user) {
+    return user == null ? null : user._id;
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static umm3601.Fixtures.user;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.Ids;
+
+/**
+ * Runs the `UserRepositoryContract` tests against `JdbcUserRepository`, each
+ * with its own in-memory H2 database.
+ */
+public class JdbcUserRepositorySpec extends UserRepositoryContract {
+  @Override
+  protected UserRepository createRepository(User[] users) {
+    return new JdbcUserRepository("jdbc:h2:mem:users-" + Ids.newId(), users);
+  }
+
+  @Test
+  @SuppressWarnings({ "MagicNumber" })
+  public void keepsChangesInAnOnDiskDatabase() throws IOException, SQLException {
+    Path directory = Files.createTempDirectory("jdbc-users");
+    String url = "jdbc:h2:file:" + directory.resolve("users");
+    try {
+      JdbcUserRepository first = new JdbcUserRepository(url, new User[] {
+          user("b1", "Ann", 25, "ACME", "admin"),
+          user("b2", "Bob", 31, "ACME", "viewer") });
+      first.add(user("b3", "Cal", 25, "GLOBEX", "editor"));
+      first.remove("b1");
+      shutDown(url);
+
+      // As if the server had restarted, with a different JSON file.
+      JdbcUserRepository second = new JdbcUserRepository(url, new User[0]);
+      second.add(user("b4", "Dee", 25, "ACME", "viewer"));
+      assertEquals(List.of("b2", "b3", "b4"), ids(second.find(UserQuery.ALL)));
+      assertEquals(new TreeMap<>(Map.of("ACME", 2, "GLOBEX", 1)), second.countBy("company", UserQuery.ALL));
+      // The keyset cursor still pages by (age, id).
+      UserQuery firstPage = UserQuery.fromParams(Map.of("orderBy", List.of("age"), "limit", List.of("1")));
+      User[] page = second.find(firstPage);
+      assertEquals(List.of("b3"), ids(page));
+      UserQuery next = UserQuery.fromParams(
+          Map.of("cursor", List.of(firstPage.nextCursor(page)), "limit", List.of("2")));
+      assertEquals(List.of("b4", "b2"), ids(second.find(next)));
+      shutDown(url);
+    } finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  // Close the database, and with it the repository's connection, so the
+  // next repository has to read it back from the file.
+  private static void shutDown(String url) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  private static List<String> ids(User[] users) {
+    return Arrays.stream(users).map(user -> user._id).toList();
+  }
+}
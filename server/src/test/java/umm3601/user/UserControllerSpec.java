@@ -1,18 +1,24 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,10 +31,16 @@ import org.mockito.MockitoAnnotations;
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.validation.Validation;
 import io.javalin.validation.Validator;
+import umm3601.BatchResult;
+import umm3601.ChangeEvent;
+import umm3601.Estimate;
+import umm3601.GroupCounts;
 import umm3601.Main;
 
 /**
@@ -118,6 +130,27 @@ public class UserControllerSpec {
     });
   }
 
+  /**
+   * Verify that a replica's controller turns away requests to add or
+   * delete users, since they'd make it differ from the primary.
+   */
+  @Test
+  public void replicaRefusesChanges() throws Exception {
+    UserController replica = UserController.forReplica(db);
+    Javalin mockServer = Mockito.mock(Javalin.class);
+    replica.addRoutes(mockServer);
+    ArgumentCaptor<Handler> add = ArgumentCaptor.forClass(Handler.class);
+    verify(mockServer).post(eq("/api/users"), add.capture());
+    ArgumentCaptor<Handler> delete = ArgumentCaptor.forClass(Handler.class);
+    verify(mockServer).delete(eq("/api/users/{id}"), delete.capture());
+
+    int size = db.size();
+    when(ctx.pathParam("id")).thenReturn(db.listUsers(new HashMap<>())[0]._id);
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> add.getValue().handle(ctx));
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> delete.getValue().handle(ctx));
+    assertEquals(size, db.size());
+  }
+
   @Test
   public void canGetAllUsers() throws IOException {
     // Call the method on the mock context, which doesn't
@@ -316,6 +349,272 @@ public class UserControllerSpec {
     assertEquals(1, userArrayCaptor.getValue().length);
   }
 
+  /**
+   * Confirm that `ageMin` and `ageMax` together select exactly the users
+   * whose ages fall in that (inclusive) range.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetUsersInAgeRange() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("ageMin", Arrays.asList(new String[] { "25" }));
+    queryParams.put("ageMax", Arrays.asList(new String[] { "30" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    User[] users = userArrayCaptor.getValue();
+    for (User user : users) {
+      assertTrue(user.age >= 25 && user.age <= 30);
+    }
+    // Compare against a "brute force" count over the whole database.
+    User[] allUsers = db.listUsers(new HashMap<>());
+    long expected = Arrays.stream(allUsers).filter(user -> user.age >= 25 && user.age <= 30).count();
+    assertEquals(expected, users.length);
+  }
+
+  /**
+   * Confirm that `ageMin` works without an `ageMax`.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetUsersWithMinimumAge() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("ageMin", Arrays.asList(new String[] { "40" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    User[] allUsers = db.listUsers(new HashMap<>());
+    long expected = Arrays.stream(allUsers).filter(user -> user.age >= 40).count();
+    assertEquals(expected, userArrayCaptor.getValue().length);
+    for (User user : userArrayCaptor.getValue()) {
+      assertTrue(user.age >= 40);
+    }
+  }
+
+  /**
+   * Confirm that an `ageMin` larger than `ageMax` just matches nobody.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void emptyAgeRangeMatchesNobody() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("ageMin", Arrays.asList(new String[] { "40" }));
+    queryParams.put("ageMax", Arrays.asList(new String[] { "30" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    assertEquals(0, userArrayCaptor.getValue().length);
+  }
+
+  /**
+   * Confirm that an `ageMax` that can't be parsed to a number gets
+   * a 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalAgeMax() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("ageMax", Arrays.asList(new String[] { "old" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("Specified ageMax 'old' can't be parsed to an integer", exception.getMessage());
+  }
+
+  /**
+   * Confirm that a comma separated list of roles returns the users
+   * that have any of those roles.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetUsersWithSeveralRoles() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("role", Arrays.asList(new String[] { "admin,editor" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    // There are 2 admins and 3 editors in the "database".
+    assertEquals(5, userArrayCaptor.getValue().length);
+    for (User user : userArrayCaptor.getValue()) {
+      assertTrue(user.role.equals("admin") || user.role.equals("editor"));
+    }
+  }
+
+  /**
+   * Confirm that repeating the `company` parameter returns the users
+   * from any of the given companies, and that it combines correctly
+   * with an age range.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canCombineSeveralCompaniesWithAgeRange() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] { "OHMNET", "NIQUENT" }));
+    queryParams.put("ageMax", Arrays.asList(new String[] { "25" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    User[] users = userArrayCaptor.getValue();
+    // Two OHMNET users (ages 25 and 23) and one NIQUENT user (age 25).
+    assertEquals(3, users.length);
+    for (User user : users) {
+      assertTrue(user.company.equals("OHMNET") || user.company.equals("NIQUENT"));
+      assertTrue(user.age <= 25);
+    }
+  }
+
+  /**
+   * Confirm that we can sort the users by each of the supported keys.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canSortUsers() throws IOException {
+    for (String orderBy : new String[] { "name", "age", "company", "role" }) {
+      User[] users = db.listUsers(Map.of("orderBy", Arrays.asList(orderBy)));
+      assertEquals(db.size(), users.length);
+      for (int i = 0; i < users.length - 1; i++) {
+        assertTrue(UserIndex.ORDERINGS.get(orderBy).compare(users[i], users[i + 1]) < 0);
+      }
+    }
+  }
+
+  /**
+   * Confirm that an unknown `orderBy` gets a 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalOrderBy() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "shoeSize" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  /**
+   * Confirm that `limit` and `offset` return the expected slice of an
+   * ordered list of users.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canLimitAndOffsetSortedUsers() throws IOException {
+    User[] sorted = db.listUsers(Map.of("orderBy", Arrays.asList("name")));
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "name" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "3" }));
+    queryParams.put("offset", Arrays.asList(new String[] { "2" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    User[] users = userArrayCaptor.getValue();
+    assertEquals(3, users.length);
+    for (int i = 0; i < users.length; i++) {
+      assertEquals(sorted[i + 2], users[i]);
+    }
+  }
+
+  /**
+   * Confirm that following the `X-Next-Cursor` header page by page visits
+   * every matching user exactly once, in order.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canPageThroughUsersWithCursor() throws IOException {
+    User[] sorted = db.listUsers(Map.of("orderBy", Arrays.asList("age")));
+
+    List<User> seen = new ArrayList<>();
+    String cursor = null;
+    do {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("orderBy", Arrays.asList(new String[] { "age" }));
+      queryParams.put("limit", Arrays.asList(new String[] { "3" }));
+      if (cursor != null) {
+        queryParams.put("cursor", Arrays.asList(new String[] { cursor }));
+      }
+      UserPage page = db.listUserPage(queryParams);
+      seen.addAll(Arrays.asList(page.users()));
+      cursor = page.nextCursor();
+    } while (cursor != null);
+
+    assertEquals(Arrays.asList(sorted), seen);
+  }
+
+  /**
+   * Confirm that a full page puts a cursor in the `X-Next-Cursor` header.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void setsNextCursorHeaderForFullPage() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "company" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "4" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+  }
+
+  /**
+   * Confirm that garbage cursors, and cursors used with a different
+   * `orderBy` than they were created for, get a 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalCursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("cursor", Arrays.asList(new String[] { "not a cursor!" }));
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.listUserPage(queryParams));
+
+    Map<String, List<String>> firstPage = new HashMap<>();
+    firstPage.put("orderBy", Arrays.asList(new String[] { "name" }));
+    firstPage.put("limit", Arrays.asList(new String[] { "2" }));
+    String cursor = db.listUserPage(firstPage).nextCursor();
+
+    Map<String, List<String>> mismatched = new HashMap<>();
+    mismatched.put("orderBy", Arrays.asList(new String[] { "age" }));
+    mismatched.put("cursor", Arrays.asList(new String[] { cursor }));
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.listUserPage(mismatched));
+  }
+
+  /**
+   * Confirm that a negative `limit` gets a 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToNegativeLimit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] { "-1" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("Specified limit '-1' can't be negative", exception.getMessage());
+  }
+
   /**
    * Confirm that we get a user when using a valid user ID.
    *
@@ -348,4 +647,285 @@ public class UserControllerSpec {
     });
     assertEquals("No user with id " + null + " was found.", exception.getMessage());
   }
+
+  /**
+   * Confirm that `fields` limits the properties of each user in the
+   * response to just the requested ones.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canProjectUserFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,name" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    // The projected JSON goes to `result()` rather than `json()`.
+    ArgumentCaptor<byte[]> resultCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(resultCaptor.capture());
+    JsonNode users = new ObjectMapper().readTree(resultCaptor.getValue());
+    assertEquals(db.size(), users.size());
+    for (JsonNode user : users) {
+      assertEquals(2, user.size());
+      assertTrue(user.has("_id"));
+      assertTrue(user.has("name"));
+      assertFalse(user.has("email"));
+    }
+  }
+
+  /**
+   * Confirm that asking for a field that Users don't have gets a
+   * 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalField() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,shoeSize" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("Specified field 'shoeSize' is not a user attribute", exception.getMessage());
+  }
+
+  /**
+   * Confirm that `approx=true` gets an estimate of how many users match
+   * (which is exact, for a dataset this small), with a sample of them,
+   * instead of the users themselves.
+   */
+  @Test
+  public void canEstimateUsers() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("role", Arrays.asList(new String[] { "viewer" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "3" }));
+    queryParams.put("approx", Arrays.asList(new String[] { "true" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Estimate<User>> estimateCaptor = ArgumentCaptor.forClass(Estimate.class);
+    verify(ctx).json(estimateCaptor.capture());
+    Estimate<User> estimate = estimateCaptor.getValue();
+    assertEquals(Estimate.EXACT, estimate.method());
+    assertEquals(db.listUsers(Map.of("role", List.of("viewer"))).length, estimate.count());
+    assertEquals(db.size(), estimate.total());
+    assertEquals(3, estimate.sample().size());
+    for (User user : estimate.sample()) {
+      assertEquals("viewer", user.role);
+    }
+  }
+
+  /**
+   * Confirm that the stats endpoint counts every user, grouped by company,
+   * role, and age, when there are no filters.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canCountAllUsers() throws IOException {
+    userController.getUserStats(ctx);
+
+    ArgumentCaptor<GroupCounts> statsCaptor = ArgumentCaptor.forClass(GroupCounts.class);
+    verify(ctx).json(statsCaptor.capture());
+    GroupCounts stats = statsCaptor.getValue();
+    assertEquals(db.size(), stats.count());
+    assertEquals(Map.of("admin", 2, "editor", 3, "viewer", 5), stats.groups().get("role"));
+    assertEquals(2, stats.groups().get("company").get("OHMNET"));
+    // Every user falls in exactly one age group.
+    assertEquals(db.size(), stats.groups().get("age").values().stream().mapToInt(Integer::intValue).sum());
+  }
+
+  /**
+   * Confirm that stats respect the same filters as the list of users,
+   * and that `groupBy` and `ageBucket` pick the groups.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canCountFilteredUsersByAgeBucket() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("role", Arrays.asList(new String[] { "viewer" }));
+    queryParams.put("groupBy", Arrays.asList(new String[] { "age" }));
+    queryParams.put("ageBucket", Arrays.asList(new String[] { "5" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUserStats(ctx);
+
+    ArgumentCaptor<GroupCounts> statsCaptor = ArgumentCaptor.forClass(GroupCounts.class);
+    verify(ctx).json(statsCaptor.capture());
+    GroupCounts stats = statsCaptor.getValue();
+    assertEquals(5, stats.count());
+    assertEquals(1, stats.groups().size());
+    Map<String, Integer> ageGroups = stats.groups().get("age");
+    assertEquals(5, ageGroups.values().stream().mapToInt(Integer::intValue).sum());
+
+    // Compare each age group against a "brute force" count.
+    for (Map.Entry<String, Integer> group : ageGroups.entrySet()) {
+      String[] bounds = group.getKey().split("-");
+      int low = Integer.parseInt(bounds[0]);
+      int high = Integer.parseInt(bounds[1]);
+      assertEquals(4, high - low);
+      long expected = Arrays.stream(db.listUsers(Map.of("role", Arrays.asList("viewer"))))
+          .filter(user -> user.age >= low && user.age <= high)
+          .count();
+      assertEquals(expected, (long) group.getValue());
+    }
+  }
+
+  /**
+   * Confirm that grouping by something other than company, role, or age,
+   * or asking for an age bucket that isn't positive, gets a 400 Bad
+   * Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalStatsParameters() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("groupBy", Arrays.asList(new String[] { "email" }));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUserStats(ctx);
+    });
+
+    Map<String, List<String>> zeroBucket = new HashMap<>();
+    zeroBucket.put("ageBucket", Arrays.asList(new String[] { "0" }));
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.countUsers(zeroBucket));
+  }
+
+  /**
+   * Confirm that a batch request returns the users that exist (once each,
+   * in the order requested), and reports the IDs that don't.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canGetBatchOfUsers() throws IOException {
+    String first = "588935f5c668650dc77df581";
+    String second = "588935f57546a2daea44de7c";
+    when(ctx.queryParams("ids")).thenReturn(Arrays.asList(second + "," + first, "nobody", first));
+
+    userController.getUserBatch(ctx);
+
+    ArgumentCaptor<BatchResult<User>> batchCaptor = ArgumentCaptor.forClass(BatchResult.class);
+    verify(ctx).json(batchCaptor.capture());
+    BatchResult<User> batch = batchCaptor.getValue();
+    assertEquals(Arrays.asList(db.getUser(second), db.getUser(first)), batch.found());
+    assertEquals(Arrays.asList("nobody"), batch.missing());
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  /**
+   * Confirm that the IDs for a batch can also be sent as a JSON array in
+   * the body of a POST.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canPostBatchOfUsers() throws IOException {
+    String id = "588935f5c668650dc77df581";
+    when(ctx.bodyAsClass(String[].class)).thenReturn(new String[] { id, "nobody" });
+
+    userController.postUserBatch(ctx);
+
+    ArgumentCaptor<BatchResult<User>> batchCaptor = ArgumentCaptor.forClass(BatchResult.class);
+    verify(ctx).json(batchCaptor.capture());
+    assertEquals(Arrays.asList(db.getUser(id)), batchCaptor.getValue().found());
+    assertEquals(Arrays.asList("nobody"), batchCaptor.getValue().missing());
+  }
+
+  /**
+   * Confirm that batches with no IDs, too many IDs, or a body that isn't
+   * a JSON array get a 400 Bad Request response.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalBatches() {
+    when(ctx.queryParams("ids")).thenReturn(Arrays.asList());
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUserBatch(ctx);
+    });
+
+    List<String> tooMany = new ArrayList<>();
+    for (int i = 0; i <= BatchResult.MAX_IDS; i++) {
+      tooMany.add("id" + i);
+    }
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.getUsers(tooMany));
+
+    when(ctx.bodyAsClass(String[].class)).thenThrow(new IllegalArgumentException("not JSON"));
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.postUserBatch(ctx);
+    });
+  }
+
+  @Test
+  public void canAddNewUser() {
+    User newUser = new User();
+    newUser.name = "Test User";
+    newUser.age = 25;
+    newUser.company = "testers";
+    newUser.email = "test@example.com";
+    newUser.role = "viewer";
+    when(ctx.bodyAsClass(User.class)).thenReturn(newUser);
+    int sizeBefore = db.size();
+
+    userController.addNewUser(ctx);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    assertEquals(sizeBefore + 1, db.size());
+    assertEquals(newUser, db.getUser(newUser._id));
+    // The new user is in the indexes, including the sorted orderings.
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList("testers"));
+    queryParams.put("orderBy", Arrays.asList("name"));
+    assertEquals(1, db.listUsers(queryParams).length);
+    List<ChangeEvent<User>> events = db.changes().eventsAfter(0);
+    assertEquals(1, events.size());
+    assertEquals(ChangeEvent.CREATED, events.get(0).type());
+    assertTrue(events.get(0).data().contains("\"company\":\"testers\""));
+    assertTrue(db.changeFilter(queryParams).test(events.get(0).record()));
+  }
+
+  @Test
+  public void addNewUserRejectsIllegalUsers() {
+    User badRole = new User();
+    badRole.name = "Test User";
+    badRole.age = 25;
+    badRole.company = "testers";
+    badRole.email = "test@example.com";
+    badRole.role = "overlord";
+    when(ctx.bodyAsClass(User.class)).thenReturn(badRole);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.addNewUser(ctx);
+    });
+
+    badRole.role = "viewer";
+    badRole.email = "not an email";
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.addNewUser(ctx);
+    });
+
+    assertEquals(0, db.changes().lastSequence());
+  }
+
+  @Test
+  public void canDeleteUser() {
+    String id = "588935f5c668650dc77df581";
+    int sizeBefore = db.size();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    userController.deleteUser(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(sizeBefore - 1, db.size());
+    assertEquals(null, db.getUser(id));
+    assertEquals(ChangeEvent.DELETED, db.changes().eventsAfter(0).get(0).type());
+
+    Assertions.assertThrows(NotFoundResponse.class, () -> {
+      userController.deleteUser(ctx);
+    });
+  }
 }
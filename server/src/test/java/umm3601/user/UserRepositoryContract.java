@@ -0,0 +1,204 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static umm3601.Fixtures.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.Cancellation;
+
+/**
+ * The tests every `UserRepository` has to pass, so all the storage backends
+ * answer queries (and page through them) the same way.
+ * <p>
+ * Each implementation gets a (tiny) subclass that says how to build one.
+ * Results are compared by `_id`, since some repositories (e.g., JDBC) hand
+ * back new `User` objects rather than the ones they were given.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public abstract class UserRepositoryContract {
+
+  private UserRepository repository;
+
+  /**
+   * Build the repository being tested.
+   *
+   * @param users the users it should start with
+   * @return a repository holding exactly those users
+   */
+  protected abstract UserRepository createRepository(User[] users);
+
+  @BeforeEach
+  public void setUp() {
+    repository = createRepository(new User[] {
+        user("a1", "Ann", 25, "ACME", "admin"),
+        user("a2", "Bob", 31, "ACME", "viewer"),
+        user("a3", "Cal", 25, "GLOBEX", "editor"),
+        user("a4", "Dee", 42, "INITECH", "viewer"),
+        user("a5", "Eve", 38, "GLOBEX", "viewer"),
+        user("a6", "Fay", 25, "INITECH", "admin")
+    });
+  }
+
+  // Build a query from alternating parameter names and values.
+  private static UserQuery query(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return UserQuery.fromParams(params);
+  }
+
+  private static List<String> ids(User[] users) {
+    return Arrays.stream(users).map(user -> user._id).toList();
+  }
+
+  // Follow the cursors from the first page of `orderBy` to the last,
+  // returning the IDs of every user seen.
+  private List<String> pageThrough(String orderBy, String limit) {
+    List<String> seen = new ArrayList<>();
+    UserQuery page = query("orderBy", orderBy, "limit", limit);
+    while (page != null) {
+      User[] users = repository.find(page);
+      seen.addAll(ids(users));
+      String cursor = page.nextCursor(users);
+      page = cursor == null ? null : query("cursor", cursor, "limit", limit);
+    }
+    return seen;
+  }
+
+  @Test
+  public void findsEverythingInStoredOrder() {
+    assertEquals(6, repository.size());
+    assertEquals(List.of("a1", "a2", "a3", "a4", "a5", "a6"), ids(repository.find(UserQuery.ALL)));
+  }
+
+  @Test
+  public void getsUsersById() {
+    User user = repository.get("a4");
+    assertEquals("a4", user._id);
+    assertEquals("Dee", user.name);
+    assertEquals(42, user.age);
+    assertEquals("INITECH", user.company);
+    assertEquals("dee@example.com", user.email);
+    assertEquals("viewer", user.role);
+    assertNull(repository.get("nope"));
+  }
+
+  @Test
+  public void filtersByAge() {
+    assertEquals(List.of("a1", "a3", "a6"), ids(repository.find(query("age", "25"))));
+    assertEquals(List.of("a2", "a5"), ids(repository.find(query("ageMin", "30", "ageMax", "40"))));
+    assertEquals(List.of(), ids(repository.find(query("age", "25", "ageMax", "20"))));
+  }
+
+  @Test
+  public void filtersByCompanyAndRole() {
+    assertEquals(List.of("a1", "a2", "a3", "a5"), ids(repository.find(query("company", "ACME,GLOBEX"))));
+    assertEquals(List.of("a5"), ids(repository.find(query("company", "GLOBEX", "role", "viewer"))));
+  }
+
+  @Test
+  public void sortsWithTiesBrokenById() {
+    assertEquals(List.of("a1", "a3", "a6", "a2", "a5", "a4"), ids(repository.find(query("orderBy", "age"))));
+    assertEquals(List.of("a1", "a6", "a3", "a2", "a4", "a5"), ids(repository.find(query("orderBy", "role"))));
+  }
+
+  @Test
+  public void pagesWithOffsetAndLimit() {
+    assertEquals(List.of("a3", "a4"), ids(repository.find(query("offset", "2", "limit", "2"))));
+    assertEquals(List.of("a6", "a2"), ids(repository.find(query("orderBy", "age", "offset", "2", "limit", "2"))));
+    assertEquals(List.of(), ids(repository.find(query("offset", "10"))));
+  }
+
+  @Test
+  public void pagesWithCursors() {
+    assertEquals(List.of("a1", "a3", "a6", "a2", "a5", "a4"), pageThrough("age", "4"));
+    assertEquals(List.of("a1", "a2", "a3", "a4", "a5", "a6"), pageThrough("name", "2"));
+    assertEquals(List.of("a1", "a2", "a3", "a5", "a4", "a6"), pageThrough("company", "5"));
+  }
+
+  @Test
+  public void cursorsSurviveTheirUserBeingRemoved() {
+    UserQuery first = query("orderBy", "age", "limit", "4");
+    User[] page = repository.find(first);
+    repository.remove("a2");
+    UserQuery next = query("cursor", first.nextCursor(page));
+    assertEquals(List.of("a5", "a4"), ids(repository.find(next)));
+  }
+
+  @Test
+  public void countsMatchingUsers() {
+    assertEquals(6, repository.count(UserQuery.ALL));
+    assertEquals(3, repository.count(query("role", "viewer")));
+    assertEquals(0, repository.count(query("company", "NOWHERE")));
+  }
+
+  @Test
+  public void countsUsersByField() {
+    assertEquals(new TreeMap<>(Map.of("ACME", 2, "GLOBEX", 2, "INITECH", 2)),
+        repository.countBy("company", UserQuery.ALL));
+    assertEquals(new TreeMap<>(Map.of("admin", 2, "editor", 1)),
+        repository.countBy("role", query("age", "25")));
+  }
+
+  @Test
+  public void countsUsersByAgeBucket() {
+    Map<String, Integer> buckets = repository.countByAgeBucket(10, UserQuery.ALL);
+    assertEquals(List.of("20-29", "30-39", "40-49"), new ArrayList<>(buckets.keySet()));
+    assertEquals(List.of(3, 2, 1), new ArrayList<>(buckets.values()));
+    assertEquals(Map.of("30-34", 1, "35-39", 1),
+        repository.countByAgeBucket(5, query("role", "viewer", "ageMax", "40")));
+  }
+
+  @Test
+  public void addsUsersAtTheEnd() {
+    repository.add(user("a7", "Gus", 29, "ACME", "editor"));
+    assertEquals(7, repository.size());
+    assertEquals("Gus", repository.get("a7").name);
+    assertEquals(List.of("a1", "a2", "a7"), ids(repository.find(query("company", "ACME"))));
+    assertEquals(List.of("a1", "a3", "a6", "a7", "a2", "a5", "a4"), pageThrough("age", "3"));
+  }
+
+  @Test
+  public void removesUsers() {
+    assertEquals("a3", repository.remove("a3")._id);
+    assertNull(repository.get("a3"));
+    assertNull(repository.remove("a3"));
+    assertEquals(List.of("a1", "a2", "a4", "a5", "a6"), ids(repository.find(UserQuery.ALL)));
+    assertEquals(new TreeMap<>(Map.of("admin", 2, "viewer", 3)), repository.countBy("role", UserQuery.ALL));
+  }
+
+  @Test
+  public void visitsEveryUserInStoredOrder() {
+    repository.remove("a3");
+    repository.add(user("a7", "Gina", 41, "HOOLI", "viewer"));
+    List<String> visited = new ArrayList<>();
+    repository.forEach(user -> visited.add(user._id));
+    assertEquals(List.of("a1", "a2", "a4", "a5", "a6", "a7"), visited);
+  }
+
+  @Test
+  public void stopsWhenCancelled() {
+    Cancellation cancellation = new Cancellation(Duration.ofMinutes(1));
+    assertThrows(CancellationException.class, () -> cancellation.run(() -> {
+      // As if the client went away just as the query started.
+      cancellation.cancel("client disconnected");
+      return repository.find(query());
+    }));
+    // Other queries are unaffected.
+    assertEquals(repository.size(), repository.find(query()).length);
+  }
+}
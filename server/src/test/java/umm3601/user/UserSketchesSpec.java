@@ -0,0 +1,128 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.ApproxSettings;
+import umm3601.Estimate;
+import umm3601.Fixtures;
+
+/**
+ * Tests for `UserSketches`, and the `approx=true` estimates `UserDatabase`
+ * makes with them.
+ * <p>
+ * The sampled estimates are random, so these use a tiny `delta` (one in a
+ * million) to keep the tests from failing by bad luck.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserSketchesSpec {
+
+  private static final ApproxSettings SETTINGS = new ApproxSettings(0.0001, 1e-6, 1000);
+
+  private static final String[] ROLES = { "admin", "editor", "viewer" };
+
+  private User[] users;
+  private UserSketches sketches;
+
+  @BeforeEach
+  public void setUp() {
+    Random random = new Random(3601);
+    users = new User[20_000];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = Fixtures.user("u" + i, "User" + i, 18 + random.nextInt(60),
+          "COMPANY" + random.nextInt(30), ROLES[random.nextInt(ROLES.length)]);
+    }
+    sketches = new UserSketches(SETTINGS, new ArrayUserRepository(users));
+  }
+
+  private static Map<String, List<String>> params(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+    }
+    return params;
+  }
+
+  private static UserQuery query(String... namesAndValues) {
+    return UserQuery.fromParams(params(namesAndValues));
+  }
+
+  private static long actual(User[] all, UserQuery query) {
+    return Arrays.stream(all).filter(query::matches).count();
+  }
+
+  private static void assertBrackets(long actual, Estimate<User> estimate) {
+    assertTrue(estimate.low() <= actual && actual <= estimate.high(),
+        actual + " is outside " + estimate.low() + ".." + estimate.high());
+    assertTrue(estimate.low() <= estimate.count() && estimate.count() <= estimate.high());
+  }
+
+  @Test
+  public void narrowQueriesAddUpSketchedCounts() {
+    UserQuery[] queries = {
+        query("company", "COMPANY3"),
+        query("company", "COMPANY3,COMPANY4", "role", "admin"),
+        query("age", "30"),
+        query("ageMin", "20", "ageMax", "24", "role", "editor,viewer")
+    };
+    for (UserQuery query : queries) {
+      Estimate<User> estimate = sketches.estimate(query, users.length);
+      assertEquals(Estimate.SKETCH, estimate.method());
+      assertBrackets(actual(users, query), estimate);
+      assertTrue(estimate.sample().stream().allMatch(query::matches));
+    }
+  }
+
+  @Test
+  public void wideQueriesUseTheSample() {
+    // 10 companies, 3 roles, and 60 ages is too many sketched counts to
+    // add up.
+    String companies = String.join(",", IntStream.range(0, 10).mapToObj(i -> "COMPANY" + i).toList());
+    UserQuery query = query("ageMin", "0", "company", companies, "role", "admin,editor,viewer",
+        "orderBy", "age", "limit", "3");
+    Estimate<User> estimate = sketches.estimate(query, users.length);
+    assertEquals(Estimate.SAMPLE, estimate.method());
+    assertBrackets(actual(users, query), estimate);
+    assertEquals(3, estimate.sample().size());
+    assertTrue(estimate.sample().get(0).age <= estimate.sample().get(2).age);
+  }
+
+  @Test
+  public void impossibleQueriesAreExactlyZero() {
+    for (UserQuery query : new UserQuery[] { query("ageMin", "200"), query("age", "30", "ageMax", "20") }) {
+      Estimate<User> estimate = sketches.estimate(query, users.length);
+      assertEquals(Estimate.EXACT, estimate.method());
+      assertEquals(0, estimate.count());
+    }
+    assertEquals(users.length, sketches.estimate(UserQuery.ALL, users.length).count());
+  }
+
+  @Test
+  public void estimatesFollowChangesToTheDatabase() {
+    User[] some = Arrays.copyOf(users, 100);
+    UserDatabase db = new UserDatabase(new ArrayUserRepository(some), new ApproxSettings(0.001, 0.01, 10));
+    Map<String, List<String>> admins = params("role", "admin", "approx", "true");
+    for (int i = 0; i < 60; i++) {
+      db.deleteUser(some[i]._id);
+    }
+    db.addUser(Fixtures.user("new", "New", 99, "COMPANY1", "admin"));
+
+    User[] left = db.listUsers(Map.of());
+    Estimate<User> estimate = db.estimateUsers(admins);
+    assertEquals(41, estimate.total());
+    assertBrackets(actual(left, UserQuery.fromParams(admins)), estimate);
+    List<String> ids = Arrays.stream(left).map(user -> user._id).toList();
+    assertTrue(db.estimateUsers(params("approx", "true")).sample().stream()
+        .allMatch(user -> ids.contains(user._id)));
+  }
+}